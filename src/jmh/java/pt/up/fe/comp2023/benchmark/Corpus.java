@@ -0,0 +1,86 @@
+package pt.up.fe.comp2023.benchmark;
+
+import pt.up.fe.specs.util.SpecsIo;
+
+/**
+ * Java-- programs the benchmarks compile: the sample programs kept as resources, and synthetic classes of a given
+ * number of lines.
+ * <p>
+ * The samples are the Java-- versions of the programs in libs-jmm/java. BoardBase is a plain Java library, with no
+ * Java-- counterpart, so it is not part of the corpus.
+ */
+public class Corpus {
+
+    private static final String SYNTHETIC = "synthetic-";
+
+    /**
+     * @param name the name of a sample program, or "synthetic-N" for a synthetic class of about N lines
+     */
+    public static String load(String name) {
+        if (name.startsWith(SYNTHETIC)) {
+            return generate(Integer.parseInt(name.substring(SYNTHETIC.length())));
+        }
+
+        return SpecsIo.getResource("corpus/" + name + ".jmm");
+    }
+
+    public static int countLines(String code) {
+        return code.split("\n", -1).length;
+    }
+
+    /**
+     * Builds a class of methods that each use loops, conditions, arrays, arithmetic and calls to the previous method,
+     * so every stage has the usual mix of work to do.
+     */
+    public static String generate(int lines) {
+        StringBuilder code = new StringBuilder();
+        code.append("import io;\n\n");
+        code.append("class Synthetic {\n");
+        code.append("    int total;\n\n");
+
+        int methods = 0;
+        int written = countLines(code.toString());
+        while (written < lines) {
+            int start = code.length();
+            appendMethod(code, methods);
+            written += countLines(code.substring(start)) - 1;
+            methods++;
+        }
+
+        code.append("    public static void main(String[] args) {\n");
+        code.append("        Synthetic s;\n");
+        code.append("        s = new Synthetic();\n");
+        code.append("        io.println(s.compute").append(methods - 1).append("(10, new int[10]));\n");
+        code.append("    }\n");
+        code.append("}\n");
+
+        return code.toString();
+    }
+
+    private static void appendMethod(StringBuilder code, int index) {
+        code.append("    public int compute").append(index).append("(int n, int[] a) {\n");
+        code.append("        int i;\n");
+        code.append("        int sum;\n");
+        code.append("        boolean running;\n");
+        code.append("        i = 0;\n");
+        code.append("        sum = 0;\n");
+        code.append("        running = true;\n");
+        code.append("        while (i < n && running) {\n");
+        code.append("            a[i] = a[i] + i * 2;\n");
+        code.append("            sum = sum + a[i] / 3 - 1;\n");
+        code.append("            if (sum < 100) {\n");
+        if (index > 0) {
+            code.append("                sum = sum + this.compute").append(index - 1).append("(i, a);\n");
+        } else {
+            code.append("                sum = sum + i;\n");
+        }
+        code.append("            } else {\n");
+        code.append("                running = false;\n");
+        code.append("            }\n");
+        code.append("            i = i + 1;\n");
+        code.append("        }\n");
+        code.append("        total = total + sum;\n");
+        code.append("        return sum;\n");
+        code.append("    }\n\n");
+    }
+}
@@ -0,0 +1,141 @@
+package pt.up.fe.comp2023.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp2023.SimpleParser;
+import pt.up.fe.comp2023.analysis.JmmAnalyser;
+import pt.up.fe.comp2023.jasmin.JasminGenerator;
+import pt.up.fe.comp2023.ollir.JmmOptimizer;
+import pt.up.fe.comp2023.ollir.OllirGenerator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each compiler stage on its own. The input of a stage is prepared once per trial by the stages before
+ * it, in a state of its own, so a stage only needs the earlier stages to succeed on the program it compiles. Besides
+ * operations per second, every benchmark reports the lines of source it compiled per second.
+ * <p>
+ * The Jasmin backend also reports the OLLIR instructions it emitted per second. Its input is the same for every
+ * operation, so the gc profiler's gc.alloc.rate.norm divided by the instructions of one operation (the instructions
+ * rate over the operations rate) gives the bytes allocated per instruction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageBenchmark {
+
+    @Param({"Quicksort", "synthetic-10000", "synthetic-100000"})
+    public String program;
+
+    private String code;
+    private int lines;
+    private Map<String, String> config;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Lines {
+        public long lines;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Instructions {
+        public long instructions;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Parsed {
+        private JmmParserResult result;
+
+        @Setup(Level.Trial)
+        public void setUp(StageBenchmark benchmark) {
+            result = new SimpleParser().parse(benchmark.code, benchmark.config);
+            TestUtils.noErrors(result.getReports());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Analysed {
+        private JmmSemanticsResult result;
+
+        @Setup(Level.Trial)
+        public void setUp(Parsed parsed) {
+            result = new JmmAnalyser().semanticAnalysis(parsed.result);
+            TestUtils.noErrors(result.getReports());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Generated {
+        private OllirResult result;
+        private int instructions;
+
+        @Setup(Level.Trial)
+        public void setUp(Analysed analysed) {
+            result = new JmmOptimizer().toOllir(analysed.result);
+            TestUtils.noErrors(result.getReports());
+            instructions = result.getOllirClass().getMethods().stream()
+                    .mapToInt(method -> method.getInstructions().size())
+                    .sum();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        code = Corpus.load(program);
+        lines = Corpus.countLines(code);
+
+        config = new HashMap<>();
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+    }
+
+    @Benchmark
+    public JmmParserResult parse(Lines counter) {
+        counter.lines += lines;
+        return new SimpleParser().parse(code, config);
+    }
+
+    @Benchmark
+    public JmmSemanticsResult analysis(Parsed parsed, Lines counter) {
+        counter.lines += lines;
+        return new JmmAnalyser().semanticAnalysis(parsed.result);
+    }
+
+    @Benchmark
+    public String ollir(Analysed analysed, Lines counter) {
+        counter.lines += lines;
+        var ollirGenerator = new OllirGenerator(analysed.result.getSymbolTable());
+        ollirGenerator.visit(analysed.result.getRootNode());
+        return ollirGenerator.getCode();
+    }
+
+    @Benchmark
+    public JasminResult jasmin(Generated generated, Lines counter, Instructions instructions) {
+        counter.lines += lines;
+        instructions.instructions += generated.instructions;
+        return new JasminGenerator().toJasmin(generated.result);
+    }
+}
@@ -59,10 +59,14 @@ statement
 
 expression
     : '(' expression ')' #Parenthesis
+    | expression (type)? '[' (expression)* ']' #ArrayAccessExpr
+    | expression '.' value=ID'(' (expression (',' expression)*)? ')' #MethodCallExpr
+    | expression '.' value=ID #ArrayLength
     | '!' expression #Negation
     | expression op=('*' | '/') expression #BinaryOp
     | expression op=('+' | '-') expression #BinaryOp
-    | expression op=('&&' | '<') expression #BinaryOp
+    | expression op='<' expression #BinaryOp
+    | expression op='&&' expression #BinaryOp
     | value=INTEGER #Integer
     | value=ID #Identifier
     | value='true' #Boolean
@@ -70,9 +74,6 @@ expression
     | value='this'  #Object
     | value='new' type '[' expression ']' #NewArray
     | 'new' value=ID '(' ')' #NewObject
-    | expression (type)? '[' (expression)* ']' #ArrayAccessExpr
-    | expression '.' value=ID'(' (expression (',' expression)*)? ')' #MethodCallExpr
-    | value=ID ('.' expression)* #MethodCallExpr
     ;
 
 importDeclaration
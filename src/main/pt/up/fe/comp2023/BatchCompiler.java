@@ -0,0 +1,240 @@
+package pt.up.fe.comp2023;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.specs.util.SpecsIo;
+import pt.up.fe.specs.util.SpecsLogs;
+
+/**
+ * Compiles many Java-- units in the same JVM, one task per unit on a work-stealing pool.
+ */
+public class BatchCompiler {
+
+    private static final String EXTENSION = ".jmm";
+
+    private final Map<String, String> config;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    public BatchCompiler(Map<String, String> config) {
+        this(config, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchCompiler(Map<String, String> config, int parallelism) {
+        this.config = config;
+        this.parallelism = parallelism;
+        this.pool = null;
+    }
+
+    /**
+     * @param pool compiles the units, and is left running for the batches after this one, as a daemon does
+     */
+    public BatchCompiler(Map<String, String> config, ForkJoinPool pool) {
+        this.config = config;
+        this.parallelism = pool.getParallelism();
+        this.pool = pool;
+    }
+
+    public List<UnitResult> compile(List<String> inputs) {
+        List<File> files = new ArrayList<>();
+        for (String input : inputs) {
+            collectFiles(new File(input), files);
+        }
+
+        long start = System.nanoTime();
+        List<UnitResult> results = new ArrayList<>();
+
+        // Every unit writes ./jasmin/<class>, so only the first unit to get to a class writes it, and the class each
+        // unit declares is kept to fail all the units of a class declared twice once they are done
+        Map<String, File> outputs = new ConcurrentHashMap<>();
+        Map<File, String> declared = new ConcurrentHashMap<>();
+
+        ForkJoinPool pool = this.pool != null ? this.pool : new ForkJoinPool(this.parallelism);
+        try {
+            List<ForkJoinTask<UnitResult>> tasks = new ArrayList<>();
+            for (File file : files) {
+                tasks.add(pool.submit(() -> compileUnit(file, outputs, declared)));
+            }
+
+            for (ForkJoinTask<UnitResult> task : tasks) {
+                results.add(task.join());
+            }
+        } finally {
+            if (pool != this.pool) {
+                pool.shutdown();
+            }
+        }
+
+        failDuplicates(files, results, declared);
+
+        long elapsed = System.nanoTime() - start;
+        printSummary(results, elapsed);
+
+        if (config.containsKey("metrics")) {
+            List<CompilationMetrics> metrics = new ArrayList<>();
+            for (UnitResult result : results) {
+                metrics.add(result.getMetrics());
+            }
+            SpecsIo.write(new File(config.get("metrics")), CompilationMetrics.toJson(metrics));
+        }
+
+        return results;
+    }
+
+    private void collectFiles(File input, List<File> files) {
+        if (input.isDirectory()) {
+            File[] children = input.listFiles();
+            if (children == null) {
+                return;
+            }
+
+            for (File child : children) {
+                if (child.isDirectory() || child.getName().endsWith(EXTENSION)) {
+                    collectFiles(child, files);
+                }
+            }
+        } else if (input.isFile()) {
+            files.add(input);
+        } else {
+            throw new RuntimeException("Expected a path to an existing input file or directory, got '" + input + "'.");
+        }
+    }
+
+    /**
+     * Which unit of a class declared twice wrote its output depends on which one the pool ran first, so every one of
+     * them fails, naming the units in input order, and the output is removed.
+     */
+    private void failDuplicates(List<File> files, List<UnitResult> results, Map<File, String> declared) {
+        Map<String, List<Integer>> units = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            String className = declared.get(files.get(i));
+            if (className != null) {
+                units.computeIfAbsent(className, name -> new ArrayList<>()).add(i);
+            }
+        }
+
+        for (Map.Entry<String, List<Integer>> entry : units.entrySet()) {
+            List<Integer> indices = entry.getValue();
+            if (indices.size() < 2) {
+                continue;
+            }
+
+            StringJoiner names = new StringJoiner(", ");
+            for (int i : indices) {
+                names.add(files.get(i).getPath());
+            }
+
+            String message = "Class '" + entry.getKey() + "' is declared by more than one unit: " + names;
+            for (int i : indices) {
+                UnitResult result = results.get(i);
+                results.set(i, new UnitResult(result.getFile(), result.getLines(), false, message, result.getNanos(),
+                        result.getMetrics()));
+            }
+
+            Launcher.getOutputFile(entry.getKey(), config).delete();
+        }
+    }
+
+    private UnitResult compileUnit(File file, Map<String, File> outputs, Map<File, String> declared) {
+        Map<String, String> unitConfig = new HashMap<>(this.config);
+        unitConfig.put("inputFile", file.getPath());
+
+        var metrics = config.containsKey("metrics") ? new CompilationMetrics(file.getPath()) : CompilationMetrics.NONE;
+
+        long start = System.nanoTime();
+        String code = SpecsIo.read(file);
+        int lines = code.split("\n", -1).length;
+
+        try {
+            Predicate<String> claimOutput = className -> {
+                declared.put(file, className);
+                return outputs.putIfAbsent(className, file) == null;
+            };
+            List<Report> reports = config.containsKey("ollirOnly")
+                    ? Launcher.generateOllir(code, unitConfig, metrics, claimOutput)
+                    : Launcher.compile(code, unitConfig, metrics, claimOutput).getReports();
+            long errors = reports.stream()
+                    .filter(report -> report.getType() == ReportType.ERROR)
+                    .count();
+
+            String message = errors == 0 ? "" : errors + " error(s) reported";
+            return new UnitResult(file, lines, errors == 0, message, System.nanoTime() - start, metrics);
+        } catch (Exception e) {
+            return new UnitResult(file, lines, false, String.valueOf(e.getMessage()), System.nanoTime() - start, metrics);
+        }
+    }
+
+    private void printSummary(List<UnitResult> results, long elapsedNanos) {
+        int failed = 0;
+        long lines = 0;
+
+        for (UnitResult result : results) {
+            lines += result.getLines();
+
+            if (result.isSuccess()) {
+                SpecsLogs.info(String.format("OK   %s (%.1f ms)", result.getFile(), result.getNanos() / 1e6));
+            } else {
+                failed++;
+                SpecsLogs.info(String.format("FAIL %s (%.1f ms): %s", result.getFile(), result.getNanos() / 1e6, result.getMessage()));
+            }
+        }
+
+        double seconds = elapsedNanos / 1e9;
+        SpecsLogs.info(String.format("Compiled %d unit(s), %d failed, %d line(s) in %.3f s (%.1f units/s, %.0f lines/s, %d threads)",
+                results.size(), failed, lines, seconds, results.size() / seconds, lines / seconds, this.parallelism));
+    }
+
+    public static class UnitResult {
+        private final File file;
+        private final int lines;
+        private final boolean success;
+        private final String message;
+        private final long nanos;
+        private final CompilationMetrics metrics;
+
+        public UnitResult(File file, int lines, boolean success, String message, long nanos, CompilationMetrics metrics) {
+            this.file = file;
+            this.lines = lines;
+            this.success = success;
+            this.message = message;
+            this.nanos = nanos;
+            this.metrics = metrics;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public int getLines() {
+            return lines;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public CompilationMetrics getMetrics() {
+            return metrics;
+        }
+    }
+}
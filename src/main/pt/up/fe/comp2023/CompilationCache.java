@@ -0,0 +1,418 @@
+package pt.up.fe.comp2023;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp2023.jasmin.classfile.ClassFileResult;
+
+/**
+ * On-disk cache of compiled units, keyed by a SHA-256 hash of the source, the options that change the output and the
+ * version of the compiler. Each entry keeps the OLLIR code, as generated, and the backend output, so a unit seen before is
+ * served without parsing it.
+ * <p>
+ * Entries are written to a temporary directory and moved into place atomically, so readers never see half an entry.
+ * The total size of the entries is kept in a file next to them, updated under a file lock so parallel builds sharing
+ * the cache take turns, and only once that total goes over the size limit is the cache scanned to drop the least
+ * recently used entries.
+ */
+public class CompilationCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Options that change what the compiler outputs; the others, such as debug or metrics, are left out of the key.
+     */
+    private static final List<String> KEY_OPTIONS = List.of("optimize", "registerAllocation", "inlineBudget", "backend");
+
+    private static final String TEMPORARY_PREFIX = ".tmp-";
+    private static final String LOCK_FILE = ".lock";
+    private static final String SIZE_FILE = ".size";
+    private static final String CLASS_NAME_FILE = "class-name";
+    private static final String OLLIR_FILE = "unit.ollir";
+    private static final String JASMIN_FILE = "unit.j";
+    private static final String CLASS_FILE = "unit.class";
+
+    // Eviction frees a quarter of the limit, so storing the next units does not scan the cache again right away
+    private static final long EVICTION_TARGET_PERCENT = 75;
+
+    // Temporary directories older than this are left behind by builds that were killed, and are deleted on eviction
+    private static final long STALE_TEMPORARY_MILLIS = 60 * 60 * 1000;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    public CompilationCache(Path directory) {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    public CompilationCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public String getKey(String code, Map<String, String> config) {
+        MessageDigest digest = newDigest();
+        update(digest, CompilerVersion.VERSION);
+        for (String option : KEY_OPTIONS) {
+            update(digest, option + "=" + config.getOrDefault(option, ""));
+        }
+        update(digest, code);
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return the entry with the given key, or empty if there is none or it was evicted while being read
+     */
+    public Optional<Entry> get(String key) {
+        Path entry = directory.resolve(key);
+        if (!Files.isDirectory(entry)) {
+            return Optional.empty();
+        }
+
+        try {
+            String className = Files.readString(entry.resolve(CLASS_NAME_FILE));
+            String ollirCode = Files.readString(entry.resolve(OLLIR_FILE));
+            Path jasminFile = entry.resolve(JASMIN_FILE);
+            Entry result = Files.exists(jasminFile)
+                    ? new Entry(className, ollirCode, Files.readString(jasminFile), null)
+                    : new Entry(className, ollirCode, null, Files.readAllBytes(entry.resolve(CLASS_FILE)));
+
+            // The modification time of an entry is when it was last used, which is the order eviction follows
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return Optional.of(result);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read cache entry " + entry, e);
+        }
+    }
+
+    public void put(String key, Entry entry) {
+        try {
+            Files.createDirectories(directory);
+
+            Path temporary = directory.resolve(TEMPORARY_PREFIX + UUID.randomUUID());
+            Files.createDirectory(temporary);
+            Files.writeString(temporary.resolve(CLASS_NAME_FILE), entry.getClassName());
+            Files.writeString(temporary.resolve(OLLIR_FILE), entry.getOllirCode());
+            if (entry.getJasminCode() != null) {
+                Files.writeString(temporary.resolve(JASMIN_FILE), entry.getJasminCode());
+            } else {
+                Files.write(temporary.resolve(CLASS_FILE), entry.getClassFile());
+            }
+
+            long size = getSize(temporary);
+
+            try {
+                Files.move(temporary, directory.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Another build stored the same unit first, and its entry is just as good
+                deleteRecursively(temporary);
+                return;
+            } catch (AtomicMoveNotSupportedException e) {
+                // Without atomic moves a reader could see half an entry, so the unit is not cached
+                deleteRecursively(temporary);
+                return;
+            } catch (IOException e) {
+                // Some file systems report a non-empty target directory as a plain I/O error
+                if (!Files.isDirectory(directory.resolve(key))) {
+                    throw e;
+                }
+                deleteRecursively(temporary);
+                return;
+            }
+
+            locked(() -> addLocked(size));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not store cache entry " + key, e);
+        }
+    }
+
+    /**
+     * Counts the entries again, and deletes the least recently used ones if the cache is over its size limit.
+     */
+    public void evict() {
+        try {
+            locked(this::evictLocked);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not evict entries from cache " + directory, e);
+        }
+    }
+
+    private void locked(LockedAction action) throws IOException {
+        // File locks are held by the whole JVM, so threads of the same build take turns before locking the file
+        synchronized (CompilationCache.class) {
+            try (FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a new entry to the total, and only scans the cache when there is no total yet or it goes over the limit.
+     * <p>
+     * An entry moved into place while another build was scanning may be counted twice, which only brings the next scan
+     * forward, and the scan counts it once again.
+     */
+    private void addLocked(long bytes) throws IOException {
+        long total = readTotal();
+        if (total < 0 || total + bytes > maxBytes) {
+            evictLocked();
+        } else {
+            writeTotal(total + bytes);
+        }
+    }
+
+    /**
+     * @return the total size of the entries, or -1 when it was never written or its file is damaged
+     */
+    private long readTotal() throws IOException {
+        try {
+            return Long.parseLong(Files.readString(directory.resolve(SIZE_FILE)).trim());
+        } catch (NoSuchFileException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void writeTotal(long total) throws IOException {
+        Files.writeString(directory.resolve(SIZE_FILE), Long.toString(total));
+    }
+
+    private void evictLocked() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long totalBytes = 0;
+        long now = System.currentTimeMillis();
+
+        try (Stream<Path> children = Files.list(directory)) {
+            for (Path child : (Iterable<Path>) children::iterator) {
+                String name = child.getFileName().toString();
+
+                if (name.startsWith(TEMPORARY_PREFIX)) {
+                    if (now - getLastModified(child) > STALE_TEMPORARY_MILLIS) {
+                        deleteRecursively(child);
+                    }
+                } else if (Files.isDirectory(child)) {
+                    entries.add(child);
+                    totalBytes += getSize(child);
+                }
+            }
+        }
+
+        if (totalBytes <= maxBytes) {
+            writeTotal(totalBytes);
+            return;
+        }
+
+        long targetBytes = maxBytes / 100 * EVICTION_TARGET_PERCENT;
+        entries.sort(Comparator.comparingLong(CompilationCache::getLastModified));
+        for (Path entry : entries) {
+            if (totalBytes <= targetBytes) {
+                break;
+            }
+
+            long size = getSize(entry);
+
+            // The entry is first moved out of the way, so a reader either finds all of it or none of it
+            Path doomed = directory.resolve(TEMPORARY_PREFIX + UUID.randomUUID());
+            try {
+                Files.move(entry, doomed, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            deleteRecursively(doomed);
+            totalBytes -= size;
+        }
+
+        writeTotal(totalBytes);
+    }
+
+    private static long getLastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long getSize(Path entry) throws IOException {
+        long size = 0;
+        try (Stream<Path> files = Files.list(entry)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                size += Files.size(file);
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        return size;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            List<Path> ordered = new ArrayList<>();
+            files.forEach(ordered::add);
+
+            // Children come after their parents in a walk, so they are deleted first by going backwards
+            for (int i = ordered.size() - 1; i >= 0; i--) {
+                Files.deleteIfExists(ordered.get(i));
+            }
+        } catch (NoSuchFileException e) {
+            // Already deleted by another build
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        // The length keeps the boundaries between values, so that no two different keys hash the same bytes
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private interface LockedAction {
+        void run() throws IOException;
+    }
+
+    public static class Entry {
+        private final String className;
+        private final String ollirCode;
+        private final String jasminCode;
+        private final byte[] classFile;
+
+        public Entry(String className, String ollirCode, String jasminCode, byte[] classFile) {
+            this.className = className;
+            this.ollirCode = ollirCode;
+            this.jasminCode = jasminCode;
+            this.classFile = classFile;
+        }
+
+        public static Entry of(String ollirCode, JasminResult result) {
+            if (result instanceof ClassFileResult) {
+                return new Entry(result.getClassName(), ollirCode, null, ((ClassFileResult) result).getClassFile());
+            }
+            return new Entry(result.getClassName(), ollirCode, result.getJasminCode(), null);
+        }
+
+        public JasminResult toResult(Map<String, String> config) {
+            if (jasminCode == null) {
+                return new ClassFileResult(className, classFile, new ArrayList<>(), config);
+            }
+            return new JasminResult(className, jasminCode, new ArrayList<>(), config);
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return the OLLIR code as generated, before the OLLIR optimizations, which rewrite the parsed class in place
+         * and are never printed back as code; the backend output is the only optimized part of an entry
+         */
+        public String getOllirCode() {
+            return ollirCode;
+        }
+
+        public String getJasminCode() {
+            return jasminCode;
+        }
+
+        public byte[] getClassFile() {
+            return classFile;
+        }
+    }
+
+    /**
+     * Identifies the build of the compiler, so entries made by a different build are never served. It is the
+     * implementation version of a released jar, and otherwise a hash of the jar or of the compiled classes.
+     */
+    private static class CompilerVersion {
+        private static final String VERSION = compute();
+
+        private static String compute() {
+            String version = CompilationCache.class.getPackage().getImplementationVersion();
+            if (version != null) {
+                return version;
+            }
+
+            CodeSource codeSource = CompilationCache.class.getProtectionDomain().getCodeSource();
+            if (codeSource == null) {
+                return getUniqueVersion();
+            }
+
+            try {
+                Path location = Path.of(codeSource.getLocation().toURI());
+                MessageDigest digest = newDigest();
+
+                if (Files.isRegularFile(location)) {
+                    digest.update(Files.readAllBytes(location));
+                } else {
+                    try (Stream<Path> files = Files.walk(location)) {
+                        List<Path> classes = new ArrayList<>();
+                        files.filter(file -> file.toString().endsWith(".class")).forEach(classes::add);
+                        classes.sort(null);
+
+                        for (Path file : classes) {
+                            update(digest, location.relativize(file).toString());
+                            digest.update(Files.readAllBytes(file));
+                        }
+                    }
+                }
+
+                return toHex(digest.digest());
+            } catch (IOException | URISyntaxException e) {
+                return getUniqueVersion();
+            }
+        }
+
+        private static String getUniqueVersion() {
+            // Without a way to tell builds apart, no two runs of the compiler share entries
+            return UUID.randomUUID().toString();
+        }
+    }
+}
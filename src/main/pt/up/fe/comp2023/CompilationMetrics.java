@@ -0,0 +1,182 @@
+package pt.up.fe.comp2023;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+/**
+ * Wall time, CPU time and allocated bytes of each stage and each method of one compilation, plus counters of what the
+ * stages produced, reported as JSON.
+ * <p>
+ * Times and allocations are measured on the thread that does the work, so methods analysed concurrently are measured
+ * on their own threads. Measurements a JVM cannot provide are reported as -1.
+ */
+public class CompilationMetrics {
+
+    /**
+     * Records nothing, for compilations that are not measured.
+     */
+    public static final CompilationMetrics NONE = new CompilationMetrics(null, false);
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private final String unit;
+    private final boolean enabled;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final List<Measurement> stages = Collections.synchronizedList(new ArrayList<>());
+    private final List<Measurement> methods = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, Long> counters = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public CompilationMetrics(String unit) {
+        this(unit, true);
+    }
+
+    private CompilationMetrics(String unit, boolean enabled) {
+        this.unit = unit;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the current readings of the calling thread, to be given back to one of the record methods once the
+     * measured work is done on the same thread
+     */
+    public Snapshot start() {
+        if (!enabled) {
+            return null;
+        }
+        return new Snapshot(System.nanoTime(), getCpuTime(), getAllocatedBytes());
+    }
+
+    public void recordStage(String stage, Snapshot start) {
+        if (enabled) {
+            stages.add(measure(stage, null, start));
+        }
+    }
+
+    public void recordMethod(String stage, String method, Snapshot start) {
+        if (enabled) {
+            methods.add(measure(stage, method, start));
+        }
+    }
+
+    public <T> T measureStage(String stage, Supplier<T> work) {
+        Snapshot start = start();
+        T result = work.get();
+        recordStage(stage, start);
+        return result;
+    }
+
+    public <T> T measureMethod(String stage, String method, Supplier<T> work) {
+        Snapshot start = start();
+        T result = work.get();
+        recordMethod(stage, method, start);
+        return result;
+    }
+
+    public void count(String counter, long value) {
+        if (enabled) {
+            counters.merge(counter, value, Long::sum);
+        }
+    }
+
+    private Measurement measure(String stage, String method, Snapshot start) {
+        long wallNanos = System.nanoTime() - start.wallNanos;
+        long cpuNanos = start.cpuNanos < 0 ? -1 : getCpuTime() - start.cpuNanos;
+        long allocatedBytes = start.allocatedBytes < 0 ? -1 : getAllocatedBytes() - start.allocatedBytes;
+
+        return new Measurement(stage, method, wallNanos, cpuNanos, allocatedBytes);
+    }
+
+    private long getCpuTime() {
+        if (!threads.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        return threads.getCurrentThreadCpuTime();
+    }
+
+    private long getAllocatedBytes() {
+        // Allocation counters are an extension of the HotSpot bean, not part of the standard interface
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        var hotSpotThreads = (com.sun.management.ThreadMXBean) threads;
+        if (!hotSpotThreads.isThreadAllocatedMemorySupported() || !hotSpotThreads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return hotSpotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public JsonObject toJsonTree() {
+        JsonObject json = new JsonObject();
+        json.addProperty("unit", unit);
+
+        synchronized (stages) {
+            json.add("stages", GSON.toJsonTree(stages));
+        }
+        synchronized (methods) {
+            json.add("methods", GSON.toJsonTree(methods));
+        }
+        synchronized (counters) {
+            json.add("counters", GSON.toJsonTree(counters));
+        }
+
+        return json;
+    }
+
+    public String toJson() {
+        return GSON.toJson(toJsonTree());
+    }
+
+    /**
+     * Serializes the reports of several compilations, such as the units of a batch, as one JSON array.
+     */
+    public static String toJson(List<CompilationMetrics> metrics) {
+        List<JsonObject> units = new ArrayList<>();
+        for (CompilationMetrics unitMetrics : metrics) {
+            units.add(unitMetrics.toJsonTree());
+        }
+        return GSON.toJson(units);
+    }
+
+    public static class Snapshot {
+        private final long wallNanos;
+        private final long cpuNanos;
+        private final long allocatedBytes;
+
+        private Snapshot(long wallNanos, long cpuNanos, long allocatedBytes) {
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    private static class Measurement {
+        private final String stage;
+        private final String method;
+        private final long wallNanos;
+        private final long cpuNanos;
+        private final long allocatedBytes;
+
+        private Measurement(String stage, String method, long wallNanos, long cpuNanos, long allocatedBytes) {
+            this.stage = stage;
+            this.method = method;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
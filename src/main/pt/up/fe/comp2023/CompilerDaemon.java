@@ -0,0 +1,239 @@
+package pt.up.fe.comp2023;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import pt.up.fe.specs.util.SpecsLogs;
+
+/**
+ * Keeps a compiler JVM running and compiles the requests of {@link DaemonClient} in it, so that repeated compilations
+ * skip the JVM startup and run with the JIT, the class loading and the parser caches already warm.
+ * <p>
+ * The daemon only listens on the loopback interface, and only serves clients that send the token it wrote to
+ * {@link DaemonClient#getTokenFile(int)}, a file only the user who started it can read, so other users of the machine
+ * cannot compile, and write files, as that user. Requests are served one at a time, with the output of the compiler,
+ * standard streams and logs alike, sent back to the client that made the request. The compiler writes its output
+ * relative to the working directory, so a daemon only accepts clients running from the directory it was started in.
+ * <p>
+ * A request is the token, the working directory of the client and its arguments. The reply is a sequence of frames,
+ * each an {@link #OUTPUT} chunk or the final {@link #EXIT} status. A client that does not send its request within
+ * {@link #REQUEST_TIMEOUT_MILLIS} is dropped, so it cannot hold up the clients behind it.
+ */
+public class CompilerDaemon {
+
+    public static final int DEFAULT_PORT = 7345;
+
+    static final byte OUTPUT = 1;
+    static final byte EXIT = 2;
+
+    static final int REQUEST_TIMEOUT_MILLIS = 10_000;
+
+    private static final int TOKEN_BYTES = 32;
+
+    private final int port;
+    private final Path workingDirectory = Path.of("").toAbsolutePath();
+
+    // Batches of every request share the same workers, instead of starting and stopping a pool each time
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private byte[] token;
+
+    public CompilerDaemon(int port) {
+        this.port = port;
+    }
+
+    public void serve() {
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            // The token is only written once the port is taken, so it always belongs to the daemon listening on it
+            writeToken();
+            SpecsLogs.info("Compiler daemon listening on " + server.getLocalSocketAddress() + " for " + workingDirectory);
+
+            while (true) {
+                try (Socket client = server.accept()) {
+                    client.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+                    serve(client);
+                } catch (IOException e) {
+                    SpecsLogs.info("Lost connection to client: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    SpecsLogs.info("Dropped malformed request: " + e);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not listen on port " + port, e);
+        }
+    }
+
+    private void writeToken() throws IOException {
+        token = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(token);
+
+        Path file = DaemonClient.getTokenFile(port);
+        Files.createDirectories(file.getParent());
+        Files.deleteIfExists(file);
+
+        // The file is created with its permissions, so there is no moment when others could open it
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+        }
+        Files.writeString(file, HexFormat.of().formatHex(token));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // A token left behind is replaced by the next daemon on the same port
+            }
+        }));
+    }
+
+    private void serve(Socket client) throws IOException {
+        var in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+        var out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+
+        // A client without the token gets no reply at all, not even whether the daemon serves its directory
+        byte[] clientToken = in.readNBytes(TOKEN_BYTES);
+        if (!MessageDigest.isEqual(clientToken, token)) {
+            SpecsLogs.info("Rejected a client without the token of this daemon");
+            return;
+        }
+
+        Path clientDirectory = Path.of(in.readUTF());
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+
+        PrintStream clientOutput = new PrintStream(new FrameOutputStream(out), true, StandardCharsets.UTF_8);
+        int status;
+
+        if (!clientDirectory.equals(workingDirectory)) {
+            clientOutput.println("The compiler daemon serves " + workingDirectory + ", start another one in " + clientDirectory);
+            status = 2;
+        } else {
+            status = compile(args, clientOutput);
+        }
+
+        clientOutput.flush();
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    private int compile(String[] args, PrintStream clientOutput) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        Logger root = Logger.getLogger("");
+        Handler handler = new ClientHandler(clientOutput, getFormatter(root));
+
+        System.setOut(clientOutput);
+        System.setErr(clientOutput);
+        root.addHandler(handler);
+        try {
+            Launcher.run(args, pool);
+            return 0;
+        } catch (Throwable e) {
+            // Errors such as a StackOverflowError in a deep program fail the request, not the daemon
+            clientOutput.println(e);
+            return 1;
+        } finally {
+            root.removeHandler(handler);
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+    private static Formatter getFormatter(Logger root) {
+        // Logs look the same as when the compiler runs on its own
+        for (Handler handler : root.getHandlers()) {
+            if (handler.getFormatter() != null) {
+                return handler.getFormatter();
+            }
+        }
+
+        return new Formatter() {
+            @Override
+            public String format(LogRecord record) {
+                return formatMessage(record) + System.lineSeparator();
+            }
+        };
+    }
+
+    private static class ClientHandler extends Handler {
+        private final PrintStream output;
+
+        private ClientHandler(PrintStream output, Formatter formatter) {
+            this.output = output;
+            setFormatter(formatter);
+            setLevel(Level.ALL);
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            if (isLoggable(record)) {
+                output.print(getFormatter().format(record));
+            }
+        }
+
+        @Override
+        public void flush() {
+            output.flush();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Wraps everything written into {@link #OUTPUT} frames. Batch compilations log from several threads, so frames are
+     * written whole.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+
+        private FrameOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+            out.writeByte(OUTPUT);
+            out.writeInt(length);
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
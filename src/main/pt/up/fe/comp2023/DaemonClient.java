@@ -0,0 +1,80 @@
+package pt.up.fe.comp2023;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HexFormat;
+
+/**
+ * Sends its arguments to a running {@link CompilerDaemon} and prints what the compilation outputs, exiting with the
+ * status of the compilation. It only uses the JDK, so it starts without loading any of the compiler.
+ * <p>
+ * The port is taken from the JMM_DAEMON_PORT environment variable, or {@link CompilerDaemon#DEFAULT_PORT}. The token
+ * the daemon asks for is read from the file it wrote it to, which only the user who started the daemon can read.
+ */
+public class DaemonClient {
+
+    public static void main(String[] args) {
+        String portVariable = System.getenv("JMM_DAEMON_PORT");
+        int port = portVariable == null || portVariable.isEmpty() ? CompilerDaemon.DEFAULT_PORT : Integer.parseInt(portVariable);
+
+        byte[] token;
+        try {
+            token = HexFormat.of().parseHex(Files.readString(getTokenFile(port)).trim());
+        } catch (NoSuchFileException e) {
+            System.err.println("No compiler daemon on port " + port + ", start one with 'jmm -daemon=" + port + "'");
+            System.exit(2);
+            return;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not read the token of the compiler daemon: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.write(token);
+            out.writeUTF(Path.of("").toAbsolutePath().toString());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                byte frame = in.readByte();
+                int value = in.readInt();
+
+                if (frame == CompilerDaemon.EXIT) {
+                    System.out.flush();
+                    System.exit(value);
+                }
+
+                byte[] output = in.readNBytes(value);
+                System.out.write(output, 0, output.length);
+            }
+        } catch (ConnectException e) {
+            System.err.println("No compiler daemon on port " + port + ", start one with 'jmm -daemon=" + port + "'");
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Lost connection to the compiler daemon: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * @return the file holding the token of the daemon on the given port, in a directory of the user's own
+     */
+    static Path getTokenFile(int port) {
+        return Path.of(System.getProperty("user.home"), ".jmm", "daemon-" + port + ".token");
+    }
+}
@@ -1,18 +1,33 @@
 package pt.up.fe.comp2023;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 
+import org.specs.comp.ollir.Method;
 import pt.up.fe.comp.TestUtils;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.jasmin.JasminBackend;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.JmmOptimization;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp2023.analysis.JmmAnalyser;
 import pt.up.fe.comp2023.jasmin.JasminGenerator;
+import pt.up.fe.comp2023.jasmin.classfile.ClassFileGenerator;
+import pt.up.fe.comp2023.jasmin.classfile.ClassFileResult;
 import pt.up.fe.comp2023.ollir.JmmOptimizer;
 import pt.up.fe.specs.util.SpecsIo;
 import pt.up.fe.specs.util.SpecsLogs;
@@ -24,8 +39,45 @@ public class Launcher {
         // Setups console logging and other things
         SpecsSystem.programStandardInit();
 
+        // A daemon compiles the requests of DaemonClient instead of the given arguments
+        if (args.length == 1 && (args[0].equals("-daemon") || args[0].startsWith("-daemon="))) {
+            int port = args[0].equals("-daemon")
+                    ? CompilerDaemon.DEFAULT_PORT
+                    : Integer.parseInt(args[0].substring("-daemon=".length()));
+            new CompilerDaemon(port).serve();
+            return;
+        }
+
+        run(args);
+    }
+
+    /**
+     * Compiles the inputs given in the arguments, as a run of the compiler from the command line does.
+     */
+    public static void run(String[] args) {
+        run(args, null);
+    }
+
+    /**
+     * @param pool compiles the units of a batch, or null for a pool of the batch's own
+     */
+    public static void run(String[] args, ForkJoinPool pool) {
         // Parse arguments as a map with predefined options
-        var config = parseArgs(args);
+        List<String> inputs = new ArrayList<>();
+        var config = parseArgs(args, inputs);
+
+        // Several inputs, or a directory, are compiled in batch mode
+        if (inputs.size() > 1 || new File(inputs.get(0)).isDirectory()) {
+            BatchCompiler compiler = pool != null ? new BatchCompiler(config, pool) : new BatchCompiler(config);
+            List<BatchCompiler.UnitResult> results = compiler.compile(inputs);
+
+            // A batch fails like a single unit does, so scripts and the daemon see a non-zero status
+            long failed = results.stream().filter(result -> !result.isSuccess()).count();
+            if (failed > 0) {
+                throw new RuntimeException(failed + " of " + results.size() + " unit(s) failed to compile.");
+            }
+            return;
+        }
 
         // Get input file
         File inputFile = new File(config.get("inputFile"));
@@ -38,47 +90,257 @@ public class Launcher {
         // Read contents of input file
         String code = SpecsIo.read(inputFile);
 
+        var metrics = config.containsKey("metrics") ? new CompilationMetrics(inputFile.getPath()) : CompilationMetrics.NONE;
+        if (config.containsKey("ollirOnly")) {
+            generateOllir(code, config, metrics, className -> true);
+        } else {
+            compile(code, config, metrics);
+        }
+
+        if (metrics.isEnabled()) {
+            SpecsIo.write(new File(config.get("metrics")), metrics.toJson());
+        }
+    }
+
+    public static JasminResult compile(String code, Map<String, String> config) {
+        return compile(code, config, CompilationMetrics.NONE);
+    }
+
+    public static JasminResult compile(String code, Map<String, String> config, CompilationMetrics metrics) {
+        return compile(code, config, metrics, className -> true);
+    }
+
+    /**
+     * @param claimOutput called with the name of the class before its output is written to ./jasmin, and false when
+     *                    another unit compiled in the same run declares the same class, which fails this one
+     */
+    public static JasminResult compile(String code, Map<String, String> config, CompilationMetrics metrics,
+                                       Predicate<String> claimOutput) {
+        // A unit compiled before with the same options is served from the cache, without being parsed
+        CompilationCache cache = getCache(config);
+        String cacheKey = null;
+        if (cache != null) {
+            cacheKey = cache.getKey(code, config);
+            String key = cacheKey;
+            var entry = metrics.measureStage("cache", () -> cache.get(key));
+
+            if (entry.isPresent()) {
+                metrics.count("cacheHits", 1);
+                JasminResult cached = entry.get().toResult(config);
+
+                // A cached unit leaves the same output behind as a compiled one
+                writeOutput(cached, claimOutput);
+                return cached;
+            }
+            metrics.count("cacheMisses", 1);
+        }
+
+        JmmSemanticsResult analysisResult = analyse(code, config, metrics);
+
+        // OLLIR STAGE
+        JmmOptimization optimizer = new JmmOptimizer();
+        JmmSemanticsResult semanticsResult = analysisResult;
+        OllirResult ollirResult = metrics.measureStage("ollir", () -> optimizer.toOllir(semanticsResult));
+
+        // Register allocation runs whenever -r is given, independently of -o
+        OllirResult optimizationResult = metrics.measureStage("ollirOptimization", () -> optimizer.optimize(ollirResult));
+        TestUtils.noErrors(optimizationResult.getReports());
+
+        if (metrics.isEnabled()) {
+            for (Method method : optimizationResult.getOllirClass().getMethods()) {
+                metrics.count("ollirInstructions", method.getInstructions().size());
+            }
+        }
+
+        // JASMIN STAGE
+        JasminBackend jasminEmitter = config.getOrDefault("backend", "jasmin").equals("classfile")
+                ? new ClassFileGenerator(metrics)
+                : new JasminGenerator(metrics);
+        JasminResult jasminResult = metrics.measureStage("backend", () -> jasminEmitter.toJasmin(optimizationResult));
+
+        if (metrics.isEnabled()) {
+            if (jasminResult instanceof ClassFileResult) {
+                metrics.count("classFileBytes", ((ClassFileResult) jasminResult).getClassFile().length);
+            } else {
+                metrics.count("jasminInstructions", countJasminInstructions(jasminResult.getJasminCode()));
+            }
+        }
+
+        writeOutput(jasminResult, claimOutput);
+
+        if (cache != null) {
+            // The optimizations change the parsed class but not its code, so the entry keeps the unoptimized OLLIR
+            cache.put(cacheKey, CompilationCache.Entry.of(ollirResult.getOllirCode(), jasminResult));
+        }
+
+        return jasminResult;
+    }
+
+    private static JmmSemanticsResult analyse(String code, Map<String, String> config, CompilationMetrics metrics) {
         // Instantiate JmmParser
         SimpleParser parser = new SimpleParser();
 
         // Parse stage
-        JmmParserResult parserResult = parser.parse(code, config);
+        JmmParserResult parserResult = metrics.measureStage("parse", () -> parser.parse(code, config));
 
         // Check if there are parsing errors
         TestUtils.noErrors(parserResult.getReports());
 
+        if (metrics.isEnabled()) {
+            metrics.count("astNodes", countNodes(parserResult.getRootNode()));
+        }
+
 
         // SEMANTIC ANALYSIS STAGE
-        JmmAnalyser analyser = new JmmAnalyser();
-        JmmSemanticsResult analysisResult = analyser.semanticAnalysis(parserResult);
+        JmmAnalyser analyser = new JmmAnalyser(metrics);
+        JmmSemanticsResult analysisResult = metrics.measureStage("analysis", () -> analyser.semanticAnalysis(parserResult));
+
+        // Check if there are semantic errors
+        TestUtils.noErrors(analysisResult.getReports());
 
         if (config.get("optimize").equals("true")) {
-            analysisResult = new JmmOptimizer().optimize(analysisResult);
+            JmmSemanticsResult semanticsResult = analysisResult;
+            analysisResult = metrics.measureStage("astOptimization", () -> new JmmOptimizer().optimize(semanticsResult));
         }
 
-        // OLLIR STAGE
-        JmmOptimization optimizer = new JmmOptimizer();
-        OllirResult optimizationResult = optimizer.toOllir(analysisResult);
+        return analysisResult;
+    }
 
-        // JASMIN STAGE
-        JasminGenerator jasminEmitter = new JasminGenerator();
-        JasminResult jasminResult = jasminEmitter.toJasmin(optimizationResult);
+    /**
+     * Stops after the OLLIR stage and writes the OLLIR of the class to ./ollir a method at a time, so that only the
+     * method being generated is kept in memory. A full compilation does not stream, as the OLLIR parser only reads the
+     * whole class from a String.
+     *
+     * @param claimOutput as in {@link #compile(String, Map, CompilationMetrics, Predicate)}, for the output in ./ollir
+     * @return the reports of the analysis
+     */
+    public static List<Report> generateOllir(String code, Map<String, String> config, CompilationMetrics metrics,
+                                             Predicate<String> claimOutput) {
+        JmmSemanticsResult semanticsResult = analyse(code, config, metrics);
+
+        String className = semanticsResult.getSymbolTable().getClassName();
+        if (!claimOutput.test(className)) {
+            throw new RuntimeException("Class '" + className + "' is also declared by another unit.");
+        }
+
+        File output = getOutputFile(className, config);
+        output.getParentFile().mkdirs();
+        try (Writer writer = Files.newBufferedWriter(output.toPath())) {
+            metrics.measureStage("ollir", () -> {
+                new JmmOptimizer().toOllir(semanticsResult, writer);
+                return null;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return semanticsResult.getReports();
     }
 
-    private static Map<String, String> parseArgs(String[] args) {
-        SpecsLogs.info("Executing with args: " + Arrays.toString(args));
+    private static CompilationCache getCache(Map<String, String> config) {
+        if (!config.containsKey("cache")) {
+            return null;
+        }
 
-        // Check if there is at least one argument
-        if (args.length != 1) {
-            throw new RuntimeException("Expected a single argument, a path to an existing input file.");
+        long maxBytes = config.containsKey("cacheSize")
+                ? Long.parseLong(config.get("cacheSize")) * 1024 * 1024
+                : CompilationCache.DEFAULT_MAX_BYTES;
+        return new CompilationCache(Path.of(config.get("cache")), maxBytes);
+    }
+
+    private static long countNodes(JmmNode node) {
+        long count = 1;
+        for (JmmNode child : node.getChildren()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
+    /**
+     * Leaves the Jasmin code of the class in ./jasmin, or the class itself for the class file backend, which has no
+     * Jasmin code, whether it was generated or served from the cache.
+     */
+    private static void writeOutput(JasminResult result, Predicate<String> claimOutput) {
+        String className = result.getClassName();
+        if (!claimOutput.test(className)) {
+            throw new RuntimeException("Class '" + className + "' is also declared by another unit.");
         }
 
+        if (result instanceof ClassFileResult) {
+            result.compile(new File("./jasmin"));
+        } else {
+            SpecsIo.write(new File("./jasmin/" + className + ".j"), result.getJasminCode());
+        }
+    }
+
+    /**
+     * The file a unit compiled with the given options leaves the output of its class in.
+     */
+    static File getOutputFile(String className, Map<String, String> config) {
+        if (config.containsKey("ollirOnly")) {
+            return new File("./ollir/" + className + ".ollir");
+        }
+
+        return config.getOrDefault("backend", "jasmin").equals("classfile")
+                ? new File("./jasmin/" + className + ".class")
+                : new File("./jasmin/" + className + ".j");
+    }
+
+    private static long countJasminInstructions(String jasminCode) {
+        long count = 0;
+        for (String line : jasminCode.split("\n")) {
+            line = line.trim();
+
+            // Directives, labels and comments are not instructions
+            if (!line.isEmpty() && !line.startsWith(".") && !line.startsWith(";") && !line.endsWith(":")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Map<String, String> parseArgs(String[] args, List<String> inputs) {
+        SpecsLogs.info("Executing with args: " + Arrays.toString(args));
+
         // Create config
         Map<String, String> config = new HashMap<>();
-        config.put("inputFile", args[0]);
         config.put("optimize", "false");
         config.put("registerAllocation", "-1");
         config.put("debug", "false");
+        config.put("backend", "jasmin");
+
+        for (String arg : args) {
+            if (arg.equals("-o")) {
+                config.put("optimize", "true");
+            } else if (arg.startsWith("-r=")) {
+                config.put("registerAllocation", arg.substring("-r=".length()));
+            } else if (arg.startsWith("-i=")) {
+                config.put("inlineBudget", arg.substring("-i=".length()));
+            } else if (arg.startsWith("-b=")) {
+                config.put("backend", arg.substring("-b=".length()));
+            } else if (arg.startsWith("-c=")) {
+                config.put("cache", arg.substring("-c=".length()));
+            } else if (arg.startsWith("-cs=")) {
+                config.put("cacheSize", arg.substring("-cs=".length()));
+            } else if (arg.startsWith("-m=")) {
+                config.put("metrics", arg.substring("-m=".length()));
+            } else if (arg.equals("-ollir")) {
+                config.put("ollirOnly", "true");
+            } else if (arg.equals("-d")) {
+                config.put("debug", "true");
+            } else if (arg.startsWith("-")) {
+                throw new RuntimeException("Unknown option '" + arg + "'.");
+            } else {
+                inputs.add(arg);
+            }
+        }
+
+        // Check if there is at least one argument
+        if (inputs.isEmpty()) {
+            throw new RuntimeException("Expected at least one argument, a path to an existing input file or directory.");
+        }
+
+        config.put("inputFile", inputs.get(0));
 
         return config;
     }
@@ -1,8 +1,13 @@
 package pt.up.fe.comp2023;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.atn.PredictionMode;
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.antlr.AntlrParser;
 import pt.up.fe.comp.jmm.ast.antlr.ThrowingErrorListener;
 import pt.up.fe.comp.jmm.parser.JmmParser;
@@ -16,6 +21,7 @@ import pt.up.fe.comp2023.JavammParser;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Copyright 2022 SPeCS.
@@ -32,6 +38,11 @@ import java.util.Map;
 
 public class SimpleParser implements JmmParser {
 
+    /**
+     * Lexer and parser of the calling thread, reused by every parse on that thread.
+     */
+    private static final ThreadLocal<ParserState> STATE = new ThreadLocal<>();
+
     @Override
     public String getDefaultRule() {
         return "program";
@@ -42,24 +53,25 @@ public class SimpleParser implements JmmParser {
         try {
             // Convert code string into a character stream
             var input = new ANTLRInputStream(jmmCode);
-            // Transform characters into tokens using the lexer
-            var lex = new pt.up.fe.comp2023.JavammLexer(input);
-            // Wrap lexer around a token stream
-            var tokens = new CommonTokenStream(lex);
-            // Transforms tokens into a parse tree
-            var parser = new pt.up.fe.comp2023.JavammParser(tokens);
-
-            // Add custom error listener to the parser
-            parser.removeErrorListeners(); // Remove default listeners
-            parser.addErrorListener(new ThrowingErrorListener()); // Add custom listener to throw exception on errors
+            var state = getState(input);
 
-            // Convert ANTLR CST to JmmNode AST
-            var result = AntlrParser.parse(lex, parser, startingRule);
+            Optional<JmmNode> result;
+            try {
+                // Convert ANTLR CST to JmmNode AST; SLL prediction is enough for almost every valid program, and gives
+                // up on the first error
+                state.useSll();
+                result = AntlrParser.parse(state.lexer, state.parser, startingRule);
+            } catch (RuntimeException e) {
+                // Only a full LL parse can tell whether the program has a syntax error, so parse again from the start
+                state.reset(input);
+                state.useLl();
+                result = AntlrParser.parse(state.lexer, state.parser, startingRule);
+            }
 
             // Check if there were any syntax errors
-            if (parser.getNumberOfSyntaxErrors() > 0) {
+            if (state.parser.getNumberOfSyntaxErrors() > 0) {
                 // If there were syntax errors, create a Report and return it as part of a JmmParserResult
-                var syntaxErrors = parser.getNumberOfSyntaxErrors();
+                var syntaxErrors = state.parser.getNumberOfSyntaxErrors();
                 var message = "There were " + syntaxErrors + " syntax error(s) during parsing, terminating";
                 var report = new Report(ReportType.WARNING, Stage.SYNTATIC, -1, message);
                 return JmmParserResult.newError(report);
@@ -76,4 +88,56 @@ public class SimpleParser implements JmmParser {
             return JmmParserResult.newError(Report.newError(Stage.SYNTATIC, -1, -1, "Exception during parsing", e));
         }
     }
+
+    private static ParserState getState(CharStream input) {
+        ParserState state = STATE.get();
+        if (state == null) {
+            state = new ParserState(input);
+            STATE.set(state);
+        } else {
+            state.reset(input);
+        }
+        return state;
+    }
+
+    /**
+     * The generated recognizers share their DFA caches through static fields, so reusing one lexer and parser per
+     * thread keeps the caches warm and avoids building the recognizers for every file.
+     */
+    private static class ParserState {
+        private final JavammLexer lexer;
+        private final JavammParser parser;
+
+        private ParserState(CharStream input) {
+            // Transform characters into tokens using the lexer
+            lexer = new JavammLexer(input);
+            // Wrap lexer around a token stream
+            var tokens = new CommonTokenStream(lexer);
+            // Transforms tokens into a parse tree
+            parser = new JavammParser(tokens);
+
+            // Add custom error listener to the parser
+            parser.removeErrorListeners(); // Remove default listeners
+            parser.addErrorListener(new ThrowingErrorListener()); // Add custom listener to throw exception on errors
+        }
+
+        private void reset(CharStream input) {
+            // Neither recognizer rewinds a stream it is given, since they reset before storing it, and a token stream
+            // cannot be reused once it has reached the end of its input
+            input.seek(0);
+            lexer.setInputStream(input);
+            parser.setTokenStream(new CommonTokenStream(lexer));
+            parser.reset();
+        }
+
+        private void useSll() {
+            parser.setErrorHandler(new BailErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        }
+
+        private void useLl() {
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        }
+    }
 }
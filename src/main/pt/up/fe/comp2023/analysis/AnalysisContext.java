@@ -0,0 +1,45 @@
+package pt.up.fe.comp2023.analysis;
+
+/**
+ * Per-compilation state of the semantic analysis, passed through the visitors instead of being kept in static fields.
+ */
+public class AnalysisContext {
+
+    public static final String UNKNOWN_METHOD = "#UNKNOWN";
+
+    private final SymbolTableInit symbolTable;
+    private String currentMethod = UNKNOWN_METHOD;
+    private boolean methodStatic = false;
+
+    public AnalysisContext(SymbolTableInit symbolTable) {
+        this.symbolTable = symbolTable;
+    }
+
+    public SymbolTableInit getSymbolTable() {
+        return symbolTable;
+    }
+
+    public String getCurrentMethod() {
+        return currentMethod;
+    }
+
+    public void setCurrentMethod(String currentMethod) {
+        this.currentMethod = currentMethod;
+    }
+
+    public boolean isInsideMethod() {
+        return !UNKNOWN_METHOD.equals(currentMethod);
+    }
+
+    public boolean isMethodStatic() {
+        return methodStatic;
+    }
+
+    public void setMethodStatic(boolean methodStatic) {
+        this.methodStatic = methodStatic;
+    }
+
+    public boolean isStaticContext() {
+        return isInsideMethod() && (methodStatic || currentMethod.equals("main"));
+    }
+}
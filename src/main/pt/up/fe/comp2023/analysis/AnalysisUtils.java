@@ -4,14 +4,9 @@ import pt.up.fe.comp.jmm.analysis.table.Symbol;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 
-import java.util.List;
 
 public class AnalysisUtils {
 
-    static String currentMethod = "#UNKNOWN";
-    static boolean isMethodStatic = false;
-
-
     public static Type getType(JmmNode jmmNode) {
         boolean isArray = jmmNode.getAttributes().contains("isArray") && jmmNode.get("isArray").equals("true");
         String nodeKind = jmmNode.getKind();
@@ -27,6 +22,8 @@ public class AnalysisUtils {
             case "Integer":
                 type = new Type("int", isArray);
                 return type;
+            case "ArrayLength":
+                return new Type("int", false);
             case "NewArray":
                 JmmNode arrayTypeNode = jmmNode.getJmmChild(0);
                 type = getType(arrayTypeNode);
@@ -76,63 +73,20 @@ public class AnalysisUtils {
     }
 
 
-    public static boolean isVariableDeclared(String varName, SymbolTableInit symbolTable) {
-        // Check if the variable exists in the fields
-        for (Symbol field : symbolTable.getFields()) {
-            if (field.getName().equals(varName)) {
-                return true;
-            }
-        }
+    public static boolean isVariableDeclared(String varName, AnalysisContext context) {
+        SymbolTableInit symbolTable = context.getSymbolTable();
 
-        // Check if the variable exists in the parameters or local variables in the current method
-        String methodName = AnalysisUtils.currentMethod;
-        if(methodName == "#UNKNOWN") return false;
-        var methodParameters = symbolTable.getParameters(methodName);
-        if(methodParameters == null) return false;
-        var methodLocalVars = symbolTable.getLocalVariables(methodName);
-
-        for (Symbol parameter : methodParameters) {
-            if (parameter.getName().equals(varName)) {
-                return true;
-            }
+        // Outside a method only the fields are visible
+        if (!context.isInsideMethod()) {
+            return symbolTable.hasField(varName);
         }
 
-        for (Symbol localVar : methodLocalVars) {
-            if (localVar.getName().equals(varName)) {
-                return true;
-            }
-        }
-
-        return false;
+        return symbolTable.resolve(context.getCurrentMethod(), varName) != null;
     }
 
-    public static Symbol getSymbolByName(String varName, SymbolTableInit symbolTable) {
-
-        // Check if the variable exists in the parameters or local variables of any method
-        String methodName = currentMethod;
-        var methodParameters = symbolTable.getParameters(methodName);
-        var methodLocalVars = symbolTable.getLocalVariables(methodName);
-
-        for (Symbol parameter : methodParameters) {
-            if (parameter.getName().equals(varName)) {
-                return parameter;
-            }
-        }
-
-        for (Symbol localVar : methodLocalVars) {
-            if (localVar.getName().equals(varName)) {
-                return localVar;
-            }
-        }
-
-        // Finally, Check if the variable exists in the fields
-        for (Symbol field : symbolTable.getFields()) {
-            if (field.getName().equals(varName)) {
-                return field;
-            }
-        }
-
-        return null;
+    public static Symbol getSymbolByName(String varName, AnalysisContext context) {
+        // Locals shadow parameters, which shadow fields
+        return context.getSymbolTable().resolve(context.getCurrentMethod(), varName);
     }
 
 }
\ No newline at end of file
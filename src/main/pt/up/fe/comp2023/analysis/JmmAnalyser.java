@@ -2,14 +2,27 @@ package pt.up.fe.comp2023.analysis;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 
 import pt.up.fe.comp.jmm.analysis.JmmAnalysis;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
 import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2023.CompilationMetrics;
 
 public class JmmAnalyser implements JmmAnalysis {
 
+    private final CompilationMetrics metrics;
+
+    public JmmAnalyser() {
+        this(CompilationMetrics.NONE);
+    }
+
+    public JmmAnalyser(CompilationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public JmmSemanticsResult semanticAnalysis(JmmParserResult parserResult) {
 
@@ -19,15 +32,66 @@ public class JmmAnalyser implements JmmAnalysis {
         SymbolTablePopulate symbolTablePopulate = new SymbolTablePopulate();
         symbolTablePopulate.visit(parserResult.getRootNode(), symbolTable);
 
-        // Create a new instance of SemanticAnalysisVisitor
-        SemanticAnalysisVisitor semanticAnalysisVisitor = new SemanticAnalysisVisitor();
+        // From here on the symbol table is only read, so method bodies can be checked concurrently
+        symbolTable.freeze();
 
-        // Visit the root node with the semanticAnalysisVisitor
-        List<Report> semanticReports = semanticAnalysisVisitor.visit(parserResult.getRootNode(), symbolTable);
+        List<Report> semanticReports = analyse(parserResult.getRootNode(), symbolTable);
 
         // Add the semantic analysis reports to the main reports list
         reports.addAll(semanticReports);
 
         return new JmmSemanticsResult(parserResult, symbolTable, reports);
     }
+
+    private List<Report> analyse(JmmNode rootNode, SymbolTableInit symbolTable) {
+        // Each unit of work produces the reports of one subtree, kept in source order
+        List<ForkJoinTask<List<Report>>> tasks = new ArrayList<>();
+        int methods = 0;
+
+        for (JmmNode child : rootNode.getChildren()) {
+            if (!child.getKind().equals("ClassStmt")) {
+                tasks.add(ForkJoinTask.adapt(() -> visitSubtree(child, symbolTable)));
+                continue;
+            }
+
+            for (JmmNode classChild : child.getChildren()) {
+                if (isMethod(classChild)) {
+                    methods++;
+                    tasks.add(ForkJoinTask.adapt(() -> metrics.measureMethod("analysis", getMethodName(classChild),
+                            () -> visitSubtree(classChild, symbolTable))));
+                    continue;
+                }
+                tasks.add(ForkJoinTask.adapt(() -> visitSubtree(classChild, symbolTable)));
+            }
+        }
+
+        // Nothing to gain from forking a single method, or a tree that does not follow the grammar's layout
+        if (methods < 2) {
+            return visitSubtree(rootNode, symbolTable);
+        }
+
+        for (var task : tasks) {
+            task.fork();
+        }
+
+        List<Report> reports = new ArrayList<>();
+        for (var task : tasks) {
+            reports.addAll(task.join());
+        }
+        return reports;
+    }
+
+    private List<Report> visitSubtree(JmmNode node, SymbolTableInit symbolTable) {
+        // Visitors and contexts hold per-method state, so every subtree gets its own
+        SemanticAnalysisVisitor semanticAnalysisVisitor = new SemanticAnalysisVisitor();
+        return semanticAnalysisVisitor.visit(node, new AnalysisContext(symbolTable));
+    }
+
+    private String getMethodName(JmmNode node) {
+        return node.getKind().equals("MainMethodStmt") ? "main" : node.getJmmChild(0).get("value");
+    }
+
+    private boolean isMethod(JmmNode node) {
+        return node.getKind().equals("MethodStmt") || node.getKind().equals("MainMethodStmt");
+    }
 }
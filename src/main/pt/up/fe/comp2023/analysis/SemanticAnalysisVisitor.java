@@ -10,7 +10,7 @@ import java.util.*;
 import static pt.up.fe.comp2023.analysis.AnalysisUtils.getType;
 import static pt.up.fe.comp2023.analysis.AnalysisUtils.isVariableDeclared;
 
-public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<Report>> {
+public class SemanticAnalysisVisitor extends AJmmVisitor<AnalysisContext, List<Report>> {
 
     static final List<String> PRIMITIVES = Arrays.asList("int", "void", "boolean");
     static final List<String> ARITHMETIC_OP = Arrays.asList("+", "-", "*", "/");
@@ -26,6 +26,7 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
         addVisit("BinaryOp", this::visitBinaryOp);
         addVisit("Identifier", this::visitIdentifier);
         addVisit("MethodCallExpr", this::visitMethodCallExpr);
+        addVisit("ArrayLength", this::visitArrayLength);
         addVisit("ArrayAccessExpr", this::visitArrayAccessExpr);
         addVisit("MethodStmt", this::visitMethodStmt);
         addVisit("MainMethodStmt", this::visitMainMethodStmt);
@@ -40,11 +41,11 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
         addVisit("ReturnStmt", this::visitReturnStmt);
     }
 
-    private List<Report> visitExprStmt(JmmNode jmmNode, SymbolTableInit symbolTableInit){
+    private List<Report> visitExprStmt(JmmNode jmmNode, AnalysisContext context){
         List<Report> reports = new ArrayList<>();
 
         for(JmmNode child : jmmNode.getChildren()){
-            List<Report> childReports = visit(child, symbolTableInit);
+            List<Report> childReports = visit(child, context);
             reports.addAll(childReports);
         }
         return reports;
@@ -52,28 +53,27 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
     }
 
 
-    private List<Report> visitMainMethodStmt(JmmNode jmmNode, SymbolTableInit symbolTableInit){
+    private List<Report> visitMainMethodStmt(JmmNode jmmNode, AnalysisContext context){
         List<Report> reports = new ArrayList<>();
 
-        AnalysisUtils.currentMethod = "main";
+        context.setCurrentMethod("main");
+        context.setMethodStatic(true);
 
 
         for(JmmNode child : jmmNode.getChildren()){
-            List<Report> childReports = visit(child, symbolTableInit);
+            List<Report> childReports = visit(child, context);
             reports.addAll(childReports);
         }
         return reports;
     }
-    private List<Report> visitMethodStmt(JmmNode jmmNode, SymbolTableInit symbolTableInit){
+    private List<Report> visitMethodStmt(JmmNode jmmNode, AnalysisContext context){
         List<Report> reports = new ArrayList<>();
         JmmNode child = jmmNode.getJmmChild(0);
-        AnalysisUtils.currentMethod = child.get("value");
-        if(jmmNode.get("isStatic").equals("true")){
-            AnalysisUtils.isMethodStatic = true;
-        }
+        context.setCurrentMethod(child.get("value"));
+        context.setMethodStatic(jmmNode.get("isStatic").equals("true"));
 
         for (JmmNode childs : jmmNode.getChildren()) {
-            List<Report> childReports = visit(childs, symbolTableInit);
+            List<Report> childReports = visit(childs, context);
             reports.addAll(childReports);
         }
         return reports;
@@ -81,22 +81,22 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
     }
 
 
-    private List<Report> visitArrayAccessExpr(JmmNode jmmNode, SymbolTableInit symbolTable) {
+    private List<Report> visitArrayAccessExpr(JmmNode jmmNode, AnalysisContext context) {
         List<Report> reports = new ArrayList<>();
 
         JmmNode arrayNode = jmmNode.getJmmChild(0);
         JmmNode indexNode = jmmNode.getJmmChild(1);
 
         // Check if the array variable is declared
-        List<Report> arrayReports = visit(arrayNode, symbolTable);
+        List<Report> arrayReports = visit(arrayNode, context);
         reports.addAll(arrayReports);
 
         Type arrayType = getType(arrayNode);
 
         // Get the type names from the symbol table if possible
         if(arrayType.getName().equals("#UNKNOWN") && arrayNode.hasAttribute("value")){
-            if(AnalysisUtils.isVariableDeclared(arrayNode.get("value"), symbolTable)){
-                arrayType = AnalysisUtils.getSymbolByName(arrayNode.get("value"), symbolTable).getType();
+            if(AnalysisUtils.isVariableDeclared(arrayNode.get("value"), context)){
+                arrayType = AnalysisUtils.getSymbolByName(arrayNode.get("value"), context).getType();
             } else {
                 reports.add(ReportUtils.undefinedArray(jmmNode, arrayNode.get("value")));
                 return reports;
@@ -114,8 +114,8 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
         Type indexType = getType(indexNode);
 
         if(indexType.getName().equals("#UNKNOWN") && indexNode.hasAttribute("value")){
-            if(AnalysisUtils.isVariableDeclared(indexNode.get("value"), symbolTable)){
-                indexType = AnalysisUtils.getSymbolByName(indexNode.get("value"), symbolTable).getType();
+            if(AnalysisUtils.isVariableDeclared(indexNode.get("value"), context)){
+                indexType = AnalysisUtils.getSymbolByName(indexNode.get("value"), context).getType();
             } else {
                 reports.add(ReportUtils.undefinedArray(jmmNode, indexNode.get("value")));
                 return reports;
@@ -133,158 +133,109 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
 
 
 
-    private List<Report> visitBinaryOp(JmmNode jmmNode, SymbolTableInit symbolTable) {
-        List<Report> reports = new ArrayList<>();
-
-        Stack<JmmNode> stack = new Stack<>();
-        stack.push(jmmNode);
-
-        while(!stack.isEmpty()){
-            jmmNode = stack.pop();
-
-            Type lhsType = getType(jmmNode.getJmmChild(0));
-            Type rhsType = getType(jmmNode.getJmmChild(1));
-
-            JmmNode lhsNode = jmmNode.getJmmChild(0);
-            JmmNode rhsNode = jmmNode.getJmmChild(1);
-
-            if(jmmNode.getJmmParent().getKind().equals("MethodCallExpr")){
-                JmmNode methodNode = jmmNode.getJmmParent();
-
-                String methodName = methodNode.get("value");
-                rhsType = symbolTable.getReturnType(methodName);
-            }
-
-            // Update the types of the operands if they are method calls on 'this'
-            if (lhsNode.getKind().equals("MethodCallExpr")){
-                lhsType = symbolTable.getReturnType(lhsNode.get("value"));
-            }
-            if (rhsNode.getKind().equals("MethodCallExpr")) {
-                rhsType = symbolTable.getReturnType(rhsNode.get("value"));
-            }
-
-            if (lhsNode.getKind().equals("ArrayAccessExpr")) {
-                lhsType = new Type("int", false);
-            }
-            if (rhsNode.getKind().equals("ArrayAccessExpr")) {
-                rhsType = new Type("int", false);
-            }
-
-            if(lhsNode.getKind().equals("BinaryOp")){
-                JmmNode rhsChildNode = lhsNode.getJmmChild(1);
-                Type rhsChildType = getType(rhsChildNode);
-
-                if (rhsType.getName().equals("#UNKNOWN") || rhsChildType.getName().equals("#UNKNOWN")) {
-                    // Get the type names from the symbol table if possible
-                    rhsType = rhsType.getName().equals("#UNKNOWN") && AnalysisUtils.isVariableDeclared(rhsNode.get("value"), symbolTable)
-                            ? AnalysisUtils.getSymbolByName(rhsNode.get("value"), symbolTable).getType()
-                            : rhsType;
-
-                    rhsChildType = rhsChildType.getName().equals("#UNKNOWN") && AnalysisUtils.isVariableDeclared(rhsChildNode.get("value"), symbolTable)
-                            ? AnalysisUtils.getSymbolByName(rhsChildNode.get("value"), symbolTable).getType()
-                            : rhsChildType;
-
-                }
-
-                if (!rhsType.getName().equals(rhsChildType.getName()) && !(rhsNode.getJmmParent().getKind().equals("ArrayAccessExpr") || rhsNode.getJmmParent().getJmmParent().getKind().equals("ArrayAccessExpr"))) {
-                    putUnknownType(jmmNode);
-                    reports.add(ReportUtils.operatorCannotBeAppliedReport(jmmNode, jmmNode.get("op"), lhsType.print(), rhsType.print()));
-                    return reports;
-                }
-            }
-
-
-            if(lhsNode.getKind().equals("ArrayAccessExpr") || rhsNode.getKind().equals("ArrayAccessExpr")){
-                List<Report> childReports = visit(lhsNode, symbolTable);
-                reports.addAll(childReports);
-                return reports;
-            }
-
-
-            if (lhsType.getName().equals("#UNKNOWN") || rhsType.getName().equals("#UNKNOWN")) {
-                // Get the type names from the symbol table if possible
-                if (!lhsNode.getKind().equals("BinaryOp")) {
-                    lhsType = lhsType.getName().equals("#UNKNOWN") && AnalysisUtils.isVariableDeclared(lhsNode.get("value"), symbolTable)
-                            ? AnalysisUtils.getSymbolByName(lhsNode.get("value"), symbolTable).getType()
-                            : lhsType;
-                }
-
-                if (!rhsNode.getKind().equals("BinaryOp")) {
-                    rhsType = rhsType.getName().equals("#UNKNOWN") && AnalysisUtils.isVariableDeclared(rhsNode.get("value"), symbolTable)
-                            ? AnalysisUtils.getSymbolByName(rhsNode.get("value"), symbolTable).getType()
-                            : rhsType;
-                }
-            }
-
-
+    private List<Report> visitBinaryOp(JmmNode jmmNode, AnalysisContext context) {
+        // The operands are checked first, so an error inside one is reported where it is and not again for the operator
+        List<Report> reports = defaultVisit(jmmNode, context);
+        if (!reports.isEmpty()) {
+            putUnknownType(jmmNode);
+            return reports;
+        }
 
-            if (jmmNode.getJmmParent() != null && (jmmNode.getJmmParent().getKind().equals("IfStmt") || jmmNode.getJmmParent().getKind().equals("WhileStmt"))) {
-                if (!lhsType.getName().equals("boolean") && !COMPARISON_OP.contains(jmmNode.get("op"))){
-                    putUnknownType(jmmNode);
-                    reports.add(ReportUtils.invalidConditionTypeReport(jmmNode.getJmmParent(), rhsType.print()));
-                    return reports;
-                }
-            }
+        String op = jmmNode.get("op");
+        Type lhsType = getOperandType(jmmNode.getJmmChild(0), context);
+        Type rhsType = getOperandType(jmmNode.getJmmChild(1), context);
 
+        String operandType = LOGICAL_OP.contains(op) ? "boolean" : "int";
+        if (!isOperandOf(lhsType, operandType) || !isOperandOf(rhsType, operandType)) {
+            putUnknownType(jmmNode);
+            reports.add(ReportUtils.operatorCannotBeAppliedReport(jmmNode, op, lhsType.print(), rhsType.print()));
+            return reports;
+        }
 
-            // If the current child is a BinaryOp, add it to the stack
-            if (lhsNode.getKind().equals("BinaryOp")) {
-                stack.push(lhsNode);
-            } else {
-                if (ARITHMETIC_OP.contains(jmmNode.get("op")) || LOGICAL_OP.contains(jmmNode.get("op")) || COMPARISON_OP.contains(jmmNode.get("op"))) {
-                    if (lhsType.isArray()) {
-                        putUnknownType(jmmNode);
-                        reports.add(ReportUtils.operatorCannotBeAppliedReport(jmmNode, jmmNode.get("op"), lhsType.print(), rhsType.print()));
-                        return reports;
-                    }
-                }
+        Type type = new Type(ARITHMETIC_OP.contains(op) ? "int" : "boolean", false);
+        putType(jmmNode, type);
 
+        JmmNode parent = jmmNode.getJmmParent();
+        boolean isCondition = parent != null && (parent.getKind().equals("IfStmt") || parent.getKind().equals("WhileStmt"))
+                && parent.getJmmChild(0) == jmmNode;
+        if (isCondition && !type.getName().equals("boolean")) {
+            putUnknownType(jmmNode);
+            reports.add(ReportUtils.invalidConditionTypeReport(parent, type.print()));
+        }
 
-                if (ARITHMETIC_OP.contains(jmmNode.get("op")) || COMPARISON_OP.contains(jmmNode.get("op"))) {
-                    if (!lhsType.getName().equals("int")) {
-                        putUnknownType(jmmNode);
-                        reports.add(ReportUtils.operatorCannotBeAppliedReport(jmmNode, jmmNode.get("op"), lhsType.print(), rhsType.print()));
-                        return reports;
-                    }
-                }
+        return reports;
+    }
 
-                if (LOGICAL_OP.contains(jmmNode.get("op"))) {
-                    if (!lhsType.getName().equals("boolean")) {
-                        putUnknownType(jmmNode);
-                        reports.add(ReportUtils.operatorCannotBeAppliedReport(jmmNode, jmmNode.get("op"), lhsType.print(), rhsType.print()));
-                        return reports;
-                    }
+    /**
+     * @return the type of an expression whose own errors were already reported, where #UNKNOWN stands for a value
+     * whose type cannot be known here, such as the result of a method of an imported class
+     */
+    private Type getOperandType(JmmNode node, AnalysisContext context) {
+        SymbolTableInit symbolTable = context.getSymbolTable();
+
+        switch (node.getKind()) {
+            case "Integer":
+            case "ArrayAccessExpr":
+            case "ArrayLength":
+                return new Type("int", false);
+            case "Boolean":
+            case "Negation":
+                return new Type("boolean", false);
+            case "Parenthesis":
+                return getOperandType(node.getJmmChild(0), context);
+            case "BinaryOp":
+                return new Type(ARITHMETIC_OP.contains(node.get("op")) ? "int" : "boolean", false);
+            case "NewArray":
+                return new Type("int", true);
+            case "NewObject":
+                return new Type(node.get("value"), false);
+            case "Object":
+                return new Type(symbolTable.getClassName(), false);
+            case "Identifier":
+                return isVariableDeclared(node.get("value"), context)
+                        ? AnalysisUtils.getSymbolByName(node.get("value"), context).getType()
+                        : new Type("#UNKNOWN", false);
+            case "MethodCallExpr":
+                // Only the methods of this class have a known return type
+                Type targetType = getOperandType(node.getJmmChild(0), context);
+                if (targetType.getName().equals(symbolTable.getClassName()) && symbolTable.hasMethod(node.get("value"))) {
+                    return symbolTable.getReturnType(node.get("value"));
                 }
+                return new Type("#UNKNOWN", false);
+            default:
+                return new Type("#UNKNOWN", false);
+        }
+    }
 
-                if (!PRIMITIVES.contains(lhsType.getName())) {
-                    putUnknownType(jmmNode);
-                    reports.add(ReportUtils.operatorCannotBeAppliedReport(jmmNode, jmmNode.get("op"), lhsType.print(), rhsType.print()));
-                    return reports;
-                }
+    private boolean isOperandOf(Type type, String operandType) {
+        return type.getName().equals("#UNKNOWN") || (type.getName().equals(operandType) && !type.isArray());
+    }
 
-                if ("<".contains(jmmNode.get("op"))) {
-                    putType(jmmNode, new Type("boolean", false));
-                } else {
-                    putType(jmmNode, lhsType);
-                }
+    /**
+     * The length is the only member of an array, and arrays have no other members.
+     */
+    private List<Report> visitArrayLength(JmmNode jmmNode, AnalysisContext context) {
+        List<Report> reports = defaultVisit(jmmNode, context);
+        if (!reports.isEmpty()) {
+            return reports;
+        }
 
-                if (!lhsType.equals(rhsType) && !(rhsNode.getJmmParent().getKind().equals("ArrayAccessExpr") || rhsNode.getJmmParent().getJmmParent().getKind().equals("ArrayAccessExpr"))) {
-                    putUnknownType(jmmNode);
-                    reports.add(ReportUtils.operatorCannotBeAppliedReport(jmmNode, jmmNode.get("op"), lhsType.print(), rhsType.print()));
-                    return reports;
-                }
-            }
+        Type targetType = getOperandType(jmmNode.getJmmChild(0), context);
+        if (!targetType.isArray() && !targetType.getName().equals("#UNKNOWN")) {
+            reports.add(ReportUtils.arrayRequiredReport(jmmNode, targetType.print()));
+        } else if (!jmmNode.get("value").equals("length")) {
+            reports.add(ReportUtils.cannotFindSymbolReport(jmmNode, jmmNode.get("value")));
         }
 
         return reports;
     }
 
 
-    private List<Report> defaultVisit(JmmNode jmmNode, SymbolTableInit symbolTable){
+    private List<Report> defaultVisit(JmmNode jmmNode, AnalysisContext context){
         List<Report> reports = new ArrayList<>();
 
         for (JmmNode child : jmmNode.getChildren()) {
-            List<Report> childReports = visit(child, symbolTable);
+            List<Report> childReports = visit(child, context);
             reports.addAll(childReports);
         }
 
@@ -300,8 +251,9 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
         jmmNode.put("type", "#UNKNOWN");
     }
 
-    private List<Report> visitIdentifier(JmmNode jmmNode, SymbolTableInit symbolTable) {
+    private List<Report> visitIdentifier(JmmNode jmmNode, AnalysisContext context) {
         List<Report> reports = new ArrayList<>();
+        SymbolTableInit symbolTable = context.getSymbolTable();
 
         String identifier = jmmNode.get("value");
 
@@ -310,19 +262,18 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
             return reports;
         }
 
-        for (Symbol field : symbolTable.getFields()) {
-            if (field.getName().equals(identifier) && AnalysisUtils.currentMethod != "#UNKNOWN" && (AnalysisUtils.isMethodStatic || AnalysisUtils.currentMethod == "main")) {
-                reports.add(ReportUtils.nonStaticInStaticContext(jmmNode, jmmNode.get("value")));
-                return reports;
-            }
+        if (context.isStaticContext() && symbolTable.hasField(identifier)
+                && !symbolTable.hasMethodVariable(context.getCurrentMethod(), identifier)) {
+            reports.add(ReportUtils.nonStaticInStaticContext(jmmNode, jmmNode.get("value")));
+            return reports;
         }
 
-        if (!AnalysisUtils.isVariableDeclared(identifier, symbolTable)) {
+        if (!AnalysisUtils.isVariableDeclared(identifier, context)) {
             reports.add(ReportUtils.cannotFindSymbolReport(jmmNode, identifier));
             return reports;
         }
 
-        Type identifierType = AnalysisUtils.getSymbolByName(jmmNode.get("value"), symbolTable).getType();
+        Type identifierType = AnalysisUtils.getSymbolByName(jmmNode.get("value"), context).getType();
 
         if (hasArrayAccess(jmmNode) && !identifierType.isArray()) {
             reports.add(ReportUtils.arrayAccessOnNonArray(jmmNode, identifier));
@@ -348,37 +299,31 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
     }
 
 
-    private List<Report> visitIfWhileStmt(JmmNode jmmNode, SymbolTableInit symbolTable) {
+    private List<Report> visitIfWhileStmt(JmmNode jmmNode, AnalysisContext context) {
         List<Report> reports = new ArrayList<>();
 
 
         JmmNode conditionNode = jmmNode.getJmmChild(0);
 
         if(conditionNode.getKind().equals("BinaryOp") || conditionNode.getKind().equals("MethodCallExpr")){
-            List<Report> childReports = visit(conditionNode, symbolTable);
+            List<Report> childReports = visit(conditionNode, context);
             reports.addAll(childReports);
             return reports;
         }
-        Type conditionType = getType(conditionNode);
-
-        if (conditionType.getName().equals("#UNKNOWN") && conditionNode.hasAttribute("value")) {
-            if(AnalysisUtils.isVariableDeclared(conditionNode.get("value"), symbolTable)){
-                conditionType = AnalysisUtils.getSymbolByName(conditionNode.get("value"), symbolTable).getType();
-            }
-        }
+        Type conditionType = getOperandType(conditionNode, context);
 
         for (JmmNode child : jmmNode.getChildren()) {
-            List<Report> childReports = visit(child, symbolTable);
+            List<Report> childReports = visit(child, context);
             reports.addAll(childReports);
         }
 
-        if (!conditionType.getName().equals("boolean") && !conditionNode.getKind().equals("ArrayAccessExpr")) {
+        if (!isOperandOf(conditionType, "boolean")) {
             putUnknownType(jmmNode);
             reports.add(ReportUtils.invalidConditionTypeReport(jmmNode, conditionType.print()));
         }
 
         for (JmmNode child : jmmNode.getChildren()) {
-            List<Report> childReports = visit(child, symbolTable);
+            List<Report> childReports = visit(child, context);
             reports.addAll(childReports);
         }
 
@@ -386,10 +331,11 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
     }
 
 
-    private List<Report> visitReturnStmt(JmmNode jmmNode, SymbolTableInit symbolTable) {
+    private List<Report> visitReturnStmt(JmmNode jmmNode, AnalysisContext context) {
         List<Report> reports = new ArrayList<>();
 
-        String methodName = AnalysisUtils.currentMethod;
+        SymbolTableInit symbolTable = context.getSymbolTable();
+        String methodName = context.getCurrentMethod();
 
         if(methodName.equals("main")){
             reports.add(ReportUtils.returnInMainMethodReport(jmmNode));
@@ -402,7 +348,7 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
         // Get the return expression type
         JmmNode returnExpression = jmmNode.getChildren().get(0);
         if (returnExpression.getKind().equals("BinaryOp")) {
-            List<Report> childReports = visit(returnExpression, symbolTable);
+            List<Report> childReports = visit(returnExpression, context);
             reports.addAll(childReports);
         }
 
@@ -413,7 +359,7 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
         }
 
         if (returnExpression.getKind().equals("MethodCallExpr")) {
-            List<Report> childReports = visit(returnExpression, symbolTable);
+            List<Report> childReports = visit(returnExpression, context);
             reports.addAll(childReports);
         }
         // Check if the return type is compatible
@@ -426,8 +372,8 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
                 Type variableType = null;
                 String className;
 
-                if (AnalysisUtils.isVariableDeclared(variableName, symbolTable)) {
-                    variableType = AnalysisUtils.getSymbolByName(variableName, symbolTable).getType();
+                if (AnalysisUtils.isVariableDeclared(variableName, context)) {
+                    variableType = AnalysisUtils.getSymbolByName(variableName, context).getType();
                     className = variableType.getName();
                 } else {
                     className = methodCallTarget.get("value");
@@ -441,7 +387,7 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
                 }
             }
             else if(returnExpression.getKind().equals("Identifier") || returnExpression.getKind().equals("ArrayAccessExpr")){
-                List<Report> childReports = visit(returnExpression, symbolTable);
+                List<Report> childReports = visit(returnExpression, context);
                 reports.addAll(childReports);
             }
         }
@@ -454,19 +400,20 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
 
 
 
-    private List<Report> visitMethodCallExpr(JmmNode jmmNode, SymbolTableInit symbolTable) {
+    private List<Report> visitMethodCallExpr(JmmNode jmmNode, AnalysisContext context) {
         List<Report> reports = new ArrayList<>();
+        SymbolTableInit symbolTable = context.getSymbolTable();
 
         String methodName = jmmNode.get("value");
 
-        if(AnalysisUtils.currentMethod.equals("main") && jmmNode.getJmmChild(0).getKind().equals("Object")){
+        if(context.getCurrentMethod().equals("main") && jmmNode.getJmmChild(0).getKind().equals("Object")){
             if(jmmNode.getJmmChild(0).get("value").equals("this")){
                 reports.add(ReportUtils.thisInMainMethodReport(jmmNode));
                 return reports;
             }
         }
 
-        if(AnalysisUtils.isMethodStatic && jmmNode.getJmmChild(0).getKind().equals("Object")){
+        if(context.isMethodStatic() && jmmNode.getJmmChild(0).getKind().equals("Object")){
             if(jmmNode.getJmmChild(0).get("value").equals("this")){
                 reports.add(ReportUtils.invalidStaticMethodCall(jmmNode, jmmNode.get("value")));
             }
@@ -481,7 +428,7 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
                 String varName = firstChild.get("value");
 
                 // Check if the variable exists in the symbol table
-                if (AnalysisUtils.isVariableDeclared(varName, symbolTable) || varName.equals("this")) {
+                if (AnalysisUtils.isVariableDeclared(varName, context) || varName.equals("this")) {
                     // Add this check to report error when accessing instance fields from a static method
                     if (symbolTable.hasMethod(methodName)) {
 
@@ -496,19 +443,12 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
                                 // Check the types of the arguments
                                 for (int i = 0; i < numArgs; i++) {
                                     JmmNode argNode = jmmNode.getChildren().get(i + 1);
-                                    Type argType = getType(argNode);
-
-                                    if (argType.getName().equals("#UNKNOWN")) {
-                                        // Get the type names from the symbol table if possible
-                                        argType = argType.getName().equals("#UNKNOWN") && AnalysisUtils.isVariableDeclared(argNode.get("value"), symbolTable)
-                                                ? AnalysisUtils.getSymbolByName(argNode.get("value"), symbolTable).getType()
-                                                : argType;
-                                    }
+                                    Type argType = getOperandType(argNode, context);
 
                                     Type paramType = methodParameters.get(i).getType();
 
 
-                                    if (!argType.equals(paramType) && !argType.getName().equals("this")) {
+                                    if (!argType.equals(paramType) && !argType.getName().equals("#UNKNOWN")) {
                                         reports.add(ReportUtils.incompatibleArgumentReport(jmmNode, methodName, i, paramType.getName(), argType.getName()));
                                     }
                                 }
@@ -551,7 +491,7 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
 
 
         for (JmmNode child : jmmNode.getChildren()) {
-            List<Report> childReports = visit(child, symbolTable);
+            List<Report> childReports = visit(child, context);
             reports.addAll(childReports);
         }
 
@@ -559,31 +499,21 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
     }
 
 
-    private List<Report> visitAssignStmt(JmmNode jmmNode, SymbolTableInit symbolTable){
+    private List<Report> visitAssignStmt(JmmNode jmmNode, AnalysisContext context){
         List<Report> reports = new ArrayList<>();
+        SymbolTableInit symbolTable = context.getSymbolTable();
 
         JmmNode assignmentNode;
         Type identifierType;
 
         String identifier = jmmNode.get("value");
 
-        boolean isLocalVariable = false;
-
-        if(AnalysisUtils.currentMethod != "#UNKNOWN"){
-            for(Symbol var : symbolTable.getLocalVariables(AnalysisUtils.currentMethod)){
-                if(var.getName().equals(identifier)){
-                    isLocalVariable = true;
-                }
-            }
-        }
+        boolean isMethodVariable = context.isInsideMethod()
+                && symbolTable.hasMethodVariable(context.getCurrentMethod(), identifier);
 
-        if(!isLocalVariable){
-            for (Symbol field : symbolTable.getFields()) {
-                if (field.getName().equals(identifier) && AnalysisUtils.currentMethod != "#UNKNOWN" && (AnalysisUtils.isMethodStatic || AnalysisUtils.currentMethod == "main")) {
-                    reports.add(ReportUtils.nonStaticInStaticContext(jmmNode, jmmNode.get("value")));
-                    return reports;
-                }
-            }
+        if (!isMethodVariable && context.isStaticContext() && symbolTable.hasField(identifier)) {
+            reports.add(ReportUtils.nonStaticInStaticContext(jmmNode, jmmNode.get("value")));
+            return reports;
         }
 
         if(jmmNode.getKind().equals("ArrayAssignStmt")){
@@ -594,8 +524,8 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
 
             // Get the type names from the symbol table if possible
             if(arrayType.getName().equals("#UNKNOWN") && arrayNode.hasAttribute("value")){
-                if(AnalysisUtils.isVariableDeclared(arrayNode.get("value"), symbolTable)){
-                    arrayType = AnalysisUtils.getSymbolByName(arrayNode.get("value"), symbolTable).getType();
+                if(AnalysisUtils.isVariableDeclared(arrayNode.get("value"), context)){
+                    arrayType = AnalysisUtils.getSymbolByName(arrayNode.get("value"), context).getType();
                 } else {
                     reports.add(ReportUtils.undefinedArray(jmmNode, arrayNode.get("value")));
                     return reports;
@@ -610,7 +540,7 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
 
             // Check if the arrayNode is a variable before checking if it's an array
             if (arrayNode.getKind().equals("Identifier")) {
-                List<Report> childReports = visit(arrayNode, symbolTable);
+                List<Report> childReports = visit(arrayNode, context);
                 reports.addAll(childReports);
                 if (!arrayType.isArray() && hasArrayAccess(jmmNode)) {
                     reports.add(ReportUtils.arrayAccessOnNonArray(jmmNode, arrayNode.get("value")));
@@ -621,8 +551,8 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
 
             Type indexType = getType(indexNode);
             if(indexType.getName().equals("#UNKNOWN") && indexNode.hasAttribute("value")){
-                if(AnalysisUtils.isVariableDeclared(indexNode.get("value"), symbolTable)){
-                    indexType = AnalysisUtils.getSymbolByName(indexNode.get("value"), symbolTable).getType();
+                if(AnalysisUtils.isVariableDeclared(indexNode.get("value"), context)){
+                    indexType = AnalysisUtils.getSymbolByName(indexNode.get("value"), context).getType();
                 } else {
                     reports.add(ReportUtils.undefinedArray(jmmNode, indexNode.get("value")));
                     return reports;
@@ -638,22 +568,31 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
         } else {
 
             String lhsName = jmmNode.get("value");
-            identifierType = AnalysisUtils.isVariableDeclared(lhsName, symbolTable)
-                    ? AnalysisUtils.getSymbolByName(lhsName, symbolTable).getType()
+            identifierType = AnalysisUtils.isVariableDeclared(lhsName, context)
+                    ? AnalysisUtils.getSymbolByName(lhsName, context).getType()
                     : new Type("#UNKNOWN", false);
 
 
 
 
             if (jmmNode.getJmmChild(0).getKind().equals("BinaryOp")) {
-                List<Report> childReports = visit(jmmNode.getJmmChild(0), symbolTable);
+                List<Report> childReports = visit(jmmNode.getJmmChild(0), context);
                 reports.addAll(childReports);
                 return reports;
             }
 
+            // The length of something that is not an array is reported by the length itself
+            if (jmmNode.getJmmChild(0).getKind().equals("ArrayLength")) {
+                List<Report> childReports = visit(jmmNode.getJmmChild(0), context);
+                if (!childReports.isEmpty()) {
+                    reports.addAll(childReports);
+                    return reports;
+                }
+            }
+
             if(jmmNode.getJmmChild(0).getKind().equals("ArrayAccessExpr")){
                 assignmentNode = jmmNode.getJmmChild(0).getJmmChild(0);
-                List<Report> childReports = visit(jmmNode.getJmmChild(0), symbolTable);
+                List<Report> childReports = visit(jmmNode.getJmmChild(0), context);
                 reports.addAll(childReports);
             } else {
                 assignmentNode = jmmNode.getJmmChild(0); // RHS
@@ -670,7 +609,7 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
             JmmNode currentNode = stack.pop();
 
             if (currentNode.getKind().equals("BinaryOp") || currentNode.getKind().equals("ArrayAccessExpr")) {
-                List<Report> childReports = visit(currentNode, symbolTable);
+                List<Report> childReports = visit(currentNode, context);
                 reports.addAll(childReports);
 
                 // Add children to the stack to check them as well
@@ -687,7 +626,7 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
             if(assignmentNode.getJmmChild(0).getKind().equals("BinaryOp")){
                 return reports;
             }
-            List<Report> childReports = visit(assignmentNode, symbolTable);
+            List<Report> childReports = visit(assignmentNode, context);
             reports.addAll(childReports);
 
             String methodName = assignmentNode.get("value");
@@ -705,11 +644,11 @@ public class SemanticAnalysisVisitor extends AJmmVisitor<SymbolTableInit, List<R
 
         if (identifierType.getName().equals("#UNKNOWN") || assignmentType.getName().equals("#UNKNOWN")) {
             // Get the type names from the symbol table if possible
-            identifierType = identifierType.getName().equals("#UNKNOWN") && AnalysisUtils.isVariableDeclared(jmmNode.get("value"), symbolTable)
-                    ? AnalysisUtils.getSymbolByName(jmmNode.get("value"), symbolTable).getType()
+            identifierType = identifierType.getName().equals("#UNKNOWN") && AnalysisUtils.isVariableDeclared(jmmNode.get("value"), context)
+                    ? AnalysisUtils.getSymbolByName(jmmNode.get("value"), context).getType()
                     : identifierType;
-            assignmentType = assignmentType.getName().equals("#UNKNOWN") && AnalysisUtils.isVariableDeclared(assignmentNode.get("value"), symbolTable)
-                    ? AnalysisUtils.getSymbolByName(assignmentNode.get("value"), symbolTable).getType()
+            assignmentType = assignmentType.getName().equals("#UNKNOWN") && AnalysisUtils.isVariableDeclared(assignmentNode.get("value"), context)
+                    ? AnalysisUtils.getSymbolByName(assignmentNode.get("value"), context).getType()
                     : assignmentType;
 
         }
@@ -18,12 +18,36 @@ public class SymbolTableInit implements SymbolTable {
     private final Map<String, List<Symbol>> parameters = new HashMap<>();
     private final Map<String, List<Symbol>> localVars = new HashMap<>();
 
+    // Name indexes used to resolve identifiers in O(1): locals shadow parameters, parameters shadow fields
+    private final Map<String, Symbol> fieldIndex = new HashMap<>();
+    private final Map<String, Map<String, Symbol>> scopeIndex = new HashMap<>();
+    private final Set<String> methodIndex = new HashSet<>();
+
+    // Once frozen the table is only read, so it can be shared by the per-method analysis tasks
+    private boolean frozen = false;
+
+
+    public void freeze() {
+        this.frozen = true;
+    }
+
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (this.frozen) {
+            throw new IllegalStateException("Symbol table is frozen and can no longer be modified");
+        }
+    }
 
     public void setClassName(String className) {
+        checkNotFrozen();
         this.className = className;
     }
 
     public void setSuperClassName(String superClassName) {
+        checkNotFrozen();
         this.superClassName = superClassName;
     }
 
@@ -33,6 +57,7 @@ public class SymbolTableInit implements SymbolTable {
     }
 
     public void addImport(String importS){
+        checkNotFrozen();
         this.imports.add(importS);
     }
 
@@ -47,7 +72,9 @@ public class SymbolTableInit implements SymbolTable {
     }
 
     public void addField(Symbol field) {
+        checkNotFrozen();
         this.fields.add(field);
+        this.fieldIndex.putIfAbsent(field.getName(), field);
     }
     @Override
     public List<Symbol> getFields() {
@@ -60,7 +87,9 @@ public class SymbolTableInit implements SymbolTable {
     }
 
     public void addMethod(String methodName) {
+        checkNotFrozen();
         methods.add(methodName);
+        methodIndex.add(methodName);
     }
 
     @Override
@@ -79,16 +108,47 @@ public class SymbolTableInit implements SymbolTable {
     }
 
     public void addMethod(String methodName, Type returnType, List<Symbol> params, List<Symbol> localVars) {
+        checkNotFrozen();
         this.methods.add(methodName);
+        this.methodIndex.add(methodName);
         this.returnTypes.put(methodName, returnType);
         this.parameters.put(methodName, params);
         this.localVars.put(methodName, localVars);
+
+        Map<String, Symbol> locals = new HashMap<>();
+        for (Symbol localVar : localVars) {
+            locals.putIfAbsent(localVar.getName(), localVar);
+        }
+
+        Map<String, Symbol> scope = new HashMap<>();
+        for (Symbol param : params) {
+            scope.putIfAbsent(param.getName(), param);
+        }
+        scope.putAll(locals);
+
+        this.scopeIndex.put(methodName, scope);
+    }
+
+    public boolean hasMethodVariable(String methodName, String varName) {
+        var scope = this.scopeIndex.get(methodName);
+        return scope != null && scope.containsKey(varName);
+    }
+
+    public Symbol resolve(String methodName, String varName) {
+        var scope = this.scopeIndex.get(methodName);
+        if (scope != null) {
+            Symbol symbol = scope.get(varName);
+            if (symbol != null) {
+                return symbol;
+            }
+        }
+        return this.fieldIndex.get(varName);
     }
 
     public boolean hasImport(String id) {
         for (String importStr : getImports()) {
             var importList = importStr.split("\\.");
-            if (importList[importList.length-1].equals(importStr)){
+            if (importList[importList.length-1].equals(id)){
                 return true;
             }
         }
@@ -97,15 +157,15 @@ public class SymbolTableInit implements SymbolTable {
 
 
     public boolean hasMethod(String methodSignature) {
-        return this.methods.contains(methodSignature);
+        return this.methodIndex.contains(methodSignature);
     }
 
     public boolean hasField(String varName){
-        return this.fields.contains(varName);
+        return this.fieldIndex.containsKey(varName);
     }
 
     public boolean hasVariable(String varName) {
-        return this.fields.stream().anyMatch(symbol -> symbol.getName().equals(varName));
+        return this.fieldIndex.containsKey(varName);
     }
 
     public boolean isImportedClass(String className) {
@@ -33,7 +33,7 @@ public class SymbolTablePopulate extends PreorderJmmVisitor<SymbolTableInit, Int
 
     private Integer importDeclarationVisit(JmmNode importDeclaration, SymbolTableInit symbolTable){
 
-        var names = importDeclaration.get("names");
+        var names = importDeclaration.getObjectAsList("names", String.class);
         var importS = String.join(".", names);
         symbolTable.addImport(importS);
 
@@ -50,9 +50,9 @@ public class SymbolTablePopulate extends PreorderJmmVisitor<SymbolTableInit, Int
         for(var varDeclarationNode : classDeclaration.getChildren()){
             if(varDeclarationNode.getKind().equals("VarStmt")){
                 String varName = varDeclarationNode.get("value");
-                boolean isArray = varDeclarationNode.getAttributes().contains("isArray") && varDeclarationNode.get("isArray").equals("true");
-
                 JmmNode typeNode = varDeclarationNode.getChildren().get(0);
+                boolean isArray = typeNode.getAttributes().contains("isArray") && typeNode.get("isArray").equals("true");
+
                 var type = typeNode.get("value");
                 Type varType = new Type(type, isArray);
                 Symbol symbol = new Symbol(varType, varName);
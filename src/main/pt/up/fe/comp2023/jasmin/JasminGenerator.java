@@ -4,15 +4,20 @@ import org.specs.comp.ollir.*;
 import pt.up.fe.comp.jmm.jasmin.JasminBackend;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
-import pt.up.fe.specs.util.SpecsIo;
+import pt.up.fe.comp2023.CompilationMetrics;
+import pt.up.fe.comp2023.jasmin.peephole.PeepholeOptimizer;
+import pt.up.fe.comp2023.optimization.ollir.LivenessAnalysis;
+import pt.up.fe.specs.util.SpecsLogs;
 
-import java.io.File;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class JasminGenerator implements JasminBackend {
     public final JasminUtils jasminUtils = new JasminUtils();
     private final JasminInstructions jasminInstructions = new JasminInstructions();
+    private final StackAnalyzer stackAnalyzer = new StackAnalyzer();
     public ClassUnit ollirClass;
     private boolean hasConstructor;
     public boolean hasReturnInstruction;
@@ -20,38 +25,53 @@ public class JasminGenerator implements JasminBackend {
     public String superClass = "java/lang/Object";
     public HashMap<String, String> imports;
     public HashMap<String, Descriptor> varTable;
+    public Map<String, Integer> useCounts;
     public int labelCounter = 0;
-
-    public StackManager stack;
+    private final CompilationMetrics metrics;
+    private PeepholeOptimizer peepholeOptimizer;
 
     public JasminGenerator() {
+        this(CompilationMetrics.NONE);
+    }
+
+    public JasminGenerator(CompilationMetrics metrics) {
+        this.metrics = metrics;
     }
 
     @Override
     public JasminResult toJasmin(OllirResult result) {
         this.hasConstructor = false;
         this.ollirClass = result.getOllirClass();
-        File file = new File("./jasmin/" + this.ollirClass.getClassName() + ".j");
+        this.peepholeOptimizer = result.getConfig().getOrDefault("optimize", "false").equals("true")
+                ? PeepholeOptimizer.withDefaultRules()
+                : null;
+        // The whole class is emitted into this one buffer, which every helper appends to
         StringBuilder jasminCode = new StringBuilder();
 
         parseImports();
 
-        jasminCode.append(parseHeader());
-        jasminCode.append(parseFields());
-        jasminCode.append(parseMethods(jasminUtils));
+        parseHeader(jasminCode);
+        parseFields(jasminCode);
+        parseMethods(jasminCode, jasminUtils);
 
         if (!this.hasConstructor) {
-            jasminCode.append(jasminInstructions.getConstructorCode(this));
+            jasminInstructions.getConstructorCode(jasminCode, this);
         }
 
+        if (this.peepholeOptimizer != null) {
+            this.peepholeOptimizer.getStatistics().forEach((rule, count) -> metrics.count("peephole." + rule, count));
+            if (result.getConfig().getOrDefault("debug", "false").equals("true")) {
+                SpecsLogs.info(this.peepholeOptimizer.getReport());
+            }
+        }
 
-        SpecsIo.write(file, jasminCode.toString());
 
         return new JasminResult(result, jasminCode.toString(), Collections.emptyList());
     }
 
     private void parseImports() {
         this.imports = new HashMap<>();
+        this.jasminUtils.clearDescriptors();
         for (String importString : this.ollirClass.getImports()) {
             String[] parts = importString.split("\\.");
             String lastName = parts[parts.length - 1];
@@ -60,12 +80,12 @@ public class JasminGenerator implements JasminBackend {
         }
     }
 
-    private String parseHeader() {
-        StringBuilder jasminCode = new StringBuilder(".class ");
+    private void parseHeader(StringBuilder jasminCode) {
+        jasminCode.append(".class ");
 
         AccessModifiers access = this.ollirClass.getClassAccessModifier();
         if (access != AccessModifiers.DEFAULT) {
-            jasminCode.append(access.toString().toLowerCase()).append(" ");
+            jasminCode.append(access.toString().toLowerCase()).append(' ');
         }
 
         jasminCode.append(this.ollirClass.getClassName()).append('\n').append(".super ");
@@ -78,19 +98,16 @@ public class JasminGenerator implements JasminBackend {
         }
 
         jasminCode.append("\n\n");
-        return jasminCode.toString();
     }
 
-    private String parseFields() {
-        StringBuilder jasminCode = new StringBuilder();
-
+    private void parseFields(StringBuilder jasminCode) {
         for (Field field : this.ollirClass.getFields()) {
             jasminCode.append(".field ");
 
             AccessModifiers access = field.getFieldAccessModifier();
 
             if (access != AccessModifiers.DEFAULT) {
-                jasminCode.append(access.toString().toLowerCase()).append(" ");
+                jasminCode.append(access.toString().toLowerCase()).append(' ');
             }
 
             if (field.isStaticField()) {
@@ -101,29 +118,24 @@ public class JasminGenerator implements JasminBackend {
                 jasminCode.append("final ");
             }
 
-            jasminCode.append(field.getFieldName()).append(" ");
+            jasminCode.append(field.getFieldName()).append(' ');
             jasminCode.append(jasminUtils.getType(field.getFieldType(), this));
             jasminCode.append('\n');
         }
-
-        return jasminCode.toString();
     }
 
-    private String parseMethods(JasminUtils jasminUtils) {
-        StringBuilder jasminCode = new StringBuilder();
+    private void parseMethods(StringBuilder jasminCode, JasminUtils jasminUtils) {
         for (Method method : this.ollirClass.getMethods()) {
-            jasminCode.append(parseMethod(method, jasminUtils));
+            CompilationMetrics.Snapshot start = metrics.start();
+            parseMethod(jasminCode, method, jasminUtils);
+            metrics.recordMethod("backend", method.isConstructMethod() ? "<init>" : method.getMethodName(), start);
         }
         jasminCode.append('\n');
-
-        return jasminCode.toString();
-
     }
 
-    private String parseMethod(Method method, JasminUtils jasminUtils) {
-        StringBuilder jasminCode = new StringBuilder(".method ");
+    private void parseMethod(StringBuilder jasminCode, Method method, JasminUtils jasminUtils) {
+        jasminCode.append(".method ");
         this.hasReturnInstruction = false;
-        this.stack = new StackManager();
 
         AccessModifiers access = method.getMethodAccessModifier();
         if (access != AccessModifiers.DEFAULT) {
@@ -152,27 +164,38 @@ public class JasminGenerator implements JasminBackend {
 
         method.buildVarTable();
         this.varTable = method.getVarTable();
-
-        /*jasminCode.append("\t.limit stack ")
-                .append(this.stack.getStackLimit())
-                .append("\n\t.limit locals ")
-                .append(jasminUtils.getLocals(this))
-                .append("\n");*/
-
-        jasminCode.append("\t.limit stack ${STACK_COUNTER}\n\t.limit locals ")
-                .append(jasminUtils.getLocals(this)).append("\n");
-
-        for (Instruction inst : method.getInstructions()) {
-            jasminCode.append(jasminUtils.getLabels(method.getLabels(inst)))
-                    .append(jasminInstructions.getJasminCode(inst, this));
+        this.useCounts = LivenessAnalysis.countUses(method);
+
+        // The body goes straight after the header, and the limits are inserted before it once it is complete
+        int bodyStart = jasminCode.length();
+        List<Instruction> instructions = method.getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction inst = instructions.get(i);
+            jasminUtils.getLabels(jasminCode, method.getLabels(inst));
+
+            // An increment through a temporary also covers the assignment back that follows it
+            if (i + 1 < instructions.size()
+                    && jasminInstructions.getIncrementation(jasminCode, inst, instructions.get(i + 1), method, this)) {
+                i++;
+            } else {
+                jasminInstructions.getJasminCode(jasminCode, inst, this);
+            }
         }
 
         if (!this.hasReturnInstruction) {
             jasminCode.append("\treturn\n");
         }
-        jasminCode.append(".end method\n\n");
 
-        return jasminCode.toString().replace("${STACK_COUNTER}", Integer.toString(this.stack.getStackLimit()));
+        if (this.peepholeOptimizer != null) {
+            String methodBody = this.peepholeOptimizer.optimize(jasminCode.substring(bodyStart));
+            jasminCode.setLength(bodyStart);
+            jasminCode.append(methodBody);
+        }
+
+        // The limits can only be known once the whole body has been generated
+        int stackLimit = stackAnalyzer.getStackLimit(jasminCode, bodyStart, jasminCode.length());
+        jasminCode.insert(bodyStart, "\t.limit stack " + stackLimit + "\n\t.limit locals " + jasminUtils.getLocals(this) + '\n');
+        jasminCode.append(".end method\n\n");
     }
 
 }
@@ -5,8 +5,6 @@ import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.specs.util.SpecsIo;
 import pt.up.fe.specs.util.exceptions.NotImplementedException;
 
-import static org.specs.comp.ollir.CallType.invokestatic;
-
 public class JasminInstructions {
 
 
@@ -14,34 +12,55 @@ public class JasminInstructions {
 
     }
 
-    String getJasminCode(UnaryOpInstruction instruction, JasminGenerator jasminGenerator) {
-        StringBuilder jasminCode = new StringBuilder();
+    void getJasminCode(StringBuilder jasminCode, UnaryOpInstruction instruction, JasminGenerator jasminGenerator) {
         OperationType opType = instruction.getOperation().getOpType();
         if (opType == OperationType.NOTB) {
             Operand op = (Operand) instruction.getOperand();
-            jasminCode.append(jasminGenerator.jasminUtils.loadElement(op, jasminGenerator))
-                    .append("\tifne Then").append(jasminGenerator.labelCounter).append('\n')
-                    .append("\ticonst_1\n").append("\tgoto EndIf").append(jasminGenerator.labelCounter).append('\n')
-                    .append("Then").append(jasminGenerator.labelCounter).append(":\n")
+            jasminGenerator.jasminUtils.loadElement(jasminCode, op, jasminGenerator);
+            int label = jasminGenerator.labelCounter++;
+            jasminCode.append("\tifne ").append(JasminUtils.backendLabel("Then", label)).append('\n')
+                    .append("\ticonst_1\n")
+                    .append("\tgoto ").append(JasminUtils.backendLabel("EndIf", label)).append('\n')
+                    .append(JasminUtils.backendLabel("Then", label)).append(":\n")
                     .append("\ticonst_0\n")
-                    .append("EndIf").append(jasminGenerator.labelCounter).append(":\n");
-            jasminGenerator.labelCounter++;
+                    .append(JasminUtils.backendLabel("EndIf", label)).append(":\n");
         }
-
-        return jasminCode.toString();
     }
 
-    String getJasminCode(BinaryOpInstruction instruction, JasminGenerator jasminGenerator) {
-        StringBuilder jasminCode = new StringBuilder();
-
+    void getJasminCode(StringBuilder jasminCode, BinaryOpInstruction instruction, JasminGenerator jasminGenerator) {
+        JasminUtils jasminUtils = jasminGenerator.jasminUtils;
         Element leftOperand = instruction.getLeftOperand();
         Element rightOperand = instruction.getRightOperand();
 
-        jasminCode.append(jasminGenerator.jasminUtils.loadElement(leftOperand, jasminGenerator))
-                .append(jasminGenerator.jasminUtils.loadElement(rightOperand, jasminGenerator));
-
         OperationType opType = instruction.getOperation().getOpType();
 
+        // Comparisons load their own operands, as they leave out a literal 0, and && may not load the right one
+        switch (opType) {
+            case LTH:
+            case LTE:
+            case GTH:
+            case GTE:
+            case EQ:
+            case NEQ:
+                jasminUtils.stageComparison(jasminCode, leftOperand, rightOperand, opType, jasminGenerator);
+                jasminUtils.compareLabels(jasminCode, jasminGenerator);
+                return;
+            case ANDB:
+                // The right operand is the result when the left one holds, and is not loaded otherwise
+                int label = jasminGenerator.labelCounter++;
+                jasminUtils.loadElement(jasminCode, leftOperand, jasminGenerator);
+                jasminCode.append("\tifeq ").append(JasminUtils.backendLabel("FalseAND", label)).append('\n');
+                jasminUtils.loadElement(jasminCode, rightOperand, jasminGenerator);
+                jasminCode.append("\tgoto ").append(JasminUtils.backendLabel("EndAND", label)).append('\n')
+                        .append('\t').append(JasminUtils.backendLabel("FalseAND", label)).append(":\n")
+                        .append("\ticonst_0\n")
+                        .append('\t').append(JasminUtils.backendLabel("EndAND", label)).append(":\n");
+                return;
+        }
+
+        jasminUtils.loadElement(jasminCode, leftOperand, jasminGenerator);
+        jasminUtils.loadElement(jasminCode, rightOperand, jasminGenerator);
+
         switch (opType) {
             case ADD:
                 jasminCode.append("\tiadd\n");
@@ -55,64 +74,33 @@ public class JasminInstructions {
             case DIV:
                 jasminCode.append("\tidiv\n");
                 break;
-            case LTH:
-            case LTE:
-            case GTH:
-            case GTE:
-            case EQ:
-            case NEQ:
-                String comparisonType = jasminGenerator.jasminUtils.compares(instruction.getOperation());
-                jasminCode.append("\tisub\n\t")
-                        .append(comparisonType)
-                        .append(jasminGenerator.jasminUtils.compareLabels(jasminGenerator));
-                jasminGenerator.stack.decStackCounter();
-                break;
-            case ANDB:
-                jasminCode.append("\tiadd\n")
-                        .append("\ticonst_2\n")
-                        .append("\tisub\n")
-                        .append("\tiflt ComparisonThen").append(jasminGenerator.labelCounter).append('\n')
-                        .append("\ticonst_1\n")
-                        .append("\tgoto ComparisonEndIf").append(jasminGenerator.labelCounter).append("\n")
-                        .append("\tComparisonThen").append(jasminGenerator.labelCounter).append(":\n")
-                        .append("\ticonst_0\n")
-                        .append("\tComparisonEndIf").append(jasminGenerator.labelCounter++).append(":\n");
-                break;
             default:
                 throw new NotImplementedException(opType);
         }
-
-        jasminGenerator.stack.decStackCounter();
-
-        return jasminCode.toString();
     }
 
-    String getJasminCode(GetFieldInstruction instruction, JasminGenerator jasminGenerator) {
+    void getJasminCode(StringBuilder jasminCode, GetFieldInstruction instruction, JasminGenerator jasminGenerator) {
         Operand firstOperand = (Operand) instruction.getFirstOperand();
         Operand secondOperand = (Operand) instruction.getSecondOperand();
 
-        StringBuilder jasminCode = new StringBuilder();
-        jasminCode.append(jasminGenerator.jasminUtils.loadElement(firstOperand, jasminGenerator))
-                .append("\tgetfield ")
+        jasminGenerator.jasminUtils.loadElement(jasminCode, firstOperand, jasminGenerator);
+        jasminCode.append("\tgetfield ")
                 .append(jasminGenerator.imports.getOrDefault(jasminGenerator.ollirClass.getClassName(), jasminGenerator.ollirClass.getClassName()))
-                .append("/")
+                .append('/')
                 .append(secondOperand.getName())
-                .append(" ")
+                .append(' ')
                 .append(jasminGenerator.jasminUtils.getType(secondOperand.getType(), jasminGenerator))
                 .append('\n');
-        return jasminCode.toString();
     }
 
-    String getJasminCode(PutFieldInstruction instruction, JasminGenerator jasminGenerator) {
-        StringBuilder jasminCode = new StringBuilder();
-
+    void getJasminCode(StringBuilder jasminCode, PutFieldInstruction instruction, JasminGenerator jasminGenerator) {
         Operand instanceOperand = (Operand) instruction.getFirstOperand();
         Operand fieldOperand = (Operand) instruction.getSecondOperand();
         Element valueOperand = instruction.getThirdOperand();
 
-        jasminCode.append(jasminGenerator.jasminUtils.loadElement(instanceOperand, jasminGenerator))
-                .append(jasminGenerator.jasminUtils.loadElement(valueOperand, jasminGenerator))
-                .append("\tputfield ");
+        jasminGenerator.jasminUtils.loadElement(jasminCode, instanceOperand, jasminGenerator);
+        jasminGenerator.jasminUtils.loadElement(jasminCode, valueOperand, jasminGenerator);
+        jasminCode.append("\tputfield ");
 
         if (instanceOperand.getName().equals("this")) {
             jasminCode.append(jasminGenerator.ollirClass.getClassName());
@@ -120,115 +108,175 @@ public class JasminInstructions {
             jasminCode.append(instanceOperand.getName());
         }
 
-        jasminCode.append("/").append(fieldOperand.getName())
-                .append(" ").append(jasminGenerator.jasminUtils.getType(fieldOperand.getType(), jasminGenerator)).append('\n');
-
-        jasminGenerator.stack.decStackCounter(2);
-
-        return jasminCode.toString();
+        jasminCode.append('/').append(fieldOperand.getName())
+                .append(' ').append(jasminGenerator.jasminUtils.getType(fieldOperand.getType(), jasminGenerator)).append('\n');
     }
 
-    String getJasminCode(SingleOpInstruction instruction, JasminGenerator jasminGenerator) {
-        return jasminGenerator.jasminUtils.loadElement(instruction.getSingleOperand(), jasminGenerator);
+    void getJasminCode(StringBuilder jasminCode, SingleOpInstruction instruction, JasminGenerator jasminGenerator) {
+        jasminGenerator.jasminUtils.loadElement(jasminCode, instruction.getSingleOperand(), jasminGenerator);
     }
 
-    String getJasminCode(GotoInstruction instruction) {
-        return "\tgoto " + instruction.getLabel() + "\n";
+    void getJasminCode(StringBuilder jasminCode, GotoInstruction instruction) {
+        jasminCode.append("\tgoto ").append(instruction.getLabel()).append('\n');
     }
 
-    String getJasminCode(ReturnInstruction i, JasminGenerator jasminGenerator) {
+    void getJasminCode(StringBuilder jasminCode, ReturnInstruction i, JasminGenerator jasminGenerator) {
         if (!i.hasReturnValue()) {
-            return "\treturn\n";
+            jasminCode.append("\treturn\n");
+            return;
         }
 
         ElementType returnType = i.getOperand().getType().getTypeOfElement();
-        StringBuilder jasminCode = new StringBuilder(jasminGenerator.jasminUtils.loadElement(i.getOperand(), jasminGenerator));
+        jasminGenerator.jasminUtils.loadElement(jasminCode, i.getOperand(), jasminGenerator);
 
         if (returnType == ElementType.INT32 || returnType == ElementType.BOOLEAN) {
             jasminCode.append("\tireturn\n");
         } else {
             jasminCode.append("\tareturn\n");
         }
-
-        jasminGenerator.stack.decStackCounter();
-
-        return jasminCode.toString();
     }
 
-    String getJasminCode(CallInstruction instruction, JasminGenerator jasminGenerator) {
+    void getJasminCode(StringBuilder jasminCode, CallInstruction instruction, JasminGenerator jasminGenerator) {
         switch (instruction.getInvocationType()) {
             case NEW:
-                return parseNewCall(instruction, jasminGenerator);
+                parseNewCall(jasminCode, instruction, jasminGenerator);
+                break;
             case invokespecial:
             case invokevirtual:
             case invokestatic:
-                return getTypeInvoke(instruction, jasminGenerator);
+                getTypeInvoke(jasminCode, instruction, jasminGenerator);
+                break;
             case ldc:
-                return jasminGenerator.jasminUtils.loadElement(instruction.getFirstArg(), jasminGenerator);
+                jasminGenerator.jasminUtils.loadElement(jasminCode, instruction.getFirstArg(), jasminGenerator);
+                break;
             case arraylength:
-                return jasminGenerator.jasminUtils.loadElement(instruction.getFirstArg(), jasminGenerator) + "\tarraylength\n";
+                jasminGenerator.jasminUtils.loadElement(jasminCode, instruction.getFirstArg(), jasminGenerator);
+                jasminCode.append("\tarraylength\n");
+                break;
             default:
-                return "Not implemented yet";
+                jasminCode.append("Not implemented yet");
+        }
+    }
+
+    private boolean getIncrementation(StringBuilder jasminCode, BinaryOpInstruction instruction, Operand toIncrement,
+                                      JasminGenerator jasminGenerator) {
+        Integer increment = getIncrement(instruction, toIncrement, jasminGenerator);
+        if (increment == null) {
+            return false;
         }
+
+        // Jasmin picks the wide form by itself when the constant does not fit in a byte
+        int varReg = jasminGenerator.varTable.get(toIncrement.getName()).getVirtualReg();
+        jasminCode.append("\tiinc ").append(varReg).append(' ').append(increment).append('\n');
+        return true;
     }
 
-    private String getIncrementation(BinaryOpInstruction instruction, Operand toIncrement, JasminGenerator jasminGenerator) {
-        String toIncrementName = toIncrement.getName();
+    /**
+     * Emits "t = x + c" followed by "x = t", which is how "x = x + c" comes out of OLLIR when it goes through a
+     * temporary, as an iinc.
+     *
+     * @return whether the two instructions were such an increment, in which case both were emitted
+     */
+    boolean getIncrementation(StringBuilder jasminCode, Instruction instruction, Instruction next, Method method,
+                              JasminGenerator jasminGenerator) {
+        if (!(instruction instanceof AssignInstruction) || !(next instanceof AssignInstruction)
+                || !method.getLabels(next).isEmpty()) {
+            return false;
+        }
+
+        AssignInstruction assign = (AssignInstruction) instruction;
+        AssignInstruction assignBack = (AssignInstruction) next;
+        if (!(assign.getRhs() instanceof BinaryOpInstruction) || !(assignBack.getRhs() instanceof SingleOpInstruction)
+                || !isVariable(((SingleOpInstruction) assignBack.getRhs()).getSingleOperand(), assign.getDest())
+                || isVariable(assign.getDest(), assignBack.getDest())) {
+            return false;
+        }
+
+        Operand temporary = (Operand) assign.getDest();
+        Operand toIncrement = (Operand) assignBack.getDest();
+        Integer increment = getIncrement((BinaryOpInstruction) assign.getRhs(), toIncrement, jasminGenerator);
+        if (increment == null || temporary.getType().getTypeOfElement() != ElementType.INT32) {
+            return false;
+        }
+
+        Descriptor descriptor = jasminGenerator.varTable.get(toIncrement.getName());
+        jasminCode.append("\tiinc ").append(descriptor.getVirtualReg()).append(' ').append(increment).append('\n');
+
+        // The temporary only has to be written if something other than the assignment back reads it
+        if (jasminGenerator.useCounts.getOrDefault(temporary.getName(), 0) > 1) {
+            jasminGenerator.jasminUtils.loadDescriptor(jasminCode, descriptor, jasminGenerator);
+            jasminGenerator.jasminUtils.appendRegister(jasminCode.append("\tistore"),
+                    jasminGenerator.varTable.get(temporary.getName()).getVirtualReg());
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the constant added to the variable, if the operation is "x + c", "c + x" or "x - c" on an int variable
+     * and the constant fits the 16 bits of an iinc, or null otherwise
+     */
+    private Integer getIncrement(BinaryOpInstruction instruction, Operand toIncrement, JasminGenerator jasminGenerator) {
+        Descriptor descriptor = jasminGenerator.varTable.get(toIncrement.getName());
+        if (toIncrement instanceof ArrayOperand || toIncrement.getType().getTypeOfElement() != ElementType.INT32
+                || descriptor == null || descriptor.getVarType().getTypeOfElement() != ElementType.INT32) {
+            return null;
+        }
+
+        OperationType opType = instruction.getOperation().getOpType();
         Element leftElem = instruction.getLeftOperand();
         Element rightElem = instruction.getRightOperand();
-        Integer literal = null;
-
-        boolean leftIsLiteral = leftElem.isLiteral();
-        boolean rightIsLiteral = rightElem.isLiteral();
-        boolean leftIsOperand = leftElem instanceof Operand && ((Operand) leftElem).getName().equals(toIncrementName);
-        boolean rightIsOperand = rightElem instanceof Operand && ((Operand) rightElem).getName().equals(toIncrementName);
+        Integer increment = null;
 
-        if (leftIsOperand && rightIsLiteral) {
-            literal = Integer.parseInt(((LiteralElement) rightElem).getLiteral());
-        } else if (leftIsLiteral && rightIsOperand) {
-            literal = Integer.parseInt(((LiteralElement) leftElem).getLiteral());
+        if (opType == OperationType.ADD && isVariable(leftElem, toIncrement) && rightElem.isLiteral()) {
+            increment = parseInt(rightElem);
+        } else if (opType == OperationType.ADD && isVariable(rightElem, toIncrement) && leftElem.isLiteral()) {
+            increment = parseInt(leftElem);
+        } else if (opType == OperationType.SUB && isVariable(leftElem, toIncrement) && rightElem.isLiteral()) {
+            Integer value = parseInt(rightElem);
+            increment = value == null ? null : -value;
         }
 
-        if (literal != null && -128 < literal && literal < 513) {
-            String varReg = String.valueOf(jasminGenerator.varTable.get(toIncrementName).getVirtualReg());
-            return "\tiinc " + varReg + ' ' + literal + '\n';
+        if (increment == null || increment < Short.MIN_VALUE || increment > Short.MAX_VALUE) {
+            return null;
         }
+        return increment;
+    }
 
-        return "";
+    private static boolean isVariable(Element element, Element variable) {
+        return !element.isLiteral() && !(element instanceof ArrayOperand) && !(variable instanceof ArrayOperand)
+                && ((Operand) element).getName().equals(((Operand) variable).getName());
     }
 
-    private String parseNewCall(CallInstruction instruction, JasminGenerator jasminGenerator) {
-        StringBuilder jasminCode = new StringBuilder();
+    private static Integer parseInt(Element literal) {
+        try {
+            return Integer.parseInt(((LiteralElement) literal).getLiteral());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 
+    private void parseNewCall(StringBuilder jasminCode, CallInstruction instruction, JasminGenerator jasminGenerator) {
         ElementType returnType = instruction.getReturnType().getTypeOfElement();
         if (returnType == ElementType.OBJECTREF) {
             jasminCode.append("\tnew ")
                     .append(((Operand) instruction.getFirstArg()).getName())
-                    .append("\n");
-            jasminGenerator.stack.incStackCounter();
-        } else if (returnType == ElementType.ARRAYREF) {
+                    .append('\n');
+        } else if (returnType == ElementType.ARRAYREF
+                && ((ArrayType) instruction.getReturnType()).getArrayType() == ElementType.INT32) {
             for (Element e : instruction.getListOfOperands()) {
-                jasminCode.append(jasminGenerator.jasminUtils.loadElement(e, jasminGenerator));
-            }
-            jasminCode.append("\tnewarray ");
-            if (((ArrayType) instruction.getReturnType()).getArrayType() == ElementType.INT32) {
-                jasminCode.append("int\n");
-            } else {
-                return "Not implemented yet";
+                jasminGenerator.jasminUtils.loadElement(jasminCode, e, jasminGenerator);
             }
+            jasminCode.append("\tnewarray int\n");
         } else {
-            return "Not implemented yet";
+            jasminCode.append("Not implemented yet");
         }
-        jasminGenerator.stack.decStackCounter(instruction.getListOfOperands().size() - 1);
-        return jasminCode.toString();
     }
 
-    String parseInvokeSpecialCall(CallInstruction instruction, JasminGenerator jasminGenerator) {
-
-        StringBuilder jasminCode = new StringBuilder(jasminGenerator.jasminUtils.loadElement(instruction.getFirstArg(), jasminGenerator));
-
+    void parseInvokeSpecialCall(StringBuilder jasminCode, CallInstruction instruction, JasminGenerator jasminGenerator) {
+        jasminGenerator.jasminUtils.loadElement(jasminCode, instruction.getFirstArg(), jasminGenerator);
         for (Element e : instruction.getListOfOperands()) {
-            jasminCode.append(jasminGenerator.jasminUtils.loadElement(e, jasminGenerator));
+            jasminGenerator.jasminUtils.loadElement(jasminCode, e, jasminGenerator);
         }
 
         jasminCode.append("\tinvokespecial ")
@@ -240,21 +288,15 @@ public class JasminInstructions {
                                         ((ClassType) instruction.getFirstArg().getType()).getName(),
                                         ((ClassType) instruction.getFirstArg().getType()).getName())
                 )
-                .append("/<init>(");
-
-        for (Element e : instruction.getListOfOperands())
-            jasminCode.append(jasminGenerator.jasminUtils.getType(e.getType(), jasminGenerator));
-
-        jasminCode.append(")").append(jasminGenerator.jasminUtils.getType(instruction.getReturnType(), jasminGenerator)).append("\n");
-
-        return jasminCode.toString();
+                .append("/<init>");
+        jasminGenerator.jasminUtils.getMethodDescriptor(jasminCode, instruction, jasminGenerator);
+        jasminCode.append('\n');
     }
 
-    private String parseInvokeVirtualCall(CallInstruction instruction, JasminGenerator jasminGenerator) {
-        StringBuilder jasminCode = new StringBuilder(jasminGenerator.jasminUtils.loadElement(instruction.getFirstArg(), jasminGenerator));
-
+    private void parseInvokeVirtualCall(StringBuilder jasminCode, CallInstruction instruction, JasminGenerator jasminGenerator) {
+        jasminGenerator.jasminUtils.loadElement(jasminCode, instruction.getFirstArg(), jasminGenerator);
         for (Element e : instruction.getListOfOperands()) {
-            jasminCode.append(jasminGenerator.jasminUtils.loadElement(e, jasminGenerator));
+            jasminGenerator.jasminUtils.loadElement(jasminCode, e, jasminGenerator);
         }
 
         String className = (instruction.getFirstArg().getType().getTypeOfElement() == ElementType.THIS)
@@ -264,130 +306,109 @@ public class JasminInstructions {
 
         jasminCode.append("\tinvokevirtual ")
                 .append(className)
-                .append("/")
-                .append(((LiteralElement) instruction.getSecondArg()).getLiteral().replace("\"", ""))
-                .append("(");
-
-        for (Element e : instruction.getListOfOperands()) {
-            jasminCode.append(jasminGenerator.jasminUtils.getType(e.getType(), jasminGenerator));
-        }
-
-        jasminCode.append(")")
-                .append(jasminGenerator.jasminUtils.getType(instruction.getReturnType(), jasminGenerator))
-                .append("\n");
-
-        return jasminCode.toString();
+                .append('/');
+        appendMethodName(jasminCode, (LiteralElement) instruction.getSecondArg());
+        jasminGenerator.jasminUtils.getMethodDescriptor(jasminCode, instruction, jasminGenerator);
+        jasminCode.append('\n');
     }
 
-    private String parseInvokeStaticCall(CallInstruction instruction, JasminGenerator jasminGenerator) {
-        StringBuilder jasminCode = new StringBuilder();
-
+    private void parseInvokeStaticCall(StringBuilder jasminCode, CallInstruction instruction, JasminGenerator jasminGenerator) {
         for (Element e : instruction.getListOfOperands()) {
-            jasminCode.append(jasminGenerator.jasminUtils.loadElement(e, jasminGenerator));
+            jasminGenerator.jasminUtils.loadElement(jasminCode, e, jasminGenerator);
         }
 
         Operand firstArg = (Operand) instruction.getFirstArg();
         String firstArgName = firstArg.getName();
         String className = (firstArgName.equals("this")) ? jasminGenerator.ollirClass.getClassName() : firstArgName;
-        LiteralElement secondArg = (LiteralElement) instruction.getSecondArg();
-        String methodName = secondArg.getLiteral().replace("\"", "");
 
         jasminCode.append("\tinvokestatic ")
                 .append(className)
-                .append("/")
-                .append(methodName)
-                .append("(");
+                .append('/');
+        appendMethodName(jasminCode, (LiteralElement) instruction.getSecondArg());
+        jasminGenerator.jasminUtils.getMethodDescriptor(jasminCode, instruction, jasminGenerator);
+        jasminCode.append('\n');
+    }
 
-        for (Element e : instruction.getListOfOperands()) {
-            jasminCode.append(jasminGenerator.jasminUtils.getType(e.getType(), jasminGenerator));
+    /**
+     * Appends the name of the called method, which OLLIR keeps as a string literal, without its quotes.
+     */
+    private static void appendMethodName(StringBuilder jasminCode, LiteralElement methodName) {
+        String literal = methodName.getLiteral();
+        for (int i = 0; i < literal.length(); i++) {
+            if (literal.charAt(i) != '"') {
+                jasminCode.append(literal.charAt(i));
+            }
         }
-
-        jasminCode.append(")")
-                .append(jasminGenerator.jasminUtils.getType(instruction.getReturnType(), jasminGenerator))
-                .append("\n");
-
-        return jasminCode.toString();
     }
 
-    private String getTypeInvoke(CallInstruction instruction, JasminGenerator jasminGenerator) {
+    private void getTypeInvoke(StringBuilder jasminCode, CallInstruction instruction, JasminGenerator jasminGenerator) {
         boolean hasReturnValue = instruction.getReturnType().getTypeOfElement() != ElementType.VOID;
 
-        String jasminCode;
-
         switch (instruction.getInvocationType()) {
             case invokespecial:
-                jasminCode = parseInvokeSpecialCall(instruction, jasminGenerator);
+                parseInvokeSpecialCall(jasminCode, instruction, jasminGenerator);
                 break;
             case invokevirtual:
-                jasminCode = parseInvokeVirtualCall(instruction, jasminGenerator);
+                parseInvokeVirtualCall(jasminCode, instruction, jasminGenerator);
                 break;
             case invokestatic:
-                jasminCode = parseInvokeStaticCall(instruction, jasminGenerator);
+                parseInvokeStaticCall(jasminCode, instruction, jasminGenerator);
                 break;
             default:
                 throw new NotImplementedException(instruction.getInvocationType());
         }
 
         if (hasReturnValue && !jasminGenerator.insideAnAssignment) {
-            jasminCode += "\tpop\n";
+            jasminCode.append("\tpop\n");
         }
-
-        invokeInfluenceOnStack(instruction, jasminGenerator);
-
-        return jasminCode;
     }
 
-    String getJasminCode(AssignInstruction assignInstruction, JasminUtils jasminUtils, JasminGenerator jasminGenerator) {
-        StringBuilder jasminCode = new StringBuilder();
-
+    void getJasminCode(StringBuilder jasminCode, AssignInstruction assignInstruction, JasminUtils jasminUtils,
+                       JasminGenerator jasminGenerator) {
         Operand destOperand = (Operand) assignInstruction.getDest();
         Instruction rhsInstruction = assignInstruction.getRhs();
 
 
-        if (rhsInstruction.getInstType() == InstructionType.BINARYOPER) {
-            BinaryOpInstruction binaryOp = ((BinaryOpInstruction) rhsInstruction);
-            if (binaryOp.getOperation().getOpType() == OperationType.ADD) {
-                String temp = getIncrementation(binaryOp, destOperand, jasminGenerator);
-                if (!temp.isEmpty()) {
-                    return temp;
-                }
-            }
+        if (rhsInstruction.getInstType() == InstructionType.BINARYOPER
+                && getIncrementation(jasminCode, (BinaryOpInstruction) rhsInstruction, destOperand, jasminGenerator)) {
+            return;
         }
 
         Descriptor descriptor = jasminGenerator.varTable.get(destOperand.getName());
+        boolean isElementStore = descriptor.getVarType().getTypeOfElement() == ElementType.ARRAYREF
+                && destOperand.getType().getTypeOfElement() != ElementType.ARRAYREF;
 
-        if (descriptor.getVarType().getTypeOfElement() == ElementType.ARRAYREF
-                && destOperand.getType().getTypeOfElement() != ElementType.ARRAYREF) {
+        if (isElementStore) {
             ArrayOperand arrayOperand = (ArrayOperand) destOperand;
             Element indexElement = arrayOperand.getIndexOperands().get(0);
 
-            jasminCode.append(jasminUtils.loadDescriptor(descriptor, jasminGenerator))
-                    .append(jasminUtils.loadElement(indexElement, jasminGenerator));
+            jasminUtils.loadDescriptor(jasminCode, descriptor, jasminGenerator);
+            jasminUtils.loadElement(jasminCode, indexElement, jasminGenerator);
         }
 
-        jasminGenerator.insideAnAssignment = true;
-        String rhsCode = getJasminCode(rhsInstruction, jasminGenerator);
-        jasminGenerator.insideAnAssignment = false;
-
-        if (destOperand.getType() instanceof ArrayType) {
+        if (destOperand.getType() instanceof ArrayType && destOperand instanceof ArrayOperand) {
             ArrayType arrayType = (ArrayType) destOperand.getType();
-            if (destOperand instanceof ArrayOperand) {
-                ArrayOperand arrayOperand = (ArrayOperand) destOperand;
-                jasminCode.append(jasminUtils.loadElement(arrayOperand, jasminGenerator))
-                        .append(jasminUtils.loadElement(arrayOperand.getIndexOperands().get(0), jasminGenerator))
-                        .append(rhsCode)
-                        .append((arrayType.getArrayType() == ElementType.INT32 || arrayType.getArrayType() == ElementType.BOOLEAN)
-                                ? "\tiastore\n"
-                                : "\taastore\n"
-                        );
-                jasminGenerator.stack.decStackCounter(3);
-
-                return jasminCode.toString();
-            }
+            ArrayOperand arrayOperand = (ArrayOperand) destOperand;
+            jasminUtils.loadElement(jasminCode, arrayOperand, jasminGenerator);
+            jasminUtils.loadElement(jasminCode, arrayOperand.getIndexOperands().get(0), jasminGenerator);
+            getRhsCode(jasminCode, rhsInstruction, jasminGenerator);
+            jasminCode.append((arrayType.getArrayType() == ElementType.INT32 || arrayType.getArrayType() == ElementType.BOOLEAN)
+                    ? "\tiastore\n"
+                    : "\taastore\n"
+            );
+            return;
         }
 
-        int virtualReg = descriptor.getVirtualReg();
-        jasminCode.append(rhsCode);
+        getRhsCode(jasminCode, rhsInstruction, jasminGenerator);
+
+        // The array reference and the index were already loaded above, only the element store is missing
+        if (isElementStore) {
+            ElementType elementType = destOperand.getType().getTypeOfElement();
+            jasminCode.append((elementType == ElementType.INT32 || elementType == ElementType.BOOLEAN)
+                    ? "\tiastore\n"
+                    : "\taastore\n");
+            return;
+        }
 
         if (destOperand.getType().getTypeOfElement() == ElementType.INT32 || destOperand.getType().getTypeOfElement() == ElementType.BOOLEAN)
             jasminCode.append("\tistore");
@@ -395,16 +416,17 @@ public class JasminInstructions {
             jasminCode.append("\tastore");
         }
 
-        jasminGenerator.stack.decStackCounter();
-
-        jasminCode.append((virtualReg <= 3) ? "_" : " ").append(virtualReg).append("\n");
-
-        return jasminCode.toString();
+        jasminUtils.appendRegister(jasminCode, descriptor.getVirtualReg());
     }
 
-    String getJasminCode(CondBranchInstruction condBranchInstruction, JasminUtils jasminUtils, JasminGenerator jasminGenerator) {
-        StringBuilder jasminCode = new StringBuilder();
+    private void getRhsCode(StringBuilder jasminCode, Instruction rhsInstruction, JasminGenerator jasminGenerator) {
+        jasminGenerator.insideAnAssignment = true;
+        getJasminCode(jasminCode, rhsInstruction, jasminGenerator);
+        jasminGenerator.insideAnAssignment = false;
+    }
 
+    void getJasminCode(StringBuilder jasminCode, CondBranchInstruction condBranchInstruction, JasminUtils jasminUtils,
+                       JasminGenerator jasminGenerator) {
         Instruction condition = condBranchInstruction.getCondition();
         if (condition instanceof OpInstruction) {
             OpInstruction opInst = (OpInstruction) condition;
@@ -412,127 +434,84 @@ public class JasminInstructions {
             Element rightElem = opInst.getOperands().size() > 1 ? opInst.getOperands().get(1) : null;
 
             switch (opInst.getOperation().getOpType()) {
-                case EQ:
-                    jasminCode.append(jasminUtils.stageComparison(leftElem, rightElem, jasminGenerator))
-                            .append("\tifeq ").append(condBranchInstruction.getLabel()).append('\n');
-                    jasminGenerator.stack.decStackCounter();
-                    break;
                 case ANDB:
-                    jasminCode.append(jasminUtils.loadElement(leftElem, jasminGenerator))
-                            .append("\tifeq FalseAND").append(jasminGenerator.labelCounter).append('\n')
-                            .append(jasminUtils.loadElement(rightElem,jasminGenerator))
-                            .append("\tifeq FalseAND").append(jasminGenerator.labelCounter).append('\n')
-                            .append("\tgoto ").append(condBranchInstruction.getLabel()).append('\n')
-                            .append("\tFalseAND").append(jasminGenerator.labelCounter++).append(":\n");
+                    int label = jasminGenerator.labelCounter++;
+                    jasminUtils.loadElement(jasminCode, leftElem, jasminGenerator);
+                    jasminCode.append("\tifeq ").append(JasminUtils.backendLabel("FalseAND", label)).append('\n');
+                    jasminUtils.loadElement(jasminCode, rightElem, jasminGenerator);
+                    jasminCode.append("\tifne ").append(condBranchInstruction.getLabel()).append('\n')
+                            .append('\t').append(JasminUtils.backendLabel("FalseAND", label)).append(":\n");
                     break;
                 case ORB:
-                    jasminCode.append(jasminUtils.loadElement(leftElem, jasminGenerator))
-                            .append("\tifne ").append(condBranchInstruction.getLabel()).append('\n')
-                            .append(jasminUtils.loadElement(rightElem, jasminGenerator))
-                            .append("\tifne ").append(condBranchInstruction.getLabel()).append('\n');
+                    jasminUtils.loadElement(jasminCode, leftElem, jasminGenerator);
+                    jasminCode.append("\tifne ").append(condBranchInstruction.getLabel()).append('\n');
+                    jasminUtils.loadElement(jasminCode, rightElem, jasminGenerator);
+                    jasminCode.append("\tifne ").append(condBranchInstruction.getLabel()).append('\n');
                     break;
                 case NOTB:
-                    jasminCode.append(jasminUtils.loadElement(leftElem, jasminGenerator))
-                            .append("\tifeq ").append(condBranchInstruction.getLabel()).append('\n');
+                    jasminUtils.loadElement(jasminCode, leftElem, jasminGenerator);
+                    jasminCode.append("\tifeq ").append(condBranchInstruction.getLabel()).append('\n');
                     break;
+                case EQ:
                 case NEQ:
-                    jasminCode.append(jasminUtils.stageComparison(leftElem, rightElem, jasminGenerator))
-                            .append("\tifne ").append(condBranchInstruction.getLabel()).append('\n');
-                    jasminGenerator.stack.decStackCounter();
-                    break;
                 case LTH:
                 case LTE:
                 case GTH:
                 case GTE:
-                    jasminCode.append(jasminUtils.stageComparison(leftElem, rightElem, jasminGenerator))
-                            .append('\t').append(jasminUtils.compares(opInst.getOperation())).append(' ')
-                            .append(condBranchInstruction.getLabel()).append('\n');
-                    jasminGenerator.stack.decStackCounter();
+                    jasminUtils.stageComparison(jasminCode, leftElem, rightElem, opInst.getOperation().getOpType(), jasminGenerator);
+                    jasminCode.append(' ').append(condBranchInstruction.getLabel()).append('\n');
                     break;
                 default:
                     throw new NotImplementedException(opInst.getOperation().getOpType());
             }
         } else if (condBranchInstruction instanceof SingleOpCondInstruction) {
             SingleOpCondInstruction singleOp = (SingleOpCondInstruction) condBranchInstruction;
-            jasminCode.append(jasminUtils.loadElement(singleOp.getOperands().get(0), jasminGenerator))
-                    .append("\tifne ").append(condBranchInstruction.getLabel()).append("\n");
+            jasminUtils.loadElement(jasminCode, singleOp.getOperands().get(0), jasminGenerator);
+            jasminCode.append("\tifne ").append(condBranchInstruction.getLabel()).append('\n');
         } else {
             throw new NotImplementedException(condBranchInstruction.toString());
         }
-
-        jasminGenerator.stack.decStackCounter();
-
-        return jasminCode.toString();
     }
 
-    String getJasminCode(Instruction instruction, JasminGenerator jasminGenerator) {
+    /**
+     * Appends the code of the instruction to the code of the method being generated.
+     */
+    void getJasminCode(StringBuilder jasminCode, Instruction instruction, JasminGenerator jasminGenerator) {
 
         if (instruction instanceof CallInstruction) {
-            return getJasminCode((CallInstruction) instruction, jasminGenerator);
-        }
-
-        if (instruction instanceof AssignInstruction) {
-            return getJasminCode((AssignInstruction) instruction, jasminGenerator.jasminUtils, jasminGenerator);
-        }
-
-        if (instruction instanceof GotoInstruction) {
-            return getJasminCode((GotoInstruction) instruction);
-        }
-
-        if (instruction instanceof ReturnInstruction) {
+            getJasminCode(jasminCode, (CallInstruction) instruction, jasminGenerator);
+        } else if (instruction instanceof AssignInstruction) {
+            getJasminCode(jasminCode, (AssignInstruction) instruction, jasminGenerator.jasminUtils, jasminGenerator);
+        } else if (instruction instanceof GotoInstruction) {
+            getJasminCode(jasminCode, (GotoInstruction) instruction);
+        } else if (instruction instanceof ReturnInstruction) {
             jasminGenerator.hasReturnInstruction = true;
-            return getJasminCode((ReturnInstruction) instruction, jasminGenerator);
-        }
-
-        if (instruction instanceof SingleOpInstruction) {
-            return getJasminCode((SingleOpInstruction) instruction, jasminGenerator);
-        }
-
-        if (instruction instanceof PutFieldInstruction) {
-            return getJasminCode((PutFieldInstruction) instruction, jasminGenerator);
-        }
-
-        if (instruction instanceof GetFieldInstruction) {
-            return getJasminCode((GetFieldInstruction) instruction, jasminGenerator);
-        }
-
-        if (instruction instanceof BinaryOpInstruction) {
-            return getJasminCode((BinaryOpInstruction) instruction, jasminGenerator);
-        }
-
-        if (instruction instanceof UnaryOpInstruction) {
-            return getJasminCode((UnaryOpInstruction) instruction, jasminGenerator);
-        }
-
-        if (instruction instanceof CondBranchInstruction) {
-            return getJasminCode((CondBranchInstruction) instruction, jasminGenerator.jasminUtils, jasminGenerator);
+            getJasminCode(jasminCode, (ReturnInstruction) instruction, jasminGenerator);
+        } else if (instruction instanceof SingleOpInstruction) {
+            getJasminCode(jasminCode, (SingleOpInstruction) instruction, jasminGenerator);
+        } else if (instruction instanceof PutFieldInstruction) {
+            getJasminCode(jasminCode, (PutFieldInstruction) instruction, jasminGenerator);
+        } else if (instruction instanceof GetFieldInstruction) {
+            getJasminCode(jasminCode, (GetFieldInstruction) instruction, jasminGenerator);
+        } else if (instruction instanceof BinaryOpInstruction) {
+            getJasminCode(jasminCode, (BinaryOpInstruction) instruction, jasminGenerator);
+        } else if (instruction instanceof UnaryOpInstruction) {
+            getJasminCode(jasminCode, (UnaryOpInstruction) instruction, jasminGenerator);
+        } else if (instruction instanceof CondBranchInstruction) {
+            getJasminCode(jasminCode, (CondBranchInstruction) instruction, jasminGenerator.jasminUtils, jasminGenerator);
+        } else {
+            jasminCode.append("Not implemented yet");
         }
-
-        return "Not implemented yet";
     }
 
-    String getConstructorCode(JasminGenerator jasminGenerator) {
-        return SpecsIo.getResource("jasminTemplate/constructor.template")
-                .replace("${SUPER_NAME}", jasminGenerator.superClass) + '\n';
+    void getConstructorCode(StringBuilder jasminCode, JasminGenerator jasminGenerator) {
+        jasminCode.append(ConstructorTemplate.CODE.replace("${SUPER_NAME}", jasminGenerator.superClass)).append('\n');
     }
 
-    void invokeInfluenceOnStack(CallInstruction instruction, JasminGenerator jasminGenerator) {
-        boolean hasLoadedOperands = instruction.getListOfOperands().size() != 0;
-        boolean hasReturnValue = instruction.getReturnType().getTypeOfElement() != ElementType.VOID;
-        int decrementValue = 0;
-
-        if (hasLoadedOperands && hasReturnValue) {
-            decrementValue = instruction.getListOfOperands().size();
-        } else if (hasLoadedOperands && !hasReturnValue) {
-            decrementValue = instruction.getListOfOperands().size() + 1;
-        } else if (!hasLoadedOperands && !hasReturnValue) {
-            decrementValue = 1;
-        }
-
-        if (instruction.getInvocationType() == invokestatic) {
-            decrementValue -= 1;
-        }
-
-        jasminGenerator.stack.decStackCounter(decrementValue);
+    /**
+     * The template is read the first time a class needs a default constructor, and only that time.
+     */
+    private static class ConstructorTemplate {
+        private static final String CODE = SpecsIo.getResource("jasminTemplate/constructor.template");
     }
 }
@@ -3,51 +3,80 @@ package pt.up.fe.comp2023.jasmin;
 import org.specs.comp.ollir.*;
 import pt.up.fe.specs.util.exceptions.NotImplementedException;
 
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class JasminUtils {
+    private static final Map<ElementType, String> ARRAY_DESCRIPTORS = new EnumMap<>(Map.of(
+            ElementType.INT32, "[I",
+            ElementType.BOOLEAN, "[Z",
+            ElementType.STRING, "[Ljava/lang/String;"));
+
+    // OLLIR types have no equals, so the descriptors of classes are kept by class name; they depend on the imports of
+    // the class being generated, so they are cleared for every class
+    private final Map<String, String> classDescriptors = new HashMap<>();
+
+    // Method descriptors by the signature of the call, see appendSignature; cleared with the class descriptors they
+    // are built from
+    private final Map<String, String> methodDescriptors = new HashMap<>();
+    private final StringBuilder signature = new StringBuilder();
+
     public JasminUtils() {
     }
 
-    String getLabels(List<String> labels) {
-        StringBuilder jasminCode = new StringBuilder();
+    void clearDescriptors() {
+        classDescriptors.clear();
+        methodDescriptors.clear();
+    }
 
+    void getLabels(StringBuilder jasminCode, List<String> labels) {
         for (String label : labels) {
-            jasminCode.append("\t").append(label).append(":\n");
+            jasminCode.append('\t').append(label).append(":\n");
         }
+    }
 
-        return jasminCode.toString();
+    /**
+     * @return a label for a branch the backend adds on its own; OLLIR labels are identifiers, which cannot start with
+     *         '@', so it never takes the name of a label of the method
+     */
+    static String backendLabel(String name, int label) {
+        return "@" + name + label;
     }
 
-    public String compareLabels(JasminGenerator jasminGenerator) {
-        jasminGenerator.stack.incStackCounter();
-        String beginThenLabel = " ComparisonThen" + jasminGenerator.labelCounter;
-        String thenLabel = "ComparisonThen" + jasminGenerator.labelCounter;
-        String midEndLabel = "ComparisonEndIf" + jasminGenerator.labelCounter;
-        String endLabel = "ComparisonEndIf" + jasminGenerator.labelCounter++;
-        return  beginThenLabel + "\n" +
-                "\ticonst_0\n" +
-                "\tgoto " + midEndLabel + '\n' +
-                thenLabel + ":\n" +
-                "\ticonst_1\n" +
-                endLabel + ":\n";
+    public void compareLabels(StringBuilder jasminCode, JasminGenerator jasminGenerator) {
+        int label = jasminGenerator.labelCounter++;
+        jasminCode.append(' ').append(backendLabel("ComparisonThen", label)).append('\n')
+                .append("\ticonst_0\n")
+                .append("\tgoto ").append(backendLabel("ComparisonEndIf", label)).append('\n')
+                .append(backendLabel("ComparisonThen", label)).append(":\n")
+                .append("\ticonst_1\n")
+                .append(backendLabel("ComparisonEndIf", label)).append(":\n");
     }
 
-    public String loadDescriptor(Descriptor descriptor, JasminGenerator jasminGenerator) {
-        jasminGenerator.stack.incStackCounter();
+    public void loadDescriptor(StringBuilder jasminCode, Descriptor descriptor, JasminGenerator jasminGenerator) {
         ElementType elementType = descriptor.getVarType().getTypeOfElement();
         if (elementType == ElementType.THIS) {
-            return "\taload_0\n";
+            jasminCode.append("\taload_0\n");
+            return;
         }
 
         String loadInstruction = (elementType == ElementType.INT32 || elementType == ElementType.BOOLEAN) ? "iload" : "aload";
-        String regString = (descriptor.getVirtualReg() <= 3) ? "_" + descriptor.getVirtualReg() : " " + descriptor.getVirtualReg();
-        return "\t" + loadInstruction + regString + "\n";
+        appendRegister(jasminCode.append('\t').append(loadInstruction), descriptor.getVirtualReg());
     }
 
-    String loadElement(Element e, JasminGenerator jasminGenerator) {
+    /**
+     * Appends the register of a load or store to its opcode, in the short form when there is one, and ends the line.
+     */
+    void appendRegister(StringBuilder jasminCode, int register) {
+        jasminCode.append(register <= 3 ? '_' : ' ').append(register).append('\n');
+    }
+
+    void loadElement(StringBuilder jasminCode, Element e, JasminGenerator jasminGenerator) {
         if (e.isLiteral()) {
-            return loadLiteralElement((LiteralElement) e, jasminGenerator);
+            loadLiteralElement(jasminCode, (LiteralElement) e);
+            return;
         }
 
         Operand op = (Operand) e;
@@ -56,50 +85,44 @@ public class JasminUtils {
             throw new NotImplementedException(op.getName());
         }
 
+        loadDescriptor(jasminCode, d, jasminGenerator);
         if (e.getType().getTypeOfElement() != ElementType.ARRAYREF
                 && d.getVarType().getTypeOfElement() == ElementType.ARRAYREF) {
             ArrayOperand arrayOp = (ArrayOperand) e;
-            Element index = arrayOp.getIndexOperands().get(0);
-
-            jasminGenerator.stack.decStackCounter();
-            return loadDescriptor(d, jasminGenerator) + loadElement(index, jasminGenerator) + "\tiaload\n";
+            loadElement(jasminCode, arrayOp.getIndexOperands().get(0), jasminGenerator);
+            jasminCode.append("\tiaload\n");
         }
-
-        return loadDescriptor(d, jasminGenerator);
     }
 
-    private String loadLiteralElement(LiteralElement element, JasminGenerator jasminGenerator) {
-        jasminGenerator.stack.incStackCounter();
-
+    private void loadLiteralElement(StringBuilder jasminCode, LiteralElement element) {
         int literal;
         try {
             literal = Integer.parseInt(element.getLiteral());
         } catch (NumberFormatException e) {
-            return "\tldc " + element.getLiteral() + '\n';
+            jasminCode.append("\tldc ").append(element.getLiteral()).append('\n');
+            return;
         }
 
         ElementType elementType = element.getType().getTypeOfElement();
-        String jasminCode = "\t";
         switch (elementType) {
             case INT32, BOOLEAN:
                 if (literal <= 5 && literal >= -1) {
-                    jasminCode += "iconst_" + literal + "\n";
+                    jasminCode.append("\ticonst_").append(literal);
                 } else if (literal >= Byte.MIN_VALUE && literal <= Byte.MAX_VALUE) {
-                    jasminCode += "bipush " + literal + "\n";
+                    jasminCode.append("\tbipush ").append(literal);
                 } else if (literal >= Short.MIN_VALUE && literal <= Short.MAX_VALUE) {
-                    jasminCode += "sipush " + literal + "\n";
+                    jasminCode.append("\tsipush ").append(literal);
                 } else {
-                    jasminCode += "ldc " + literal + "\n";
+                    jasminCode.append("\tldc ").append(literal);
                 }
+                jasminCode.append('\n');
                 break;
             case STRING:
-                jasminCode += "ldc " + element.getLiteral() + "\n";
+                jasminCode.append("\tldc ").append(element.getLiteral()).append('\n');
                 break;
             default:
                 throw new NotImplementedException(element.getType());
         }
-
-        return jasminCode;
     }
 
     String getType(Type type, JasminGenerator jasminGenerator) {
@@ -115,51 +138,133 @@ public class JasminUtils {
             case VOID:
                 return "V";
             case ARRAYREF:
-                return "[" + getType(new Type(((ArrayType) type).getArrayType()), jasminGenerator);
+                ArrayType arrayType = (ArrayType) type;
+                String arrayDescriptor = ARRAY_DESCRIPTORS.get(arrayType.getArrayType());
+                return arrayDescriptor != null
+                        ? arrayDescriptor
+                        : "[" + getClassDescriptor(((ClassType) arrayType.getElementType()).getName(), jasminGenerator);
             case OBJECTREF:
-                String className = ((ClassType) type).getName();
-                String importedName = jasminGenerator.imports.getOrDefault(className, className);
-                return "L" + importedName + ";";
+                return getClassDescriptor(((ClassType) type).getName(), jasminGenerator);
             default:
                 throw new NotImplementedException(type);
         }
     }
 
-    String stageComparison(Element first, Element second, JasminGenerator jasminGenerator) {
-        return loadElement(first, jasminGenerator) + loadElement(second, jasminGenerator) + "\tisub\n";
+    private String getClassDescriptor(String className, JasminGenerator jasminGenerator) {
+        return classDescriptors.computeIfAbsent(className,
+                name -> "L" + jasminGenerator.imports.getOrDefault(name, name) + ";");
     }
 
-    String compares(Operation operation) {
-        String comparison;
-        switch (operation.getOpType()) {
+    /**
+     * Appends the descriptor of the called method, made of the types of the arguments and of the result.
+     */
+    void getMethodDescriptor(StringBuilder jasminCode, CallInstruction instruction, JasminGenerator jasminGenerator) {
+        signature.setLength(0);
+        for (Element e : instruction.getListOfOperands()) {
+            appendSignature(signature, e.getType());
+        }
+        signature.append(')');
+        appendSignature(signature, instruction.getReturnType());
+
+        String key = signature.toString();
+        String descriptor = methodDescriptors.get(key);
+        if (descriptor == null) {
+            StringBuilder built = new StringBuilder("(");
+            for (Element e : instruction.getListOfOperands()) {
+                built.append(getType(e.getType(), jasminGenerator));
+            }
+            built.append(')').append(getType(instruction.getReturnType(), jasminGenerator));
+
+            descriptor = built.toString();
+            methodDescriptors.put(key, descriptor);
+        }
+        jasminCode.append(descriptor);
+    }
+
+    /**
+     * Appends what tells the type apart from the others where their descriptors differ: a letter for its element type,
+     * and for classes and arrays of classes the class name, which cannot contain the ';' that ends it. OLLIR types have
+     * no equals, so the key of a signature is built from these rather than from the types themselves.
+     */
+    private static void appendSignature(StringBuilder signature, Type type) {
+        ElementType elementType = type.getTypeOfElement();
+        signature.append((char) ('A' + elementType.ordinal()));
+
+        if (elementType == ElementType.ARRAYREF) {
+            ArrayType arrayType = (ArrayType) type;
+            signature.append((char) ('A' + arrayType.getArrayType().ordinal()));
+            if (!ARRAY_DESCRIPTORS.containsKey(arrayType.getArrayType())) {
+                signature.append(((ClassType) arrayType.getElementType()).getName()).append(';');
+            }
+        } else if (elementType == ElementType.OBJECTREF) {
+            signature.append(((ClassType) type).getName()).append(';');
+        }
+    }
+
+    /**
+     * Loads the operands of a comparison and emits the branch that jumps when it holds, up to its label. A literal 0
+     * operand is not loaded, and the other one is compared against zero instead.
+     */
+    void stageComparison(StringBuilder jasminCode, Element first, Element second, OperationType opType,
+                         JasminGenerator jasminGenerator) {
+        if (isZero(second)) {
+            loadElement(jasminCode, first, jasminGenerator);
+            jasminCode.append("\tif").append(compares(opType));
+        } else if (isZero(first)) {
+            // 0 < b holds when b > 0, so the comparison is mirrored
+            loadElement(jasminCode, second, jasminGenerator);
+            jasminCode.append("\tif").append(compares(mirror(opType)));
+        } else {
+            loadElement(jasminCode, first, jasminGenerator);
+            loadElement(jasminCode, second, jasminGenerator);
+            jasminCode.append("\tif_icmp").append(compares(opType));
+        }
+    }
+
+    private boolean isZero(Element element) {
+        return element.isLiteral() && ((LiteralElement) element).getLiteral().equals("0");
+    }
+
+    private String compares(OperationType opType) {
+        switch (opType) {
             case GTE:
-                comparison = "ifge";
-                break;
+                return "ge";
             case GTH:
-                comparison = "ifgt";
-                break;
+                return "gt";
             case LTE:
-                comparison = "ifle";
-                break;
+                return "le";
             case LTH:
-                comparison = "iflt";
-                break;
+                return "lt";
             case EQ:
-                comparison = "ifeq";
-                break;
-            case NOTB:
+                return "eq";
             case NEQ:
-                comparison = "ifne";
-                break;
+                return "ne";
+            default:
+                throw new NotImplementedException(opType);
+        }
+    }
+
+    private OperationType mirror(OperationType opType) {
+        switch (opType) {
+            case GTE:
+                return OperationType.LTE;
+            case GTH:
+                return OperationType.LTH;
+            case LTE:
+                return OperationType.GTE;
+            case LTH:
+                return OperationType.GTH;
             default:
-                throw new NotImplementedException(operation.getOpType());
+                return opType;
         }
-        return comparison;
     }
 
     int getLocals(JasminGenerator jasminGenerator) {
+        // Fields and the classes of static calls show up in the table, but take no local
         return jasminGenerator.varTable.values()
                 .stream()
+                .filter(descriptor -> descriptor.getScope() != VarScope.FIELD
+                        && descriptor.getVarType().getTypeOfElement() != ElementType.CLASS)
                 .mapToInt(Descriptor::getVirtualReg)
                 .max()
                 .orElse(0) + 1;
@@ -0,0 +1,295 @@
+package pt.up.fe.comp2023.jasmin;
+
+import pt.up.fe.specs.util.exceptions.NotImplementedException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes the maximum operand stack depth of an emitted method body by propagating the depth along every control
+ * flow edge, following the branches to their labels.
+ * <p>
+ * The body is read in place from the buffer it was emitted into, line by line, and only the opcodes and the operands
+ * the analysis needs are copied out of it.
+ */
+public class StackAnalyzer {
+
+    private static final int NO_TARGET = -1;
+
+    public StackAnalyzer() {
+    }
+
+    public int getStackLimit(CharSequence methodBody) {
+        return getStackLimit(methodBody, 0, methodBody.length());
+    }
+
+    /**
+     * @return the maximum stack depth of the method body that spans from start to end in the code
+     */
+    public int getStackLimit(CharSequence code, int start, int end) {
+        int capacity = 16;
+        int[] lineStarts = new int[capacity];
+        int[] lineEnds = new int[capacity];
+        int[] effects = new int[capacity];
+        int[] targets = new int[capacity];
+        boolean[] terminators = new boolean[capacity];
+        String[] branchLabels = new String[capacity];
+        Map<String, Integer> labels = new HashMap<>();
+        int size = 0;
+
+        for (int lineStart = start; lineStart < end; ) {
+            int lineEnd = indexOf(code, '\n', lineStart, end);
+            int first = skipWhitespace(code, lineStart, lineEnd);
+            int last = lineEnd;
+            while (last > first && code.charAt(last - 1) <= ' ') {
+                last--;
+            }
+            lineStart = lineEnd + 1;
+
+            if (first == last || code.charAt(first) == '.' || code.charAt(first) == ';') {
+                continue;
+            }
+
+            if (code.charAt(last - 1) == ':') {
+                labels.put(code.subSequence(first, last - 1).toString(), size);
+                continue;
+            }
+
+            if (size == capacity) {
+                capacity *= 2;
+                lineStarts = Arrays.copyOf(lineStarts, capacity);
+                lineEnds = Arrays.copyOf(lineEnds, capacity);
+                effects = Arrays.copyOf(effects, capacity);
+                targets = Arrays.copyOf(targets, capacity);
+                terminators = Arrays.copyOf(terminators, capacity);
+                branchLabels = Arrays.copyOf(branchLabels, capacity);
+            }
+
+            int opcodeEnd = first;
+            while (opcodeEnd < last && code.charAt(opcodeEnd) > ' ') {
+                opcodeEnd++;
+            }
+            String opcode = code.subSequence(first, opcodeEnd).toString();
+            int operandStart = skipWhitespace(code, opcodeEnd, last);
+
+            lineStarts[size] = first;
+            lineEnds[size] = last;
+            effects[size] = getStackEffect(opcode, code, operandStart, last);
+            terminators[size] = isTerminator(opcode);
+            branchLabels[size] = isBranch(opcode) ? code.subSequence(operandStart, last).toString() : null;
+            size++;
+        }
+
+        // Branches may jump forward, so they are resolved once every label is known
+        for (int i = 0; i < size; i++) {
+            if (branchLabels[i] == null) {
+                targets[i] = NO_TARGET;
+                continue;
+            }
+
+            Integer target = labels.get(branchLabels[i]);
+            if (target == null) {
+                throw new IllegalStateException("Undefined label '" + branchLabels[i] + "'");
+            }
+            targets[i] = target;
+        }
+
+        int[] depths = new int[size];
+        Arrays.fill(depths, -1);
+
+        // Every instruction is pushed at most once, when its depth is first known
+        int[] worklist = new int[size];
+        int pending = 0;
+        int maxDepth = 0;
+        if (size > 0) {
+            depths[0] = 0;
+            worklist[pending++] = 0;
+        }
+
+        while (pending > 0) {
+            int index = worklist[--pending];
+
+            int depth = depths[index] + effects[index];
+            if (depth < 0) {
+                throw new IllegalStateException("Stack underflow at '" + code.subSequence(lineStarts[index], lineEnds[index]) + "'");
+            }
+            maxDepth = Math.max(maxDepth, depth);
+
+            if (targets[index] != NO_TARGET) {
+                pending = propagate(targets[index], depth, depths, worklist, pending, code, lineStarts, lineEnds);
+            }
+
+            if (!terminators[index] && index + 1 < size) {
+                pending = propagate(index + 1, depth, depths, worklist, pending, code, lineStarts, lineEnds);
+            }
+        }
+
+        return maxDepth;
+    }
+
+    private int propagate(int index, int depth, int[] depths, int[] worklist, int pending, CharSequence code,
+                          int[] lineStarts, int[] lineEnds) {
+        if (index >= depths.length) {
+            return pending;
+        }
+
+        if (depths[index] == -1) {
+            depths[index] = depth;
+            worklist[pending++] = index;
+        } else if (depths[index] != depth) {
+            // The JVM requires the same depth on every path that joins, so this is a code generation bug
+            throw new IllegalStateException("Inconsistent stack depth (" + depths[index] + " and " + depth
+                    + ") at '" + code.subSequence(lineStarts[index], lineEnds[index]) + "'");
+        }
+        return pending;
+    }
+
+    private static int indexOf(CharSequence code, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (code.charAt(i) == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int skipWhitespace(CharSequence code, int from, int end) {
+        while (from < end && code.charAt(from) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private boolean isBranch(String opcode) {
+        return opcode.startsWith("if") || opcode.equals("goto") || opcode.equals("goto_w");
+    }
+
+    private boolean isTerminator(String opcode) {
+        return opcode.equals("goto") || opcode.equals("goto_w") || opcode.endsWith("return") || opcode.equals("athrow");
+    }
+
+    private int getStackEffect(String opcode, CharSequence code, int operandStart, int operandEnd) {
+        if (opcode.startsWith("invoke")) {
+            return getInvokeEffect(opcode, code, operandStart, operandEnd);
+        }
+
+        if (opcode.startsWith("iconst_") || opcode.startsWith("iload") || opcode.startsWith("aload_")) {
+            return 1;
+        }
+
+        if (opcode.startsWith("istore") || opcode.startsWith("astore")) {
+            return -1;
+        }
+
+        switch (opcode) {
+            case "aload":
+            case "aconst_null":
+            case "bipush":
+            case "sipush":
+            case "ldc":
+            case "ldc_w":
+            case "new":
+            case "dup":
+            case "dup_x1":
+            case "dup_x2":
+            case "getstatic":
+                return 1;
+            case "dup2":
+                return 2;
+            case "iinc":
+            case "ineg":
+            case "newarray":
+            case "anewarray":
+            case "arraylength":
+            case "checkcast":
+            case "instanceof":
+            case "getfield":
+            case "swap":
+            case "nop":
+            case "goto":
+            case "goto_w":
+            case "return":
+            case "i2b":
+            case "i2c":
+            case "i2s":
+                return 0;
+            case "pop":
+            case "putstatic":
+            case "iadd":
+            case "isub":
+            case "imul":
+            case "idiv":
+            case "irem":
+            case "iand":
+            case "ior":
+            case "ixor":
+            case "ishl":
+            case "ishr":
+            case "iushr":
+            case "iaload":
+            case "baload":
+            case "aaload":
+            case "ifeq":
+            case "ifne":
+            case "iflt":
+            case "ifge":
+            case "ifgt":
+            case "ifle":
+            case "ifnull":
+            case "ifnonnull":
+            case "ireturn":
+            case "areturn":
+            case "athrow":
+                return -1;
+            case "pop2":
+            case "putfield":
+            case "if_icmpeq":
+            case "if_icmpne":
+            case "if_icmplt":
+            case "if_icmpge":
+            case "if_icmpgt":
+            case "if_icmple":
+            case "if_acmpeq":
+            case "if_acmpne":
+                return -2;
+            case "iastore":
+            case "bastore":
+            case "aastore":
+                return -3;
+            case "multianewarray":
+                int dimensions = operandEnd;
+                while (code.charAt(dimensions - 1) > ' ') {
+                    dimensions--;
+                }
+                return 1 - Integer.parseInt(code.subSequence(dimensions, operandEnd).toString());
+            default:
+                throw new NotImplementedException(opcode);
+        }
+    }
+
+    private int getInvokeEffect(String opcode, CharSequence code, int operandStart, int operandEnd) {
+        int i = indexOf(code, '(', operandStart, operandEnd);
+        boolean isVoid = code.charAt(operandEnd - 1) == 'V' && code.charAt(operandEnd - 2) == ')';
+        int effect = isVoid ? 0 : 1;
+
+        if (!opcode.equals("invokestatic")) {
+            effect--;
+        }
+
+        i++;
+        while (code.charAt(i) != ')') {
+            char c = code.charAt(i);
+            while (c == '[') {
+                c = code.charAt(++i);
+            }
+            if (c == 'L') {
+                i = indexOf(code, ';', i, operandEnd);
+            }
+            effect--;
+            i++;
+        }
+
+        return effect;
+    }
+}
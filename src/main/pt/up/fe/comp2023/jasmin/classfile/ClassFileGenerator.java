@@ -0,0 +1,710 @@
+package pt.up.fe.comp2023.jasmin.classfile;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.jasmin.JasminBackend;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.CompilationMetrics;
+import pt.up.fe.comp2023.optimization.ollir.LivenessAnalysis;
+import pt.up.fe.specs.util.exceptions.NotImplementedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static pt.up.fe.comp2023.jasmin.classfile.Opcodes.*;
+
+/**
+ * Backend that encodes the OLLIR class straight into a class file, without going through Jasmin assembly. It selects
+ * the same instructions as {@link pt.up.fe.comp2023.jasmin.JasminGenerator}.
+ */
+public class ClassFileGenerator implements JasminBackend {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 52;
+
+    private ClassUnit ollirClass;
+    private ConstantPool pool;
+    private String className;
+    private String superClass;
+    private HashMap<String, String> imports;
+    private HashMap<String, Descriptor> varTable;
+    private Map<String, Integer> useCounts;
+    private CodeBuilder code;
+    private final CompilationMetrics metrics;
+
+    public ClassFileGenerator() {
+        this(CompilationMetrics.NONE);
+    }
+
+    public ClassFileGenerator(CompilationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public JasminResult toJasmin(OllirResult result) {
+        this.ollirClass = result.getOllirClass();
+        this.pool = new ConstantPool();
+
+        parseImports();
+        this.className = this.ollirClass.getClassName();
+        this.superClass = this.ollirClass.getSuperClass() != null
+                ? this.imports.getOrDefault(this.ollirClass.getSuperClass(), this.ollirClass.getSuperClass())
+                : "java/lang/Object";
+
+        return new ClassFileResult(result, toClassFile(), Collections.emptyList());
+    }
+
+    private void parseImports() {
+        this.imports = new HashMap<>();
+        for (String importString : this.ollirClass.getImports()) {
+            String[] parts = importString.split("\\.");
+            this.imports.put(parts[parts.length - 1], String.join("/", parts));
+        }
+    }
+
+    private byte[] toClassFile() {
+        // The members are encoded first, since they add the constants that the pool must hold before being written
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+
+        try {
+            DataOutputStream out = new DataOutputStream(members);
+            int thisClass = pool.addClass(className);
+            int superClassIndex = pool.addClass(superClass);
+
+            out.writeShort(0);
+
+            out.writeShort(ollirClass.getFields().size());
+            for (Field field : ollirClass.getFields()) {
+                writeField(out, field);
+            }
+
+            boolean hasConstructor = ollirClass.getMethods().stream().anyMatch(Method::isConstructMethod);
+            out.writeShort(ollirClass.getMethods().size() + (hasConstructor ? 0 : 1));
+            for (Method method : ollirClass.getMethods()) {
+                CompilationMetrics.Snapshot start = metrics.start();
+                writeMethod(out, method);
+                metrics.recordMethod("backend", method.isConstructMethod() ? "<init>" : method.getMethodName(), start);
+            }
+            if (!hasConstructor) {
+                writeDefaultConstructor(out);
+            }
+
+            out.writeShort(0);
+
+            DataOutputStream header = new DataOutputStream(classFile);
+            header.writeInt(MAGIC);
+            header.writeShort(0);
+            header.writeShort(MAJOR_VERSION);
+            pool.writeTo(header);
+            header.writeShort(getAccessFlags(ollirClass.getClassAccessModifier(), false, ollirClass.isFinalClass()) | ACC_SUPER);
+            header.writeShort(thisClass);
+            header.writeShort(superClassIndex);
+            members.writeTo(header);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return classFile.toByteArray();
+    }
+
+    private int getAccessFlags(AccessModifiers access, boolean isStatic, boolean isFinal) {
+        int flags = 0;
+        switch (access) {
+            case PUBLIC:
+                flags = ACC_PUBLIC;
+                break;
+            case PRIVATE:
+                flags = ACC_PRIVATE;
+                break;
+            case PROTECTED:
+                flags = ACC_PROTECTED;
+                break;
+            default:
+                break;
+        }
+        if (isStatic) {
+            flags |= ACC_STATIC;
+        }
+        if (isFinal) {
+            flags |= ACC_FINAL;
+        }
+        return flags;
+    }
+
+    private void writeField(DataOutputStream out, Field field) throws IOException {
+        out.writeShort(getAccessFlags(field.getFieldAccessModifier(), field.isStaticField(), field.isFinalField()));
+        out.writeShort(pool.addUtf8(field.getFieldName()));
+        out.writeShort(pool.addUtf8(getDescriptor(field.getFieldType())));
+        out.writeShort(0);
+    }
+
+    private void writeMethod(DataOutputStream out, Method method) throws IOException {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (Element param : method.getParams()) {
+            descriptor.append(getDescriptor(param.getType()));
+        }
+        descriptor.append(')').append(getDescriptor(method.getReturnType()));
+
+        method.buildVarTable();
+        this.varTable = method.getVarTable();
+        this.useCounts = LivenessAnalysis.countUses(method);
+
+        List<String> initialLocals = new ArrayList<>();
+        if (!method.isStaticMethod()) {
+            initialLocals.add(method.isConstructMethod() ? "U" : "L" + className + ";");
+        }
+        for (Element param : method.getParams()) {
+            initialLocals.add(toVerificationType(getDescriptor(param.getType())));
+        }
+
+        this.code = new CodeBuilder(pool, "L" + className + ";", initialLocals);
+
+        boolean endsWithReturn = false;
+        List<Instruction> instructions = method.getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction inst = instructions.get(i);
+            for (String label : method.getLabels(inst)) {
+                code.mark(code.getLabel(label));
+            }
+
+            // An increment through a temporary also covers the assignment back that follows it
+            if (i + 1 < instructions.size() && generateIncrement(inst, instructions.get(i + 1), method)) {
+                i++;
+            } else {
+                generate(inst);
+            }
+            endsWithReturn = instructions.get(i) instanceof ReturnInstruction;
+        }
+
+        if (!endsWithReturn) {
+            code.insn(RETURN);
+        }
+
+        out.writeShort(getAccessFlags(method.getMethodAccessModifier(), method.isStaticMethod(), method.isFinalMethod()));
+        out.writeShort(pool.addUtf8(method.isConstructMethod() ? "<init>" : method.getMethodName()));
+        out.writeShort(pool.addUtf8(descriptor.toString()));
+        writeCode(out);
+    }
+
+    private void writeDefaultConstructor(DataOutputStream out) throws IOException {
+        this.code = new CodeBuilder(pool, "L" + className + ";", List.of("U"));
+        code.var(ALOAD, 0);
+        code.invoke(INVOKESPECIAL, superClass, "<init>", "()V");
+        code.insn(RETURN);
+
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(pool.addUtf8("<init>"));
+        out.writeShort(pool.addUtf8("()V"));
+        writeCode(out);
+    }
+
+    private void writeCode(DataOutputStream out) throws IOException {
+        CodeBuilder.EncodedCode encoded = code.build();
+        byte[] bytecode = encoded.getCode();
+        byte[] frames = encoded.getStackMapTable();
+        boolean hasFrames = encoded.getFrameCount() > 0;
+
+        // Attribute names are looked up before the length is written, since they may grow the pool
+        int codeName = pool.addUtf8("Code");
+        int stackMapName = hasFrames ? pool.addUtf8("StackMapTable") : 0;
+
+        int stackMapLength = hasFrames ? 2 + 4 + 2 + frames.length : 0;
+
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(2 + 2 + 4 + bytecode.length + 2 + 2 + stackMapLength);
+        out.writeShort(code.getMaxStack());
+        out.writeShort(code.getMaxLocals());
+        out.writeInt(bytecode.length);
+        out.write(bytecode);
+        out.writeShort(0);
+
+        if (hasFrames) {
+            out.writeShort(1);
+            out.writeShort(stackMapName);
+            out.writeInt(2 + frames.length);
+            out.writeShort(encoded.getFrameCount());
+            out.write(frames);
+        } else {
+            out.writeShort(0);
+        }
+    }
+
+    private void generate(Instruction instruction) {
+        switch (instruction.getInstType()) {
+            case ASSIGN:
+                generateAssign((AssignInstruction) instruction);
+                break;
+            case CALL:
+                CallInstruction call = (CallInstruction) instruction;
+                generateCall(call);
+                if (call.getReturnType().getTypeOfElement() != ElementType.VOID) {
+                    code.insn(POP);
+                }
+                break;
+            case GOTO:
+                code.jump(GOTO, code.getLabel(((GotoInstruction) instruction).getLabel()));
+                break;
+            case BRANCH:
+                generateBranch((CondBranchInstruction) instruction);
+                break;
+            case RETURN:
+                generateReturn((ReturnInstruction) instruction);
+                break;
+            case PUTFIELD:
+                generatePutField((PutFieldInstruction) instruction);
+                break;
+            default:
+                // Instructions whose value is not used still have to be evaluated for their side effects
+                generateValue(instruction);
+                code.insn(POP);
+        }
+    }
+
+    private void generateAssign(AssignInstruction instruction) {
+        Operand dest = (Operand) instruction.getDest();
+        Instruction rhs = instruction.getRhs();
+        Descriptor descriptor = varTable.get(dest.getName());
+
+        if (isArrayAccess(dest, descriptor)) {
+            Element index = ((ArrayOperand) dest).getIndexOperands().get(0);
+            code.var(ALOAD, descriptor.getVirtualReg());
+            load(index);
+            generateValue(rhs);
+            code.insn(isIntLike(dest.getType()) ? IASTORE : AASTORE);
+            return;
+        }
+
+        Integer increment = getIncrement(dest, rhs);
+        if (increment != null) {
+            code.iinc(descriptor.getVirtualReg(), increment);
+            return;
+        }
+
+        generateValue(rhs);
+        code.var(isIntLike(dest.getType()) ? ISTORE : ASTORE, descriptor.getVirtualReg());
+    }
+
+    /**
+     * Generates "t = a + c" followed by "a = t", which is how "a = a + c" comes out of OLLIR when it goes through a
+     * temporary, as an iinc.
+     *
+     * @return whether the two instructions were such an increment
+     */
+    private boolean generateIncrement(Instruction instruction, Instruction next, Method method) {
+        if (!(instruction instanceof AssignInstruction) || !(next instanceof AssignInstruction)
+                || !method.getLabels(next).isEmpty()) {
+            return false;
+        }
+
+        AssignInstruction assign = (AssignInstruction) instruction;
+        AssignInstruction assignBack = (AssignInstruction) next;
+        if (!(assign.getDest() instanceof Operand) || assign.getDest() instanceof ArrayOperand
+                || !(assignBack.getRhs() instanceof SingleOpInstruction)
+                || assignBack.getDest() instanceof ArrayOperand) {
+            return false;
+        }
+
+        Operand temporary = (Operand) assign.getDest();
+        Operand dest = (Operand) assignBack.getDest();
+        Element value = ((SingleOpInstruction) assignBack.getRhs()).getSingleOperand();
+        Integer increment = getIncrement(dest, assign.getRhs());
+        if (!isVariable(value, temporary) || isVariable(dest, temporary) || increment == null
+                || !isIntLike(temporary.getType()) || isArrayAccess(dest, varTable.get(dest.getName()))) {
+            return false;
+        }
+
+        int register = varTable.get(dest.getName()).getVirtualReg();
+        code.iinc(register, increment);
+
+        // The temporary only has to be written if something other than the assignment back reads it
+        if (useCounts.getOrDefault(temporary.getName(), 0) > 1) {
+            code.var(ILOAD, register);
+            code.var(ISTORE, varTable.get(temporary.getName()).getVirtualReg());
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the constant added to the destination, if the assignment is "a = a + c" or "a = a - c"
+     */
+    private Integer getIncrement(Operand dest, Instruction rhs) {
+        if (!(rhs instanceof BinaryOpInstruction) || !isIntLike(dest.getType())) {
+            return null;
+        }
+
+        BinaryOpInstruction binaryOp = (BinaryOpInstruction) rhs;
+        OperationType opType = binaryOp.getOperation().getOpType();
+        Element left = binaryOp.getLeftOperand();
+        Element right = binaryOp.getRightOperand();
+
+        Integer increment = null;
+        if (opType == OperationType.ADD && isVariable(left, dest) && right.isLiteral()) {
+            increment = parseInt(right);
+        } else if (opType == OperationType.ADD && isVariable(right, dest) && left.isLiteral()) {
+            increment = parseInt(left);
+        } else if (opType == OperationType.SUB && isVariable(left, dest) && right.isLiteral()) {
+            Integer value = parseInt(right);
+            increment = value == null ? null : -value;
+        }
+
+        if (increment == null || increment < Short.MIN_VALUE || increment > Short.MAX_VALUE) {
+            return null;
+        }
+        return increment;
+    }
+
+    private boolean isVariable(Element element, Operand variable) {
+        return !element.isLiteral() && !(element instanceof ArrayOperand)
+                && ((Operand) element).getName().equals(variable.getName());
+    }
+
+    private Integer parseInt(Element literal) {
+        try {
+            return Integer.parseInt(((LiteralElement) literal).getLiteral());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Generates an instruction that leaves its value on top of the stack.
+     */
+    private void generateValue(Instruction instruction) {
+        switch (instruction.getInstType()) {
+            case NOPER:
+                load(((SingleOpInstruction) instruction).getSingleOperand());
+                break;
+            case BINARYOPER:
+                generateBinaryOp((BinaryOpInstruction) instruction);
+                break;
+            case UNARYOPER:
+                UnaryOpInstruction unaryOp = (UnaryOpInstruction) instruction;
+                OperationType opType = unaryOp.getOperation().getOpType();
+                if (opType != OperationType.NOTB && opType != OperationType.NOT) {
+                    throw new NotImplementedException(opType);
+                }
+                load(unaryOp.getOperand());
+                code.iconst(1);
+                code.insn(IXOR);
+                break;
+            case CALL:
+                generateCall((CallInstruction) instruction);
+                break;
+            case GETFIELD:
+                GetFieldInstruction getField = (GetFieldInstruction) instruction;
+                Operand field = (Operand) getField.getSecondOperand();
+                load(getField.getFirstOperand());
+                code.field(GETFIELD, getOwner(getField.getFirstOperand()), field.getName(), getDescriptor(field.getType()));
+                break;
+            default:
+                throw new NotImplementedException(instruction.getInstType());
+        }
+    }
+
+    private void generateBinaryOp(BinaryOpInstruction instruction) {
+        Element left = instruction.getLeftOperand();
+        Element right = instruction.getRightOperand();
+        OperationType opType = instruction.getOperation().getOpType();
+
+        if (opType == OperationType.ANDB || opType == OperationType.ORB) {
+            // Short-circuit, the right operand is only loaded when it decides the result
+            CodeBuilder.Label shortCircuit = code.newLabel();
+            CodeBuilder.Label end = code.newLabel();
+            int branch = opType == OperationType.ANDB ? IFEQ : IFNE;
+
+            load(left);
+            code.jump(branch, shortCircuit);
+            load(right);
+            code.jump(GOTO, end);
+            code.mark(shortCircuit);
+            code.iconst(opType == OperationType.ANDB ? 0 : 1);
+            code.mark(end);
+            return;
+        }
+
+        Integer compare = getCompareOpcode(opType);
+        if (compare != null) {
+            CodeBuilder.Label isTrue = code.newLabel();
+            CodeBuilder.Label end = code.newLabel();
+
+            load(left);
+            load(right);
+            code.jump(compare, isTrue);
+            code.iconst(0);
+            code.jump(GOTO, end);
+            code.mark(isTrue);
+            code.iconst(1);
+            code.mark(end);
+            return;
+        }
+
+        load(left);
+        load(right);
+        code.insn(getArithmeticOpcode(opType));
+    }
+
+    private int getArithmeticOpcode(OperationType opType) {
+        switch (opType) {
+            case ADD:
+                return IADD;
+            case SUB:
+                return ISUB;
+            case MUL:
+                return IMUL;
+            case DIV:
+                return IDIV;
+            case SHL:
+                return ISHL;
+            case SHR:
+                return ISHR;
+            case SHRR:
+                return IUSHR;
+            case AND:
+                return IAND;
+            case OR:
+                return IOR;
+            case XOR:
+                return IXOR;
+            default:
+                throw new NotImplementedException(opType);
+        }
+    }
+
+    private Integer getCompareOpcode(OperationType opType) {
+        switch (opType) {
+            case LTH:
+                return IF_ICMPLT;
+            case LTE:
+                return IF_ICMPLE;
+            case GTH:
+                return IF_ICMPGT;
+            case GTE:
+                return IF_ICMPGE;
+            case EQ:
+                return IF_ICMPEQ;
+            case NEQ:
+                return IF_ICMPNE;
+            default:
+                return null;
+        }
+    }
+
+    private void generateBranch(CondBranchInstruction instruction) {
+        CodeBuilder.Label target = code.getLabel(instruction.getLabel());
+        Instruction condition = instruction.getCondition();
+
+        if (condition instanceof BinaryOpInstruction) {
+            BinaryOpInstruction binaryOp = (BinaryOpInstruction) condition;
+            OperationType opType = binaryOp.getOperation().getOpType();
+            Integer compare = getCompareOpcode(opType);
+
+            if (compare != null) {
+                load(binaryOp.getLeftOperand());
+                load(binaryOp.getRightOperand());
+                code.jump(compare, target);
+                return;
+            }
+
+            if (opType == OperationType.ANDB) {
+                CodeBuilder.Label skip = code.newLabel();
+                load(binaryOp.getLeftOperand());
+                code.jump(IFEQ, skip);
+                load(binaryOp.getRightOperand());
+                code.jump(IFNE, target);
+                code.mark(skip);
+                return;
+            }
+
+            if (opType == OperationType.ORB) {
+                load(binaryOp.getLeftOperand());
+                code.jump(IFNE, target);
+                load(binaryOp.getRightOperand());
+                code.jump(IFNE, target);
+                return;
+            }
+        }
+
+        if (condition instanceof UnaryOpInstruction) {
+            load(((UnaryOpInstruction) condition).getOperand());
+            code.jump(IFEQ, target);
+            return;
+        }
+
+        generateValue(condition);
+        code.jump(IFNE, target);
+    }
+
+    private void generateReturn(ReturnInstruction instruction) {
+        if (!instruction.hasReturnValue()) {
+            code.insn(RETURN);
+            return;
+        }
+
+        load(instruction.getOperand());
+        code.insn(isIntLike(instruction.getOperand().getType()) ? IRETURN : ARETURN);
+    }
+
+    private void generatePutField(PutFieldInstruction instruction) {
+        Operand field = (Operand) instruction.getSecondOperand();
+        load(instruction.getFirstOperand());
+        load(instruction.getThirdOperand());
+        code.field(PUTFIELD, getOwner(instruction.getFirstOperand()), field.getName(), getDescriptor(field.getType()));
+    }
+
+    private void generateCall(CallInstruction instruction) {
+        switch (instruction.getInvocationType()) {
+            case NEW:
+                generateNew(instruction);
+                return;
+            case arraylength:
+                load(instruction.getFirstArg());
+                code.insn(ARRAYLENGTH);
+                return;
+            case ldc:
+                load(instruction.getFirstArg());
+                return;
+            default:
+                break;
+        }
+
+        Element target = instruction.getFirstArg();
+        String name = ((LiteralElement) instruction.getSecondArg()).getLiteral().replace("\"", "");
+        String owner;
+        int opcode;
+
+        switch (instruction.getInvocationType()) {
+            case invokestatic:
+                String targetName = ((Operand) target).getName();
+                owner = targetName.equals("this") ? className : imports.getOrDefault(targetName, targetName);
+                opcode = INVOKESTATIC;
+                break;
+            case invokespecial:
+                load(target);
+                owner = target.getType().getTypeOfElement() == ElementType.THIS ? superClass : getOwner(target);
+                opcode = INVOKESPECIAL;
+                break;
+            case invokevirtual:
+                load(target);
+                owner = getOwner(target);
+                opcode = INVOKEVIRTUAL;
+                break;
+            default:
+                throw new NotImplementedException(instruction.getInvocationType());
+        }
+
+        StringBuilder descriptor = new StringBuilder("(");
+        for (Element argument : instruction.getListOfOperands()) {
+            load(argument);
+            descriptor.append(getDescriptor(argument.getType()));
+        }
+        descriptor.append(')').append(getDescriptor(instruction.getReturnType()));
+
+        code.invoke(opcode, owner, name, descriptor.toString());
+    }
+
+    private void generateNew(CallInstruction instruction) {
+        Type type = instruction.getReturnType();
+
+        if (type.getTypeOfElement() == ElementType.ARRAYREF) {
+            for (Element size : instruction.getListOfOperands()) {
+                load(size);
+            }
+            code.newArray(getDescriptor(type));
+            return;
+        }
+
+        String name = ((Operand) instruction.getFirstArg()).getName();
+        code.newObject(imports.getOrDefault(name, name));
+    }
+
+    private void load(Element element) {
+        if (element.isLiteral()) {
+            String literal = ((LiteralElement) element).getLiteral();
+            Integer value = parseInt(element);
+            if (value != null) {
+                code.iconst(value);
+            } else {
+                code.sconst(literal.replace("\"", ""));
+            }
+            return;
+        }
+
+        Operand operand = (Operand) element;
+        if (operand.getType().getTypeOfElement() == ElementType.THIS) {
+            code.var(ALOAD, 0);
+            return;
+        }
+
+        Descriptor descriptor = varTable.get(operand.getName());
+        if (descriptor == null) {
+            throw new NotImplementedException(operand.getName());
+        }
+
+        if (isArrayAccess(operand, descriptor)) {
+            code.var(ALOAD, descriptor.getVirtualReg());
+            load(((ArrayOperand) operand).getIndexOperands().get(0));
+            code.insn(isIntLike(operand.getType()) ? IALOAD : AALOAD);
+            return;
+        }
+
+        code.var(isIntLike(descriptor.getVarType()) ? ILOAD : ALOAD, descriptor.getVirtualReg());
+    }
+
+    private boolean isArrayAccess(Operand operand, Descriptor descriptor) {
+        return descriptor.getVarType().getTypeOfElement() == ElementType.ARRAYREF
+                && operand.getType().getTypeOfElement() != ElementType.ARRAYREF;
+    }
+
+    private boolean isIntLike(Type type) {
+        return type.getTypeOfElement() == ElementType.INT32 || type.getTypeOfElement() == ElementType.BOOLEAN;
+    }
+
+    private String getOwner(Element element) {
+        Type type = element.getType();
+        if (type.getTypeOfElement() == ElementType.THIS) {
+            return className;
+        }
+
+        return getInternalName((ClassType) type);
+    }
+
+    private String getInternalName(ClassType type) {
+        return imports.getOrDefault(type.getName(), type.getName());
+    }
+
+    private String getDescriptor(Type type) {
+        switch (type.getTypeOfElement()) {
+            case INT32:
+                return "I";
+            case BOOLEAN:
+                return "Z";
+            case STRING:
+                return "Ljava/lang/String;";
+            case VOID:
+                return "V";
+            case THIS:
+                return "L" + className + ";";
+            case ARRAYREF:
+                return "[" + getDescriptor(((ArrayType) type).getElementType());
+            case OBJECTREF:
+            case CLASS:
+                return "L" + getInternalName((ClassType) type) + ";";
+            default:
+                throw new NotImplementedException(type);
+        }
+    }
+
+    private String toVerificationType(String descriptor) {
+        return descriptor.equals("Z") ? "I" : descriptor;
+    }
+}
@@ -0,0 +1,46 @@
+package pt.up.fe.comp2023.jasmin.classfile;
+
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of the class file backend. There is no Jasmin code, so compiling just writes the bytes that were generated.
+ */
+public class ClassFileResult extends JasminResult {
+
+    private final byte[] classFile;
+
+    public ClassFileResult(OllirResult ollirResult, byte[] classFile, List<Report> reports) {
+        super(ollirResult, null, reports);
+        this.classFile = classFile;
+    }
+
+    public ClassFileResult(String className, byte[] classFile, List<Report> reports, Map<String, String> config) {
+        super(className, null, reports, config);
+        this.classFile = classFile;
+    }
+
+    public byte[] getClassFile() {
+        return classFile;
+    }
+
+    @Override
+    public File compile(File outputDir) {
+        File file = new File(outputDir, getClassName() + ".class");
+        try {
+            Files.createDirectories(outputDir.toPath());
+            Files.write(file.toPath(), classFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write class file " + file, e);
+        }
+        return file;
+    }
+}
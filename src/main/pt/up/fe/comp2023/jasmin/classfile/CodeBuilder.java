@@ -0,0 +1,816 @@
+package pt.up.fe.comp2023.jasmin.classfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static pt.up.fe.comp2023.jasmin.classfile.Opcodes.*;
+
+/**
+ * Collects the instructions of one method and encodes them as a Code attribute.
+ * <p>
+ * Nothing is computed while instructions are added. When the method is complete, {@link #build()} infers the
+ * verification types of every instruction (which also gives the exact max stack and max locals), drops unreachable
+ * code, picks the short or wide form of each branch and writes the StackMapTable.
+ * <p>
+ * Verification types are kept as strings: "I" for int, "T" for top, "U" for uninitializedThis, "new#k" for the object
+ * created by the k-th instruction, and a field descriptor for any other reference.
+ */
+public class CodeBuilder {
+
+    private static final String INT = "I";
+    private static final String TOP = "T";
+    private static final String UNINITIALIZED_THIS = "U";
+    private static final String OBJECT = "Ljava/lang/Object;";
+
+    private final ConstantPool pool;
+    private final String thisType;
+    private final List<String> initialLocals;
+    private final Map<String, Label> namedLabels = new HashMap<>();
+    private List<Insn> instructions = new ArrayList<>();
+
+    private int maxStack;
+    private int maxLocals;
+
+    /**
+     * @param thisType      descriptor of the class being generated
+     * @param initialLocals verification types of "this" and of the parameters, one per slot
+     */
+    public CodeBuilder(ConstantPool pool, String thisType, List<String> initialLocals) {
+        this.pool = pool;
+        this.thisType = thisType;
+        this.initialLocals = initialLocals;
+    }
+
+    public static class Label {
+        private int index = -1;
+    }
+
+    private static class Insn {
+        final int opcode;
+        int operand;
+        int increment;
+        Label target;
+        // Type pushed by constants, allocations and checkcast; descriptor of invocations and field accesses
+        String type;
+        String name;
+
+        Insn(int opcode) {
+            this.opcode = opcode;
+        }
+    }
+
+    public Label newLabel() {
+        return new Label();
+    }
+
+    /**
+     * @return the label with the given name, shared by every branch and mark that uses that name
+     */
+    public Label getLabel(String name) {
+        return namedLabels.computeIfAbsent(name, key -> new Label());
+    }
+
+    public void mark(Label label) {
+        if (label.index != -1) {
+            throw new IllegalStateException("Label marked twice");
+        }
+        label.index = instructions.size();
+    }
+
+    public void insn(int opcode) {
+        instructions.add(new Insn(opcode));
+    }
+
+    public void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            insn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            operandInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            operandInsn(SIPUSH, value);
+        } else {
+            ldc(pool.addInteger(value), INT);
+        }
+    }
+
+    public void sconst(String value) {
+        ldc(pool.addString(value), "Ljava/lang/String;");
+    }
+
+    private void ldc(int index, String type) {
+        Insn insn = operandInsn(index <= 0xFF ? LDC : LDC_W, index);
+        insn.type = type;
+    }
+
+    /**
+     * @param opcode ILOAD, ALOAD, ISTORE or ASTORE; the short and wide forms are chosen from the variable index
+     */
+    public void var(int opcode, int var) {
+        operandInsn(opcode, var);
+    }
+
+    public void iinc(int var, int increment) {
+        Insn insn = operandInsn(IINC, var);
+        insn.increment = increment;
+    }
+
+    public void jump(int opcode, Label target) {
+        Insn insn = new Insn(opcode);
+        insn.target = target;
+        instructions.add(insn);
+    }
+
+    public void newObject(String internalName) {
+        Insn insn = operandInsn(NEW, pool.addClass(internalName));
+        insn.type = "L" + internalName + ";";
+    }
+
+    public void newArray(String arrayDescriptor) {
+        Insn insn;
+        switch (arrayDescriptor) {
+            case "[I":
+                insn = operandInsn(NEWARRAY, T_INT);
+                break;
+            case "[Z":
+                insn = operandInsn(NEWARRAY, T_BOOLEAN);
+                break;
+            default:
+                insn = operandInsn(ANEWARRAY, pool.addClass(toInternalName(arrayDescriptor.substring(1))));
+        }
+        insn.type = arrayDescriptor;
+    }
+
+    public void field(int opcode, String owner, String name, String descriptor) {
+        Insn insn = operandInsn(opcode, pool.addFieldref(owner, name, descriptor));
+        insn.type = descriptor;
+    }
+
+    public void invoke(int opcode, String owner, String name, String descriptor) {
+        Insn insn = operandInsn(opcode, pool.addMethodref(owner, name, descriptor));
+        insn.type = descriptor;
+        insn.name = name;
+    }
+
+    private Insn operandInsn(int opcode, int operand) {
+        Insn insn = new Insn(opcode);
+        insn.operand = operand;
+        instructions.add(insn);
+        return insn;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    public int getMaxLocals() {
+        return maxLocals;
+    }
+
+    /**
+     * Encodes the instructions. Afterwards {@link #getMaxStack()} and {@link #getMaxLocals()} hold the method's limits.
+     *
+     * @return the code array and the StackMapTable entries
+     */
+    public EncodedCode build() {
+        Frame[] frames = analyse();
+
+        // Unreachable code cannot be given a frame that verifies, so it is dropped
+        if (Arrays.asList(frames).contains(null)) {
+            removeUnreachable(frames);
+            frames = analyse();
+        }
+
+        int size = instructions.size();
+        boolean[] wide = new boolean[size];
+        int[] offsets = layout(wide);
+
+        if (offsets[size] > 0xFFFF) {
+            throw new IllegalStateException("Method code is larger than 65535 bytes");
+        }
+
+        // Frames are required at branch targets and wherever control cannot fall through from the previous instruction
+        TreeSet<Integer> frameIndexes = new TreeSet<>();
+        for (int i = 0; i < size; i++) {
+            Insn insn = instructions.get(i);
+            if (insn.target != null) {
+                frameIndexes.add(insn.target.index);
+            }
+            if ((isTerminator(insn.opcode) || (wide[i] && insn.opcode != GOTO)) && i + 1 < size) {
+                frameIndexes.add(i + 1);
+            }
+        }
+
+        return new EncodedCode(encode(offsets, wide), encodeFrames(frameIndexes, frames, offsets), frameIndexes.size());
+    }
+
+    public static class EncodedCode {
+        private final byte[] code;
+        private final byte[] stackMapTable;
+        private final int frameCount;
+
+        EncodedCode(byte[] code, byte[] stackMapTable, int frameCount) {
+            this.code = code;
+            this.stackMapTable = stackMapTable;
+            this.frameCount = frameCount;
+        }
+
+        public byte[] getCode() {
+            return code;
+        }
+
+        /**
+         * @return the entries of the StackMapTable attribute, without the entry count
+         */
+        public byte[] getStackMapTable() {
+            return stackMapTable;
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+    }
+
+    private static class Frame {
+        final String[] locals;
+        final List<String> stack;
+
+        Frame(String[] locals, List<String> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+        Frame copy() {
+            return new Frame(locals.clone(), new ArrayList<>(stack));
+        }
+
+        /**
+         * @return the merged frame, or null if merging does not change this one
+         */
+        Frame merge(Frame other) {
+            if (stack.size() != other.stack.size()) {
+                throw new IllegalStateException("Inconsistent stack height (" + stack.size() + " and "
+                        + other.stack.size() + ")");
+            }
+
+            Frame merged = copy();
+            boolean changed = false;
+
+            for (int i = 0; i < locals.length; i++) {
+                if (!locals[i].equals(other.locals[i]) && !locals[i].equals(TOP)) {
+                    merged.locals[i] = TOP;
+                    changed = true;
+                }
+            }
+
+            for (int i = 0; i < stack.size(); i++) {
+                String type = stack.get(i);
+                if (type.equals(other.stack.get(i)) || type.equals(OBJECT)) {
+                    continue;
+                }
+                if (!isReference(type) || !isReference(other.stack.get(i))) {
+                    throw new IllegalStateException("Incompatible stack types " + type + " and " + other.stack.get(i));
+                }
+                merged.stack.set(i, OBJECT);
+                changed = true;
+            }
+
+            return changed ? merged : null;
+        }
+    }
+
+    private static boolean isReference(String type) {
+        return type.startsWith("L") || type.startsWith("[");
+    }
+
+    private Frame[] analyse() {
+        int size = instructions.size();
+        Frame[] frames = new Frame[size];
+        if (size == 0) {
+            throw new IllegalStateException("Method has no instructions");
+        }
+
+        int localsSize = initialLocals.size();
+        for (Insn insn : instructions) {
+            if (isVarInsn(insn.opcode)) {
+                localsSize = Math.max(localsSize, insn.operand + 1);
+            }
+        }
+
+        String[] locals = new String[localsSize];
+        Arrays.fill(locals, TOP);
+        for (int i = 0; i < initialLocals.size(); i++) {
+            locals[i] = initialLocals.get(i);
+        }
+
+        maxStack = 0;
+        maxLocals = localsSize;
+
+        frames[0] = new Frame(locals, new ArrayList<>());
+        Deque<Integer> worklist = new ArrayDeque<>();
+        worklist.push(0);
+
+        while (!worklist.isEmpty()) {
+            int index = worklist.pop();
+            Insn insn = instructions.get(index);
+            Frame frame = frames[index].copy();
+
+            execute(index, insn, frame);
+            maxStack = Math.max(maxStack, frame.stack.size());
+
+            if (insn.target != null) {
+                propagate(insn.target.index, frame, frames, worklist);
+            }
+
+            if (!isTerminator(insn.opcode)) {
+                if (index + 1 == size) {
+                    throw new IllegalStateException("Execution falls off the end of the method");
+                }
+                propagate(index + 1, frame, frames, worklist);
+            }
+        }
+
+        return frames;
+    }
+
+    private void propagate(int index, Frame frame, Frame[] frames, Deque<Integer> worklist) {
+        if (index < 0 || index >= frames.length) {
+            throw new IllegalStateException("Branch to an unmarked label or past the end of the method");
+        }
+
+        if (frames[index] == null) {
+            frames[index] = frame.copy();
+            worklist.push(index);
+            return;
+        }
+
+        Frame merged = frames[index].merge(frame);
+        if (merged != null) {
+            frames[index] = merged;
+            worklist.push(index);
+        }
+    }
+
+    private void execute(int index, Insn insn, Frame frame) {
+        List<String> stack = frame.stack;
+        int opcode = insn.opcode;
+
+        if (opcode >= ICONST_M1 && opcode <= ICONST_0 + 5) {
+            stack.add(INT);
+            return;
+        }
+
+        switch (opcode) {
+            case BIPUSH:
+            case SIPUSH:
+            case ILOAD:
+                stack.add(INT);
+                break;
+            case LDC:
+            case LDC_W:
+                stack.add(insn.type);
+                break;
+            case ALOAD:
+                stack.add(frame.locals[insn.operand]);
+                break;
+            case ISTORE:
+                pop(stack, 1);
+                frame.locals[insn.operand] = INT;
+                break;
+            case ASTORE:
+                frame.locals[insn.operand] = stack.remove(stack.size() - 1);
+                break;
+            case IINC:
+            case GOTO:
+            case RETURN:
+                break;
+            case IADD:
+            case ISUB:
+            case IMUL:
+            case IDIV:
+            case IREM:
+            case ISHL:
+            case ISHR:
+            case IUSHR:
+            case IAND:
+            case IOR:
+            case IXOR:
+            case IALOAD:
+            case BALOAD:
+                pop(stack, 2);
+                stack.add(INT);
+                break;
+            case AALOAD:
+                pop(stack, 1);
+                stack.add(stack.remove(stack.size() - 1).substring(1));
+                break;
+            case IASTORE:
+            case BASTORE:
+            case AASTORE:
+                pop(stack, 3);
+                break;
+            case INEG:
+            case ARRAYLENGTH:
+                pop(stack, 1);
+                stack.add(INT);
+                break;
+            case NEWARRAY:
+            case ANEWARRAY:
+            case CHECKCAST:
+                pop(stack, 1);
+                stack.add(insn.type);
+                break;
+            case NEW:
+                stack.add("new#" + index);
+                break;
+            case DUP:
+                stack.add(stack.get(stack.size() - 1));
+                break;
+            case POP:
+            case IRETURN:
+            case ARETURN:
+            case PUTSTATIC:
+            case IFEQ:
+            case IFNE:
+            case IFLT:
+            case IFGE:
+            case IFGT:
+            case IFLE:
+            case IFNULL:
+            case IFNONNULL:
+                pop(stack, 1);
+                break;
+            case IF_ICMPEQ:
+            case IF_ICMPNE:
+            case IF_ICMPLT:
+            case IF_ICMPGE:
+            case IF_ICMPGT:
+            case IF_ICMPLE:
+            case IF_ACMPEQ:
+            case IF_ACMPNE:
+            case PUTFIELD:
+                pop(stack, 2);
+                break;
+            case GETSTATIC:
+                stack.add(toVerificationType(insn.type));
+                break;
+            case GETFIELD:
+                pop(stack, 1);
+                stack.add(toVerificationType(insn.type));
+                break;
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+                executeInvoke(insn, frame);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported opcode " + opcode);
+        }
+    }
+
+    private void executeInvoke(Insn insn, Frame frame) {
+        List<String> stack = frame.stack;
+        String descriptor = insn.type;
+        int close = descriptor.indexOf(')');
+
+        pop(stack, countArguments(descriptor.substring(1, close)));
+
+        if (insn.opcode != INVOKESTATIC) {
+            String receiver = stack.remove(stack.size() - 1);
+
+            // A constructor call turns every copy of the uninitialized reference into an initialized one
+            if (insn.name.equals("<init>") && (receiver.equals(UNINITIALIZED_THIS) || receiver.startsWith("new#"))) {
+                String initialized = receiver.equals(UNINITIALIZED_THIS)
+                        ? thisType
+                        : instructions.get(Integer.parseInt(receiver.substring(4))).type;
+
+                for (int i = 0; i < frame.locals.length; i++) {
+                    if (frame.locals[i].equals(receiver)) {
+                        frame.locals[i] = initialized;
+                    }
+                }
+                stack.replaceAll(type -> type.equals(receiver) ? initialized : type);
+            }
+        }
+
+        String returnType = descriptor.substring(close + 1);
+        if (!returnType.equals("V")) {
+            stack.add(toVerificationType(returnType));
+        }
+    }
+
+    private static int countArguments(String parameters) {
+        int count = 0;
+        int i = 0;
+        while (i < parameters.length()) {
+            while (parameters.charAt(i) == '[') {
+                i++;
+            }
+            if (parameters.charAt(i) == 'L') {
+                i = parameters.indexOf(';', i);
+            }
+            i++;
+            count++;
+        }
+        return count;
+    }
+
+    private static void pop(List<String> stack, int count) {
+        if (stack.size() < count) {
+            throw new IllegalStateException("Stack underflow");
+        }
+        for (int i = 0; i < count; i++) {
+            stack.remove(stack.size() - 1);
+        }
+    }
+
+    private static String toVerificationType(String descriptor) {
+        switch (descriptor) {
+            case "Z":
+            case "B":
+            case "C":
+            case "S":
+            case "I":
+                return INT;
+            default:
+                return descriptor;
+        }
+    }
+
+    private static String toInternalName(String descriptor) {
+        return descriptor.startsWith("L") ? descriptor.substring(1, descriptor.length() - 1) : descriptor;
+    }
+
+    private void removeUnreachable(Frame[] frames) {
+        int[] newIndexes = new int[frames.length + 1];
+        List<Insn> reachable = new ArrayList<>();
+
+        for (int i = 0; i < frames.length; i++) {
+            newIndexes[i] = reachable.size();
+            if (frames[i] != null) {
+                reachable.add(instructions.get(i));
+            }
+        }
+        newIndexes[frames.length] = reachable.size();
+
+        // Labels of removed instructions move to the next instruction that is kept
+        Set<Label> labels = new HashSet<>(namedLabels.values());
+        for (Insn insn : instructions) {
+            if (insn.target != null) {
+                labels.add(insn.target);
+            }
+        }
+        for (Label label : labels) {
+            if (label.index >= 0) {
+                label.index = newIndexes[label.index];
+            }
+        }
+
+        instructions = reachable;
+    }
+
+    private static boolean isVarInsn(int opcode) {
+        return opcode == ILOAD || opcode == ALOAD || opcode == ISTORE || opcode == ASTORE || opcode == IINC;
+    }
+
+    private static boolean isTerminator(int opcode) {
+        return opcode == GOTO || opcode == RETURN || opcode == IRETURN || opcode == ARETURN;
+    }
+
+    private static int invert(int opcode) {
+        if (opcode == IFNULL || opcode == IFNONNULL) {
+            return opcode == IFNULL ? IFNONNULL : IFNULL;
+        }
+        return ((opcode - IFEQ) ^ 1) + IFEQ;
+    }
+
+    private int sizeOf(Insn insn, boolean wide) {
+        switch (insn.opcode) {
+            case BIPUSH:
+            case LDC:
+            case NEWARRAY:
+                return 2;
+            case SIPUSH:
+            case LDC_W:
+            case NEW:
+            case ANEWARRAY:
+            case CHECKCAST:
+            case GETSTATIC:
+            case PUTSTATIC:
+            case GETFIELD:
+            case PUTFIELD:
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+                return 3;
+            case ILOAD:
+            case ALOAD:
+            case ISTORE:
+            case ASTORE:
+                return insn.operand <= 3 ? 1 : insn.operand <= 0xFF ? 2 : 4;
+            case IINC:
+                return insn.operand <= 0xFF && insn.increment >= Byte.MIN_VALUE && insn.increment <= Byte.MAX_VALUE
+                        ? 3 : 6;
+            default:
+                if (insn.target != null) {
+                    // goto_w, or the inverted condition jumping over a goto_w
+                    return !wide ? 3 : insn.opcode == GOTO ? 5 : 8;
+                }
+                return 1;
+        }
+    }
+
+    /**
+     * Computes the offset of every instruction, widening the branches that do not reach their target with a 16-bit
+     * offset until no more change.
+     */
+    private int[] layout(boolean[] wide) {
+        int size = instructions.size();
+        int[] offsets = new int[size + 1];
+
+        boolean changed = true;
+        while (changed) {
+            for (int i = 0; i < size; i++) {
+                offsets[i + 1] = offsets[i] + sizeOf(instructions.get(i), wide[i]);
+            }
+
+            changed = false;
+            for (int i = 0; i < size; i++) {
+                Label target = instructions.get(i).target;
+                if (target == null || wide[i]) {
+                    continue;
+                }
+
+                int delta = offsets[target.index] - offsets[i];
+                if (delta < Short.MIN_VALUE || delta > Short.MAX_VALUE) {
+                    wide[i] = true;
+                    changed = true;
+                }
+            }
+        }
+
+        return offsets;
+    }
+
+    private byte[] encode(int[] offsets, boolean[] wide) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(offsets[offsets.length - 1]);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            for (int i = 0; i < instructions.size(); i++) {
+                encode(out, instructions.get(i), offsets[i], offsets, wide[i]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private void encode(DataOutputStream out, Insn insn, int offset, int[] offsets, boolean wide) throws IOException {
+        int opcode = insn.opcode;
+
+        switch (opcode) {
+            case BIPUSH:
+            case LDC:
+            case NEWARRAY:
+                out.writeByte(opcode);
+                out.writeByte(insn.operand);
+                return;
+            case SIPUSH:
+            case LDC_W:
+            case NEW:
+            case ANEWARRAY:
+            case CHECKCAST:
+            case GETSTATIC:
+            case PUTSTATIC:
+            case GETFIELD:
+            case PUTFIELD:
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+                out.writeByte(opcode);
+                out.writeShort(insn.operand);
+                return;
+            case ILOAD:
+            case ALOAD:
+            case ISTORE:
+            case ASTORE:
+                if (insn.operand <= 3) {
+                    int shortForm = opcode == ILOAD ? ILOAD_0 : opcode == ALOAD ? ALOAD_0 : opcode == ISTORE ? ISTORE_0 : ASTORE_0;
+                    out.writeByte(shortForm + insn.operand);
+                } else if (insn.operand <= 0xFF) {
+                    out.writeByte(opcode);
+                    out.writeByte(insn.operand);
+                } else {
+                    out.writeByte(WIDE);
+                    out.writeByte(opcode);
+                    out.writeShort(insn.operand);
+                }
+                return;
+            case IINC:
+                if (sizeOf(insn, false) == 3) {
+                    out.writeByte(IINC);
+                    out.writeByte(insn.operand);
+                    out.writeByte(insn.increment);
+                } else {
+                    out.writeByte(WIDE);
+                    out.writeByte(IINC);
+                    out.writeShort(insn.operand);
+                    out.writeShort(insn.increment);
+                }
+                return;
+            default:
+                break;
+        }
+
+        if (insn.target == null) {
+            out.writeByte(opcode);
+            return;
+        }
+
+        int target = offsets[insn.target.index];
+        if (!wide) {
+            out.writeByte(opcode);
+            out.writeShort(target - offset);
+        } else if (opcode == GOTO) {
+            out.writeByte(GOTO_W);
+            out.writeInt(target - offset);
+        } else {
+            out.writeByte(invert(opcode));
+            out.writeShort(8);
+            out.writeByte(GOTO_W);
+            out.writeInt(target - (offset + 3));
+        }
+    }
+
+    private byte[] encodeFrames(TreeSet<Integer> frameIndexes, Frame[] frames, int[] offsets) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int previousOffset = -1;
+
+        try {
+            for (int index : frameIndexes) {
+                Frame frame = frames[index];
+                int offset = offsets[index];
+
+                int localsCount = frame.locals.length;
+                while (localsCount > 0 && frame.locals[localsCount - 1].equals(TOP)) {
+                    localsCount--;
+                }
+
+                out.writeByte(255);
+                out.writeShort(offset - previousOffset - 1);
+                out.writeShort(localsCount);
+                for (int i = 0; i < localsCount; i++) {
+                    writeVerificationType(out, frame.locals[i], offsets);
+                }
+                out.writeShort(frame.stack.size());
+                for (String type : frame.stack) {
+                    writeVerificationType(out, type, offsets);
+                }
+
+                previousOffset = offset;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private void writeVerificationType(DataOutputStream out, String type, int[] offsets) throws IOException {
+        switch (type) {
+            case TOP:
+                out.writeByte(0);
+                return;
+            case INT:
+                out.writeByte(1);
+                return;
+            case UNINITIALIZED_THIS:
+                out.writeByte(6);
+                return;
+            default:
+                break;
+        }
+
+        if (type.startsWith("new#")) {
+            out.writeByte(8);
+            out.writeShort(offsets[Integer.parseInt(type.substring(4))]);
+        } else {
+            out.writeByte(7);
+            out.writeShort(pool.addClass(toInternalName(type)));
+        }
+    }
+}
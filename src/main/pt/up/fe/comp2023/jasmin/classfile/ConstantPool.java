@@ -0,0 +1,136 @@
+package pt.up.fe.comp2023.jasmin.classfile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Constant pool of a class file. Every entry is interned, so asking twice for the same constant returns the same index.
+ */
+public class ConstantPool {
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final Map<String, Integer> entries = new HashMap<>();
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private int count = 1;
+
+    public int addUtf8(String value) {
+        Integer index = entries.get("U" + value);
+        if (index != null) {
+            return index;
+        }
+
+        try {
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return register("U" + value);
+    }
+
+    public int addInteger(int value) {
+        Integer index = entries.get("I" + value);
+        if (index != null) {
+            return index;
+        }
+
+        write(CONSTANT_INTEGER, value >>> 16, value & 0xFFFF);
+        return register("I" + value);
+    }
+
+    public int addClass(String internalName) {
+        Integer index = entries.get("C" + internalName);
+        if (index != null) {
+            return index;
+        }
+
+        int name = addUtf8(internalName);
+        write(CONSTANT_CLASS, name);
+        return register("C" + internalName);
+    }
+
+    public int addString(String value) {
+        Integer index = entries.get("S" + value);
+        if (index != null) {
+            return index;
+        }
+
+        int utf8 = addUtf8(value);
+        write(CONSTANT_STRING, utf8);
+        return register("S" + value);
+    }
+
+    public int addFieldref(String owner, String name, String descriptor) {
+        return addMemberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    public int addMethodref(String owner, String name, String descriptor) {
+        return addMemberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    private int addMemberRef(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + ":" + descriptor;
+        Integer index = entries.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        int ownerIndex = addClass(owner);
+        int nameAndType = addNameAndType(name, descriptor);
+        write(tag, ownerIndex, nameAndType);
+        return register(key);
+    }
+
+    private int addNameAndType(String name, String descriptor) {
+        String key = "N" + name + ":" + descriptor;
+        Integer index = entries.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        int nameIndex = addUtf8(name);
+        int descriptorIndex = addUtf8(descriptor);
+        write(CONSTANT_NAME_AND_TYPE, nameIndex, descriptorIndex);
+        return register(key);
+    }
+
+    private void write(int tag, int... shorts) {
+        try {
+            out.writeByte(tag);
+            for (int value : shorts) {
+                out.writeShort(value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int register(String key) {
+        if (count > 0xFFFF) {
+            throw new IllegalStateException("Constant pool has more than 65535 entries");
+        }
+
+        entries.put(key, count);
+        return count++;
+    }
+
+    /**
+     * Writes constant_pool_count followed by the entries, as they appear in the class file.
+     */
+    public void writeTo(DataOutputStream output) throws IOException {
+        output.writeShort(count);
+        bytes.writeTo(output);
+    }
+}
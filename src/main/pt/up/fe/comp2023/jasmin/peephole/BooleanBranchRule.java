@@ -0,0 +1,62 @@
+package pt.up.fe.comp2023.jasmin.peephole;
+
+import java.util.List;
+
+/**
+ * Branches on a condition directly when it is only turned into a boolean to be tested right away, as in
+ * <pre>
+ *     if_icmplt Then; iconst_0; goto End; Then: iconst_1; End: ifne L
+ * </pre>
+ * to "if_icmplt L". The branch is negated when the boolean is the opposite of the condition, or tested with ifeq.
+ * The labels must not be used by any other branch, as they are removed.
+ */
+public class BooleanBranchRule implements PeepholeRule {
+
+    @Override
+    public String getName() {
+        return "booleanBranch";
+    }
+
+    @Override
+    public boolean apply(List<JasminLine> code, int index) {
+        if (index + 6 >= code.size()) {
+            return false;
+        }
+
+        JasminLine condition = code.get(index);
+        JasminLine fallThrough = code.get(index + 1);
+        JasminLine jump = code.get(index + 2);
+        JasminLine thenLabel = code.get(index + 3);
+        JasminLine taken = code.get(index + 4);
+        JasminLine endLabel = code.get(index + 5);
+        JasminLine test = code.get(index + 6);
+
+        if (!condition.isConditionalBranch() || !jump.isGoto() || !thenLabel.isLabel() || !endLabel.isLabel()
+                || !(test.is("ifne") || test.is("ifeq"))) {
+            return false;
+        }
+        if (!condition.getTarget().equals(thenLabel.getLabel()) || !jump.getTarget().equals(endLabel.getLabel())) {
+            return false;
+        }
+
+        Integer fallThroughValue = fallThrough.getIntConstant();
+        Integer takenValue = taken.getIntConstant();
+        if (fallThroughValue == null || takenValue == null || fallThroughValue + takenValue != 1
+                || fallThroughValue * takenValue != 0) {
+            return false;
+        }
+
+        if (JasminLine.countReferences(code, thenLabel.getLabel()) != 1
+                || JasminLine.countReferences(code, endLabel.getLabel()) != 1) {
+            return false;
+        }
+
+        // The test jumps when the condition holds if it looks for the value pushed when the condition holds
+        boolean jumpsWhenTaken = test.is("ifne") == (takenValue == 1);
+        JasminLine branch = JasminLine.instruction(condition.getOpcode(), test.getOperand());
+
+        code.subList(index, index + 7).clear();
+        code.add(index, jumpsWhenTaken ? branch : branch.negate());
+        return true;
+    }
+}
@@ -0,0 +1,42 @@
+package pt.up.fe.comp2023.jasmin.peephole;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two integers with one branch instead of subtracting them and testing the difference, as in
+ * "isub; iflt L" to "if_icmplt L". Besides being shorter, the comparison no longer goes wrong when the subtraction
+ * overflows.
+ */
+public class CompareBranchRule implements PeepholeRule {
+
+    private static final Map<String, String> COMPARISONS = Map.of(
+            "ifeq", "if_icmpeq",
+            "ifne", "if_icmpne",
+            "iflt", "if_icmplt",
+            "ifge", "if_icmpge",
+            "ifgt", "if_icmpgt",
+            "ifle", "if_icmple");
+
+    @Override
+    public String getName() {
+        return "compareBranch";
+    }
+
+    @Override
+    public boolean apply(List<JasminLine> code, int index) {
+        if (index + 1 >= code.size() || !code.get(index).is("isub")) {
+            return false;
+        }
+
+        JasminLine branch = code.get(index + 1);
+        String comparison = COMPARISONS.get(branch.getOpcode());
+        if (comparison == null) {
+            return false;
+        }
+
+        code.remove(index + 1);
+        code.set(index, JasminLine.instruction(comparison, branch.getOperand()));
+        return true;
+    }
+}
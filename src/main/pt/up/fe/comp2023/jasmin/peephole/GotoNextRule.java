@@ -0,0 +1,31 @@
+package pt.up.fe.comp2023.jasmin.peephole;
+
+import java.util.List;
+
+/**
+ * Removes a goto that jumps to the labels right after it, where it would have fallen through anyway.
+ */
+public class GotoNextRule implements PeepholeRule {
+
+    @Override
+    public String getName() {
+        return "gotoNext";
+    }
+
+    @Override
+    public boolean apply(List<JasminLine> code, int index) {
+        JasminLine jump = code.get(index);
+        if (!jump.isGoto()) {
+            return false;
+        }
+
+        for (int i = index + 1; i < code.size() && code.get(i).isLabel(); i++) {
+            if (code.get(i).getLabel().equals(jump.getTarget())) {
+                code.remove(index);
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
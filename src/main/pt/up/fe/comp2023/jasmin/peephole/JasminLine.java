@@ -0,0 +1,190 @@
+package pt.up.fe.comp2023.jasmin.peephole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One line of an emitted method body, either a label or an instruction with its operand, so that rules match opcodes
+ * and labels instead of text.
+ */
+public class JasminLine {
+
+    private static final Map<String, String> NEGATED_BRANCHES = Map.ofEntries(
+            Map.entry("ifeq", "ifne"), Map.entry("ifne", "ifeq"),
+            Map.entry("iflt", "ifge"), Map.entry("ifge", "iflt"),
+            Map.entry("ifgt", "ifle"), Map.entry("ifle", "ifgt"),
+            Map.entry("if_icmpeq", "if_icmpne"), Map.entry("if_icmpne", "if_icmpeq"),
+            Map.entry("if_icmplt", "if_icmpge"), Map.entry("if_icmpge", "if_icmplt"),
+            Map.entry("if_icmpgt", "if_icmple"), Map.entry("if_icmple", "if_icmpgt"),
+            Map.entry("if_acmpeq", "if_acmpne"), Map.entry("if_acmpne", "if_acmpeq"),
+            Map.entry("ifnull", "ifnonnull"), Map.entry("ifnonnull", "ifnull"));
+
+    private final String label;
+    private final String opcode;
+    private final String operand;
+
+    private JasminLine(String label, String opcode, String operand) {
+        this.label = label;
+        this.opcode = opcode;
+        this.operand = operand;
+    }
+
+    public static JasminLine label(String label) {
+        return new JasminLine(label, null, null);
+    }
+
+    public static JasminLine instruction(String opcode) {
+        return new JasminLine(null, opcode, null);
+    }
+
+    public static JasminLine instruction(String opcode, String operand) {
+        return new JasminLine(null, opcode, operand);
+    }
+
+    /**
+     * Splits a method body into lines. Blank lines are dropped, and directives and comments are not expected in a body.
+     */
+    public static List<JasminLine> parse(String methodBody) {
+        List<JasminLine> lines = new ArrayList<>();
+
+        for (String line : methodBody.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+
+            if (trimmed.endsWith(":")) {
+                lines.add(label(trimmed.substring(0, trimmed.length() - 1)));
+            } else {
+                String[] parts = trimmed.split("\\s+", 2);
+                lines.add(instruction(parts[0], parts.length > 1 ? parts[1] : null));
+            }
+        }
+
+        return lines;
+    }
+
+    public static String render(List<JasminLine> lines) {
+        StringBuilder jasminCode = new StringBuilder();
+        for (JasminLine line : lines) {
+            jasminCode.append(line).append('\n');
+        }
+        return jasminCode.toString();
+    }
+
+    /**
+     * @return how many branches of the given code jump to the label
+     */
+    public static int countReferences(List<JasminLine> lines, String label) {
+        int count = 0;
+        for (JasminLine line : lines) {
+            if (label.equals(line.getTarget())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isLabel() {
+        return label != null;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getOpcode() {
+        return opcode;
+    }
+
+    public String getOperand() {
+        return operand;
+    }
+
+    public boolean is(String opcode) {
+        return opcode.equals(this.opcode);
+    }
+
+    public boolean isGoto() {
+        return is("goto") || is("goto_w");
+    }
+
+    /**
+     * @return whether this is a conditional branch, which falls through when its condition does not hold
+     */
+    public boolean isConditionalBranch() {
+        return opcode != null && NEGATED_BRANCHES.containsKey(opcode);
+    }
+
+    /**
+     * @return the label this instruction jumps to, or null if it is not a branch
+     */
+    public String getTarget() {
+        return isGoto() || isConditionalBranch() ? operand : null;
+    }
+
+    /**
+     * @return the branch that jumps exactly when this one falls through
+     */
+    public JasminLine negate() {
+        return instruction(NEGATED_BRANCHES.get(opcode), operand);
+    }
+
+    /**
+     * @return the register of a load or store, whether it uses the short form, as in "iload_1", or not
+     */
+    public int getRegister() {
+        int underscore = opcode.indexOf('_');
+        return underscore >= 0 ? Integer.parseInt(opcode.substring(underscore + 1)) : Integer.parseInt(operand);
+    }
+
+    /**
+     * @return the instruction that pushes the constant, in its shortest form
+     */
+    public static JasminLine pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            return instruction(value == -1 ? "iconst_m1" : "iconst_" + value);
+        }
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            return instruction("bipush", String.valueOf(value));
+        }
+        if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            return instruction("sipush", String.valueOf(value));
+        }
+        return instruction("ldc", String.valueOf(value));
+    }
+
+    /**
+     * @return the integer constant pushed by this instruction, or null if it does not push one
+     */
+    public Integer getIntConstant() {
+        if (opcode == null) {
+            return null;
+        }
+
+        if (opcode.startsWith("iconst_")) {
+            String value = opcode.substring("iconst_".length());
+            return value.equals("m1") ? -1 : Integer.parseInt(value);
+        }
+
+        if (is("bipush") || is("sipush") || is("ldc")) {
+            try {
+                return Integer.parseInt(operand);
+            } catch (NumberFormatException e) {
+                // A string or another kind of constant
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        if (isLabel()) {
+            return "\t" + label + ":";
+        }
+        return operand == null ? "\t" + opcode : "\t" + opcode + " " + operand;
+    }
+}
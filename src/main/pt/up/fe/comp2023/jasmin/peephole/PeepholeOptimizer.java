@@ -0,0 +1,67 @@
+package pt.up.fe.comp2023.jasmin.peephole;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies a set of peephole rules to method bodies until none of them matches anywhere, counting how many times each
+ * rule fired over all the bodies it optimized.
+ */
+public class PeepholeOptimizer {
+
+    private final List<PeepholeRule> rules;
+    private final Map<String, Integer> statistics = new LinkedHashMap<>();
+
+    public PeepholeOptimizer(List<PeepholeRule> rules) {
+        this.rules = rules;
+        for (PeepholeRule rule : rules) {
+            statistics.put(rule.getName(), 0);
+        }
+    }
+
+    public static PeepholeOptimizer withDefaultRules() {
+        // Comparisons are folded first, so the booleans they produce are seen as a single branch
+        return new PeepholeOptimizer(List.of(
+                new CompareBranchRule(),
+                new BooleanBranchRule(),
+                new StoreLoadRule(),
+                new GotoNextRule(),
+                new ShiftRule()));
+    }
+
+    public String optimize(String methodBody) {
+        List<JasminLine> code = JasminLine.parse(methodBody);
+        optimize(code);
+        return JasminLine.render(code);
+    }
+
+    public void optimize(List<JasminLine> code) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int index = 0; index < code.size(); index++) {
+                for (PeepholeRule rule : rules) {
+                    if (index < code.size() && rule.apply(code, index)) {
+                        statistics.merge(rule.getName(), 1, Integer::sum);
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return how many times each rule fired, in the order the rules are applied
+     */
+    public Map<String, Integer> getStatistics() {
+        return statistics;
+    }
+
+    public String getReport() {
+        StringBuilder report = new StringBuilder("Peephole rules fired:");
+        statistics.forEach((rule, count) -> report.append("\n\t").append(rule).append(": ").append(count));
+        return report.toString();
+    }
+}
@@ -0,0 +1,21 @@
+package pt.up.fe.comp2023.jasmin.peephole;
+
+import java.util.List;
+
+/**
+ * A local rewrite of the instructions of a method body.
+ */
+public interface PeepholeRule {
+
+    /**
+     * @return the name the rule is reported under in the statistics
+     */
+    String getName();
+
+    /**
+     * Rewrites the instructions starting at the given index, if they match the rule.
+     *
+     * @return whether the instructions were changed
+     */
+    boolean apply(List<JasminLine> code, int index);
+}
@@ -0,0 +1,69 @@
+package pt.up.fe.comp2023.jasmin.peephole;
+
+import java.util.List;
+
+/**
+ * Multiplies and divides by a power of two with shifts, as in "bipush 8; imul" to "iconst_3; ishl", including when the
+ * constant is pushed before a loaded value it multiplies.
+ * <p>
+ * Shifting right rounds down while dividing rounds towards zero, so the dividend is first raised by the divisor minus
+ * one when it is negative, with the sign bits the shifts "x >> 31 >>> (32 - n)" leave.
+ */
+public class ShiftRule implements PeepholeRule {
+
+    @Override
+    public String getName() {
+        return "shift";
+    }
+
+    @Override
+    public boolean apply(List<JasminLine> code, int index) {
+        if (index + 1 >= code.size()) {
+            return false;
+        }
+
+        JasminLine constant = code.get(index);
+        int shift = getShift(constant.getIntConstant());
+        if (shift < 0) {
+            return false;
+        }
+
+        JasminLine next = code.get(index + 1);
+        if (next.is("imul")) {
+            code.subList(index, index + 2).clear();
+            code.addAll(index, List.of(JasminLine.pushInt(shift), JasminLine.instruction("ishl")));
+            return true;
+        }
+
+        if (next.is("idiv")) {
+            code.subList(index, index + 2).clear();
+            code.addAll(index, shift == 1
+                    ? List.of(JasminLine.instruction("dup"), JasminLine.pushInt(31), JasminLine.instruction("iushr"),
+                    JasminLine.instruction("iadd"), JasminLine.pushInt(1), JasminLine.instruction("ishr"))
+                    : List.of(JasminLine.instruction("dup"), JasminLine.pushInt(31), JasminLine.instruction("ishr"),
+                    JasminLine.pushInt(32 - shift), JasminLine.instruction("iushr"), JasminLine.instruction("iadd"),
+                    JasminLine.pushInt(shift), JasminLine.instruction("ishr")));
+            return true;
+        }
+
+        // A constant on the left of a multiplication swaps places with the value loaded after it
+        if (index + 2 < code.size() && !next.isLabel() && next.getOpcode().startsWith("iload")
+                && code.get(index + 2).is("imul")) {
+            code.subList(index, index + 3).clear();
+            code.addAll(index, List.of(next, JasminLine.pushInt(shift), JasminLine.instruction("ishl")));
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return n if the value is 2 to the n, with n at least 1, or -1 otherwise
+     */
+    private static int getShift(Integer value) {
+        if (value == null || value < 2 || Integer.bitCount(value) != 1) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(value);
+    }
+}
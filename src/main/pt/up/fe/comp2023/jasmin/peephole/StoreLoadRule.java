@@ -0,0 +1,38 @@
+package pt.up.fe.comp2023.jasmin.peephole;
+
+import java.util.List;
+
+/**
+ * Keeps a copy of a stored value on the stack instead of loading it back from the same register, as in
+ * "istore_2; iload_2" to "dup; istore_2".
+ */
+public class StoreLoadRule implements PeepholeRule {
+
+    @Override
+    public String getName() {
+        return "storeLoad";
+    }
+
+    @Override
+    public boolean apply(List<JasminLine> code, int index) {
+        if (index + 1 >= code.size()) {
+            return false;
+        }
+
+        JasminLine store = code.get(index);
+        JasminLine load = code.get(index + 1);
+        if (store.isLabel() || load.isLabel()) {
+            return false;
+        }
+
+        boolean ints = store.getOpcode().startsWith("istore") && load.getOpcode().startsWith("iload");
+        boolean references = store.getOpcode().startsWith("astore") && load.getOpcode().startsWith("aload");
+        if (!(ints || references) || store.getRegister() != load.getRegister()) {
+            return false;
+        }
+
+        code.set(index, JasminLine.instruction("dup"));
+        code.set(index + 1, store);
+        return true;
+    }
+}
@@ -1,18 +1,129 @@
 package pt.up.fe.comp2023.ollir;
 
+import org.specs.comp.ollir.Method;
 import pt.up.fe.comp.jmm.ollir.*;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.optimization.ast.Propagator;
+import pt.up.fe.comp2023.optimization.ollir.AlgebraicSimplification;
+import pt.up.fe.comp2023.optimization.ollir.CommonSubexpressionElimination;
+import pt.up.fe.comp2023.optimization.ollir.DeadCodeElimination;
+import pt.up.fe.comp2023.optimization.ollir.InductionVariableReduction;
+import pt.up.fe.comp2023.optimization.ollir.LoopInvariantCodeMotion;
+import pt.up.fe.comp2023.optimization.ollir.MethodInliner;
+import pt.up.fe.comp2023.optimization.ollir.RegisterAllocator;
 
+import java.io.Writer;
 import java.util.Collections;
+import java.util.HashMap;
 
 public class JmmOptimizer implements JmmOptimization {
 
+    @Override
+    public JmmSemanticsResult optimize(JmmSemanticsResult semanticsResult) {
+        if (!semanticsResult.getConfig().getOrDefault("optimize", "false").equals("true")) {
+            return semanticsResult;
+        }
+
+        // Each folded expression may turn another variable into a constant, so the passes repeat until nothing changes
+        var propagator = new Propagator(semanticsResult.getSymbolTable());
+        boolean changed = true;
+        while (changed) {
+            changed = propagator.visit(semanticsResult.getRootNode(), new HashMap<>());
+        }
+
+        return semanticsResult;
+    }
+
     @Override
     public OllirResult toOllir(JmmSemanticsResult semanticsResult) {
+        // OllirResult only takes the code as a String, so the generator keeps the whole program in one buffer
         var ollirGenerator = new OllirGenerator(semanticsResult.getSymbolTable());
         ollirGenerator.visit(semanticsResult.getRootNode());
         String ollirCode = ollirGenerator.getCode();
 
         return new OllirResult(semanticsResult, ollirCode, Collections.emptyList());
     }
+
+    /**
+     * Writes the OLLIR of the class to the sink a method at a time, for when it is not compiled further and so is never
+     * needed as a whole. Only -ollir does this: {@link #toOllir(JmmSemanticsResult)} still builds the whole class.
+     */
+    public void toOllir(JmmSemanticsResult semanticsResult, Writer sink) {
+        var ollirGenerator = new OllirGenerator(semanticsResult.getSymbolTable(), sink);
+        ollirGenerator.visit(semanticsResult.getRootNode());
+    }
+
+    @Override
+    public OllirResult optimize(OllirResult ollirResult) {
+        if (ollirResult.getConfig().getOrDefault("optimize", "false").equals("true")) {
+            // Inlined bodies are cleaned up along with the code around them by the passes that follow
+            inlineMethods(ollirResult);
+
+            for (Method method : ollirResult.getOllirClass().getMethods()) {
+                int simplified = new AlgebraicSimplification(method).run();
+                eliminateDeadCode(ollirResult, method);
+                new CommonSubexpressionElimination(method).run();
+                new LoopInvariantCodeMotion(method).run();
+                int reduced = new InductionVariableReduction(method).run();
+
+                if (simplified + reduced > 0) {
+                    String name = method.isConstructMethod() ? "<init>" : method.getMethodName();
+                    ollirResult.getReports().add(new Report(ReportType.LOG, Stage.OPTIMIZATION, -1,
+                            "Method '" + name + "': simplified " + simplified + " operations and reduced "
+                                    + reduced + " multiplications by induction variables"));
+                }
+            }
+        }
+
+        int registers = Integer.parseInt(ollirResult.getConfig().getOrDefault("registerAllocation", "-1"));
+
+        // -1 keeps one local per OLLIR variable
+        if (registers >= 0) {
+            allocateRegisters(ollirResult, registers);
+        }
+
+        return ollirResult;
+    }
+
+    private void inlineMethods(OllirResult ollirResult) {
+        int budget = Integer.parseInt(ollirResult.getConfig().getOrDefault("inlineBudget",
+                String.valueOf(MethodInliner.DEFAULT_BUDGET)));
+
+        var inliner = new MethodInliner(ollirResult.getOllirClass(), budget);
+        inliner.run();
+
+        for (String decision : inliner.getDecisions()) {
+            ollirResult.getReports().add(new Report(ReportType.LOG, Stage.OPTIMIZATION, -1, decision));
+        }
+    }
+
+    private void eliminateDeadCode(OllirResult ollirResult, Method method) {
+        var elimination = new DeadCodeElimination(method);
+        if (!elimination.run()) {
+            return;
+        }
+
+        String name = method.isConstructMethod() ? "<init>" : method.getMethodName();
+        ollirResult.getReports().add(new Report(ReportType.LOG, Stage.OPTIMIZATION, -1,
+                "Method '" + name + "': folded " + elimination.getConstantBranches() + " constant branches, removed "
+                        + elimination.getUnreachable() + " unreachable instructions and "
+                        + elimination.getDeadStores() + " dead stores"));
+    }
+
+    private void allocateRegisters(OllirResult ollirResult, int registers) {
+        for (Method method : ollirResult.getOllirClass().getMethods()) {
+            method.buildVarTable();
+            var allocator = new RegisterAllocator(method);
+
+            if (allocator.allocate(registers) == -1) {
+                String name = method.isConstructMethod() ? "<init>" : method.getMethodName();
+                ollirResult.getReports().add(new Report(ReportType.ERROR, Stage.OPTIMIZATION, -1,
+                        "Method '" + name + "' needs at least " + allocator.getMinimumRegisters()
+                                + " registers, but only " + registers + " are allowed"));
+            }
+        }
+    }
 }
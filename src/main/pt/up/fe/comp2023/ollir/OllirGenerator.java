@@ -1,55 +1,104 @@
 package pt.up.fe.comp2023.ollir;
 
+import pt.up.fe.comp.jmm.analysis.table.Symbol;
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.AJmmVisitor;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.*;
 
 
+/**
+ * Generates the OLLIR of a class from the tree built by the Javamm grammar.
+ * <p>
+ * Expressions visit to a list with the OLLIR of their value, its OLLIR type and whether that value is already an
+ * operand or an expression that still has to be assigned to a temporary before it is used as one. The argument of a
+ * visit is the OLLIR type the surrounding code expects, which is the only way to type calls to imported classes.
+ * <p>
+ * Only -ollir, which stops at this stage, gives the generator a sink. A compilation that goes on to the backend needs
+ * the whole class as one String, since OllirResult parses nothing else, so it keeps the whole OLLIR in memory.
+ */
 public class OllirGenerator extends AJmmVisitor<String, List<String>> {
 
+    private static final String OPERAND = "Operand";
+    private static final String EXPRESSION = "Expression";
+    private static final String NEW_OBJECT = "NewObject";
+
     private StringBuilder ollirCode;
+    private final Writer sink;
     private SymbolTable symbolTable;
+    private String methodName;
+    private boolean isStatic;
     private int num = 0;
     private int labels = 0;
 
     public OllirGenerator(SymbolTable symbolTable){
+        this(symbolTable, null);
+    }
+
+    /**
+     * @param sink receives the class header, each method and the closing brace as soon as they are generated, so only
+     *             the method being generated is kept in memory; without one the whole class is kept for getCode
+     */
+    public OllirGenerator(SymbolTable symbolTable, Writer sink){
         this.ollirCode = new StringBuilder();
+        this.sink = sink;
         this.symbolTable = symbolTable;
         addVisitors();
     }
 
     private void addVisitors() {
         addVisit("Program", this::visitProgram);
-        addVisit("ClassDeclaration", this::visitClassDeclaration);
-        addVisit("MainMethodDeclaration", this::visitMainMethod);
-        addVisit("MethodDeclaration", this::visitMethod);
-        addVisit("FieldDeclaration", this::visitField);
-        addVisit("VarDeclaration", this::defaultVisit);
+        addVisit("ClassStmt", this::visitClassDeclaration);
+        addVisit("MainMethodStmt", this::visitMainMethod);
+        addVisit("MethodStmt", this::visitMethod);
+        addVisit("Block", this::visitBlock);
+        addVisit("IfStmt", this::visitIfStm);
+        addVisit("WhileStmt", this::visitWhileStm);
         addVisit("ExprStmt", this::visitExprStmt);
-        addVisit("Integer", (node, dummy) -> Arrays.asList(String.format("%s.%s", node.get("image"), "i32"), "Constant", node.get("image")));
-        addVisit("False", (node, dummy) -> Arrays.asList("0" + ".bool", "Constant", "0"));
-        addVisit("True", (node, dummy) -> Arrays.asList("1" + ".bool", "Constant", "1"));
-        addVisit("BinOp", this::visitBinOp);
-        addVisit("Type", this::defaultVisit);
-        addVisit("CreateObj", this::visitCreateObj);
-        addVisit("CreateArrObj", this::visitCreateArrObj);
-        addVisit("ReturnStatement", this::visitReturnStatement);
-        addVisit("ReturnType", this::defaultVisit);
-        addVisit("MethodArgsList", this::visitMethodArgsList);
-        addVisit("Length", this::visitLength);
+        addVisit("AssignStmt", this::visitAssignStmt);
+        addVisit("ArrayAssignStmt", this::visitArrayAssignStmt);
+        addVisit("ReturnStmt", this::visitReturnStatement);
+        addVisit("Parenthesis", (node, type) -> visit(node.getJmmChild(0), type));
+        addVisit("Negation", this::visitNegation);
+        addVisit("BinaryOp", this::visitBinOp);
+        addVisit("Integer", (node, type) -> operand(node.get("value") + ".i32", "i32"));
+        addVisit("Boolean", (node, type) -> operand((node.get("value").equals("true") ? "1" : "0") + ".bool", "bool"));
+        // The OLLIR parser only takes a plain "this" as the target of a call, an operand has to carry the class type
+        addVisit("Object", (node, type) -> operand("this." + symbolTable.getClassName(), symbolTable.getClassName()));
         addVisit("Identifier", this::visitId);
-        addVisit("IfStmt", this::visitIfStm);
-        addVisit("ArrayDeclaration", this::visitArrayDeclaration);
+        addVisit("NewArray", this::visitCreateArrObj);
+        addVisit("NewObject", this::visitCreateObj);
+        addVisit("ArrayAccessExpr", this::visitArrayAccess);
+        addVisit("ArrayLength", this::visitArrayLength);
+        addVisit("MethodCallExpr", this::visitMethodCall);
         this.setDefaultVisit(this::defaultVisit);
     }
 
+    /**
+     * @return the code not yet written to the sink, which is the whole class when there is none
+     */
     public String getCode() {
         return ollirCode.toString();
     }
 
+    private void flush() {
+        if (sink == null) {
+            return;
+        }
+
+        try {
+            sink.append(ollirCode);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ollirCode.setLength(0);
+    }
+
     @Override
     protected void buildVisitor() {}
 
@@ -70,199 +119,402 @@ public class OllirGenerator extends AJmmVisitor<String, List<String>> {
     }
 
     private List<String> visitClassDeclaration(JmmNode jmmNode, String s) {
-        String str = symbolTable.getSuper() != null ? String.format("extends %s", symbolTable.getSuper()) : "";
-        ollirCode.append(String.format("public %s %s {\n", symbolTable.getClassName(), str));
+        String str = symbolTable.getSuper() != null ? String.format(" extends %s", symbolTable.getSuper()) : "";
+        ollirCode.append(String.format("%s%s {\n", symbolTable.getClassName(), str));
         ollirCode.append(OllirUtils.generateFields(symbolTable.getFields()));
         ollirCode.append(defaultConstructor(symbolTable.getClassName()));
+        flush();
         for (var child: jmmNode.getChildren()) {
             visit(child);
         }
-        ollirCode.append("}");
+        ollirCode.append("}\n");
+        flush();
         return null;
     }
 
-    private List<String> visitExprStmt(JmmNode jmmNode, String s) {
-        StringBuilder ret = new StringBuilder();
-        for (JmmNode node : jmmNode.getChildren()) {
-            ret.append(visit(node, ".V"));
-        }
-        ollirCode.append(ret + ";\n");
+    private List<String> visitMainMethod(JmmNode node, String s) {
+        num = 0;
+        methodName = "main";
+        isStatic = true;
+        ollirCode.append(String.format(".method public static main(%s.array.String).V {\n",
+                OllirUtils.getName(node.get("value"))));
+        visitStatements(node);
+        ollirCode.append("ret.V;\n");
+        ollirCode.append("}\n");
+        flush();
         return null;
     }
 
-    private List<String> visitBinOp(JmmNode node, String s) {
-        List<String> finalLhs = visit(node.getJmmChild(0), s);
-        List<String> finalRhs = visit(node.getJmmChild(1), s);
-        var lhs = finalLhs.get(0);
-        var rhs = finalRhs.get(0);
-        var op = node.get("op");
-
-        var expressionVariability = "Not Constant";
-        Integer value = null;
-        if (finalLhs.size() > 2 && finalRhs.size() > 2 && finalLhs.get(1).equals("Constant") && finalRhs.get(1).equals("Constant")) {
-            value = switch (op) {
-                case "ADD" -> Integer.parseInt(finalLhs.get(2)) + Integer.parseInt(finalRhs.get(2));
-                case "MUL" -> Integer.parseInt(finalLhs.get(2)) * Integer.parseInt(finalRhs.get(2));
-                case "DIV" -> Integer.parseInt(finalLhs.get(2)) / Integer.parseInt(finalRhs.get(2));
-                case "LT" -> (Integer.parseInt(finalLhs.get(2)) < Integer.parseInt(finalRhs.get(2))) ? 1 : 0;
-                case "SUB" -> Integer.parseInt(finalLhs.get(2)) - Integer.parseInt(finalRhs.get(2));
-                case "AND" -> ((Integer.parseInt(finalLhs.get(2)) >= 1) && (Integer.parseInt(finalRhs.get(2)) >= 1)) ? 1 : 0;
-                default -> throw new RuntimeException("Unsupported binary operator: " + op);
-            };
-            expressionVariability = "Constant";
+    private List<String> visitMethod(JmmNode node, String s) {
+        num = 0;
+        methodName = node.getJmmChild(0).get("value");
+        isStatic = node.get("isStatic").equals("true");
+
+        StringJoiner params = new StringJoiner(", ");
+        for (Symbol param : symbolTable.getParameters(methodName)) {
+            params.add(OllirUtils.toOllir(param));
         }
+        String returnType = OllirUtils.toOllir(symbolTable.getReturnType(methodName));
+        ollirCode.append(String.format(".method public %s%s(%s).%s {\n", isStatic ? "static " : "", methodName, params,
+                returnType));
+        visitStatements(node);
+        ollirCode.append("}\n");
+        flush();
+        return null;
+    }
 
-        if (value != null) {
-            String valueString = value.toString();
-            return Arrays.asList(valueString, expressionVariability, valueString);
+    private void visitStatements(JmmNode node) {
+        for (var child : node.getChildren()) {
+            visit(child, "V");
         }
+    }
 
-        String Var = generateTempVar();
-        String ollirOperator = OllirUtils.toOllir(node);
-        ollirCode.append(String.format("%s.%s :=.%s %s %s.%s %s;\n",
-                Var,
-                ollirOperator,
-                ollirOperator,
-                lhs,
-                op,
-                ollirOperator,
-                rhs
-        ));
-        return Arrays.asList(String.format("%s.%s", Var, ollirOperator), expressionVariability, null);
+    private List<String> visitBlock(JmmNode node, String s) {
+        visitStatements(node);
+        return null;
     }
 
-    private List<String> visitCreateObj(JmmNode node, String s) {
-        String Var = generateTempVar();
-        String type = OllirUtils.toOllir(node);
+    private List<String> visitExprStmt(JmmNode jmmNode, String s) {
+        List<String> value = visit(jmmNode.getJmmChild(0), "V");
 
-        ollirCode.append(String.format("%s := new %s;\n", Var, type));
+        // An operand on its own has no effect, a call or a new object does
+        if (value.get(2).equals(NEW_OBJECT)) {
+            toOperand(value);
+        } else if (value.get(2).equals(EXPRESSION)) {
+            ollirCode.append(String.format("%s;\n", value.get(0)));
+        }
+        return null;
+    }
 
-        ollirCode.append(String.format("invokespecial(%s, \"<init>\").V;\n", Var));
+    private List<String> visitAssignStmt(JmmNode node, String s) {
+        String name = node.get("value");
+        Symbol symbol = resolve(name);
+        String type = OllirUtils.toOllir(symbol.getType());
 
-        return Collections.singletonList(String.format("%s", Var));
-    }
+        if (isField(name)) {
+            String value = toOperand(visit(node.getJmmChild(0), type));
+            ollirCode.append(String.format("putfield(this, %s, %s).V;\n", OllirUtils.toOllir(symbol), value));
+            return null;
+        }
 
-    private List<String> visitField(JmmNode jmmNode, String s) {
-        for (JmmNode node : jmmNode.getChildren()){
-            visit(node);
+        String target = getVariable(name) + "." + type;
+        List<String> value = visit(node.getJmmChild(0), type);
+        ollirCode.append(String.format("%s :=.%s %s;\n", target, type, value.get(0)));
+        if (value.get(2).equals(NEW_OBJECT)) {
+            ollirCode.append(String.format("invokespecial(%s, \"<init>\").V;\n", target));
         }
         return null;
-
     }
 
-    private List<String> visitCreateArrObj(JmmNode node, String s) {
-        String size = visit(node.getJmmChild(0), s).get(0);
-        String Var = generateTempVar();
-        String elementType = OllirUtils.toOllir(JmmNode.fromJson(node.get("type")));
-        ollirCode.append(String.format("%s.%s :=.%s newarray(%s, %s).%s;\n",
-                Var,
-                OllirUtils.toOllir(node),
-                OllirUtils.toOllir(node),
-                elementType,
-                size,
-                OllirUtils.toOllir(node)
-        ));
-        return Collections.singletonList(String.format("%s.%s", Var, OllirUtils.toOllir(node)));
+    private List<String> visitArrayAssignStmt(JmmNode node, String s) {
+        String array = getArray(node.get("value"));
+        String index = toOperand(visit(node.getJmmChild(0), "i32"));
+        String value = toOperand(visit(node.getJmmChild(1), "i32"));
+        ollirCode.append(String.format("%s[%s].i32 :=.i32 %s;\n", array, index, value));
+        return null;
     }
 
     private List<String> visitReturnStatement(JmmNode node, String s) {
-        String retValue = visit(node.getJmmChild(0), s).get(0);
-        ollirCode.append(String.format("ret.%s %s;\n", OllirUtils.toOllir(symbolTable.getReturnType(s)), retValue));
+        String type = OllirUtils.toOllir(symbolTable.getReturnType(methodName));
+        String retValue = toOperand(visit(node.getJmmChild(0), type));
+        ollirCode.append(String.format("ret.%s %s;\n", type, retValue));
         return null;
     }
 
-    private List<String> visitId(JmmNode jmmNode, String s) {
-        String id = jmmNode.get("name");
-        ollirCode.append(id);
+    private List<String> visitIfStm(JmmNode node, String s) {
+        int labelIdx = labels++;
+        visitCondition(node.getJmmChild(0), "Else" + labelIdx, false);
+
+        visit(node.getJmmChild(1), s);
+        ollirCode.append(String.format("goto EndIf%d;\n", labelIdx));
+        ollirCode.append(String.format("Else%d:\n", labelIdx));
 
+        visit(node.getJmmChild(2), s);
+        ollirCode.append(String.format("EndIf%d:\n", labelIdx));
         return null;
+    }
 
+    private List<String> visitWhileStm(JmmNode node, String s) {
+        int labelIdx = labels++;
+        ollirCode.append(String.format("While%d:\n", labelIdx));
+        visitCondition(node.getJmmChild(0), "EndWhile" + labelIdx, false);
+
+        visit(node.getJmmChild(1), s);
+        ollirCode.append(String.format("goto While%d;\n", labelIdx));
+        ollirCode.append(String.format("EndWhile%d:\n", labelIdx));
+        return null;
     }
 
-    private List<String> visitMethodArgsList(JmmNode node, String s) {
-        if (node.getChildren().isEmpty()) {
-            return null;
+    /**
+     * Jumps to the label when the condition is jumpWhen, and falls through otherwise. Each operand of && is tested on
+     * its own, so the right one is skipped when the left one is false and the boolean of the whole condition is never
+     * built. Comparisons and negations become the branch itself.
+     */
+    private void visitCondition(JmmNode condition, String label, boolean jumpWhen) {
+        switch (condition.getKind()) {
+            case "Parenthesis" -> {
+                visitCondition(condition.getJmmChild(0), label, jumpWhen);
+                return;
+            }
+            case "Negation" -> {
+                visitCondition(condition.getJmmChild(0), label, !jumpWhen);
+                return;
+            }
+            case "Boolean" -> {
+                if (condition.get("value").equals(String.valueOf(jumpWhen))) {
+                    ollirCode.append(String.format("goto %s;\n", label));
+                }
+                return;
+            }
+            case "BinaryOp" -> {
+                String op = condition.get("op");
+                if (op.equals("&&")) {
+                    if (!jumpWhen) {
+                        visitCondition(condition.getJmmChild(0), label, false);
+                        visitCondition(condition.getJmmChild(1), label, false);
+                        return;
+                    }
+
+                    String skip = "AndSkip" + labels++;
+                    visitCondition(condition.getJmmChild(0), skip, false);
+                    visitCondition(condition.getJmmChild(1), label, true);
+                    ollirCode.append(String.format("%s:\n", skip));
+                    return;
+                }
+
+                if (op.equals("<")) {
+                    String lhs = toOperand(visit(condition.getJmmChild(0), "i32"));
+                    String rhs = toOperand(visit(condition.getJmmChild(1), "i32"));
+                    ollirCode.append(String.format("if (%s %s.bool %s) goto %s;\n", lhs, jumpWhen ? "<" : ">=", rhs,
+                            label));
+                    return;
+                }
+            }
         }
-        ollirCode.append(visit(node.getJmmChild(0), s).get(0));
-        for (int i = 1; i < node.getChildren().size(); i++) {
-            ollirCode.append(String.format(", %s", visit(node.getJmmChild(i), s).get(0)));
+
+        String value = toOperand(visit(condition, "bool"));
+        ollirCode.append(String.format("if (%s%s) goto %s;\n", jumpWhen ? "" : "!.bool ", value, label));
+    }
+
+    private List<String> visitNegation(JmmNode node, String s) {
+        String value = toOperand(visit(node.getJmmChild(0), "bool"));
+        return expression(String.format("!.bool %s", value), "bool");
+    }
+
+    private List<String> visitBinOp(JmmNode node, String s) {
+        String op = node.get("op");
+        if (op.equals("&&")) {
+            return visitAnd(node);
         }
-        return null;
+
+        String lhs = toOperand(visit(node.getJmmChild(0), "i32"));
+        String rhs = toOperand(visit(node.getJmmChild(1), "i32"));
+        String type = op.equals("<") ? "bool" : "i32";
+        return expression(String.format("%s %s.%s %s", lhs, op, type, rhs), type);
     }
 
-    private List<String> visitMainMethod(JmmNode node, String s) {
-        num = 0;
-        String mainName = node.getJmmChild(0).get("image");
-        String[] paramTypes = { mainName, "array", "String" };
-        String params = String.join(".", paramTypes);
-        ollirCode.append(String.format(".method public static main(%s).V {\n", params));
-        visit(node.getJmmChild(1), "main");
-        ollirCode.append("ret.V;\n");
-        ollirCode.append("}\n");
-        return null;
+    /**
+     * The right operand is only evaluated when the left one holds, and the left one is tested as a condition, so its
+     * own boolean is not built either.
+     */
+    private List<String> visitAnd(JmmNode node) {
+        int labelIdx = labels++;
+        String var = generateTempVar() + ".bool";
+        visitCondition(node.getJmmChild(0), "AndFalse" + labelIdx, false);
+
+        String rhs = visit(node.getJmmChild(1), "bool").get(0);
+        ollirCode.append(String.format("%s :=.bool %s;\n", var, rhs));
+        ollirCode.append(String.format("goto AndEnd%d;\n", labelIdx));
+        ollirCode.append(String.format("AndFalse%d:\n", labelIdx));
+        ollirCode.append(String.format("%s :=.bool 0.bool;\n", var));
+        ollirCode.append(String.format("AndEnd%d:\n", labelIdx));
+
+        return operand(var, "bool");
     }
 
-    private List<String> visitMethod(JmmNode node, String s) {
-        num = 0;
-        Optional<JmmNode> methodNode = node.getChildren().stream()
-                .filter(child -> "MethodDeclarator".equals(child.getKind()))
-                .findFirst();
-        if (methodNode.isEmpty()) {
-            return null;
+    private List<String> visitId(JmmNode jmmNode, String s) {
+        String name = jmmNode.get("value");
+
+        // Imported and declared classes only appear as the target of static calls, which resolve them on their own
+        if (resolve(name) == null) {
+            return operand(name, name);
         }
-        String methodName = methodNode.get().get("image");
-        ollirCode.append(String.format(".method public %s (", methodName));
-        visit(node.getJmmChild(2), methodName);
-        Type returnType = symbolTable.getReturnType(methodName);
-        ollirCode.append(String.format(").%s {\n", OllirUtils.toOllir(returnType)));
-        visit(node.getJmmChild(3), methodName);
-        visit(node.getJmmChild(4), methodName);
-        ollirCode.append("}\n");
-        return null;
+        return getValue(name);
     }
 
+    private List<String> visitCreateArrObj(JmmNode node, String s) {
+        String size = toOperand(visit(node.getJmmChild(1), "i32"));
+        return expression(String.format("new(array, %s).array.i32", size), "array.i32");
+    }
 
-    private List<String> visitLength(JmmNode node, String s) {
-        String array = visit(node.getJmmChild(0), s).get(0);
-        String Var = generateTempVar() + ".i32";
-        ollirCode.append(String.format("%s :=.i32 arraylength(%s).i32;\n", Var, array));
-        return List.of(Var);
+    private List<String> visitCreateObj(JmmNode node, String s) {
+        String type = node.get("value");
+        return Arrays.asList(String.format("new(%s).%s", type, type), type, NEW_OBJECT);
     }
 
-    private String generateTempVar() {
-        return String.format("t%d", this.num++);
+    private List<String> visitArrayAccess(JmmNode node, String s) {
+        JmmNode arrayNode = node.getJmmChild(0);
+        String array = arrayNode.getKind().equals("Identifier") && resolve(arrayNode.get("value")) != null
+                ? getArray(arrayNode.get("value"))
+                : withoutType(toOperand(visit(arrayNode, "array.i32")), "array.i32");
+
+        String index = toOperand(visit(node.getJmmChild(node.getNumChildren() - 1), "i32"));
+        return expression(String.format("%s[%s].i32", array, index), "i32");
     }
 
-    private static String defaultConstructor(String s) {
-        return String.format(".construct %s().V {\n" +
-                "invokespecial(this, \"<init>\").V;\n" +
-                "}\n", s);
+    private List<String> visitArrayLength(JmmNode node, String s) {
+        String array = toOperand(visit(node.getJmmChild(0), "array.i32"));
+        return expression(String.format("arraylength(%s).i32", array), "i32");
     }
 
-    private List<String> visitIfStm(JmmNode node, String scope) {
-        int labelIdx = labels++;
-        String condition = visit(node.getJmmChild(0), scope).get(0);
-        ollirCode.append(String.format("if (!.bool %s) goto Else%d;\n", condition, labelIdx));
+    private List<String> visitMethodCall(JmmNode node, String expectedType) {
+        String method = node.get("value");
+
+        JmmNode target = node.getJmmChild(0);
+        String targetClass;
+        String invoke;
+        String targetOperand;
+        if (target.getKind().equals("Identifier") && resolve(target.get("value")) == null) {
+            targetClass = target.get("value");
+            invoke = "invokestatic";
+            targetOperand = targetClass;
+        } else if (target.getKind().equals("Object")) {
+            targetClass = symbolTable.getClassName();
+            invoke = "invokevirtual";
+            targetOperand = "this";
+        } else {
+            List<String> value = visit(target, "V");
+            targetClass = value.get(1);
+            invoke = "invokevirtual";
+            targetOperand = toOperand(value);
+        }
 
-        for (var child : node.getJmmChild(1).getChildren()) {
-            visit(child, scope);
+        // Only the methods of this class have known signatures, the others take the type the caller expects
+        boolean known = targetClass.equals(symbolTable.getClassName()) && symbolTable.getMethods().contains(method);
+        List<Symbol> params = known ? symbolTable.getParameters(method) : Collections.emptyList();
+        String returnType = known ? OllirUtils.toOllir(symbolTable.getReturnType(method)) : expectedType;
+
+        StringBuilder call = new StringBuilder();
+        call.append(String.format("%s(%s, \"%s\"", invoke, targetOperand, method));
+        for (int i = 1; i < node.getNumChildren(); i++) {
+            String paramType = i - 1 < params.size() ? OllirUtils.toOllir(params.get(i - 1).getType()) : "i32";
+            call.append(", ").append(toOperand(visit(node.getJmmChild(i), paramType)));
         }
-        ollirCode.append(String.format("goto EndIf%d;\n", labelIdx));
-        ollirCode.append(String.format("Else%d: \n", labelIdx));
+        call.append(String.format(").%s", returnType));
+
+        return expression(call.toString(), returnType);
+    }
+
+    /**
+     * @return the value as an operand, assigning it to a new temporary first unless it already is one
+     */
+    private String toOperand(List<String> value) {
+        if (value.get(2).equals(OPERAND)) {
+            return value.get(0);
+        }
+
+        String var = generateTempVar() + "." + value.get(1);
+        ollirCode.append(String.format("%s :=.%s %s;\n", var, value.get(1), value.get(0)));
+        if (value.get(2).equals(NEW_OBJECT)) {
+            ollirCode.append(String.format("invokespecial(%s, \"<init>\").V;\n", var));
+        }
+        return var;
+    }
 
-        for (var child : node.getJmmChild(2).getChildren()) {
-            visit(child, scope);
+    private static List<String> operand(String code, String type) {
+        return Arrays.asList(code, type, OPERAND);
+    }
+
+    private static List<String> expression(String code, String type) {
+        return Arrays.asList(code, type, EXPRESSION);
+    }
+
+    /**
+     * @return the value of a declared variable, which for a field still has to be read with getfield
+     */
+    private List<String> getValue(String name) {
+        Symbol symbol = resolve(name);
+        String type = OllirUtils.toOllir(symbol.getType());
+        if (isField(name)) {
+            return expression(String.format("getfield(this, %s).%s", OllirUtils.toOllir(symbol), type), type);
         }
-        ollirCode.append(String.format("EndIf%d: \n", labelIdx));
+        return operand(getVariable(name) + "." + type, type);
+    }
 
+    /**
+     * Locals shadow parameters, which shadow fields; main's only parameter is not in the symbol table.
+     */
+    private Symbol resolve(String name) {
+        for (Symbol local : getLocals()) {
+            if (local.getName().equals(name)) {
+                return local;
+            }
+        }
+        for (Symbol param : getParams()) {
+            if (param.getName().equals(name)) {
+                return param;
+            }
+        }
+        for (Symbol field : symbolTable.getFields()) {
+            if (field.getName().equals(name)) {
+                return field;
+            }
+        }
         return null;
     }
 
-    private List<String> visitArrayDeclaration(JmmNode jmmNode, String s) {
-        List<String> result = new ArrayList<>();
-        StringBuilder ret = new StringBuilder();
-        ret.append("new(array, ").append(visit(jmmNode.getJmmChild(0), s)).append(")").append(s);
-        result.add(ret.toString());
-        return result;
+    private boolean isField(String name) {
+        return getLocals().stream().noneMatch(local -> local.getName().equals(name))
+                && getParams().stream().noneMatch(param -> param.getName().equals(name))
+                && symbolTable.getFields().stream().anyMatch(field -> field.getName().equals(name));
+    }
+
+    /**
+     * @return the variable without its type, with the "$n." prefix of a parameter
+     */
+    private String getVariable(String name) {
+        if (getLocals().stream().noneMatch(local -> local.getName().equals(name))) {
+            List<Symbol> params = getParams();
+            for (int i = 0; i < params.size(); i++) {
+                if (params.get(i).getName().equals(name)) {
+                    return String.format("$%d.%s", isStatic ? i : i + 1, OllirUtils.getName(name));
+                }
+            }
+        }
+        return OllirUtils.getName(name);
+    }
+
+    /**
+     * @return the array variable to index, loading it into a temporary first when it is a field
+     */
+    private String getArray(String name) {
+        if (isField(name)) {
+            return withoutType(toOperand(getValue(name)), "array.i32");
+        }
+        return getVariable(name);
+    }
+
+    private List<Symbol> getLocals() {
+        List<Symbol> locals = symbolTable.getLocalVariables(methodName);
+        return locals != null ? locals : Collections.emptyList();
+    }
+
+    private List<Symbol> getParams() {
+        List<Symbol> params = symbolTable.getParameters(methodName);
+        return params != null ? params : Collections.emptyList();
+    }
+
+    private static String withoutType(String operand, String type) {
+        return operand.substring(0, operand.length() - type.length() - 1);
+    }
+
+    private String generateTempVar() {
+        return String.format("t%d", this.num++);
+    }
+
+    private static String defaultConstructor(String s) {
+        return String.format(".construct %s().V {\n" +
+                "invokespecial(this, \"<init>\").V;\n" +
+                "}\n", s);
     }
 }
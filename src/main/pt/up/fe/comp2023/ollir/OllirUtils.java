@@ -5,12 +5,29 @@ import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 
 import java.util.List;
+import java.util.Set;
 
 
 public class OllirUtils {
 
+    private static final Set<String> KEYWORDS = Set.of("i32", "bool", "V", "array", "String", "final", "goto", "if",
+            "import", "interface", "new", "package", "private", "protected", "public", "ret", "static", "this", "ldc",
+            "invokespecial", "invokevirtual", "invokeinterface", "invokestatic", "arraylength", "getfield",
+            "putfield", "getstatic", "putstatic", "extends");
+
     public static String toOllir(Symbol symbol) {
-        return String.format("%s.%s", symbol.getName(), toOllir(symbol.getType()));
+        return String.format("%s.%s", getName(symbol.getName()), toOllir(symbol.getType()));
+    }
+
+    /**
+     * @return the name of a variable as OLLIR can read it: keywords, names with a '$' and names the generator uses for
+     * its temporaries get an underscore in front
+     */
+    public static String getName(String name) {
+        if (KEYWORDS.contains(name) || name.contains("$") || name.matches("_*t[0-9]+")) {
+            return "_" + name.replace("$", "_");
+        }
+        return name;
     }
 
     public static String toOllir(Type type) {
@@ -1,215 +1,279 @@
-/*
 package pt.up.fe.comp2023.optimization.ast;
 
-import pt.up.fe.comp2023.analysis.ASTMethodGenerator;
-import pt.up.fe.comp2023.analysis.SymbolTablePopulate;
-import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.analysis.table.Symbol;
-import pt.up.fe.comp.jmm.analysis.table.Type;
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.ast.AJmmVisitor;
+import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiFunction;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.Set;
 
+/**
+ * Constant propagation and folding over the AST. The visit returns whether the tree changed, and the data is the map
+ * from each local variable known to hold a constant to the literal node with its value.
+ * <p>
+ * Only locals and parameters are propagated, since any method call may change a field. Integer results are only folded
+ * when they can be written back as an Integer literal, which the grammar restricts to non-negative values.
+ */
+public class Propagator extends AJmmVisitor<Map<String, JmmNode>, Boolean> {
 
-public class Propagator  extends AJmmVisitor<String, Propagator.DeletedNSymbol> {
-    private final static Type INT = new Type("int", false);
-    private final static Type BOOL = new Type("boolean", false);
+    private static final String[] LOCATION_ATTRIBUTES = {"lineStart", "colStart", "lineEnd", "colEnd"};
 
-    protected static class DeletedNSymbol {
-        private final Symbol symbol;
-        private final boolean deleted;
+    private final SymbolTable symbolTable;
+    private final Set<String> methodVariables = new HashSet<>();
 
-        public DeletedNSymbol(Symbol symbol, boolean deleted) {
-            this.symbol = symbol;
-            this.deleted = deleted;
-        }
+    public Propagator(SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
     }
 
-    private final Map<String, Symbol> constants = new HashMap<>();
+    @Override
+    protected void buildVisitor() {
+        setDefaultVisit(this::visitChildren);
 
-    public ConstantPropagator() {
-        addVisit("Method", this::visitMethod);
-        addVisit("Main", this::visitMain);
-
-        addVisit("While", (node, scope) -> {this.constants.clear(); return this.defaultVisit(node, scope);});
-        addVisit("If", (node, scope) -> {this.constants.clear(); return this.defaultVisit(node, scope);});
+        addVisit("MethodStmt", this::visitMethod);
+        addVisit("MainMethodStmt", this::visitMethod);
 
         // Constant Propagation
-        addVisit("Var", this::visitVar);
-        addVisit("Assign", this::visitAssign);
-        addVisit("IntegerVal", (node, scope) -> new DeletedNSymbol(new Symbol(INT, node.get("VALUE")), false));
-        addVisit("Bool", (node, scope) -> new DeletedNSymbol(new Symbol(BOOL, node.get("VALUE")), false));
+        addVisit("AssignStmt", this::visitAssign);
+        addVisit("AssignLiteralStmt", this::visitAssignLiteral);
+        addVisit("IfStmt", this::visitIf);
+        addVisit("WhileStmt", this::visitWhile);
+        addVisit("Identifier", this::visitIdentifier);
 
         // Constant Folding
-        addVisit("LogicalAnd", (node, scope) -> visitOperation(node, scope, BOOL, BOOL, Boolean::parseBoolean, (lhs, rhs) -> lhs && rhs));
-        addVisit("Less", (node, scope) -> visitOperation(node, scope, INT, BOOL, Integer::parseInt, (lhs, rhs) -> lhs < rhs));
-        addVisit("Add", (node, scope) -> visitOperation(node, scope, INT, INT, Integer::parseInt, Integer::sum));
-        addVisit("Sub", (node, scope) -> visitOperation(node, scope, INT, INT, Integer::parseInt, (lhs, rhs) -> lhs - rhs));
-        addVisit("Mul", (node, scope) -> visitOperation(node, scope, INT, INT, Integer::parseInt, (lhs, rhs) -> lhs - rhs));
-        addVisit("Div", (node, scope) -> visitOperation(node, scope, INT, INT, Integer::parseInt, (lhs, rhs) -> lhs - rhs));
-        addVisit("Not", this::visitNot);
-
-        setDefaultVisit(this::defaultVisit);
+        addVisit("Parenthesis", this::visitParenthesis);
+        addVisit("Negation", this::visitNegation);
+        addVisit("BinaryOp", this::visitBinaryOp);
     }
 
-    private <T, R> DeletedNSymbol visitOperation(JmmNode node, String scope, Type paramType, Type returnType, Function<String, T> parser, BiFunction<T, T, R> operator) {
-        DeletedNSymbol leftNode = visit(node.getChildren().get(0), scope);
-        DeletedNSymbol rightNode = visit(node.getChildren().get(1), scope);
+    private Boolean visitChildren(JmmNode node, Map<String, JmmNode> constants) {
+        boolean changed = false;
 
-        if (isNotConstant(leftNode, paramType) || isNotConstant(rightNode, paramType)) {
-            return null;
+        // Children may be replaced while they are visited, so the original list is walked
+        for (JmmNode child : new ArrayList<>(node.getChildren())) {
+            changed |= visit(child, constants);
         }
 
-        T lhsVal = parser.apply(leftNode.symbol.getName());
-        T rhsVal = parser.apply(rightNode.symbol.getName());
+        return changed;
+    }
 
-        Symbol symbol = new Symbol(returnType, String.valueOf(operator.apply(lhsVal, rhsVal)));
+    private Boolean visitMethod(JmmNode node, Map<String, JmmNode> constants) {
+        String methodName = node.getKind().equals("MainMethodStmt") ? "main" : node.getJmmChild(0).get("value");
 
-        this.replaceNode(node, symbol);
+        methodVariables.clear();
+        addNames(symbolTable.getLocalVariables(methodName));
+        addNames(symbolTable.getParameters(methodName));
 
-        return new DeletedNSymbol(symbol, false);
+        return visitChildren(node, new HashMap<>());
     }
 
-    private DeletedNSymbol visitNot(JmmNode node, String scope) {
-        DeletedNSymbol value = visit(node.getChildren().get(0), scope);
-
-        if (isNotConstant(value, BOOL)) {
-            return null;
+    private void addNames(List<Symbol> symbols) {
+        if (symbols != null) {
+            for (Symbol symbol : symbols) {
+                methodVariables.add(symbol.getName());
+            }
         }
+    }
 
-        boolean notValue = Boolean.parseBoolean(value.symbol.getName());
-
-        Symbol symbol = new Symbol(BOOL, String.valueOf(!notValue));
+    private Boolean visitAssign(JmmNode node, Map<String, JmmNode> constants) {
+        boolean changed = visitChildren(node, constants);
+        String name = node.get("value");
+        JmmNode value = node.getJmmChild(0);
 
-        this.replaceNode(node, symbol);
+        if (isLiteral(value) && methodVariables.contains(name)) {
+            constants.put(name, value);
+        } else {
+            constants.remove(name);
+        }
 
-        return new DeletedNSymbol(symbol, false);
+        return changed;
     }
 
-    private boolean isNotConstant(DeletedNSymbol value, Type type) {
-        return value == null || !value.symbol.getType().equals(type);
+    private Boolean visitAssignLiteral(JmmNode node, Map<String, JmmNode> constants) {
+        // The literal of this statement is not kept in the tree, so the variable is simply no longer known
+        constants.remove(node.get("value"));
+        return false;
     }
 
-    private DeletedNSymbol visitVar(JmmNode node, String scope) {
-        if (!constants.containsKey(node.get("VALUE"))) {
-            return null;
+    private Boolean visitIf(JmmNode node, Map<String, JmmNode> constants) {
+        boolean changed = visit(node.getJmmChild(0), constants);
+        JmmNode condition = node.getJmmChild(0);
+
+        // A constant condition leaves only the branch that is taken
+        if (condition.getKind().equals("Boolean")) {
+            JmmNode taken = node.getJmmChild(condition.get("value").equals("true") ? 1 : 2);
+            node.replace(taken);
+            visit(taken, constants);
+            return true;
         }
 
-        Symbol constant = constants.get(node.get("VALUE"));
+        Map<String, JmmNode> elseConstants = new HashMap<>(constants);
+        changed |= visit(node.getJmmChild(1), constants);
+        changed |= visit(node.getJmmChild(2), elseConstants);
 
-        replaceNode(node, constant);
+        // Only the values that both branches agree on survive the if
+        constants.entrySet().removeIf(entry -> !sameLiteral(entry.getValue(), elseConstants.get(entry.getKey())));
 
-        return new DeletedNSymbol(constant, false);
+        return changed;
     }
 
-    private void replaceNode(JmmNode node, Symbol symbol) {
-        int index;
-        JmmNode parent = node.getParent();
-
-        for (index = 0; index < parent.getNumChildren(); index++) {
-            if (parent.getChildren().get(index) == node) {
-                break;
+    private Boolean visitWhile(JmmNode node, Map<String, JmmNode> constants) {
+        Map<String, List<JmmNode>> assignments = new HashMap<>();
+        collectAssignments(node.getJmmChild(1), assignments);
+
+        // A variable assigned in the loop changes from one iteration to the next, unless the loop only ever gives it
+        // back the value it already had
+        Map<String, JmmNode> beforeLoop = new HashMap<>(constants);
+        for (Map.Entry<String, List<JmmNode>> entry : assignments.entrySet()) {
+            JmmNode value = constants.get(entry.getKey());
+            if (value == null || !entry.getValue().stream().allMatch(assigned -> sameLiteral(value, assigned))) {
+                constants.remove(entry.getKey());
             }
         }
 
-        node.delete();
-
+        boolean changed = visit(node.getJmmChild(0), constants);
+        JmmNode condition = node.getJmmChild(0);
 
-        JmmNode newNode = new JmmNodeImpl(this.valueToKind(symbol.getType()));
-        newNode.put("COLUMN", node.get("COLUMN"));
-        newNode.put("LINE", node.get("LINE"));
-        newNode.put("VALUE", symbol.getName());
+        if (condition.getKind().equals("Boolean") && condition.get("value").equals("false")) {
+            node.delete();
+            constants.clear();
+            constants.putAll(beforeLoop);
+            return true;
+        }
 
-        parent.add(newNode, index);
-    }
+        // The body may run any number of times, so the values kept on entry are the only ones known after the loop
+        changed |= visit(node.getJmmChild(1), new HashMap<>(constants));
 
-    private String valueToKind(Type type) {
-        return switch (type.getName()) {
-            case "int" -> "IntegerVal";
-            case "boolean" -> "Bool";
-            default -> throw new IllegalStateException("Unexpected value: " + type.getName());
-        };
+        return changed;
     }
 
-    private DeletedNSymbol visitAssign(JmmNode node, String scope) {
-        JmmNode leftNode = node.getChildren().get(0);
-        DeletedNSymbol rightValue = visit(node.getChildren().get(1), scope);
+    /**
+     * Maps every variable assigned inside the node to the values it is assigned, where a null value stands for one
+     * that is not kept in the tree.
+     */
+    private void collectAssignments(JmmNode node, Map<String, List<JmmNode>> assignments) {
+        if (node.getKind().equals("AssignStmt")) {
+            assignments.computeIfAbsent(node.get("value"), name -> new ArrayList<>()).add(node.getJmmChild(0));
+        } else if (node.getKind().equals("AssignLiteralStmt")) {
+            assignments.computeIfAbsent(node.get("value"), name -> new ArrayList<>()).add(null);
+        }
 
-        if (leftNode.getKind().equals("ArrayAccess")) {
-            return new DeletedNSymbol(null, false);
+        for (JmmNode child : node.getChildren()) {
+            collectAssignments(child, assignments);
         }
+    }
 
-        if (rightValue != null && rightValue.symbol != null) {
-            constants.put(leftNode.get("VALUE"), rightValue.symbol);
-        } else {
-            constants.remove(leftNode.get("VALUE"));
+    private Boolean visitIdentifier(JmmNode node, Map<String, JmmNode> constants) {
+        JmmNode constant = constants.get(node.get("value"));
+        if (constant == null) {
+            return false;
         }
 
-        return new DeletedNSymbol(null, false);
+        replaceWithLiteral(node, constant.getKind(), constant.get("value"));
+        return true;
     }
 
-    private DeletedNSymbol visitMain(JmmNode node, String scope) {
-        String methodScope = initializeMethod(node);
-        DeletedNSymbol deletedNSymbol;
-        for (int i = 1; i < node.getNumChildren(); i++){
-            if (node.getChildren().get(i).getKind().equals("MethodParameters")) {
-                continue;
-            }
+    private Boolean visitParenthesis(JmmNode node, Map<String, JmmNode> constants) {
+        boolean changed = visitChildren(node, constants);
+        JmmNode child = node.getJmmChild(0);
 
-            deletedNSymbol = visit(node.getChildren().get(i), methodScope);
+        if (isLiteral(child)) {
+            replaceWithLiteral(node, child.getKind(), child.get("value"));
+            return true;
+        }
 
-            if (deletedNSymbol != null && deletedNSymbol.deleted) {
-                i--;
-            }
+        return changed;
+    }
+
+    private Boolean visitNegation(JmmNode node, Map<String, JmmNode> constants) {
+        boolean changed = visitChildren(node, constants);
+        JmmNode child = node.getJmmChild(0);
+
+        if (child.getKind().equals("Boolean")) {
+            replaceWithLiteral(node, "Boolean", String.valueOf(!Boolean.parseBoolean(child.get("value"))));
+            return true;
         }
 
-        return null;
+        return changed;
     }
 
-    private DeletedNSymbol visitMethod(JmmNode node, String e) {
-        String methodScope = initializeMethod(node);
-        DeletedNSymbol deletedNSymbol;
-        for (int i = 2; i < node.getNumChildren(); i++){
-            if (node.getChildren().get(i).getKind().equals("MethodParameters")) {
-                continue;
+    private Boolean visitBinaryOp(JmmNode node, Map<String, JmmNode> constants) {
+        boolean changed = visitChildren(node, constants);
+        JmmNode left = node.getJmmChild(0);
+        JmmNode right = node.getJmmChild(1);
+        String op = node.get("op");
+
+        if (op.equals("&&")) {
+            if (left.getKind().equals("Boolean") && right.getKind().equals("Boolean")) {
+                boolean result = Boolean.parseBoolean(left.get("value")) && Boolean.parseBoolean(right.get("value"));
+                replaceWithLiteral(node, "Boolean", String.valueOf(result));
+                return true;
             }
+            return changed;
+        }
 
-            deletedNSymbol = visit(node.getChildren().get(i), methodScope);
+        if (!left.getKind().equals("Integer") || !right.getKind().equals("Integer")) {
+            return changed;
+        }
 
-            if (deletedNSymbol != null && deletedNSymbol.deleted) {
-                i--;
-            }
+        int lhs = Integer.parseInt(left.get("value"));
+        int rhs = Integer.parseInt(right.get("value"));
+
+        if (op.equals("<")) {
+            replaceWithLiteral(node, "Boolean", String.valueOf(lhs < rhs));
+            return true;
         }
 
-        return null;
-    }
+        int result;
+        switch (op) {
+            case "+":
+                result = lhs + rhs;
+                break;
+            case "-":
+                result = lhs - rhs;
+                break;
+            case "*":
+                result = lhs * rhs;
+                break;
+            case "/":
+                // Division by zero has to keep throwing at run time
+                if (rhs == 0) {
+                    return changed;
+                }
+                result = lhs / rhs;
+                break;
+            default:
+                return changed;
+        }
 
-    private String initializeMethod(JmmNode node) {
-        List<Symbol> methodSymbols = new ASTMethodGenerator().visit(node);
-        Symbol methodSymbol = methodSymbols.remove(0);
+        if (result < 0) {
+            return changed;
+        }
 
-        this.constants.clear();
+        replaceWithLiteral(node, "Integer", String.valueOf(result));
+        return true;
+    }
 
-        return AnalysisTable.getMethodString(methodSymbol.getName(), methodSymbols.stream().map(Symbol::getType).collect(Collectors.toList()));
+    private static boolean isLiteral(JmmNode node) {
+        return node.getKind().equals("Integer") || node.getKind().equals("Boolean");
     }
 
-    private DeletedNSymbol defaultVisit(JmmNode node, String scope) {
-        DeletedNSymbol deletedNSymbol;
-        for (int i = 0; i < node.getNumChildren(); i++) {
-            deletedNSymbol = visit(node.getChildren().get(i), scope);
+    private static boolean sameLiteral(JmmNode first, JmmNode second) {
+        return first != null && second != null && first.getKind().equals(second.getKind()) && first.get("value").equals(second.get("value"));
+    }
 
-            if (deletedNSymbol != null && deletedNSymbol.deleted) {
-                i--;
-            }
+    private static void replaceWithLiteral(JmmNode node, String kind, String value) {
+        JmmNode literal = new JmmNodeImpl(kind);
+        literal.put("value", value);
+        for (String attribute : LOCATION_ATTRIBUTES) {
+            node.getOptional(attribute).ifPresent(location -> literal.put(attribute, location));
         }
 
-        return null;
+        node.replace(literal);
     }
 }
-*/
@@ -0,0 +1,160 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.List;
+
+/**
+ * Replaces the operations whose result is known from an algebraic identity by a copy of that result, as in "x + 0",
+ * "x * 1" or "x / 1" to "x", "x * 0" or "x - x" to "0", and "x && true" to "x".
+ * <p>
+ * A negation of a negation computed by the instruction right before, which is what "!!b" becomes, is a copy of the
+ * value negated twice. The negation itself is left for dead code elimination to remove if nothing else reads it.
+ * <p>
+ * Operands that are array elements are never dropped, as reading them may throw.
+ */
+public class AlgebraicSimplification {
+
+    private final Method method;
+
+    public AlgebraicSimplification(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * @return how many operations were simplified
+     */
+    public int run() {
+        List<Instruction> instructions = method.getInstructions();
+        int simplified = 0;
+
+        for (int i = 0; i < instructions.size(); i++) {
+            if (!(instructions.get(i) instanceof AssignInstruction)) {
+                continue;
+            }
+
+            AssignInstruction assign = (AssignInstruction) instructions.get(i);
+            Element result = null;
+
+            if (assign.getRhs() instanceof BinaryOpInstruction) {
+                result = simplify((BinaryOpInstruction) assign.getRhs(), assign.getTypeOfAssign());
+            } else if (assign.getRhs() instanceof UnaryOpInstruction && i > 0 && !isJumpedTo(assign)) {
+                result = simplifyNegation((UnaryOpInstruction) assign.getRhs(), instructions.get(i - 1));
+            }
+
+            if (result != null) {
+                AssignInstruction copy = new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(),
+                        new SingleOpInstruction(result));
+                retarget(assign, copy);
+                instructions.set(i, copy);
+                simplified++;
+            }
+        }
+
+        return simplified;
+    }
+
+    /**
+     * @return the value of the operation if an identity gives it, or null if it must be computed
+     */
+    private static Element simplify(BinaryOpInstruction binaryOp, Type type) {
+        Element left = binaryOp.getLeftOperand();
+        Element right = binaryOp.getRightOperand();
+        if (LivenessAnalysis.isArrayElement(left) || LivenessAnalysis.isArrayElement(right)) {
+            return null;
+        }
+
+        Integer leftValue = getLiteral(left);
+        Integer rightValue = getLiteral(right);
+
+        switch (binaryOp.getOperation().getOpType()) {
+            case ADD:
+                if (isValue(rightValue, 0)) {
+                    return left;
+                }
+                return isValue(leftValue, 0) ? right : null;
+            case SUB:
+                if (isValue(rightValue, 0)) {
+                    return left;
+                }
+                return isSameVariable(left, right) ? new LiteralElement("0", type) : null;
+            case MUL:
+                if (isValue(rightValue, 1)) {
+                    return left;
+                }
+                if (isValue(leftValue, 1)) {
+                    return right;
+                }
+                return isValue(leftValue, 0) || isValue(rightValue, 0) ? new LiteralElement("0", type) : null;
+            case DIV:
+                return isValue(rightValue, 1) ? left : null;
+            case ANDB:
+                if (isValue(rightValue, 1)) {
+                    return left;
+                }
+                if (isValue(leftValue, 1)) {
+                    return right;
+                }
+                return isValue(leftValue, 0) || isValue(rightValue, 0) ? new LiteralElement("0", type) : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the value negated twice if the negation is of a negation computed by the previous instruction, or null
+     */
+    private static Element simplifyNegation(UnaryOpInstruction unaryOp, Instruction previous) {
+        if (unaryOp.getOperation().getOpType() != OperationType.NOTB || !(previous instanceof AssignInstruction)) {
+            return null;
+        }
+
+        AssignInstruction inner = (AssignInstruction) previous;
+        if (!(inner.getRhs() instanceof UnaryOpInstruction)) {
+            return null;
+        }
+
+        UnaryOpInstruction innerOp = (UnaryOpInstruction) inner.getRhs();
+        Element negated = innerOp.getOperand();
+        if (innerOp.getOperation().getOpType() != OperationType.NOTB || !isSameVariable(unaryOp.getOperand(), inner.getDest())
+                || LivenessAnalysis.isArrayElement(negated) || isSameVariable(negated, inner.getDest())) {
+            return null;
+        }
+
+        return negated;
+    }
+
+    private static Integer getLiteral(Element element) {
+        if (!element.isLiteral()) {
+            return null;
+        }
+
+        try {
+            return Integer.parseInt(((LiteralElement) element).getLiteral());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isValue(Integer literal, int value) {
+        return literal != null && literal == value;
+    }
+
+    private static boolean isSameVariable(Element first, Element second) {
+        return !first.isLiteral() && !second.isLiteral() && !LivenessAnalysis.isArrayElement(first)
+                && !LivenessAnalysis.isArrayElement(second)
+                && ((Operand) first).getName().equals(((Operand) second).getName());
+    }
+
+    private boolean isJumpedTo(Instruction instruction) {
+        return method.getLabels().containsValue(instruction);
+    }
+
+    private void retarget(Instruction from, Instruction to) {
+        for (var label : method.getLabels().entrySet()) {
+            if (label.getValue() == from) {
+                label.setValue(to);
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reuses the value of an expression already computed in the same basic block, by local value numbering: an assignment
+ * whose right-hand side was computed before becomes a copy of the variable holding it.
+ * <p>
+ * Copies are followed, so "t1 := t0" makes t1 and t0 the same value in later expressions. A computed value is
+ * forgotten once any variable it was built from, or the variable holding it, is written. Array elements may be written
+ * through any array or by a called method, so reads of array elements are forgotten on every array store and call.
+ */
+public class CommonSubexpressionElimination {
+
+    private final Method method;
+
+    // What is known at the current point of the block being visited
+    private final Map<String, Value> available = new HashMap<>();
+    private final Map<String, String> copies = new HashMap<>();
+
+    public CommonSubexpressionElimination(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * @return how many expressions were replaced by a copy
+     */
+    public int run() {
+        List<Instruction> instructions = method.getInstructions();
+        Set<Instruction> leaders = getLeaders(instructions);
+        int replaced = 0;
+
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (leaders.contains(instruction)) {
+                available.clear();
+                copies.clear();
+            }
+
+            if (!(instruction instanceof AssignInstruction)) {
+                if (instruction instanceof CallInstruction) {
+                    forgetMemory();
+                }
+                continue;
+            }
+
+            AssignInstruction assign = (AssignInstruction) instruction;
+            Instruction rhs = assign.getRhs();
+            String def = LivenessAnalysis.getDef(assign);
+            Set<String> variables = new HashSet<>();
+            String key = getKey(rhs, variables);
+
+            if (def != null && key != null && available.containsKey(key)) {
+                Element holder = available.get(key).holder;
+                AssignInstruction copy = new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(),
+                        new SingleOpInstruction(holder));
+                retarget(assign, copy);
+                instructions.set(i, copy);
+                assign = copy;
+                rhs = copy.getRhs();
+                key = null;
+                replaced++;
+            }
+
+            if (rhs instanceof CallInstruction && ((CallInstruction) rhs).getInvocationType() != CallType.arraylength) {
+                forgetMemory();
+            }
+
+            if (def == null) {
+                // A store into an array element may change any element read so far
+                forgetMemory();
+                continue;
+            }
+
+            forget(def);
+            if (key != null && !variables.contains(def)) {
+                available.put(key, new Value(assign.getDest(), variables, key.contains("[")));
+            }
+
+            Element source = rhs instanceof SingleOpInstruction ? ((SingleOpInstruction) rhs).getSingleOperand() : null;
+            if (source != null && !source.isLiteral() && !LivenessAnalysis.isArrayElement(source)) {
+                String canonical = getCanonical(((Operand) source).getName());
+                if (!canonical.equals(def)) {
+                    copies.put(def, canonical);
+                }
+            }
+        }
+
+        return replaced;
+    }
+
+    /**
+     * @return the instructions that start a basic block: the first one, those jumped to, and those after a jump
+     */
+    private Set<Instruction> getLeaders(List<Instruction> instructions) {
+        Set<Instruction> leaders = Collections.newSetFromMap(new IdentityHashMap<>());
+        leaders.addAll(method.getLabels().values());
+        if (!instructions.isEmpty()) {
+            leaders.add(instructions.get(0));
+        }
+
+        for (int i = 0; i + 1 < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+            if (instruction instanceof CondBranchInstruction || instruction instanceof GotoInstruction
+                    || instruction instanceof ReturnInstruction) {
+                leaders.add(instructions.get(i + 1));
+            }
+        }
+
+        return leaders;
+    }
+
+    /**
+     * @return a key that is the same for every computation of the same value in the block, or null if the value is not
+     * one that is reused; only the keys of values read from array elements have brackets
+     */
+    private String getKey(Instruction rhs, Set<String> variables) {
+        switch (rhs.getInstType()) {
+            case BINARYOPER:
+                BinaryOpInstruction binaryOp = (BinaryOpInstruction) rhs;
+                OperationType opType = binaryOp.getOperation().getOpType();
+                String left = getKey(binaryOp.getLeftOperand(), variables);
+                String right = getKey(binaryOp.getRightOperand(), variables);
+
+                // The operands of a commutative operation are ordered, so a + b and b + a are the same value
+                if (isCommutative(opType) && left.compareTo(right) > 0) {
+                    String swap = left;
+                    left = right;
+                    right = swap;
+                }
+                return opType + "(" + left + "," + right + ")";
+            case UNARYOPER:
+                UnaryOpInstruction unaryOp = (UnaryOpInstruction) rhs;
+                return unaryOp.getOperation().getOpType() + "(" + getKey(unaryOp.getOperand(), variables) + ")";
+            case NOPER:
+                Element operand = ((SingleOpInstruction) rhs).getSingleOperand();
+                return LivenessAnalysis.isArrayElement(operand) ? getKey(operand, variables) : null;
+            case CALL:
+                CallInstruction call = (CallInstruction) rhs;
+                if (call.getInvocationType() != CallType.arraylength) {
+                    return null;
+                }
+                return "length(" + getKey(call.getFirstArg(), variables) + ")";
+            default:
+                return null;
+        }
+    }
+
+    private String getKey(Element element, Set<String> variables) {
+        if (element.isLiteral()) {
+            return "#" + ((LiteralElement) element).getLiteral();
+        }
+
+        String name = ((Operand) element).getName();
+        String canonical = getCanonical(name);
+        variables.add(name);
+        variables.add(canonical);
+
+        if (!LivenessAnalysis.isArrayElement(element)) {
+            return canonical;
+        }
+
+        StringBuilder key = new StringBuilder(canonical);
+        for (Element index : ((ArrayOperand) element).getIndexOperands()) {
+            key.append('[').append(getKey(index, variables)).append(']');
+        }
+        return key.toString();
+    }
+
+    private static boolean isCommutative(OperationType opType) {
+        switch (opType) {
+            case ADD:
+            case MUL:
+            case AND:
+            case ANDB:
+            case OR:
+            case ORB:
+            case EQ:
+            case NEQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private String getCanonical(String name) {
+        return copies.getOrDefault(name, name);
+    }
+
+    /**
+     * Forgets everything that depends on the previous value of a variable about to be written.
+     */
+    private void forget(String variable) {
+        available.values().removeIf(value -> value.variables.contains(variable)
+                || ((Operand) value.holder).getName().equals(variable));
+        copies.remove(variable);
+        copies.values().removeIf(variable::equals);
+    }
+
+    private void forgetMemory() {
+        available.values().removeIf(value -> value.memory);
+    }
+
+    private void retarget(Instruction from, Instruction to) {
+        for (var label : method.getLabels().entrySet()) {
+            if (label.getValue() == from) {
+                label.setValue(to);
+            }
+        }
+    }
+
+    private static class Value {
+        private final Element holder;
+        private final Set<String> variables;
+        private final boolean memory;
+
+        private Value(Element holder, Set<String> variables, boolean memory) {
+            this.holder = holder;
+            this.variables = new HashSet<>(variables);
+            this.memory = memory;
+        }
+    }
+}
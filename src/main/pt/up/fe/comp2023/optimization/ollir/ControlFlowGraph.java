@@ -0,0 +1,83 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.specs.comp.ollir.CondBranchInstruction;
+import org.specs.comp.ollir.GotoInstruction;
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.Method;
+import org.specs.comp.ollir.ReturnInstruction;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Control flow graph of a method with one node per instruction, indexed by the position of the instruction in
+ * {@link Method#getInstructions()}.
+ * <p>
+ * Built from the instruction list and the label map every time, since {@link Method#buildCFG()} can only be called
+ * once and would go stale as soon as a pass changes the instructions.
+ */
+public class ControlFlowGraph {
+
+    private final List<Instruction> instructions;
+    private final List<List<Integer>> successors = new ArrayList<>();
+    private final List<List<Integer>> predecessors = new ArrayList<>();
+
+    public ControlFlowGraph(Method method) {
+        this.instructions = method.getInstructions();
+
+        Map<Instruction, Integer> indexes = new IdentityHashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            indexes.put(instructions.get(i), i);
+            successors.add(new ArrayList<>());
+            predecessors.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = instructions.get(i);
+
+            if (instruction instanceof GotoInstruction) {
+                addEdge(i, getTarget(method, indexes, ((GotoInstruction) instruction).getLabel()));
+                continue;
+            }
+
+            if (instruction instanceof CondBranchInstruction) {
+                addEdge(i, getTarget(method, indexes, ((CondBranchInstruction) instruction).getLabel()));
+            }
+
+            if (!(instruction instanceof ReturnInstruction) && i + 1 < instructions.size()) {
+                addEdge(i, i + 1);
+            }
+        }
+    }
+
+    private static int getTarget(Method method, Map<Instruction, Integer> indexes, String label) {
+        Integer target = indexes.get(method.getLabels().get(label));
+        if (target == null) {
+            throw new IllegalStateException("Undefined label '" + label + "' in method " + method.getMethodName());
+        }
+        return target;
+    }
+
+    private void addEdge(int from, int to) {
+        successors.get(from).add(to);
+        predecessors.get(to).add(from);
+    }
+
+    public int size() {
+        return instructions.size();
+    }
+
+    public Instruction getInstruction(int index) {
+        return instructions.get(index);
+    }
+
+    public List<Integer> getSuccessors(int index) {
+        return successors.get(index);
+    }
+
+    public List<Integer> getPredecessors(int index) {
+        return predecessors.get(index);
+    }
+}
@@ -0,0 +1,272 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the code of a method that cannot affect what it does: branches on constant conditions, instructions no path
+ * reaches, and assignments to variables that are not read before being written again.
+ * <p>
+ * An assignment is only removed when computing its value has no effect besides the variable, so calls, array accesses,
+ * array lengths and divisions by a variable stay, as they may print or throw. Removing an assignment can leave the
+ * ones feeding it unread, so the method is analysed again until nothing else goes.
+ * <p>
+ * The control flow graph is {@link ControlFlowGraph} rather than {@link Method#buildCFG()}, since the latter can only be
+ * built once and the instructions change between rounds.
+ */
+public class DeadCodeElimination {
+
+    private final Method method;
+    private int constantBranches;
+    private int unreachable;
+    private int deadStores;
+
+    public DeadCodeElimination(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * @return whether anything was removed
+     */
+    public boolean run() {
+        method.buildVarTable();
+
+        foldConstantBranches();
+        removeUnreachable();
+
+        // Each round may leave the operands of the stores it removed unread
+        boolean removed = true;
+        while (removed) {
+            removed = removeDeadStores();
+        }
+
+        boolean changed = constantBranches + unreachable + deadStores > 0;
+        if (changed) {
+            // Variables only used by the removed code no longer need a local
+            method.getVarTable().clear();
+            method.buildVarTable();
+        }
+        return changed;
+    }
+
+    public int getConstantBranches() {
+        return constantBranches;
+    }
+
+    public int getUnreachable() {
+        return unreachable;
+    }
+
+    public int getDeadStores() {
+        return deadStores;
+    }
+
+    private void foldConstantBranches() {
+        List<Instruction> instructions = method.getInstructions();
+
+        for (int i = 0; i < instructions.size(); i++) {
+            if (!(instructions.get(i) instanceof CondBranchInstruction)) {
+                continue;
+            }
+
+            CondBranchInstruction branch = (CondBranchInstruction) instructions.get(i);
+            Boolean condition = evaluate(branch.getCondition());
+            if (condition == null) {
+                continue;
+            }
+
+            // A branch that is always taken is a jump, and one that never is just falls through
+            if (condition) {
+                Instruction jump = new GotoInstruction(branch.getLabel());
+                retarget(branch, jump);
+                instructions.set(i, jump);
+            } else if (i + 1 < instructions.size()) {
+                retarget(branch, instructions.get(i + 1));
+                instructions.remove(i--);
+            } else {
+                continue;
+            }
+            constantBranches++;
+        }
+    }
+
+    /**
+     * @return the value of a condition whose operands are all literals, or null if it depends on a variable
+     */
+    private static Boolean evaluate(Instruction condition) {
+        if (condition instanceof SingleOpInstruction) {
+            Integer value = getLiteral(((SingleOpInstruction) condition).getSingleOperand());
+            return value == null ? null : value != 0;
+        }
+
+        if (condition instanceof UnaryOpInstruction) {
+            UnaryOpInstruction unaryOp = (UnaryOpInstruction) condition;
+            Integer value = getLiteral(unaryOp.getOperand());
+            if (value == null || unaryOp.getOperation().getOpType() != OperationType.NOTB) {
+                return null;
+            }
+            return value == 0;
+        }
+
+        if (condition instanceof BinaryOpInstruction) {
+            BinaryOpInstruction binaryOp = (BinaryOpInstruction) condition;
+            Integer left = getLiteral(binaryOp.getLeftOperand());
+            Integer right = getLiteral(binaryOp.getRightOperand());
+            if (left == null || right == null) {
+                return null;
+            }
+
+            switch (binaryOp.getOperation().getOpType()) {
+                case LTH:
+                    return left < right;
+                case LTE:
+                    return left <= right;
+                case GTH:
+                    return left > right;
+                case GTE:
+                    return left >= right;
+                case EQ:
+                    return left.equals(right);
+                case NEQ:
+                    return !left.equals(right);
+                case ANDB:
+                    return left != 0 && right != 0;
+                case ORB:
+                    return left != 0 || right != 0;
+                default:
+                    return null;
+            }
+        }
+
+        return null;
+    }
+
+    private static Integer getLiteral(Element element) {
+        if (element == null || !element.isLiteral()) {
+            return null;
+        }
+
+        try {
+            return Integer.parseInt(((LiteralElement) element).getLiteral());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void removeUnreachable() {
+        ControlFlowGraph cfg = new ControlFlowGraph(method);
+        boolean[] reached = new boolean[cfg.size()];
+
+        Deque<Integer> worklist = new ArrayDeque<>();
+        if (cfg.size() > 0) {
+            reached[0] = true;
+            worklist.push(0);
+        }
+        while (!worklist.isEmpty()) {
+            for (int successor : cfg.getSuccessors(worklist.pop())) {
+                if (!reached[successor]) {
+                    reached[successor] = true;
+                    worklist.push(successor);
+                }
+            }
+        }
+
+        Set<Instruction> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < cfg.size(); i++) {
+            if (!reached[i]) {
+                removed.add(cfg.getInstruction(i));
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+
+        // Only unreachable code jumps to an unreachable instruction, so its labels go with it
+        method.getLabels().values().removeIf(removed::contains);
+        method.getInstructions().removeIf(removed::contains);
+        unreachable += removed.size();
+    }
+
+    private boolean removeDeadStores() {
+        ControlFlowGraph cfg = new ControlFlowGraph(method);
+        LivenessAnalysis liveness = new LivenessAnalysis(method, cfg);
+
+        Map<Instruction, Instruction> dead = new IdentityHashMap<>();
+        for (int i = 0; i < cfg.size(); i++) {
+            Instruction instruction = cfg.getInstruction(i);
+            String def = LivenessAnalysis.getDef(instruction);
+
+            if (def != null && liveness.getVariables().contains(def) && !liveness.getLiveOut(i).contains(def)
+                    && isPure(((AssignInstruction) instruction).getRhs()) && i + 1 < cfg.size()) {
+                dead.put(instruction, cfg.getInstruction(i + 1));
+            }
+        }
+        if (dead.isEmpty()) {
+            return false;
+        }
+
+        // Jumps to a removed store go to the instruction after it, skipping over stores removed along with it
+        for (var label : method.getLabels().entrySet()) {
+            Instruction target = label.getValue();
+            while (dead.containsKey(target)) {
+                target = dead.get(target);
+            }
+            label.setValue(target);
+        }
+
+        method.getInstructions().removeIf(dead::containsKey);
+        deadStores += dead.size();
+        return true;
+    }
+
+    /**
+     * @return whether the operation is a division by a divisor not known to be non-zero, which may throw
+     */
+    static boolean mayDivideByZero(BinaryOpInstruction binaryOp) {
+        if (binaryOp.getOperation().getOpType() != OperationType.DIV) {
+            return false;
+        }
+
+        Integer divisor = getLiteral(binaryOp.getRightOperand());
+        return divisor == null || divisor == 0;
+    }
+
+    /**
+     * @return whether computing the value has no effect, so it can be dropped when the value is not needed
+     */
+    private static boolean isPure(Instruction rhs) {
+        switch (rhs.getInstType()) {
+            case NOPER:
+                return !LivenessAnalysis.isArrayElement(((SingleOpInstruction) rhs).getSingleOperand());
+            case UNARYOPER:
+                return !LivenessAnalysis.isArrayElement(((UnaryOpInstruction) rhs).getOperand());
+            case BINARYOPER:
+                BinaryOpInstruction binaryOp = (BinaryOpInstruction) rhs;
+                if (LivenessAnalysis.isArrayElement(binaryOp.getLeftOperand())
+                        || LivenessAnalysis.isArrayElement(binaryOp.getRightOperand())) {
+                    return false;
+                }
+
+                return !mayDivideByZero(binaryOp);
+            case GETFIELD:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void retarget(Instruction from, Instruction to) {
+        for (var label : method.getLabels().entrySet()) {
+            if (label.getValue() == from) {
+                label.setValue(to);
+            }
+        }
+    }
+}
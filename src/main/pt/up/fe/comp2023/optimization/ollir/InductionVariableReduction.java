@@ -0,0 +1,278 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the multiplications of an induction variable of a loop by a constant with a variable that keeps their
+ * value, which is updated with an addition whenever the induction variable is, as in "t := i * 8" to "t := i_x8" with
+ * "i_x8 := i * 8" before the loop and "i_x8 := i_x8 + 8" after "i := i + 1".
+ * <p>
+ * The factor may also be a variable the loop does not write. Its products are then computed before the loop, as in
+ * "i_xk := i * k" and "i_xk_step := k * 2" for "i := i + 2", and the update adds the precomputed step; a step of 1 adds
+ * the factor itself.
+ * <p>
+ * An induction variable is one written only once in the loop, by adding a constant to or subtracting one from itself.
+ * The new variable then holds the value of the multiplication everywhere in the loop but between the update of the
+ * induction variable and its own, so jumps to the instruction after the update skip over it. Both sides wrap around
+ * on overflow the same way, so their values never differ.
+ * <p>
+ * Only loops with a preheader, found by {@link NaturalLoop}, are considered.
+ */
+public class InductionVariableReduction {
+
+    private final Method method;
+
+    public InductionVariableReduction(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * @return how many multiplications were replaced
+     */
+    public int run() {
+        method.buildVarTable();
+
+        int replaced = 0;
+        int reduced;
+        do {
+            // Every reduction inserts instructions, so the loops are found again from scratch
+            reduced = reduceOnce();
+            replaced += reduced;
+        } while (reduced > 0);
+
+        if (replaced > 0) {
+            method.getVarTable().clear();
+            method.buildVarTable();
+        }
+        return replaced;
+    }
+
+    private int reduceOnce() {
+        ControlFlowGraph cfg = new ControlFlowGraph(method);
+
+        for (NaturalLoop loop : NaturalLoop.find(method, cfg)) {
+            if (!loop.hasPreheader()) {
+                continue;
+            }
+
+            Map<String, Integer> loopDefs = new HashMap<>();
+            for (int node : loop.getBody()) {
+                String def = LivenessAnalysis.getDef(cfg.getInstruction(node));
+                if (def != null) {
+                    loopDefs.merge(def, 1, Integer::sum);
+                }
+            }
+
+            Map<String, Integer> steps = new HashMap<>();
+            Map<String, Integer> updates = new HashMap<>();
+            findInductionVariables(cfg, loop, loopDefs, steps, updates);
+            if (steps.isEmpty()) {
+                continue;
+            }
+
+            // Multiplications of the same variable by the same factor share the variable that replaces them
+            Map<String, List<Integer>> products = new LinkedHashMap<>();
+            for (int node : loop.getBody()) {
+                String key = getProduct(cfg.getInstruction(node), steps, loopDefs);
+                if (key != null) {
+                    products.computeIfAbsent(key, k -> new ArrayList<>()).add(node);
+                }
+            }
+
+            if (!products.isEmpty()) {
+                var product = products.entrySet().iterator().next();
+                String[] parts = product.getKey().split("\\*");
+                reduce(loop.getHeader(), parts[0], parts[1], steps.get(parts[0]), updates.get(parts[0]),
+                        product.getValue());
+                // The next reductions must see the new variable to pick names of their own
+                method.buildVarTable();
+                return product.getValue().size();
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Finds the variables written once in the loop by adding a constant to themselves, with the constant they change by
+     * and where they are written.
+     */
+    private static void findInductionVariables(ControlFlowGraph cfg, NaturalLoop loop, Map<String, Integer> loopDefs,
+                                               Map<String, Integer> steps, Map<String, Integer> updates) {
+        for (int node : loop.getBody()) {
+            Instruction instruction = cfg.getInstruction(node);
+            String def = LivenessAnalysis.getDef(instruction);
+            if (def == null || loopDefs.get(def) != 1
+                    || !(((AssignInstruction) instruction).getRhs() instanceof BinaryOpInstruction)) {
+                continue;
+            }
+
+            BinaryOpInstruction binaryOp = (BinaryOpInstruction) ((AssignInstruction) instruction).getRhs();
+            OperationType opType = binaryOp.getOperation().getOpType();
+            Element left = binaryOp.getLeftOperand();
+            Element right = binaryOp.getRightOperand();
+            Integer step = null;
+
+            if (opType == OperationType.ADD && isVariable(left, def)) {
+                step = getLiteral(right);
+            } else if (opType == OperationType.ADD && isVariable(right, def)) {
+                step = getLiteral(left);
+            } else if (opType == OperationType.SUB && isVariable(left, def)) {
+                Integer literal = getLiteral(right);
+                step = literal == null ? null : -literal;
+            }
+
+            if (step != null) {
+                steps.put(def, step);
+                updates.put(def, node);
+            }
+        }
+    }
+
+    /**
+     * @return "variable*factor" if the instruction assigns a multiplication of an induction variable to another variable,
+     * where the factor is a constant or an int variable the loop does not write, or null otherwise
+     */
+    private static String getProduct(Instruction instruction, Map<String, Integer> steps,
+                                     Map<String, Integer> loopDefs) {
+        String def = LivenessAnalysis.getDef(instruction);
+        if (def == null || !(((AssignInstruction) instruction).getRhs() instanceof BinaryOpInstruction)) {
+            return null;
+        }
+
+        BinaryOpInstruction binaryOp = (BinaryOpInstruction) ((AssignInstruction) instruction).getRhs();
+        if (binaryOp.getOperation().getOpType() != OperationType.MUL) {
+            return null;
+        }
+
+        Element left = binaryOp.getLeftOperand();
+        Element right = binaryOp.getRightOperand();
+        if (isInductionVariable(left, steps, def)) {
+            String factor = getFactor(right, loopDefs);
+            if (factor != null) {
+                return ((Operand) left).getName() + "*" + factor;
+            }
+        }
+        if (isInductionVariable(right, steps, def)) {
+            String factor = getFactor(left, loopDefs);
+            if (factor != null) {
+                return ((Operand) right).getName() + "*" + factor;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isInductionVariable(Element element, Map<String, Integer> steps, String def) {
+        if (element.isLiteral() || LivenessAnalysis.isArrayElement(element)) {
+            return false;
+        }
+
+        String name = ((Operand) element).getName();
+        return steps.containsKey(name) && !name.equals(def);
+    }
+
+    /**
+     * @return the constant, or the name of the variable, an induction variable is multiplied by, or null if the
+     * product does not keep the same factor in every iteration
+     */
+    private static String getFactor(Element element, Map<String, Integer> loopDefs) {
+        if (element.isLiteral()) {
+            Integer literal = getLiteral(element);
+            // Multiplying by 0 or 1 is left to the algebraic simplification
+            return literal == null || literal == 0 || literal == 1 ? null : String.valueOf(literal);
+        }
+
+        if (LivenessAnalysis.isArrayElement(element) || element.getType().getTypeOfElement() != ElementType.INT32) {
+            return null;
+        }
+
+        String name = ((Operand) element).getName();
+        return loopDefs.containsKey(name) ? null : name;
+    }
+
+    private void reduce(int header, String variable, String factor, int step, int update, List<Integer> products) {
+        List<Instruction> instructions = method.getInstructions();
+        Type type = new Type(ElementType.INT32);
+        Integer constant = parseConstant(factor);
+        Operand reduced = new Operand(newName(variable + "_x" + (factor.startsWith("-") ? "m" + factor.substring(1)
+                : factor)), type);
+
+        for (int node : products) {
+            AssignInstruction product = (AssignInstruction) instructions.get(node);
+            AssignInstruction copy = new AssignInstruction(product.getDest(), product.getTypeOfAssign(),
+                    new SingleOpInstruction(reduced));
+            retarget(product, copy);
+            instructions.set(node, copy);
+        }
+
+        // A variable factor is multiplied by the step once, before the loop, unless the step is the factor itself
+        List<Instruction> preheader = new ArrayList<>();
+        Element increment;
+        if (constant != null) {
+            increment = new LiteralElement(String.valueOf(step * constant), type);
+        } else if (step == 1) {
+            increment = new Operand(factor, type);
+        } else {
+            Operand stepOperand = new Operand(newName(reduced.getName() + "_step"), type);
+            preheader.add(new AssignInstruction(stepOperand, type, new BinaryOpInstruction(new Operand(factor, type),
+                    new Operation(OperationType.MUL, type), new LiteralElement(String.valueOf(step), type))));
+            increment = stepOperand;
+        }
+        preheader.add(0, new AssignInstruction(reduced, type, new BinaryOpInstruction(
+                new Operand(variable, type), new Operation(OperationType.MUL, type),
+                constant != null ? new LiteralElement(factor, type) : new Operand(factor, type))));
+
+        // None of these instructions is jumped to: the loop goes back to its header, and the code that jumps to the
+        // instruction after the update does not run between the update and its own
+        instructions.add(update + 1, new AssignInstruction(reduced, type, new BinaryOpInstruction(reduced,
+                new Operation(OperationType.ADD, type), increment)));
+        instructions.addAll(header, preheader);
+    }
+
+    private static Integer parseConstant(String factor) {
+        try {
+            return Integer.parseInt(factor);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String newName(String name) {
+        String unique = name;
+        for (int n = 1; method.getVarTable().containsKey(unique); n++) {
+            unique = name + "_" + n;
+        }
+        return unique;
+    }
+
+    private static boolean isVariable(Element element, String name) {
+        return !element.isLiteral() && !LivenessAnalysis.isArrayElement(element)
+                && ((Operand) element).getName().equals(name);
+    }
+
+    private static Integer getLiteral(Element element) {
+        if (!element.isLiteral()) {
+            return null;
+        }
+
+        try {
+            return Integer.parseInt(((LiteralElement) element).getLiteral());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void retarget(Instruction from, Instruction to) {
+        for (var label : method.getLabels().entrySet()) {
+            if (label.getValue() == from) {
+                label.setValue(to);
+            }
+        }
+    }
+}
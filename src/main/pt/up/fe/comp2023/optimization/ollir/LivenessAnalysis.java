@@ -0,0 +1,216 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Backward dataflow analysis of the variables that are live before and after each instruction of a method.
+ * <p>
+ * Only variables that occupy a JVM local are tracked: locals and parameters, but not "this", fields or the class names
+ * used as targets of static calls.
+ */
+public class LivenessAnalysis {
+
+    private final ControlFlowGraph cfg;
+    private final Set<String> variables = new HashSet<>();
+    private final List<Set<String>> defs = new ArrayList<>();
+    private final List<Set<String>> uses = new ArrayList<>();
+    private final List<Set<String>> liveIn = new ArrayList<>();
+    private final List<Set<String>> liveOut = new ArrayList<>();
+
+    public LivenessAnalysis(Method method, ControlFlowGraph cfg) {
+        this.cfg = cfg;
+
+        for (Map.Entry<String, Descriptor> entry : method.getVarTable().entrySet()) {
+            if (isRegister(entry.getKey(), entry.getValue())) {
+                variables.add(entry.getKey());
+            }
+        }
+
+        for (int i = 0; i < cfg.size(); i++) {
+            Instruction instruction = cfg.getInstruction(i);
+
+            Set<String> instructionDefs = new HashSet<>();
+            String def = getDef(instruction);
+            if (def != null && variables.contains(def)) {
+                instructionDefs.add(def);
+            }
+
+            Set<String> instructionUses = new HashSet<>();
+            collectUses(instruction, instructionUses);
+            instructionUses.retainAll(variables);
+
+            defs.add(instructionDefs);
+            uses.add(instructionUses);
+            liveIn.add(new HashSet<>());
+            liveOut.add(new HashSet<>());
+        }
+
+        solve();
+    }
+
+    /**
+     * "this" is left out by name as well, since its type is that of the class when it is written "this.Class"
+     */
+    private static boolean isRegister(String name, Descriptor descriptor) {
+        ElementType type = descriptor.getVarType().getTypeOfElement();
+        return descriptor.getScope() != VarScope.FIELD && type != ElementType.THIS && type != ElementType.CLASS
+                && !name.equals("this");
+    }
+
+    private void solve() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            // Visiting the instructions backwards converges in few iterations, since liveness flows backwards
+            for (int i = cfg.size() - 1; i >= 0; i--) {
+                Set<String> out = new HashSet<>();
+                for (int successor : cfg.getSuccessors(i)) {
+                    out.addAll(liveIn.get(successor));
+                }
+
+                Set<String> in = new HashSet<>(out);
+                in.removeAll(defs.get(i));
+                in.addAll(uses.get(i));
+
+                if (!out.equals(liveOut.get(i)) || !in.equals(liveIn.get(i))) {
+                    liveOut.set(i, out);
+                    liveIn.set(i, in);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the variable written by the instruction, or null if it writes none; a store into an array element does
+     * not define the array
+     */
+    public static String getDef(Instruction instruction) {
+        if (!(instruction instanceof AssignInstruction)) {
+            return null;
+        }
+
+        Element dest = ((AssignInstruction) instruction).getDest();
+        if (isArrayElement(dest)) {
+            return null;
+        }
+        return ((Operand) dest).getName();
+    }
+
+    /**
+     * @return for each variable, how many instructions of the method read it
+     */
+    public static Map<String, Integer> countUses(Method method) {
+        Map<String, Integer> counts = new HashMap<>();
+        Set<String> uses = new HashSet<>();
+        for (Instruction instruction : method.getInstructions()) {
+            uses.clear();
+            collectUses(instruction, uses);
+            for (String use : uses) {
+                counts.merge(use, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Adds to the given set the names of every variable read by the instruction.
+     */
+    public static void collectUses(Instruction instruction, Set<String> uses) {
+        switch (instruction.getInstType()) {
+            case ASSIGN:
+                AssignInstruction assign = (AssignInstruction) instruction;
+                if (isArrayElement(assign.getDest())) {
+                    addElement(assign.getDest(), uses);
+                }
+                collectUses(assign.getRhs(), uses);
+                break;
+            case CALL:
+                CallInstruction call = (CallInstruction) instruction;
+                if (call.getInvocationType() != CallType.NEW) {
+                    addElement(call.getFirstArg(), uses);
+                }
+                if (call.getListOfOperands() != null) {
+                    for (Element operand : call.getListOfOperands()) {
+                        addElement(operand, uses);
+                    }
+                }
+                break;
+            case BRANCH:
+                collectUses(((CondBranchInstruction) instruction).getCondition(), uses);
+                break;
+            case RETURN:
+                ReturnInstruction ret = (ReturnInstruction) instruction;
+                if (ret.hasReturnValue()) {
+                    addElement(ret.getOperand(), uses);
+                }
+                break;
+            case PUTFIELD:
+                PutFieldInstruction putField = (PutFieldInstruction) instruction;
+                addElement(putField.getFirstOperand(), uses);
+                addElement(putField.getThirdOperand(), uses);
+                break;
+            case GETFIELD:
+                addElement(((GetFieldInstruction) instruction).getFirstOperand(), uses);
+                break;
+            case UNARYOPER:
+                addElement(((UnaryOpInstruction) instruction).getOperand(), uses);
+                break;
+            case BINARYOPER:
+                BinaryOpInstruction binaryOp = (BinaryOpInstruction) instruction;
+                addElement(binaryOp.getLeftOperand(), uses);
+                addElement(binaryOp.getRightOperand(), uses);
+                break;
+            case NOPER:
+                addElement(((SingleOpInstruction) instruction).getSingleOperand(), uses);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void addElement(Element element, Set<String> uses) {
+        if (element == null || element.isLiteral()) {
+            return;
+        }
+
+        uses.add(((Operand) element).getName());
+        if (element instanceof ArrayOperand) {
+            for (Element index : ((ArrayOperand) element).getIndexOperands()) {
+                addElement(index, uses);
+            }
+        }
+    }
+
+    public static boolean isArrayElement(Element element) {
+        return element instanceof ArrayOperand && !((ArrayOperand) element).getIndexOperands().isEmpty();
+    }
+
+    public Set<String> getVariables() {
+        return variables;
+    }
+
+    public Set<String> getDefs(int index) {
+        return defs.get(index);
+    }
+
+    public Set<String> getUses(int index) {
+        return uses.get(index);
+    }
+
+    public Set<String> getLiveIn(int index) {
+        return liveIn.get(index);
+    }
+
+    public Set<String> getLiveOut(int index) {
+        return liveOut.get(index);
+    }
+}
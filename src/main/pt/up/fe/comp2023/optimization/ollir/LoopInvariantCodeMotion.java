@@ -0,0 +1,233 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves the assignments whose value is the same on every iteration of a loop to just before the loop, so they are
+ * computed once.
+ * <p>
+ * Only loops with a preheader, found by {@link NaturalLoop}, are considered. An assignment is moved when its operands
+ * are not written inside the loop, or only by assignments already moved, and its variable is written nowhere else in
+ * the loop and not read before it is written or after the loop ends. Array elements and fields may change between
+ * iterations, so only arithmetic, copies and array lengths are moved.
+ * Divisions and array lengths may throw, so they are only moved from the start of the loop, which runs whenever the
+ * loop is reached, and in their original order.
+ * <p>
+ * The pass must run before {@link Method#getLabels(Instruction)} is first called, as that method caches the labels.
+ */
+public class LoopInvariantCodeMotion {
+
+    private final Method method;
+
+    public LoopInvariantCodeMotion(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * @return how many assignments were moved out of loops
+     */
+    public int run() {
+        method.buildVarTable();
+
+        int moved = 0;
+        int hoisted;
+        do {
+            // Every move changes the instruction indexes, so the analyses are redone from scratch
+            hoisted = hoistOnce();
+            moved += hoisted;
+        } while (hoisted > 0);
+
+        return moved;
+    }
+
+    private int hoistOnce() {
+        ControlFlowGraph cfg = new ControlFlowGraph(method);
+        LivenessAnalysis liveness = null;
+
+        for (NaturalLoop loop : NaturalLoop.find(method, cfg)) {
+            if (!loop.hasPreheader() || !hasCandidates(cfg, loop.getBody())) {
+                continue;
+            }
+
+            // Liveness is costly on long methods, so it is only worked out once a loop has something to move
+            if (liveness == null) {
+                liveness = new LivenessAnalysis(method, cfg);
+            }
+            List<Integer> invariants = findInvariants(cfg, liveness, loop.getHeader(), loop.getBody());
+            if (!invariants.isEmpty()) {
+                hoist(loop.getHeader(), invariants);
+                return invariants.size();
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return whether some assignment of the loop only reads values written outside of it, which any assignment moved
+     * out of the loop must do or depend on one that does
+     */
+    private boolean hasCandidates(ControlFlowGraph cfg, Set<Integer> body) {
+        Map<String, Integer> loopDefs = getLoopDefs(cfg, body);
+
+        for (int node : body) {
+            Instruction instruction = cfg.getInstruction(node);
+            String def = LivenessAnalysis.getDef(instruction);
+            if (def != null && loopDefs.get(def) == 1
+                    && isInvariant(((AssignInstruction) instruction).getRhs(), loopDefs, Set.of())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static Map<String, Integer> getLoopDefs(ControlFlowGraph cfg, Set<Integer> body) {
+        Map<String, Integer> loopDefs = new HashMap<>();
+        for (int node : body) {
+            String def = LivenessAnalysis.getDef(cfg.getInstruction(node));
+            if (def != null) {
+                loopDefs.merge(def, 1, Integer::sum);
+            }
+        }
+        return loopDefs;
+    }
+
+    private List<Integer> findInvariants(ControlFlowGraph cfg, LivenessAnalysis liveness, int header, Set<Integer> body) {
+        Map<String, Integer> loopDefs = getLoopDefs(cfg, body);
+        Set<String> liveOnExit = new HashSet<>();
+        for (int node : body) {
+            for (int successor : cfg.getSuccessors(node)) {
+                if (!body.contains(successor)) {
+                    liveOnExit.addAll(liveness.getLiveIn(successor));
+                }
+            }
+        }
+
+        // The straight line of instructions the loop starts with, which runs every time the loop is reached
+        Set<Integer> start = new HashSet<>();
+        for (int node = header; body.contains(node); node++) {
+            start.add(node);
+            if (cfg.getSuccessors(node).size() != 1 || cfg.getSuccessors(node).get(0) != node + 1
+                    || cfg.getPredecessors(node + 1).size() != 1) {
+                break;
+            }
+        }
+
+        List<Integer> invariants = new ArrayList<>();
+        Set<String> hoistedDefs = new HashSet<>();
+        boolean startHoisted = true;
+
+        for (int node : body) {
+            Instruction instruction = cfg.getInstruction(node);
+            String def = LivenessAnalysis.getDef(instruction);
+
+            boolean invariant = def != null
+                    && liveness.getVariables().contains(def)
+                    && loopDefs.get(def) == 1
+                    && !liveness.getLiveIn(header).contains(def)
+                    && !liveOnExit.contains(def)
+                    && isInvariant(((AssignInstruction) instruction).getRhs(), loopDefs, hoistedDefs)
+                    && (!mayThrow(((AssignInstruction) instruction).getRhs()) || start.contains(node) && startHoisted)
+                    && node + 1 < cfg.size();
+
+            if (invariant) {
+                invariants.add(node);
+                hoistedDefs.add(def);
+            } else if (start.contains(node)) {
+                startHoisted = false;
+            }
+        }
+
+        return invariants;
+    }
+
+    private static boolean isInvariant(Instruction rhs, Map<String, Integer> loopDefs, Set<String> hoistedDefs) {
+        switch (rhs.getInstType()) {
+            case BINARYOPER:
+                BinaryOpInstruction binaryOp = (BinaryOpInstruction) rhs;
+                return isInvariant(binaryOp.getLeftOperand(), loopDefs, hoistedDefs)
+                        && isInvariant(binaryOp.getRightOperand(), loopDefs, hoistedDefs);
+            case UNARYOPER:
+                return isInvariant(((UnaryOpInstruction) rhs).getOperand(), loopDefs, hoistedDefs);
+            case NOPER:
+                return isInvariant(((SingleOpInstruction) rhs).getSingleOperand(), loopDefs, hoistedDefs);
+            case CALL:
+                CallInstruction call = (CallInstruction) rhs;
+                return call.getInvocationType() == CallType.arraylength
+                        && isInvariant(call.getFirstArg(), loopDefs, hoistedDefs);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isInvariant(Element element, Map<String, Integer> loopDefs, Set<String> hoistedDefs) {
+        if (element.isLiteral()) {
+            return true;
+        }
+        if (LivenessAnalysis.isArrayElement(element)) {
+            return false;
+        }
+
+        String name = ((Operand) element).getName();
+        return !loopDefs.containsKey(name) || hoistedDefs.contains(name);
+    }
+
+    private static boolean mayThrow(Instruction rhs) {
+        if (rhs instanceof BinaryOpInstruction) {
+            // Dead code elimination uses the same rule, so both passes agree on which divisions are safe
+            return DeadCodeElimination.mayDivideByZero((BinaryOpInstruction) rhs);
+        }
+        return rhs instanceof CallInstruction;
+    }
+
+    private void hoist(int header, List<Integer> invariants) {
+        List<Instruction> instructions = method.getInstructions();
+        Set<Integer> moved = new HashSet<>(invariants);
+
+        // The loop now starts at the first instruction that stays, which the preheader falls into
+        int anchorIndex = header;
+        while (moved.contains(anchorIndex)) {
+            anchorIndex++;
+        }
+        Instruction anchor = instructions.get(anchorIndex);
+
+        // Jumps to a moved instruction go to the next one that stays, as the value it computed is already there
+        Map<Instruction, Instruction> retargets = new IdentityHashMap<>();
+        for (int index : invariants) {
+            int next = index + 1;
+            while (moved.contains(next)) {
+                next++;
+            }
+            retargets.put(instructions.get(index), instructions.get(next));
+        }
+        for (var label : method.getLabels().entrySet()) {
+            Instruction target = retargets.get(label.getValue());
+            if (target != null) {
+                label.setValue(target);
+            }
+        }
+
+        List<Instruction> preheader = new ArrayList<>();
+        for (int index : invariants) {
+            preheader.add(instructions.get(index));
+        }
+        for (int i = invariants.size() - 1; i >= 0; i--) {
+            instructions.remove((int) invariants.get(i));
+        }
+
+        int position = 0;
+        while (instructions.get(position) != anchor) {
+            position++;
+        }
+        instructions.addAll(position, preheader);
+    }
+}
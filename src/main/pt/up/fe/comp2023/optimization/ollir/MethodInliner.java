@@ -0,0 +1,288 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces calls to small methods of the class made on "this" by a copy of the body of the called method.
+ * <p>
+ * A call is inlined when its target is the only method of the class with that name, is not static or a constructor,
+ * has at most as many instructions as the budget and calls no method of the class on "this" itself, which keeps
+ * recursive methods out. The locals and labels of the copy get a prefix unique to the call, the parameters become
+ * locals assigned from the arguments, and each return becomes an assignment to the variable the call was assigned to,
+ * followed by a jump to the instruction after the call.
+ * <p>
+ * Every call considered is logged with the decision taken and its reason.
+ */
+public class MethodInliner {
+
+    public static final int DEFAULT_BUDGET = 12;
+
+    private final ClassUnit classUnit;
+    private final int budget;
+    private final List<String> decisions = new ArrayList<>();
+    private int inlined = 0;
+
+    public MethodInliner(ClassUnit classUnit, int budget) {
+        this.classUnit = classUnit;
+        this.budget = budget;
+    }
+
+    /**
+     * @return how many calls were inlined
+     */
+    public int run() {
+        for (Method method : classUnit.getMethods()) {
+            method.buildVarTable();
+        }
+
+        for (Method caller : classUnit.getMethods()) {
+            boolean changed = false;
+            List<Instruction> instructions = caller.getInstructions();
+
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction instruction = instructions.get(i);
+                AssignInstruction assign = instruction instanceof AssignInstruction ? (AssignInstruction) instruction : null;
+                Instruction call = assign != null ? assign.getRhs() : instruction;
+
+                if (!isCallOnThis(call)) {
+                    continue;
+                }
+
+                Method callee = getCallee(caller, (CallInstruction) call);
+                if (callee != null && i + 1 < instructions.size()) {
+                    i += inline(caller, i, assign, (CallInstruction) call, callee) - 1;
+                    changed = true;
+                }
+            }
+
+            if (changed) {
+                // The copies bring new locals with them
+                caller.getVarTable().clear();
+                caller.buildVarTable();
+            }
+        }
+
+        return inlined;
+    }
+
+    public List<String> getDecisions() {
+        return decisions;
+    }
+
+    private static boolean isCallOnThis(Instruction instruction) {
+        if (!(instruction instanceof CallInstruction)) {
+            return false;
+        }
+
+        CallInstruction call = (CallInstruction) instruction;
+        return call.getInvocationType() == CallType.invokevirtual
+                && call.getFirstArg().getType().getTypeOfElement() == ElementType.THIS;
+    }
+
+    private static String getMethodName(CallInstruction call) {
+        return ((LiteralElement) call.getSecondArg()).getLiteral().replace("\"", "");
+    }
+
+    private static String getName(Method method) {
+        return method.isConstructMethod() ? "<init>" : method.getMethodName();
+    }
+
+    /**
+     * @return the method to inline in place of the call, or null if the call stays
+     */
+    private Method getCallee(Method caller, CallInstruction call) {
+        String name = getMethodName(call);
+        String site = "call to " + name + " in " + getName(caller);
+
+        List<Method> candidates = new ArrayList<>();
+        for (Method method : classUnit.getMethods()) {
+            if (!method.isConstructMethod() && method.getMethodName().equals(name)) {
+                candidates.add(method);
+            }
+        }
+
+        if (candidates.size() != 1) {
+            decisions.add("Kept " + site + ": " + (candidates.isEmpty() ? "not defined in the class" : "overloaded"));
+            return null;
+        }
+
+        Method callee = candidates.get(0);
+        int size = callee.getInstructions().size();
+        String reason = null;
+
+        if (callee == caller) {
+            reason = "recursive";
+        } else if (callee.isStaticMethod()) {
+            reason = "static";
+        } else if (callee.getParams().size() != call.getListOfOperands().size()) {
+            reason = "wrong number of arguments";
+        } else if (size > budget) {
+            reason = size + " instructions, over the budget of " + budget;
+        } else if (callee.getInstructions().stream().anyMatch(instruction -> isCallOnThis(instruction)
+                || instruction instanceof AssignInstruction && isCallOnThis(((AssignInstruction) instruction).getRhs()))) {
+            reason = "calls methods of the class itself";
+        }
+
+        if (reason != null) {
+            decisions.add("Kept " + site + ": " + reason);
+            return null;
+        }
+
+        decisions.add("Inlined " + site + ": " + size + " instructions");
+        return callee;
+    }
+
+    /**
+     * Replaces the call at the given index by a copy of the callee.
+     *
+     * @return how many instructions took the place of the call
+     */
+    private int inline(Method caller, int index, AssignInstruction assign, CallInstruction call, Method callee) {
+        String prefix = "inl" + inlined++ + "_";
+        List<Instruction> instructions = caller.getInstructions();
+        Instruction next = instructions.get(index + 1);
+        String endLabel = prefix + "end";
+
+        Map<String, String> names = new HashMap<>();
+        for (var entry : callee.getVarTable().entrySet()) {
+            Descriptor descriptor = entry.getValue();
+            ElementType type = descriptor.getVarType().getTypeOfElement();
+            if (descriptor.getScope() != VarScope.FIELD && type != ElementType.THIS && type != ElementType.CLASS) {
+                names.put(entry.getKey(), prefix + entry.getKey());
+            }
+        }
+
+        List<Instruction> body = new ArrayList<>();
+
+        // Arguments are evaluated before the call, so assigning them first keeps their order
+        for (int i = 0; i < callee.getParams().size(); i++) {
+            Element param = callee.getParams().get(i);
+            body.add(new AssignInstruction(copy(param, names), param.getType(),
+                    new SingleOpInstruction(call.getListOfOperands().get(i))));
+        }
+
+        Map<Instruction, Instruction> copies = new IdentityHashMap<>();
+        List<Instruction> calleeInstructions = callee.getInstructions();
+        for (int i = 0; i < calleeInstructions.size(); i++) {
+            Instruction instruction = calleeInstructions.get(i);
+            boolean last = i == calleeInstructions.size() - 1;
+
+            if (instruction instanceof ReturnInstruction) {
+                ReturnInstruction ret = (ReturnInstruction) instruction;
+                Instruction first = null;
+
+                if (ret.hasReturnValue() && assign != null) {
+                    first = new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(),
+                            new SingleOpInstruction(copy(ret.getOperand(), names)));
+                    body.add(first);
+                }
+                if (!last) {
+                    Instruction jump = new GotoInstruction(endLabel);
+                    body.add(jump);
+                    first = first != null ? first : jump;
+                }
+
+                if (first != null) {
+                    copies.put(instruction, first);
+                }
+                continue;
+            }
+
+            Instruction copy = copy(instruction, names, prefix);
+            copies.put(instruction, copy);
+            body.add(copy);
+        }
+
+        // Labels of the callee that end up with no instruction of their own, such as one on a last "ret.V", mark the end
+        for (var label : callee.getLabels().entrySet()) {
+            Instruction target = copies.get(label.getValue());
+            caller.addLabel(prefix + label.getKey(), target != null ? target : next);
+        }
+        caller.addLabel(endLabel, next);
+
+        // Jumps to the call now start the inlined code
+        Instruction first = body.isEmpty() ? next : body.get(0);
+        for (var label : caller.getLabels().entrySet()) {
+            if (label.getValue() == instructions.get(index)) {
+                label.setValue(first);
+            }
+        }
+
+        instructions.remove(index);
+        instructions.addAll(index, body);
+        return body.size();
+    }
+
+    private Instruction copy(Instruction instruction, Map<String, String> names, String prefix) {
+        switch (instruction.getInstType()) {
+            case ASSIGN:
+                AssignInstruction assign = (AssignInstruction) instruction;
+                return new AssignInstruction(copy(assign.getDest(), names), assign.getTypeOfAssign(),
+                        copy(assign.getRhs(), names, prefix));
+            case CALL:
+                CallInstruction call = (CallInstruction) instruction;
+                ArrayList<Element> operands = new ArrayList<>();
+                for (Element operand : call.getListOfOperands()) {
+                    operands.add(copy(operand, names));
+                }
+                return call.getSecondArg() != null
+                        ? new CallInstruction(call.getInvocationType(), copy(call.getFirstArg(), names),
+                        call.getSecondArg(), operands, call.getReturnType())
+                        : new CallInstruction(call.getInvocationType(), copy(call.getFirstArg(), names), operands,
+                        call.getReturnType());
+            case GOTO:
+                return new GotoInstruction(prefix + ((GotoInstruction) instruction).getLabel());
+            case BRANCH:
+                CondBranchInstruction branch = (CondBranchInstruction) instruction;
+                Instruction condition = copy(branch.getCondition(), names, prefix);
+                CondBranchInstruction copy = condition instanceof SingleOpInstruction
+                        ? new SingleOpCondInstruction((SingleOpInstruction) condition)
+                        : new OpCondInstruction((OpInstruction) condition);
+                copy.setLabel(prefix + branch.getLabel());
+                return copy;
+            case GETFIELD:
+                GetFieldInstruction getField = (GetFieldInstruction) instruction;
+                return new GetFieldInstruction(copy(getField.getFirstOperand(), names), getField.getSecondOperand(),
+                        getField.getFieldType());
+            case PUTFIELD:
+                PutFieldInstruction putField = (PutFieldInstruction) instruction;
+                return new PutFieldInstruction(copy(putField.getFirstOperand(), names), putField.getSecondOperand(),
+                        copy(putField.getThirdOperand(), names), putField.getFieldType());
+            case UNARYOPER:
+                UnaryOpInstruction unaryOp = (UnaryOpInstruction) instruction;
+                return new UnaryOpInstruction(unaryOp.getOperation(), copy(unaryOp.getOperand(), names));
+            case BINARYOPER:
+                BinaryOpInstruction binaryOp = (BinaryOpInstruction) instruction;
+                return new BinaryOpInstruction(copy(binaryOp.getLeftOperand(), names), binaryOp.getOperation(),
+                        copy(binaryOp.getRightOperand(), names));
+            case NOPER:
+                return new SingleOpInstruction(copy(((SingleOpInstruction) instruction).getSingleOperand(), names));
+            default:
+                throw new IllegalStateException("Cannot inline instruction " + instruction);
+        }
+    }
+
+    private static Element copy(Element element, Map<String, String> names) {
+        if (element == null || element.isLiteral()) {
+            return element;
+        }
+
+        Operand operand = (Operand) element;
+        String name = names.getOrDefault(operand.getName(), operand.getName());
+
+        if (operand instanceof ArrayOperand) {
+            List<Element> indexes = new ArrayList<>();
+            for (Element index : ((ArrayOperand) operand).getIndexOperands()) {
+                indexes.add(copy(index, names));
+            }
+            return new ArrayOperand(name, operand.getType(), indexes);
+        }
+        return new Operand(name, operand.getType());
+    }
+}
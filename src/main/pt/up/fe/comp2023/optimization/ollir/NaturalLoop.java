@@ -0,0 +1,123 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.specs.comp.ollir.CondBranchInstruction;
+import org.specs.comp.ollir.GotoInstruction;
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.Method;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A loop of a method, made of the instructions that can reach a back edge of the control flow graph, a jump to an
+ * instruction that comes before it, without going through the instruction jumped to, the header of the loop.
+ * <p>
+ * Only loops entered through their header are found, which is how the loops of Java-- always are.
+ */
+public class NaturalLoop {
+
+    private final int header;
+    private final Set<Integer> body;
+    private final boolean preheader;
+
+    private NaturalLoop(int header, Set<Integer> body, boolean preheader) {
+        this.header = header;
+        this.body = body;
+        this.preheader = preheader;
+    }
+
+    /**
+     * @return the loops of the method, ordered by their header
+     */
+    public static List<NaturalLoop> find(Method method, ControlFlowGraph cfg) {
+        Map<Integer, List<Integer>> backEdges = new TreeMap<>();
+        for (int tail = 0; tail < cfg.size(); tail++) {
+            for (int header : cfg.getSuccessors(tail)) {
+                if (header <= tail) {
+                    backEdges.computeIfAbsent(header, key -> new ArrayList<>()).add(tail);
+                }
+            }
+        }
+
+        List<NaturalLoop> loops = new ArrayList<>();
+        for (var entry : backEdges.entrySet()) {
+            int header = entry.getKey();
+            Set<Integer> body = getBody(cfg, header, entry.getValue());
+            if (body != null) {
+                loops.add(new NaturalLoop(header, body, hasPreheader(method, cfg, header, body)));
+            }
+        }
+
+        return loops;
+    }
+
+    /**
+     * @return the instructions of the loop with the given header, or null if the loop can be entered other than
+     * through its header
+     */
+    private static Set<Integer> getBody(ControlFlowGraph cfg, int header, List<Integer> tails) {
+        Set<Integer> body = new TreeSet<>();
+        body.add(header);
+
+        List<Integer> worklist = new ArrayList<>(tails);
+        while (!worklist.isEmpty()) {
+            int node = worklist.remove(worklist.size() - 1);
+            if (body.add(node)) {
+                worklist.addAll(cfg.getPredecessors(node));
+            }
+        }
+
+        for (int node : body) {
+            if (node != header && !body.containsAll(cfg.getPredecessors(node))) {
+                return null;
+            }
+        }
+
+        return body;
+    }
+
+    private static boolean hasPreheader(Method method, ControlFlowGraph cfg, int header, Set<Integer> body) {
+        for (int predecessor : cfg.getPredecessors(header)) {
+            if (body.contains(predecessor)) {
+                continue;
+            }
+            if (predecessor != header - 1) {
+                return false;
+            }
+
+            Instruction previous = cfg.getInstruction(predecessor);
+            if (previous instanceof GotoInstruction) {
+                return false;
+            }
+            if (previous instanceof CondBranchInstruction
+                    && method.getLabels().get(((CondBranchInstruction) previous).getLabel()) == cfg.getInstruction(header)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public int getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the indexes of the instructions of the loop, in ascending order
+     */
+    public Set<Integer> getBody() {
+        return body;
+    }
+
+    /**
+     * @return whether the loop is only entered by falling through into its header, so that code placed right before
+     * the header runs once on entry and never on the back edges
+     */
+    public boolean hasPreheader() {
+        return preheader;
+    }
+}
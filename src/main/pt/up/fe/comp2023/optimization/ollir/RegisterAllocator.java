@@ -0,0 +1,220 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.specs.comp.ollir.Descriptor;
+import org.specs.comp.ollir.Element;
+import org.specs.comp.ollir.Method;
+import org.specs.comp.ollir.Operand;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the variables of a method to as few JVM locals as possible, by colouring the interference graph built from
+ * their liveness. Variables that are never live at the same time share a local.
+ * <p>
+ * "this" and the parameters keep the locals the calling convention gives them, the other variables get the colours.
+ */
+public class RegisterAllocator {
+
+    private final Method method;
+    private final Map<String, Set<String>> interferences = new HashMap<>();
+    private final Map<String, Integer> precoloured = new HashMap<>();
+    private final Map<String, Integer> occurrences = new HashMap<>();
+    private final int reserved;
+
+    public RegisterAllocator(Method method) {
+        this.method = method;
+        this.reserved = method.isStaticMethod() ? 0 : 1;
+
+        ControlFlowGraph cfg = new ControlFlowGraph(method);
+        LivenessAnalysis liveness = new LivenessAnalysis(method, cfg);
+
+        for (String variable : liveness.getVariables()) {
+            interferences.put(variable, new HashSet<>());
+        }
+
+        // The caller passes every parameter in its local, so even one that is never read keeps it
+        for (Element param : method.getParams()) {
+            String name = ((Operand) param).getName();
+            Descriptor descriptor = method.getVarTable().get(name);
+            if (descriptor != null) {
+                precoloured.put(name, descriptor.getVirtualReg());
+                interferences.putIfAbsent(name, new HashSet<>());
+            }
+        }
+
+        // A variable that is written interferes with every other variable still live afterwards
+        for (int i = 0; i < cfg.size(); i++) {
+            for (String variable : liveness.getUses(i)) {
+                occurrences.merge(variable, 1, Integer::sum);
+            }
+            for (String variable : liveness.getDefs(i)) {
+                occurrences.merge(variable, 1, Integer::sum);
+            }
+
+            for (String def : liveness.getDefs(i)) {
+                for (String live : liveness.getLiveOut(i)) {
+                    addInterference(def, live);
+                }
+            }
+        }
+
+        // The parameters are all written on entry
+        if (cfg.size() > 0) {
+            Set<String> entry = new HashSet<>(liveness.getLiveIn(0));
+            entry.addAll(precoloured.keySet());
+            for (String first : entry) {
+                for (String second : entry) {
+                    addInterference(first, second);
+                }
+            }
+        }
+    }
+
+    private void addInterference(String first, String second) {
+        if (first.equals(second)) {
+            return;
+        }
+        interferences.get(first).add(second);
+        interferences.get(second).add(first);
+    }
+
+    /**
+     * @return the fewest registers this allocator can colour the method with, counting "this" and the parameters
+     */
+    public int getMinimumRegisters() {
+        int registers = reserved + Math.max(precoloured.size(), method.getParams().size());
+        while (colour(registers) == null) {
+            registers++;
+        }
+        return registers;
+    }
+
+    /**
+     * Colours the method with at most the given number of registers and updates the virtual registers of its variables.
+     *
+     * @param maxRegisters the register limit, or 0 to use as few registers as possible
+     * @return the number of registers used, or -1 if the variables do not fit in the limit, in which case the method is
+     * left untouched
+     */
+    public int allocate(int maxRegisters) {
+        int registers = maxRegisters == 0 ? getMinimumRegisters() : maxRegisters;
+        Map<String, Integer> colours = colour(registers);
+        if (colours == null) {
+            return -1;
+        }
+        renumberByOccurrences(colours);
+
+        int used = reserved + precoloured.size();
+        for (Map.Entry<String, Integer> entry : colours.entrySet()) {
+            method.getVarTable().get(entry.getKey()).setVirtualReg(entry.getValue());
+            used = Math.max(used, entry.getValue() + 1);
+        }
+        return used;
+    }
+
+    /**
+     * Colours can be swapped freely, so the busiest ones are moved to the lowest locals, which have the shortest load
+     * and store instructions. Colours shared with "this" or a parameter stay where they are.
+     */
+    private void renumberByOccurrences(Map<String, Integer> colours) {
+        Set<Integer> fixed = new HashSet<>(precoloured.values());
+        if (reserved > 0) {
+            fixed.add(0);
+        }
+
+        Map<Integer, Integer> weights = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : colours.entrySet()) {
+            if (!fixed.contains(entry.getValue())) {
+                weights.merge(entry.getValue(), occurrences.getOrDefault(entry.getKey(), 0), Integer::sum);
+            }
+        }
+
+        List<Integer> byWeight = new ArrayList<>(weights.keySet());
+        byWeight.sort((first, second) -> weights.get(second) - weights.get(first));
+        List<Integer> slots = new ArrayList<>(weights.keySet());
+        slots.sort(null);
+
+        Map<Integer, Integer> renumbered = new HashMap<>();
+        for (int i = 0; i < byWeight.size(); i++) {
+            renumbered.put(byWeight.get(i), slots.get(i));
+        }
+        colours.replaceAll((variable, colour) -> renumbered.getOrDefault(colour, colour));
+    }
+
+    /**
+     * Simplify and select, optimistically pushing a high degree node when every remaining node has k or more
+     * neighbours.
+     *
+     * @return the colour of each variable, or null if some variable could not be coloured with k colours
+     */
+    private Map<String, Integer> colour(int k) {
+        if (k < reserved + precoloured.size()) {
+            return null;
+        }
+
+        Map<String, Integer> degrees = new HashMap<>();
+        List<String> remaining = new ArrayList<>();
+        for (String variable : interferences.keySet()) {
+            if (!precoloured.containsKey(variable)) {
+                remaining.add(variable);
+                degrees.put(variable, interferences.get(variable).size() + reserved);
+            }
+        }
+        remaining.sort(null);
+
+        Deque<String> stack = new ArrayDeque<>();
+        while (!remaining.isEmpty()) {
+            String chosen = null;
+            for (String variable : remaining) {
+                if (degrees.get(variable) < k) {
+                    chosen = variable;
+                    break;
+                }
+                if (chosen == null || degrees.get(variable) > degrees.get(chosen)) {
+                    chosen = variable;
+                }
+            }
+
+            remaining.remove(chosen);
+            stack.push(chosen);
+            for (String neighbour : interferences.get(chosen)) {
+                degrees.computeIfPresent(neighbour, (key, degree) -> degree - 1);
+            }
+        }
+
+        Map<String, Integer> colours = new HashMap<>(precoloured);
+        while (!stack.isEmpty()) {
+            String variable = stack.pop();
+
+            Set<Integer> taken = new HashSet<>();
+            if (reserved > 0) {
+                taken.add(0);
+            }
+            for (String neighbour : interferences.get(variable)) {
+                Integer colour = colours.get(neighbour);
+                if (colour != null) {
+                    taken.add(colour);
+                }
+            }
+
+            int colour = 0;
+            while (taken.contains(colour)) {
+                colour++;
+            }
+            if (colour >= k) {
+                return null;
+            }
+            colours.put(variable, colour);
+        }
+
+        colours.keySet().removeAll(precoloured.keySet());
+        return colours;
+    }
+}
@@ -0,0 +1,100 @@
+package pt.up.fe.comp2023;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles units of which two declare the same class, and checks that both fail whichever the pool runs first, while
+ * the other units are compiled as usual.
+ */
+public class BatchCompilerTest {
+
+    private static final String DUPLICATE = "BatchDuplicate";
+    private static final String SINGLE = "BatchSingle";
+
+    private File directory;
+
+    @Before
+    public void createUnits() throws IOException {
+        directory = Files.createTempDirectory("batch").toFile();
+        SpecsIo.write(new File(directory, "First.jmm"), unit(DUPLICATE, 1));
+        SpecsIo.write(new File(directory, "Single.jmm"), unit(SINGLE, 2));
+        SpecsIo.write(new File(directory, "Second.jmm"), unit(DUPLICATE, 3));
+    }
+
+    @After
+    public void deleteOutputs() {
+        SpecsIo.deleteFolder(directory);
+        for (String className : List.of(DUPLICATE, SINGLE)) {
+            new File("./jasmin/" + className + ".j").delete();
+            new File("./ollir/" + className + ".ollir").delete();
+        }
+    }
+
+    @Test
+    public void allUnitsOfADuplicateClassFail() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+        config.put("backend", "jasmin");
+
+        assertDuplicatesFail(config, "./jasmin/");
+    }
+
+    @Test
+    public void allUnitsOfADuplicateClassFailWithOllirOnly() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+        config.put("ollirOnly", "true");
+
+        assertDuplicatesFail(config, "./ollir/");
+    }
+
+    private void assertDuplicatesFail(Map<String, String> config, String outputDirectory) {
+        String first = new File(directory, "First.jmm").getPath();
+        String single = new File(directory, "Single.jmm").getPath();
+        String second = new File(directory, "Second.jmm").getPath();
+        String extension = config.containsKey("ollirOnly") ? ".ollir" : ".j";
+
+        // Run it a few times, as which unit of the class gets to its output first changes from run to run
+        for (int run = 0; run < 5; run++) {
+            List<BatchCompiler.UnitResult> results = new BatchCompiler(config, 3).compile(List.of(first, single, second));
+
+            String message = "Class '" + DUPLICATE + "' is declared by more than one unit: " + first + ", " + second;
+            assertEquals(3, results.size());
+            assertFalse(results.get(0).isSuccess());
+            assertEquals(message, results.get(0).getMessage());
+            assertTrue(results.get(1).getMessage(), results.get(1).isSuccess());
+            assertFalse(results.get(2).isSuccess());
+            assertEquals(message, results.get(2).getMessage());
+
+            assertFalse(new File(outputDirectory + DUPLICATE + extension).exists());
+            assertTrue(new File(outputDirectory + SINGLE + extension).exists());
+        }
+    }
+
+    private static String unit(String className, int value) {
+        return "import io;\n"
+                + "class " + className + " {\n"
+                + "    public static void main(String[] args) {\n"
+                + "        io.println(" + value + ");\n"
+                + "    }\n"
+                + "}\n";
+    }
+}
@@ -0,0 +1,171 @@
+package pt.up.fe.comp2023;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which options the keys of the cache depend on, that a unit compiled before is served without being parsed,
+ * and that eviction drops the least recently used entries once the cache is over its size limit.
+ */
+public class CompilationCacheTest {
+
+    private static final String CLASS_NAME = "CachedUnit";
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("cache");
+    }
+
+    @After
+    public void deleteDirectory() {
+        SpecsIo.deleteFolder(directory.toFile());
+        new File("./jasmin/" + CLASS_NAME + ".j").delete();
+    }
+
+    @Test
+    public void keysOnlyDependOnTheOptionsThatChangeTheOutput() {
+        var cache = new CompilationCache(directory);
+        Map<String, String> config = newConfig();
+        String key = cache.getKey("class A {}", config);
+
+        Map<String, String> debug = newConfig();
+        debug.put("debug", "true");
+        debug.put("metrics", "metrics.json");
+        assertEquals(key, cache.getKey("class A {}", debug));
+
+        Map<String, String> optimized = newConfig();
+        optimized.put("optimize", "true");
+        assertNotEquals(key, cache.getKey("class A {}", optimized));
+
+        Map<String, String> classFile = newConfig();
+        classFile.put("backend", "classfile");
+        assertNotEquals(key, cache.getKey("class A {}", classFile));
+
+        assertNotEquals(key, cache.getKey("class A { }", config));
+    }
+
+    @Test
+    public void storedEntriesAreServed() {
+        var cache = new CompilationCache(directory);
+        cache.put("jasmin", new CompilationCache.Entry("A", "ollir", "jasmin", null));
+        cache.put("classfile", new CompilationCache.Entry("B", "ollir", null, new byte[]{1, 2, 3}));
+
+        CompilationCache.Entry jasmin = cache.get("jasmin").orElseThrow();
+        assertEquals("A", jasmin.getClassName());
+        assertEquals("ollir", jasmin.getOllirCode());
+        assertEquals("jasmin", jasmin.getJasminCode());
+
+        CompilationCache.Entry classFile = cache.get("classfile").orElseThrow();
+        assertEquals("B", classFile.getClassName());
+        assertArrayEquals(new byte[]{1, 2, 3}, classFile.getClassFile());
+
+        assertFalse(cache.get("missing").isPresent());
+    }
+
+    @Test
+    public void unitsCompiledBeforeAreNotParsedAgain() {
+        String code = "import io;\n"
+                + "class " + CLASS_NAME + " {\n"
+                + "    public static void main(String[] args) {\n"
+                + "        io.println(1);\n"
+                + "    }\n"
+                + "}\n";
+        Map<String, String> config = newConfig();
+        config.put("cache", directory.toString());
+
+        var missed = new CompilationMetrics("Miss.jmm");
+        String compiled = Launcher.compile(code, config, missed).getJasminCode();
+        var hit = new CompilationMetrics("Hit.jmm");
+        String cached = Launcher.compile(code, config, hit).getJasminCode();
+
+        assertEquals(compiled, cached);
+        assertEquals(compiled, SpecsIo.read(new File("./jasmin/" + CLASS_NAME + ".j")));
+
+        JsonObject miss = JsonParser.parseString(missed.toJson()).getAsJsonObject();
+        assertEquals(1, miss.getAsJsonObject("counters").get("cacheMisses").getAsLong());
+
+        // Looking the unit up is the only stage of a hit
+        JsonObject served = JsonParser.parseString(hit.toJson()).getAsJsonObject();
+        assertEquals(1, served.getAsJsonObject("counters").get("cacheHits").getAsLong());
+        assertEquals(1, served.getAsJsonArray("stages").size());
+        assertEquals("cache", served.getAsJsonArray("stages").get(0).getAsJsonObject().get("stage").getAsString());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+        var cache = new CompilationCache(directory);
+        long now = System.currentTimeMillis();
+
+        // Every entry takes 100 bytes, and the oldest ones were stored first
+        String[] keys = {"a", "b", "c", "d"};
+        for (int i = 0; i < keys.length; i++) {
+            cache.put(keys[i], new CompilationCache.Entry("X", "o".repeat(49), "j".repeat(50), null));
+            Files.setLastModifiedTime(directory.resolve(keys[i]), FileTime.fromMillis(now - (keys.length - i) * 60_000L));
+        }
+
+        // Reading "a" makes it the most recently used
+        assertTrue(cache.get("a").isPresent());
+
+        // A temporary directory left behind by a build that was killed
+        Path stale = Files.createDirectory(directory.resolve(".tmp-stale"));
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(now - 2 * 60 * 60 * 1000));
+
+        // Going over 350 bytes frees down to 75% of them, so two entries go
+        new CompilationCache(directory, 350).evict();
+
+        assertTrue(cache.get("a").isPresent());
+        assertFalse(cache.get("b").isPresent());
+        assertFalse(cache.get("c").isPresent());
+        assertTrue(cache.get("d").isPresent());
+        assertFalse(Files.exists(stale));
+    }
+
+    @Test
+    public void storingOverTheLimitEvicts() throws IOException {
+        var cache = new CompilationCache(directory, 250);
+        long now = System.currentTimeMillis();
+        cache.put("a", new CompilationCache.Entry("X", "o".repeat(49), "j".repeat(50), null));
+        cache.put("b", new CompilationCache.Entry("X", "o".repeat(49), "j".repeat(50), null));
+        Files.setLastModifiedTime(directory.resolve("a"), FileTime.fromMillis(now - 120_000));
+        Files.setLastModifiedTime(directory.resolve("b"), FileTime.fromMillis(now - 60_000));
+        assertEquals(2, countEntries());
+
+        // The third entry goes over the limit, and only the newest entries that fit in 75% of it are kept
+        cache.put("c", new CompilationCache.Entry("X", "o".repeat(49), "j".repeat(50), null));
+        assertEquals(1, countEntries());
+        assertTrue(cache.get("c").isPresent());
+    }
+
+    private long countEntries() {
+        return directory.toFile().listFiles(file -> file.isDirectory() && !file.getName().startsWith(".")).length;
+    }
+
+    private static Map<String, String> newConfig() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+        config.put("backend", "jasmin");
+        return config;
+    }
+}
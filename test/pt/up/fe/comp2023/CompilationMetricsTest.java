@@ -0,0 +1,120 @@
+package pt.up.fe.comp2023;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the compilation of a unit and checks the JSON the measurements are reported as, one object per unit with
+ * its stages, its methods and its counters.
+ */
+public class CompilationMetricsTest {
+
+    private static final String CLASS_NAME = "MetricsUnit";
+
+    @After
+    public void deleteOutput() {
+        new File("./jasmin/" + CLASS_NAME + ".j").delete();
+    }
+
+    @Test
+    public void everyStageAndMethodIsMeasured() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+        config.put("backend", "jasmin");
+
+        String code = "import io;\n"
+                + "class " + CLASS_NAME + " {\n"
+                + "    public int twice(int v) {\n"
+                + "        return v * 2;\n"
+                + "    }\n"
+                + "    public static void main(String[] args) {\n"
+                + "        io.println(new " + CLASS_NAME + "().twice(2));\n"
+                + "    }\n"
+                + "}\n";
+
+        var metrics = new CompilationMetrics("Unit.jmm");
+        Launcher.compile(code, config, metrics);
+        JsonObject json = JsonParser.parseString(metrics.toJson()).getAsJsonObject();
+
+        assertEquals(Set.of("unit", "stages", "methods", "counters"), json.keySet());
+        assertEquals("Unit.jmm", json.get("unit").getAsString());
+
+        // The stages are listed in the order they ran, and have no method
+        List<String> stages = new ArrayList<>();
+        for (JsonElement stage : json.getAsJsonArray("stages")) {
+            assertMeasurement(stage.getAsJsonObject());
+            assertFalse(stage.getAsJsonObject().has("method"));
+            stages.add(stage.getAsJsonObject().get("stage").getAsString());
+        }
+        assertEquals(List.of("parse", "analysis", "ollir", "ollirOptimization", "backend"), stages);
+
+        // Methods are analysed concurrently, so only which ones were measured is checked
+        Set<String> methods = new HashSet<>();
+        for (JsonElement method : json.getAsJsonArray("methods")) {
+            assertMeasurement(method.getAsJsonObject());
+            methods.add(method.getAsJsonObject().get("stage").getAsString() + " "
+                    + method.getAsJsonObject().get("method").getAsString());
+        }
+        assertEquals(Set.of("analysis twice", "analysis main", "backend <init>", "backend twice", "backend main"),
+                methods);
+
+        JsonObject counters = json.getAsJsonObject("counters");
+        assertTrue(counters.get("astNodes").getAsLong() > 0);
+        assertTrue(counters.get("ollirInstructions").getAsLong() > 0);
+        assertTrue(counters.get("jasminInstructions").getAsLong() > 0);
+    }
+
+    @Test
+    public void unitsAreReportedAsOneArray() {
+        var first = new CompilationMetrics("First.jmm");
+        first.count("astNodes", 3);
+        first.count("astNodes", 4);
+        first.measureStage("parse", () -> null);
+        var second = new CompilationMetrics("Second.jmm");
+
+        JsonArray units = JsonParser.parseString(CompilationMetrics.toJson(List.of(first, second))).getAsJsonArray();
+
+        assertEquals(2, units.size());
+        assertEquals("First.jmm", units.get(0).getAsJsonObject().get("unit").getAsString());
+        assertEquals(7, units.get(0).getAsJsonObject().getAsJsonObject("counters").get("astNodes").getAsLong());
+        assertEquals(1, units.get(0).getAsJsonObject().getAsJsonArray("stages").size());
+        assertEquals("Second.jmm", units.get(1).getAsJsonObject().get("unit").getAsString());
+        assertEquals(0, units.get(1).getAsJsonObject().getAsJsonArray("stages").size());
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing() {
+        CompilationMetrics.NONE.count("astNodes", 1);
+        CompilationMetrics.NONE.measureStage("parse", () -> null);
+
+        JsonObject json = CompilationMetrics.NONE.toJsonTree();
+        assertEquals(0, json.getAsJsonArray("stages").size());
+        assertEquals(0, json.getAsJsonObject("counters").size());
+    }
+
+    private static void assertMeasurement(JsonObject measurement) {
+        assertTrue(measurement.toString(), measurement.get("wallNanos").getAsLong() >= 0);
+
+        // -1 stands for a measurement the JVM cannot provide
+        assertTrue(measurement.toString(), measurement.get("cpuNanos").getAsLong() >= -1);
+        assertTrue(measurement.toString(), measurement.get("allocatedBytes").getAsLong() >= -1);
+    }
+}
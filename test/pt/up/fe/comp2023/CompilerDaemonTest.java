@@ -0,0 +1,123 @@
+package pt.up.fe.comp2023;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Starts a daemon and checks that it drops clients without its token before reading anything else, and serves the
+ * ones that send it.
+ */
+public class CompilerDaemonTest {
+
+    private static String userHome;
+    private static Path home;
+    private static int port;
+
+    @BeforeClass
+    public static void startDaemon() throws Exception {
+        // The token is written under the home of the user, which is kept out of the real one
+        userHome = System.getProperty("user.home");
+        home = Files.createTempDirectory("home");
+        System.setProperty("user.home", home.toString());
+
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+
+        Thread daemon = new Thread(() -> new CompilerDaemon(port).serve());
+        daemon.setDaemon(true);
+        daemon.start();
+
+        Path tokenFile = DaemonClient.getTokenFile(port);
+        for (int i = 0; i < 100 && !Files.exists(tokenFile); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue("The daemon did not write its token", Files.exists(tokenFile));
+    }
+
+    @AfterClass
+    public static void restoreHome() {
+        System.setProperty("user.home", userHome);
+        SpecsIo.deleteFolder(home.toFile());
+    }
+
+    @Test
+    public void clientsWithTheWrongTokenGetNoReply() throws IOException {
+        byte[] token = readToken();
+        token[0] ^= 1;
+
+        assertEquals(0, send(request(token)).length);
+    }
+
+    @Test
+    public void clientsWithAShortTokenGetNoReply() throws IOException {
+        byte[] token = readToken();
+
+        assertEquals(0, send(Arrays.copyOf(token, token.length / 2)).length);
+    }
+
+    @Test
+    public void clientsWithTheTokenAreServed() throws IOException {
+        // A client in another directory is turned away, but only once its token is accepted
+        var in = new DataInputStream(new ByteArrayInputStream(send(request(readToken()))));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte frame;
+        while ((frame = in.readByte()) == CompilerDaemon.OUTPUT) {
+            output.write(in.readNBytes(in.readInt()));
+        }
+
+        assertEquals(CompilerDaemon.EXIT, frame);
+        assertEquals(2, in.readInt());
+        assertTrue(output.toString(StandardCharsets.UTF_8).contains("start another one in " + home));
+    }
+
+    private static byte[] readToken() throws IOException {
+        return HexFormat.of().parseHex(Files.readString(DaemonClient.getTokenFile(port)).trim());
+    }
+
+    /**
+     * @return a request with no arguments from the home directory, which is not the one the daemon serves
+     */
+    private static byte[] request(byte[] token) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        var out = new DataOutputStream(request);
+        out.write(token);
+        out.writeUTF(home.toString());
+        out.writeInt(0);
+        return request.toByteArray();
+    }
+
+    /**
+     * @return the whole reply, which ends when the daemon closes the connection
+     */
+    private static byte[] send(byte[] request) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.getOutputStream().write(request);
+            socket.shutdownOutput();
+            return socket.getInputStream().readAllBytes();
+        } catch (SocketException e) {
+            // Closing a connection with the request still unread resets it, which is how a rejected client sees it
+            return new byte[0];
+        }
+    }
+}
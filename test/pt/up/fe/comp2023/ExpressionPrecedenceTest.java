@@ -0,0 +1,98 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Parses expressions and checks how their operators group, written as prefix trees such as "(&& (< i n) b)".
+ */
+public class ExpressionPrecedenceTest {
+
+    @Test
+    public void postfixOperatorsBindTighterThanBinaryOnes() {
+        assertTree("(&& (< i n) (< ([] a i) p))", "i < n && a[i] < p");
+        assertTree("(+ (.two o) 1)", "o.two() + 1");
+        assertTree("(* 2 (.length a))", "2 * a.length");
+        assertTree("(.two (.self o))", "o.self().two()");
+    }
+
+    @Test
+    public void lessThanBindsTighterThanAnd() {
+        assertTree("(&& b (< i n))", "b && i < n");
+        assertTree("(&& (&& (< i n) (< n p)) b)", "i < n && n < p && b");
+    }
+
+    @Test
+    public void arithmeticBindsTighterThanComparison() {
+        assertTree("(< (+ i (* n p)) (- p 1))", "i + n * p < p - 1");
+        assertTree("(- (- i n) p)", "i - n - p");
+    }
+
+    @Test
+    public void negationBindsTighterThanBinaryOperators() {
+        assertTree("(&& (! b) (< i n))", "!b && i < n");
+        assertTree("(! (&& b b))", "!(b && b)");
+    }
+
+    private static void assertTree(String expected, String expression) {
+        String code = "class P {\n"
+                + "    public P self() {\n"
+                + "        return this;\n"
+                + "    }\n"
+                + "    public int two() {\n"
+                + "        return 2;\n"
+                + "    }\n"
+                + "    public int f(int[] a, int i, int n, int p, boolean b, P o) {\n"
+                + "        boolean r;\n"
+                + "        r = " + expression + ";\n"
+                + "        return 0;\n"
+                + "    }\n"
+                + "    public static void main(String[] args) {\n"
+                + "    }\n"
+                + "}\n";
+
+        Map<String, String> config = new HashMap<>();
+        config.put("debug", "false");
+        JmmParserResult result = new SimpleParser().parse(code, config);
+        TestUtils.noErrors(result.getReports());
+
+        JmmNode method = result.getRootNode().getJmmChild(0).getJmmChild(2);
+        JmmNode assign = method.getChildren().stream()
+                .filter(child -> child.getKind().equals("AssignStmt"))
+                .findFirst()
+                .orElseThrow();
+        assertEquals("Tree of " + expression, expected, toPrefix(assign.getJmmChild(0)));
+    }
+
+    private static String toPrefix(JmmNode node) {
+        switch (node.getKind()) {
+            case "Parenthesis":
+                return toPrefix(node.getJmmChild(0));
+            case "BinaryOp":
+                return "(" + node.get("op") + " " + toPrefix(node.getJmmChild(0)) + " "
+                        + toPrefix(node.getJmmChild(1)) + ")";
+            case "Negation":
+                return "(! " + toPrefix(node.getJmmChild(0)) + ")";
+            case "ArrayAccessExpr":
+                return "([] " + toPrefix(node.getJmmChild(0)) + " "
+                        + toPrefix(node.getJmmChild(node.getNumChildren() - 1)) + ")";
+            case "ArrayLength":
+            case "MethodCallExpr":
+                StringJoiner call = new StringJoiner(" ", "(." + node.get("value") + " ", ")");
+                for (JmmNode child : node.getChildren()) {
+                    call.add(toPrefix(child));
+                }
+                return call.toString();
+            default:
+                return node.get("value");
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package pt.up.fe.comp2023.analysis;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp2023.SimpleParser;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the errors semantic analysis reports for the operands of binary operators, for the conditions of if and
+ * while and for call arguments, one statement at a time.
+ */
+public class BinaryOpAnalysisTest {
+
+    @Test
+    public void wellTypedOperandsAreAccepted() {
+        assertErrors("r = i < n && a[i] < p;");
+        assertErrors("x = a.length * 2 + this.two() - xs[0];");
+        assertErrors("r = !b && (i < n);");
+    }
+
+    @Test
+    public void operandsOfTheWrongTypeAreReported() {
+        assertErrors("r = 1 && b;", "operator '&&' cannot be applied to 'int' and 'boolean'");
+        assertErrors("x = b + 1;", "operator '+' cannot be applied to 'boolean' and 'int'");
+        assertErrors("r = i < b;", "operator '<' cannot be applied to 'int' and 'boolean'");
+        assertErrors("x = a * 2;", "operator '*' cannot be applied to 'int[]' and 'int'");
+
+        // Array fields are arrays too
+        assertErrors("x = xs + 1;", "operator '+' cannot be applied to 'int[]' and 'int'");
+    }
+
+    @Test
+    public void errorInsideAnOperandIsReportedOnce() {
+        assertErrors("x = (b + 1) * 2;", "operator '+' cannot be applied to 'boolean' and 'int'");
+    }
+
+    @Test
+    public void valuesOfImportedClassesAreAccepted() {
+        // The return type of a method of an imported class is not known, so it is taken to be what the operator needs
+        assertErrors("x = io.read() + 1;");
+        assertErrors("r = io.ready() && b;");
+    }
+
+    @Test
+    public void conditionsMustBeBoolean() {
+        assertErrors("if (i < n && b) { x = 1; } else { x = 2; }");
+        assertErrors("while (i + 1) { x = 1; }",
+                "Invalid condition type in WhileStmt statement: Expected boolean, but found int");
+        assertErrors("if (a[i]) { x = 1; } else { x = 2; }",
+                "Invalid condition type in IfStmt statement: Expected boolean, but found int");
+    }
+
+    @Test
+    public void argumentsAreTypedLikeOperands() {
+        assertErrors("x = this.twice(i + 1);");
+        assertErrors("x = this.twice(i < n);",
+                "Incompatible argument type for parameter 1 of method 'twice': expected 'int', found 'boolean'");
+    }
+
+    private static void assertErrors(String statement, String... expected) {
+        String code = "import io;\n"
+                + "class P {\n"
+                + "    int[] xs;\n"
+                + "    public int two() {\n"
+                + "        return 2;\n"
+                + "    }\n"
+                + "    public int twice(int v) {\n"
+                + "        return v * 2;\n"
+                + "    }\n"
+                + "    public int f(int[] a, int i, int n, int p, boolean b) {\n"
+                + "        boolean r;\n"
+                + "        int x;\n"
+                + "        " + statement + "\n"
+                + "        return 0;\n"
+                + "    }\n"
+                + "    public static void main(String[] args) {\n"
+                + "    }\n"
+                + "}\n";
+
+        Map<String, String> config = new HashMap<>();
+        config.put("debug", "false");
+
+        List<String> errors = new JmmAnalyser().semanticAnalysis(new SimpleParser().parse(code, config))
+                .getReports().stream()
+                .filter(report -> report.getType() == ReportType.ERROR)
+                .map(Report::getMessage)
+                .collect(Collectors.toList());
+        assertEquals("Errors of " + statement, List.of(expected), errors);
+    }
+}
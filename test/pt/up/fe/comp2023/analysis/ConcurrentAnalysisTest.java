@@ -0,0 +1,155 @@
+package pt.up.fe.comp2023.analysis;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp2023.SimpleParser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs semantic analysis on many units at the same time and checks that every unit gets the reports a sequential run
+ * gives it. The programs mix static and instance methods, and reuse local names with other types, so analysis state
+ * shared between units shows up as missing or extra reports.
+ */
+public class ConcurrentAnalysisTest {
+
+    private static final int UNITS = 400;
+    private static final int THREADS = 16;
+
+    private static final String[] PROGRAMS = {
+            // A field written from a static method is an error, from an instance method it is not
+            "class A {\n"
+                    + "    int f;\n"
+                    + "    public int set() {\n"
+                    + "        f = 1;\n"
+                    + "        return f;\n"
+                    + "    }\n"
+                    + "    public static void main(String[] args) {\n"
+                    + "        f = 2;\n"
+                    + "    }\n"
+                    + "}\n",
+            // The same name is an int in one method and a boolean in the other
+            "class B {\n"
+                    + "    public int first() {\n"
+                    + "        int x;\n"
+                    + "        x = 1;\n"
+                    + "        x = x + 1;\n"
+                    + "        return x;\n"
+                    + "    }\n"
+                    + "    public int second() {\n"
+                    + "        boolean x;\n"
+                    + "        x = true;\n"
+                    + "        x = x + 1;\n"
+                    + "        return 0;\n"
+                    + "    }\n"
+                    + "    public static void main(String[] args) {\n"
+                    + "    }\n"
+                    + "}\n",
+            // Parameters are only visible in the method that declares them
+            "class C {\n"
+                    + "    public int add(int a, int b) {\n"
+                    + "        return a + b;\n"
+                    + "    }\n"
+                    + "    public int twice(int n) {\n"
+                    + "        return a + n;\n"
+                    + "    }\n"
+                    + "    public static void main(String[] args) {\n"
+                    + "        C c;\n"
+                    + "        int r;\n"
+                    + "        c = new C();\n"
+                    + "        r = c.add(1, 2);\n"
+                    + "    }\n"
+                    + "}\n",
+            // No errors at all
+            "class D {\n"
+                    + "    int total;\n"
+                    + "    public int sum(int[] values, int n) {\n"
+                    + "        int i;\n"
+                    + "        int s;\n"
+                    + "        i = 0;\n"
+                    + "        s = 0;\n"
+                    + "        while (i < n) {\n"
+                    + "            s = s + values[i];\n"
+                    + "            i = i + 1;\n"
+                    + "        }\n"
+                    + "        total = s;\n"
+                    + "        return s;\n"
+                    + "    }\n"
+                    + "    public static void main(String[] args) {\n"
+                    + "        D d;\n"
+                    + "        d = new D();\n"
+                    + "    }\n"
+                    + "}\n",
+    };
+
+    @Test
+    public void concurrentReportsMatchSequential() throws Exception {
+        // Analysis annotates the tree it visits, so each run gets trees of its own
+        List<JmmParserResult> sequentialUnits = parseUnits();
+        List<JmmParserResult> concurrentUnits = parseUnits();
+
+        List<List<String>> expected = new ArrayList<>();
+        for (JmmParserResult unit : sequentialUnits) {
+            expected.add(analyse(unit));
+        }
+
+        // The programs with errors must report them, or the comparison proves nothing
+        for (int i = 0; i < PROGRAMS.length - 1; i++) {
+            assertFalse("Program " + i + " should report errors", expected.get(i).isEmpty());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            // Every task waits for the others to be submitted, so they all start at once
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (JmmParserResult unit : concurrentUnits) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return analyse(unit);
+                }));
+            }
+            start.countDown();
+
+            for (int i = 0; i < UNITS; i++) {
+                assertEquals("Reports of unit " + i, expected.get(i), results.get(i).get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static List<JmmParserResult> parseUnits() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+
+        SimpleParser parser = new SimpleParser();
+        List<JmmParserResult> units = new ArrayList<>();
+        for (int i = 0; i < UNITS; i++) {
+            units.add(parser.parse(PROGRAMS[i % PROGRAMS.length], config));
+        }
+        return units;
+    }
+
+    private static List<String> analyse(JmmParserResult unit) {
+        return new JmmAnalyser().semanticAnalysis(unit).getReports().stream()
+                .filter(report -> report.getType() == ReportType.ERROR)
+                .map(Report::toString)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,37 @@
+package pt.up.fe.comp2023.benchmark;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Param;
+import pt.up.fe.comp.TestUtils;
+
+/**
+ * Runs the body of every benchmark once on every program of the corpus, with the states set up as JMH sets them up,
+ * so a benchmark that cannot start fails the build instead of the next benchmark run.
+ */
+public class StageBenchmarkTest {
+
+    // The synthetic classes only differ in how many methods they have, so a small one is enough to start with
+    private static final String SYNTHETIC = "synthetic-1000";
+
+    @Test
+    public void everyBenchmarkRunsOnEveryProgram() throws NoSuchFieldException {
+        for (String program : StageBenchmark.class.getField("program").getAnnotation(Param.class).value()) {
+            StageBenchmark benchmark = new StageBenchmark();
+            benchmark.program = program.startsWith("synthetic-") ? SYNTHETIC : program;
+            benchmark.setUp();
+
+            StageBenchmark.Parsed parsed = new StageBenchmark.Parsed();
+            parsed.setUp(benchmark);
+            StageBenchmark.Analysed analysed = new StageBenchmark.Analysed();
+            analysed.setUp(parsed);
+            StageBenchmark.Generated generated = new StageBenchmark.Generated();
+            generated.setUp(analysed);
+
+            StageBenchmark.Lines lines = new StageBenchmark.Lines();
+            TestUtils.noErrors(benchmark.parse(lines).getReports());
+            TestUtils.noErrors(benchmark.analysis(parsed, lines).getReports());
+            benchmark.ollir(analysed, lines);
+            TestUtils.noErrors(benchmark.jasmin(generated, lines, new StageBenchmark.Instructions()).getReports());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package pt.up.fe.comp2023.jasmin;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.jasmin.classfile.ClassFileGenerator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Generates additions of constants to a variable, written directly or through a temporary, and checks that those whose
+ * constant fits the 16 bits of an iinc become one, and that both backends compute the same values with them.
+ */
+public class IncrementTest {
+
+    private static final Pattern IINC = Pattern.compile("\tiinc \\d+ (-?\\d+)\n");
+
+    private static final String OLLIR_CODE = "import io;\n"
+            + "Increments {\n"
+            + "    .construct Increments().V {\n"
+            + "        invokespecial(this, \"<init>\").V;\n"
+            + "    }\n"
+            + "    .method public static main(args.array.String).V {\n"
+            + "        i.i32 :=.i32 0.i32;\n"
+            + "        i.i32 :=.i32 i.i32 +.i32 1.i32;\n"
+            + "        i.i32 :=.i32 3.i32 +.i32 i.i32;\n"
+            + "        i.i32 :=.i32 i.i32 -.i32 5.i32;\n"
+            + "        i.i32 :=.i32 i.i32 +.i32 200.i32;\n"
+            + "        i.i32 :=.i32 i.i32 +.i32 32767.i32;\n"
+            + "        i.i32 :=.i32 i.i32 -.i32 32768.i32;\n"
+            + "        i.i32 :=.i32 i.i32 +.i32 32768.i32;\n"
+            + "        i.i32 :=.i32 5.i32 -.i32 i.i32;\n"
+            + "        t.i32 :=.i32 i.i32 +.i32 2.i32;\n"
+            + "        i.i32 :=.i32 t.i32;\n"
+            + "        u.i32 :=.i32 i.i32 -.i32 3.i32;\n"
+            + "        i.i32 :=.i32 u.i32;\n"
+            + "        invokestatic(io, \"println\", i.i32).V;\n"
+            + "        invokestatic(io, \"println\", u.i32).V;\n"
+            + "        ret.V;\n"
+            + "    }\n"
+            + "}\n";
+
+    // 0, 1, 4, -1, 199, 32966, 198, 32966, -32961, -32959 and -32962
+    private static final String EXPECTED = "-32962\n-32962";
+
+    @Test
+    public void constantsThatFitSixteenBitsBecomeIincs() {
+        String jasminCode = new JasminGenerator().toJasmin(newResult()).getJasminCode();
+
+        // 32768 does not fit, and "5 - i" does not add to i
+        List<Integer> increments = new ArrayList<>();
+        Matcher matcher = IINC.matcher(jasminCode);
+        while (matcher.find()) {
+            increments.add(Integer.parseInt(matcher.group(1)));
+        }
+        assertEquals("Increments in\n" + jasminCode, List.of(1, 3, -5, 200, 32767, -32768, 2, -3), increments);
+        assertTrue("Expected 32768 to be pushed in\n" + jasminCode, jasminCode.contains("\tldc 32768\n"));
+    }
+
+    @Test
+    public void incrementsComputeTheSameValuesOnBothBackends() {
+        assertEquals(EXPECTED, run(new JasminGenerator().toJasmin(newResult()).run()));
+        assertEquals(EXPECTED, run(new ClassFileGenerator().toJasmin(newResult()).run()));
+    }
+
+    private static OllirResult newResult() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+
+        return new OllirResult(OLLIR_CODE, config);
+    }
+
+    private static String run(String output) {
+        return output.replace("\r\n", "\n").trim();
+    }
+}
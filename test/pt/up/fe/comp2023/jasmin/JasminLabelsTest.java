@@ -0,0 +1,46 @@
+package pt.up.fe.comp2023.jasmin;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.jasmin.classfile.ClassFileGenerator;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compiles a program whose negated value follows an if, so the labels the backend adds for the negation would take
+ * the name of the if's own labels if they shared their names with the labels of the OLLIR.
+ */
+public class JasminLabelsTest {
+
+    private static final String EXPECTED = "10\n21";
+
+    @Test
+    public void backendLabelsDoNotClashWithOllirLabels() {
+        assertOutput("false");
+        assertOutput("true");
+    }
+
+    private static void assertOutput(String optimize) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", optimize);
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+
+        OllirResult result = TestUtils.optimize(
+                SpecsIo.getResource("pt/up/fe/comp2023/jasmin/NegatedAfterIf.jmm"), config);
+        TestUtils.noErrors(result.getReports());
+
+        assertEquals("Output with optimize=" + optimize, EXPECTED, run(new JasminGenerator().toJasmin(result).run()));
+        assertEquals("Output of the class file with optimize=" + optimize, EXPECTED,
+                run(new ClassFileGenerator().toJasmin(result).run()));
+    }
+
+    private static String run(String output) {
+        return output.replace("\r\n", "\n").trim();
+    }
+}
@@ -0,0 +1,73 @@
+package pt.up.fe.comp2023.jasmin;
+
+import org.junit.Test;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Generates calls whose signatures differ in the order, classes or imports of their types, and checks that each gets
+ * its own descriptor from the descriptors the backend keeps by signature.
+ */
+public class MethodDescriptorTest {
+
+    @Test
+    public void signaturesThatDifferGetTheirOwnDescriptors() {
+        String jasminCode = generate(new JasminGenerator(), "import a.b.Other;\n");
+
+        assertCall(jasminCode, "invokestatic Calls/f(IZ)I");
+        assertCall(jasminCode, "invokestatic Calls/f(ZI)I");
+        assertCall(jasminCode, "invokestatic Calls/g([I)V");
+        assertCall(jasminCode, "invokestatic Calls/g([Ljava/lang/String;)V");
+        assertCall(jasminCode, "invokestatic Calls/g(LCalls;)V");
+        assertCall(jasminCode, "invokestatic Calls/g(La/b/Other;)V");
+        assertCall(jasminCode, "invokestatic Calls/h()La/b/Other;");
+    }
+
+    @Test
+    public void descriptorsFollowTheImportsOfEachClass() {
+        JasminGenerator generator = new JasminGenerator();
+        generate(generator, "import a.b.Other;\n");
+
+        // The same signature names another class once the imports change
+        String jasminCode = generate(generator, "import c.Other;\n");
+        assertCall(jasminCode, "invokestatic Calls/g(Lc/Other;)V");
+        assertCall(jasminCode, "invokestatic Calls/h()Lc/Other;");
+    }
+
+    private static String generate(JasminGenerator generator, String imports) {
+        String ollirCode = imports
+                + "Calls {\n"
+                + "    .construct Calls().V {\n"
+                + "        invokespecial(this, \"<init>\").V;\n"
+                + "    }\n"
+                + "    .method public static main(args.array.String).V {\n"
+                + "        a.array.i32 :=.array.i32 new(array, 1.i32).array.i32;\n"
+                + "        c.Calls :=.Calls new(Calls).Calls;\n"
+                + "        invokespecial(c.Calls, \"<init>\").V;\n"
+                + "        o.Other :=.Other invokestatic(Calls, \"h\").Other;\n"
+                + "        x.i32 :=.i32 invokestatic(Calls, \"f\", 1.i32, 1.bool).i32;\n"
+                + "        y.i32 :=.i32 invokestatic(Calls, \"f\", 1.bool, 1.i32).i32;\n"
+                + "        invokestatic(Calls, \"g\", a.array.i32).V;\n"
+                + "        invokestatic(Calls, \"g\", $0.args.array.String).V;\n"
+                + "        invokestatic(Calls, \"g\", c.Calls).V;\n"
+                + "        invokestatic(Calls, \"g\", o.Other).V;\n"
+                + "        ret.V;\n"
+                + "    }\n"
+                + "}\n";
+
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+
+        return generator.toJasmin(new OllirResult(ollirCode, config)).getJasminCode();
+    }
+
+    private static void assertCall(String jasminCode, String call) {
+        assertTrue("Expected '" + call + "' in\n" + jasminCode, jasminCode.contains("\t" + call + "\n"));
+    }
+}
@@ -0,0 +1,112 @@
+package pt.up.fe.comp2023.jasmin.classfile;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.jasmin.JasminGenerator;
+import pt.up.fe.comp2023.ollir.JmmOptimizer;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Loads the classes the class file backend encodes for the OLLIR fixtures through a class loader of their own, so the
+ * JVM verifies them as it links them, and checks that their main prints what the Jasmin backend's class prints.
+ */
+public class ClassFileGeneratorTest {
+
+    private static final String FIXTURES = "pt/up/fe/comp2023/optimization/ollir/";
+
+    // The classes of the libraries the fixtures import, such as io
+    private static final File LIBRARIES = new File("libs-jmm/compiled");
+
+    @Test
+    public void fixturesVerifyAndPrintWhatJasminPrints() throws Exception {
+        for (String fixture : List.of("ArrayReuse", "DeadStores", "InlinedLabels", "ReducedUpdates")) {
+            assertSameOutput(fixture, false, -1);
+            assertSameOutput(fixture, true, -1);
+
+            // Sharing locals changes the types the stack map frames give them
+            assertSameOutput(fixture, true, 0);
+        }
+    }
+
+    private static void assertSameOutput(String fixture, boolean optimize, int registers) throws Exception {
+        String name = fixture + " with optimize=" + optimize + " and registerAllocation=" + registers;
+
+        var result = (ClassFileResult) new ClassFileGenerator().toJasmin(parse(fixture, optimize, registers));
+        TestUtils.noErrors(result.getReports());
+
+        // Each backend runs on a class parsed again, since the optimizations change the parsed class
+        String expected = new JasminGenerator().toJasmin(parse(fixture, optimize, registers)).run()
+                .replace("\r\n", "\n").trim();
+        assertFalse("Jasmin output of " + name + " is empty", expected.isEmpty());
+        assertEquals("Output of " + name, expected, runMain(result).trim());
+    }
+
+    private static OllirResult parse(String fixture, boolean optimize, int registers) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", String.valueOf(optimize));
+        config.put("registerAllocation", String.valueOf(registers));
+        config.put("debug", "false");
+
+        OllirResult result = new OllirResult(SpecsIo.getResource(FIXTURES + fixture + ".ollir"), config);
+        return new JmmOptimizer().optimize(result);
+    }
+
+    private static String runMain(ClassFileResult result) throws ReflectiveOperationException, IOException {
+        PrintStream out = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try (GeneratedClassLoader loader = new GeneratedClassLoader(result)) {
+            // Initializing the class links it, which verifies its methods before main can run
+            Class<?> generated = Class.forName(result.getClassName(), true, loader);
+
+            // The fixtures do not declare their classes public, so their main is only reachable by reflection
+            Method main = generated.getMethod("main", String[].class);
+            main.setAccessible(true);
+
+            System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+            main.invoke(null, (Object) new String[0]);
+        } catch (InvocationTargetException e) {
+            throw new AssertionError("main of " + result.getClassName() + " threw", e.getCause());
+        } finally {
+            System.setOut(out);
+        }
+
+        return output.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+    }
+
+    private static class GeneratedClassLoader extends URLClassLoader {
+        private final ClassFileResult result;
+
+        GeneratedClassLoader(ClassFileResult result) throws MalformedURLException {
+            super(new URL[]{LIBRARIES.toURI().toURL()}, ClassFileGeneratorTest.class.getClassLoader());
+            this.result = result;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (name.equals(result.getClassName())) {
+                byte[] classFile = result.getClassFile();
+                return defineClass(name, classFile, 0, classFile.length);
+            }
+            return super.findClass(name);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package pt.up.fe.comp2023.jasmin.peephole;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs each peephole rule on its own over short method bodies, written one instruction per line, and checks the code
+ * it leaves and how many times it fired.
+ */
+public class PeepholeRulesTest {
+
+    @Test
+    public void gotoNextRemovesJumpsToTheFollowingLabels() {
+        assertRewrite(new GotoNextRule(), 1,
+                "goto L\nM:\nL:\niload_1",
+                "M:\nL:\niload_1");
+        assertRewrite(new GotoNextRule(), 0,
+                "goto L\niconst_1\nL:\niload_1",
+                "goto L\niconst_1\nL:\niload_1");
+    }
+
+    @Test
+    public void storeLoadKeepsTheStoredValueOnTheStack() {
+        assertRewrite(new StoreLoadRule(), 1,
+                "istore_2\niload_2",
+                "dup\nistore_2");
+        assertRewrite(new StoreLoadRule(), 1,
+                "astore 5\naload 5",
+                "dup\nastore 5");
+
+        // Other registers, other kinds of value and loads that are jumped to are left alone
+        assertRewrite(new StoreLoadRule(), 0,
+                "istore_2\niload_3\nistore_1\naload_1\nistore_1\nL:\niload_1",
+                "istore_2\niload_3\nistore_1\naload_1\nistore_1\nL:\niload_1");
+    }
+
+    @Test
+    public void compareBranchComparesWithoutSubtracting() {
+        assertRewrite(new CompareBranchRule(), 2,
+                "isub\niflt L\nisub\nifne L",
+                "if_icmplt L\nif_icmpne L");
+        assertRewrite(new CompareBranchRule(), 0,
+                "isub\nifnull L\nisub\nistore_1",
+                "isub\nifnull L\nisub\nistore_1");
+    }
+
+    @Test
+    public void booleanBranchBranchesOnTheConditionItself() {
+        String materialized = "if_icmplt T\niconst_0\ngoto E\nT:\niconst_1\nE:\n";
+
+        assertRewrite(new BooleanBranchRule(), 1, materialized + "ifne L", "if_icmplt L");
+        assertRewrite(new BooleanBranchRule(), 1, materialized + "ifeq L", "if_icmpge L");
+
+        // The condition pushes 0 when it holds, so testing for 1 jumps when it does not
+        assertRewrite(new BooleanBranchRule(), 1,
+                "ifeq T\niconst_1\ngoto E\nT:\niconst_0\nE:\nifne L",
+                "ifne L");
+
+        // A label another branch jumps to has to stay
+        assertRewrite(new BooleanBranchRule(), 0,
+                "goto T\n" + materialized + "ifne L",
+                "goto T\n" + materialized + "ifne L");
+        assertRewrite(new BooleanBranchRule(), 0,
+                materialized + "istore_1",
+                materialized + "istore_1");
+    }
+
+    @Test
+    public void shiftMultipliesAndDividesByPowersOfTwo() {
+        assertRewrite(new ShiftRule(), 1,
+                "iload_1\nbipush 8\nimul",
+                "iload_1\niconst_3\nishl");
+        assertRewrite(new ShiftRule(), 1,
+                "bipush 16\niload_1\nimul",
+                "iload_1\niconst_4\nishl");
+
+        // Negative dividends are raised by the divisor minus one first, so the shift rounds towards zero
+        assertRewrite(new ShiftRule(), 1,
+                "iload_1\niconst_2\nidiv",
+                "iload_1\ndup\nbipush 31\niushr\niadd\niconst_1\nishr");
+        assertRewrite(new ShiftRule(), 1,
+                "iload_1\nbipush 8\nidiv",
+                "iload_1\ndup\nbipush 31\nishr\nbipush 29\niushr\niadd\niconst_3\nishr");
+
+        assertRewrite(new ShiftRule(), 0,
+                "iload_1\niconst_3\nimul\niload_1\niconst_1\nimul\niload_1\nbipush 8\niadd",
+                "iload_1\niconst_3\nimul\niload_1\niconst_1\nimul\niload_1\nbipush 8\niadd");
+    }
+
+    @Test
+    public void shiftedDivisionsRoundTowardsZero() {
+        // The instructions of the rule, worked out in Java
+        for (int shift = 1; shift < 31; shift++) {
+            for (int dividend : new int[]{-100, -9, -8, -7, -1, 0, 1, 7, 8, 9, 100, Integer.MIN_VALUE,
+                    Integer.MAX_VALUE}) {
+                int raised = shift == 1 ? dividend + (dividend >>> 31) : dividend + (dividend >> 31 >>> (32 - shift));
+                assertEquals(dividend + " / 2^" + shift, dividend / (1 << shift), raised >> shift);
+            }
+        }
+    }
+
+    private static void assertRewrite(PeepholeRule rule, int fired, String before, String after) {
+        var optimizer = new PeepholeOptimizer(List.of(rule));
+        String optimized = optimizer.optimize(before);
+
+        assertEquals("Code of " + rule.getName(), JasminLine.render(JasminLine.parse(after)), optimized);
+        assertEquals("Times " + rule.getName() + " fired", fired, (int) optimizer.getStatistics().get(rule.getName()));
+    }
+}
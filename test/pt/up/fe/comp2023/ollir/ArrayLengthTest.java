@@ -0,0 +1,90 @@
+package pt.up.fe.comp2023.ollir;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp2023.jasmin.JasminGenerator;
+import pt.up.fe.comp2023.jasmin.classfile.ClassFileGenerator;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that "a.length" is analysed as the int length of an array and lowered to arraylength, on locals, parameters
+ * and fields, and that it is reported on anything that is not an array.
+ */
+public class ArrayLengthTest {
+
+    private static final String EXPECTED = "4\n7\n5";
+
+    @Test
+    public void lengthIsLoweredToArraylength() {
+        OllirResult result = generate("false");
+
+        String code = result.getOllirCode();
+        assertTrue("Expected arraylength in\n" + code, code.contains("arraylength(a.array.i32).i32"));
+        assertTrue("Expected arraylength of the parameter in\n" + code,
+                code.contains("arraylength($1.a.array.i32).i32"));
+
+        assertOutput(result, "false");
+        assertOutput(generate("true"), "true");
+    }
+
+    @Test
+    public void lengthOfNonArraysIsReported() {
+        assertErrors("x = a.length - i;");
+        assertErrors("x = b.length;", "array required, but boolean found");
+        assertErrors("x = a.size;", "cannot find symbol 'size'");
+    }
+
+    private static OllirResult generate(String optimize) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", optimize);
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+
+        OllirResult result = TestUtils.optimize(SpecsIo.getResource("pt/up/fe/comp2023/ollir/ArrayLength.jmm"), config);
+        TestUtils.noErrors(result.getReports());
+        return result;
+    }
+
+    private static void assertOutput(OllirResult result, String optimize) {
+        assertEquals("Output with optimize=" + optimize, EXPECTED, run(new JasminGenerator().toJasmin(result).run()));
+        assertEquals("Output of the class file with optimize=" + optimize, EXPECTED,
+                run(new ClassFileGenerator().toJasmin(result).run()));
+    }
+
+    private static void assertErrors(String statement, String... expected) {
+        String code = "class P {\n"
+                + "    public int f(int[] a, int i, boolean b) {\n"
+                + "        boolean r;\n"
+                + "        int x;\n"
+                + "        " + statement + "\n"
+                + "        return 0;\n"
+                + "    }\n"
+                + "    public static void main(String[] args) {\n"
+                + "    }\n"
+                + "}\n";
+
+        Map<String, String> config = new HashMap<>();
+        config.put("debug", "false");
+
+        List<String> errors = TestUtils.analyse(code, config).getReports().stream()
+                .filter(report -> report.getType() == ReportType.ERROR)
+                .map(Report::getMessage)
+                .collect(Collectors.toList());
+        assertEquals("Errors of " + statement, List.of(expected), errors);
+    }
+
+    private static String run(String output) {
+        return output.replace("\r\n", "\n").trim();
+    }
+}
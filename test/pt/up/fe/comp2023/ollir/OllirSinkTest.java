@@ -0,0 +1,53 @@
+package pt.up.fe.comp2023.ollir;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Generates the OLLIR of a class into a sink and checks that it is written a method at a time and adds up to the code
+ * generated in memory.
+ */
+public class OllirSinkTest {
+
+    @Test
+    public void sinkReceivesOneMethodAtATime() {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+
+        JmmSemanticsResult semanticsResult = TestUtils.analyse(
+                SpecsIo.getResource("pt/up/fe/comp2023/ollir/ShortCircuit.jmm"), config);
+        TestUtils.noErrors(semanticsResult.getReports());
+
+        List<String> writes = new ArrayList<>();
+        StringWriter sink = new StringWriter() {
+            @Override
+            public StringWriter append(CharSequence csq) {
+                writes.add(csq.toString());
+                return super.append(csq);
+            }
+        };
+        new JmmOptimizer().toOllir(semanticsResult, sink);
+
+        assertEquals(new JmmOptimizer().toOllir(semanticsResult).getOllirCode(), sink.toString());
+
+        // The header with the constructor, each method and the closing brace
+        int methods = semanticsResult.getSymbolTable().getMethods().size();
+        assertEquals(methods + 2, writes.size());
+        for (String write : writes) {
+            assertTrue("More than one method in a write:\n" + write, write.split("\\.method ", -1).length <= 2);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package pt.up.fe.comp2023.ollir;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.jasmin.JasminGenerator;
+import pt.up.fe.comp2023.jasmin.classfile.ClassFileGenerator;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Compiles a program whose right operands of && fail or count their calls when they run, and checks that they only
+ * run when the left operand holds, both in conditions and in values, with and without optimizations.
+ */
+public class ShortCircuitTest {
+
+    private static final String EXPECTED = "3\n0\n0\n1";
+
+    @Test
+    public void rightOperandOnlyRunsWhenLeftHolds() {
+        assertOutput("false");
+        assertOutput("true");
+    }
+
+    @Test
+    public void conditionsBranchWithoutBuildingBooleans() {
+        OllirResult result = generate("false");
+
+        // Each operand of the loop guard is a branch of its own, so no && is left for the backend to evaluate
+        String code = result.getOllirCode();
+        assertFalse("Unexpected && in\n" + code, code.contains("&&"));
+    }
+
+    private static void assertOutput(String optimize) {
+        OllirResult result = generate(optimize);
+
+        assertEquals("Output with optimize=" + optimize, EXPECTED, run(new JasminGenerator().toJasmin(result).run()));
+        assertEquals("Output of the class file with optimize=" + optimize, EXPECTED,
+                run(new ClassFileGenerator().toJasmin(result).run()));
+    }
+
+    private static OllirResult generate(String optimize) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", optimize);
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+
+        OllirResult result = TestUtils.optimize(SpecsIo.getResource("pt/up/fe/comp2023/ollir/ShortCircuit.jmm"), config);
+        TestUtils.noErrors(result.getReports());
+        return result;
+    }
+
+    private static String run(String output) {
+        return output.replace("\r\n", "\n").trim();
+    }
+}
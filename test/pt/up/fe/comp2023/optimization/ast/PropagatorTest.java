@@ -0,0 +1,159 @@
+package pt.up.fe.comp2023.optimization.ast;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp2023.ollir.JmmOptimizer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Propagates and folds the constants of a method body with -o and checks the statements left, written one per line
+ * with their expressions as prefix trees such as "y = (+ x 1)".
+ */
+public class PropagatorTest {
+
+    @Test
+    public void constantsAreFoldedIntoTheStatementsAfterThem() {
+        assertBody("x = 2;\ny = x * 3 + 1;\nreturn y;",
+                "x = 2", "y = 7", "return 7");
+    }
+
+    @Test
+    public void valuesBothBranchesAgreeOnSurviveTheIf() {
+        assertBody("x = 1;\nif (b) { y = 2; } else { x = 1; y = 2; }\nreturn x + y;",
+                "x = 1", "if b {y = 2} else {x = 1; y = 2}", "return 3");
+        assertBody("if (b) { x = 1; } else { x = 2; }\nreturn x;",
+                "if b {x = 1} else {x = 2}", "return x");
+
+        // The branches start from the values known before the if, whatever the other branch assigns
+        assertBody("x = 1;\nif (b) { x = 2; } else { y = x; }\nreturn y;",
+                "x = 1", "if b {x = 2} else {y = 1}", "return y");
+    }
+
+    @Test
+    public void constantConditionsKeepTheBranchTaken() {
+        assertBody("x = 1;\nif (x < 2) { y = 5; } else { y = 6; }\nreturn y;",
+                "x = 1", "{y = 5}", "return 5");
+    }
+
+    @Test
+    public void variablesAssignedInALoopAreNotPropagatedIntoIt() {
+        assertBody("x = 0;\nwhile (x < n) { x = x + 1; }\nreturn x;",
+                "x = 0", "while (< x n) {x = (+ x 1)}", "return x");
+
+        // A variable the loop only reads keeps its value inside and after the loop
+        assertBody("x = 3;\ny = 0;\nwhile (y < n) { y = y + x; }\nreturn x;",
+                "x = 3", "y = 0", "while (< y n) {y = (+ y 3)}", "return 3");
+
+        // Giving a variable back the value it already has does not change it
+        assertBody("x = 3;\nwhile (b) { x = 3; }\nreturn x;",
+                "x = 3", "while b {x = 3}", "return 3");
+    }
+
+    @Test
+    public void loopsThatNeverRunAreRemoved() {
+        // The values known before the loop are known after it again
+        assertBody("x = 2;\ny = 1;\nwhile (x < 1) { y = 5; }\nreturn y;",
+                "x = 2", "y = 1", "return 1");
+    }
+
+    @Test
+    public void foldsThatCannotBeWrittenAsLiteralsAreKept() {
+        // Integer literals cannot be negative, and a division by zero has to throw when the program runs
+        assertBody("x = 1 - 2;\ny = 4 / 0;\nreturn x;",
+                "x = (- 1 2)", "y = (/ 4 0)", "return x");
+    }
+
+    @Test
+    public void fieldsAreNotPropagated() {
+        assertBody("k = 1;\ny = this.two();\nreturn k;",
+                "k = 1", "y = (.two this)", "return k");
+    }
+
+    private static void assertBody(String body, String... expected) {
+        String code = "class P {\n"
+                + "    int k;\n"
+                + "    public int two() {\n"
+                + "        return 2;\n"
+                + "    }\n"
+                + "    public int f(int n, boolean b) {\n"
+                + "        int x;\n"
+                + "        int y;\n"
+                + "        " + body.replace("\n", "\n        ") + "\n"
+                + "    }\n"
+                + "    public static void main(String[] args) {\n"
+                + "    }\n"
+                + "}\n";
+
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "true");
+        config.put("debug", "false");
+
+        JmmSemanticsResult result = TestUtils.analyse(code, config);
+        TestUtils.noErrors(result.getReports());
+        new JmmOptimizer().optimize(result);
+
+        JmmNode method = result.getRootNode().getJmmChild(0).getChildren().stream()
+                .filter(child -> child.getKind().equals("MethodStmt"))
+                .filter(child -> child.getJmmChild(0).get("value").equals("f"))
+                .findFirst()
+                .orElseThrow();
+
+        StringJoiner statements = new StringJoiner("\n");
+        for (JmmNode child : method.getChildren()) {
+            if (!child.getKind().equals("VarStmt") && !child.getKind().equals("MethodSignature")
+                    && !child.getKind().equals("Parameter")) {
+                statements.add(toStatement(child));
+            }
+        }
+        assertEquals("Body of\n" + body, String.join("\n", expected), statements.toString());
+    }
+
+    private static String toStatement(JmmNode node) {
+        switch (node.getKind()) {
+            case "Block":
+                StringJoiner block = new StringJoiner("; ", "{", "}");
+                for (JmmNode child : node.getChildren()) {
+                    block.add(toStatement(child));
+                }
+                return block.toString();
+            case "IfStmt":
+                return "if " + toExpression(node.getJmmChild(0)) + " " + toStatement(node.getJmmChild(1)) + " else "
+                        + toStatement(node.getJmmChild(2));
+            case "WhileStmt":
+                return "while " + toExpression(node.getJmmChild(0)) + " " + toStatement(node.getJmmChild(1));
+            case "AssignStmt":
+                return node.get("value") + " = " + toExpression(node.getJmmChild(0));
+            case "ReturnStmt":
+                return "return " + toExpression(node.getJmmChild(0));
+            default:
+                return toExpression(node.getJmmChild(0));
+        }
+    }
+
+    private static String toExpression(JmmNode node) {
+        switch (node.getKind()) {
+            case "Parenthesis":
+                return toExpression(node.getJmmChild(0));
+            case "BinaryOp":
+                return "(" + node.get("op") + " " + toExpression(node.getJmmChild(0)) + " "
+                        + toExpression(node.getJmmChild(1)) + ")";
+            case "Negation":
+                return "(! " + toExpression(node.getJmmChild(0)) + ")";
+            case "MethodCallExpr":
+                StringJoiner call = new StringJoiner(" ", "(." + node.get("value") + " ", ")");
+                for (JmmNode child : node.getChildren()) {
+                    call.add(toExpression(child));
+                }
+                return call.toString();
+            default:
+                return node.get("value");
+        }
+    }
+}
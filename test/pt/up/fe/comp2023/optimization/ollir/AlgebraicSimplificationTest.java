@@ -0,0 +1,104 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.junit.Test;
+import org.specs.comp.ollir.Method;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the algebraic simplification on its own over single methods, and checks which operations become copies.
+ */
+public class AlgebraicSimplificationTest {
+
+    @Test
+    public void identitiesOfIntegersAreCopies() {
+        assertSimplified(""
+                        + "        r.i32 :=.i32 $1.a.i32 +.i32 0.i32;\n"
+                        + "        r.i32 :=.i32 0.i32 +.i32 $1.a.i32;\n"
+                        + "        r.i32 :=.i32 $1.a.i32 -.i32 0.i32;\n"
+                        + "        r.i32 :=.i32 $1.a.i32 -.i32 $1.a.i32;\n"
+                        + "        r.i32 :=.i32 $1.a.i32 *.i32 1.i32;\n"
+                        + "        r.i32 :=.i32 1.i32 *.i32 $1.a.i32;\n"
+                        + "        r.i32 :=.i32 $1.a.i32 *.i32 0.i32;\n"
+                        + "        r.i32 :=.i32 $1.a.i32 /.i32 1.i32;\n",
+                8,
+                "r := a\n"
+                        + "r := a\n"
+                        + "r := a\n"
+                        + "r := 0\n"
+                        + "r := a\n"
+                        + "r := a\n"
+                        + "r := 0\n"
+                        + "r := a");
+    }
+
+    @Test
+    public void operationsWithoutAnIdentityAreKept() {
+        // Reading an array element may throw, so it is never dropped
+        assertSimplified(""
+                        + "        r.i32 :=.i32 $1.a.i32 /.i32 0.i32;\n"
+                        + "        r.i32 :=.i32 0.i32 -.i32 $1.a.i32;\n"
+                        + "        r.i32 :=.i32 $1.a.i32 +.i32 1.i32;\n"
+                        + "        r.i32 :=.i32 $3.c[$1.a.i32].i32 *.i32 0.i32;\n",
+                0,
+                "r := a / 0\n"
+                        + "r := 0 - a\n"
+                        + "r := a + 1\n"
+                        + "r := c[a] * 0");
+    }
+
+    @Test
+    public void identitiesOfBooleansAreCopies() {
+        assertSimplified(""
+                        + "        p.bool :=.bool $2.b.bool &&.bool 1.bool;\n"
+                        + "        p.bool :=.bool 1.bool &&.bool $2.b.bool;\n"
+                        + "        p.bool :=.bool 0.bool &&.bool $2.b.bool;\n",
+                3,
+                "p := b\n"
+                        + "p := b\n"
+                        + "p := 0");
+    }
+
+    @Test
+    public void doubleNegationsRightAfterEachOtherAreCopies() {
+        assertSimplified(""
+                        + "        n.bool :=.bool !.bool $2.b.bool;\n"
+                        + "        m.bool :=.bool !.bool n.bool;\n",
+                1,
+                "n := !b\n"
+                        + "m := b");
+
+        // A jump to the outer negation may come from where the inner one did not run
+        assertSimplified(""
+                        + "        n.bool :=.bool !.bool $2.b.bool;\n"
+                        + "        Outer:\n"
+                        + "        m.bool :=.bool !.bool n.bool;\n"
+                        + "        if (m.bool) goto Outer;\n",
+                0,
+                "n := !b\n"
+                        + "Outer: m := !n\n"
+                        + "if (m) goto Outer");
+
+        // The inner negation overwrites the value it negates
+        assertSimplified(""
+                        + "        n.bool :=.bool !.bool n.bool;\n"
+                        + "        m.bool :=.bool !.bool n.bool;\n",
+                0,
+                "n := !n\n"
+                        + "m := !n");
+    }
+
+    /**
+     * @param body the instructions of a method that returns nothing, without the return
+     */
+    private static void assertSimplified(String body, int simplified, String expected) {
+        Method method = OllirListing.getMethod(OllirListing.parse(""
+                + "    .method public static f(a.i32, b.bool, c.array.i32).V {\n"
+                + body
+                + "        ret.V;\n"
+                + "    }\n"), "f");
+
+        assertEquals("Operations simplified", simplified, new AlgebraicSimplification(method).run());
+        assertEquals(expected + "\nret", OllirListing.of(method));
+    }
+}
@@ -0,0 +1,115 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.junit.Test;
+import org.specs.comp.ollir.Method;
+
+import static org.junit.Assert.assertEquals;
+import static pt.up.fe.comp2023.optimization.ollir.OptimizedOutput.assertOutput;
+
+/**
+ * Checks that reused array reads see the stores and calls between them, and runs the pass on its own over single
+ * methods to check which expressions become copies.
+ */
+public class CommonSubexpressionEliminationTest {
+
+    @Test
+    public void arrayReadsAreReadAgainAfterStoresAndCalls() {
+        // Reads follow stores through the same array, through a copy of it and inside called methods
+        assertOutput("ArrayReuse", "10", "10", "20", "0", "7", "0", "9", "0", "5", "4", "6");
+    }
+
+    @Test
+    public void valuesComputedBeforeAreCopied() {
+        // The operands of commutative operations may come in any order, and copies stand for what they copy
+        assertEliminated(""
+                        + "        x.i32 :=.i32 $1.a.i32 +.i32 $2.b.i32;\n"
+                        + "        y.i32 :=.i32 $2.b.i32 +.i32 $1.a.i32;\n"
+                        + "        k.i32 :=.i32 $1.a.i32;\n"
+                        + "        z.i32 :=.i32 k.i32 +.i32 $2.b.i32;\n"
+                        + "        w.i32 :=.i32 $1.a.i32 -.i32 $2.b.i32;\n"
+                        + "        v.i32 :=.i32 $2.b.i32 -.i32 $1.a.i32;\n"
+                        + "        ret.i32 v.i32;\n",
+                2,
+                "x := a + b\n"
+                        + "y := x\n"
+                        + "k := a\n"
+                        + "z := x\n"
+                        + "w := a - b\n"
+                        + "v := b - a\n"
+                        + "ret v");
+    }
+
+    @Test
+    public void valuesAreForgottenWhenTheirVariablesAreWritten() {
+        assertEliminated(""
+                        + "        k.i32 :=.i32 $1.a.i32;\n"
+                        + "        x.i32 :=.i32 k.i32 +.i32 $2.b.i32;\n"
+                        + "        k.i32 :=.i32 5.i32;\n"
+                        + "        y.i32 :=.i32 k.i32 +.i32 $2.b.i32;\n"
+                        + "        t.i32 :=.i32 $1.a.i32 *.i32 $2.b.i32;\n"
+                        + "        t.i32 :=.i32 0.i32;\n"
+                        + "        u.i32 :=.i32 $1.a.i32 *.i32 $2.b.i32;\n"
+                        + "        ret.i32 u.i32;\n",
+                0,
+                "k := a\n"
+                        + "x := k + b\n"
+                        + "k := 5\n"
+                        + "y := k + b\n"
+                        + "t := a * b\n"
+                        + "t := 0\n"
+                        + "u := a * b\n"
+                        + "ret u");
+    }
+
+    @Test
+    public void valuesAreNotReusedAcrossBlocks() {
+        assertEliminated(""
+                        + "        x.i32 :=.i32 $1.a.i32 +.i32 $2.b.i32;\n"
+                        + "        Next:\n"
+                        + "        y.i32 :=.i32 $1.a.i32 +.i32 $2.b.i32;\n"
+                        + "        z.i32 :=.i32 $2.b.i32 +.i32 $1.a.i32;\n"
+                        + "        ret.i32 z.i32;\n",
+                1,
+                "x := a + b\n"
+                        + "Next: y := a + b\n"
+                        + "z := y\n"
+                        + "ret z");
+    }
+
+    @Test
+    public void arrayElementsAreReadAgainAfterStoresAndCalls() {
+        // The length of an array never changes, so it is kept across stores
+        assertEliminated(""
+                        + "        x.i32 :=.i32 $3.c[$4.i.i32].i32;\n"
+                        + "        y.i32 :=.i32 $3.c[$4.i.i32].i32;\n"
+                        + "        l.i32 :=.i32 arraylength($3.c.array.i32).i32;\n"
+                        + "        $3.c[0.i32].i32 :=.i32 1.i32;\n"
+                        + "        z.i32 :=.i32 $3.c[$4.i.i32].i32;\n"
+                        + "        w.i32 :=.i32 $3.c[$4.i.i32].i32;\n"
+                        + "        m.i32 :=.i32 arraylength($3.c.array.i32).i32;\n"
+                        + "        invokestatic(io, \"println\", w.i32).V;\n"
+                        + "        u.i32 :=.i32 $3.c[$4.i.i32].i32;\n"
+                        + "        ret.i32 u.i32;\n",
+                3,
+                "x := c[i]\n"
+                        + "y := x\n"
+                        + "l := arraylength(c)\n"
+                        + "c[0] := 1\n"
+                        + "z := c[i]\n"
+                        + "w := z\n"
+                        + "m := l\n"
+                        + "invokestatic(io, println, w)\n"
+                        + "u := c[i]\n"
+                        + "ret u");
+    }
+
+    private static void assertEliminated(String body, int replaced, String expected) {
+        Method method = OllirListing.getMethod(OllirListing.parse(""
+                + "    .method public static f(a.i32, b.i32, c.array.i32, i.i32).i32 {\n"
+                + body
+                + "    }\n"), "f");
+
+        assertEquals("Expressions replaced", replaced, new CommonSubexpressionElimination(method).run());
+        assertEquals(expected, OllirListing.of(method));
+    }
+}
@@ -0,0 +1,98 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.junit.Test;
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.jmm.report.Report;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static pt.up.fe.comp2023.optimization.ollir.OptimizedOutput.assertOutput;
+import static pt.up.fe.comp2023.optimization.ollir.OptimizedOutput.assertReported;
+
+/**
+ * Checks that dead stores are removed without changing what the program prints, and runs the pass on its own over
+ * single methods to check what it removes.
+ */
+public class DeadCodeEliminationTest {
+
+    @Test
+    public void deadStoreChainsAreRemovedWhole() {
+        // Both chains start at a label, and "prev" is only read in the iteration after the one that writes it
+        List<Report> reports = assertOutput("DeadStores", "28", "12");
+
+        assertReported(reports, "Method 'main': folded 0 constant branches, removed 0 unreachable instructions and 6 "
+                + "dead stores");
+    }
+
+    @Test
+    public void constantBranchesAreFoldedAndWhatTheySkipIsRemoved() {
+        assertEliminated(""
+                        + "        if (1.i32 <.bool 2.i32) goto Then;\n"
+                        + "        x.i32 :=.i32 1.i32;\n"
+                        + "        ret.i32 x.i32;\n"
+                        + "        Then:\n"
+                        + "        if (0.bool) goto Other;\n"
+                        + "        ret.i32 $1.a.i32;\n"
+                        + "        Other:\n"
+                        + "        ret.i32 $2.b.i32;\n",
+                2, 3, 0,
+                "goto Then\n"
+                        + "Then: ret a");
+    }
+
+    @Test
+    public void onlyStoresWithoutEffectsAreRemoved() {
+        // Calls, array reads and divisions by anything but a non-zero constant may print or throw
+        assertEliminated(""
+                        + "        x.i32 :=.i32 $1.a.i32 +.i32 1.i32;\n"
+                        + "        y.i32 :=.i32 x.i32 *.i32 2.i32;\n"
+                        + "        h.i32 :=.i32 $1.a.i32 /.i32 2.i32;\n"
+                        + "        d.i32 :=.i32 $1.a.i32 /.i32 $2.b.i32;\n"
+                        + "        z.i32 :=.i32 $1.a.i32 /.i32 0.i32;\n"
+                        + "        e.i32 :=.i32 $3.c[$1.a.i32].i32;\n"
+                        + "        r.i32 :=.i32 invokestatic(io, \"read\").i32;\n"
+                        + "        ret.i32 $2.b.i32;\n",
+                0, 0, 3,
+                "d := a / b\n"
+                        + "z := a / 0\n"
+                        + "e := c[a]\n"
+                        + "r := invokestatic(io, read)\n"
+                        + "ret b");
+    }
+
+    @Test
+    public void labelsOfRemovedStoresMoveToTheNextInstruction() {
+        assertEliminated(""
+                        + "        i.i32 :=.i32 0.i32;\n"
+                        + "        Loop:\n"
+                        + "        t.i32 :=.i32 i.i32 *.i32 3.i32;\n"
+                        + "        if (i.i32 >=.bool $1.a.i32) goto End;\n"
+                        + "        i.i32 :=.i32 i.i32 +.i32 1.i32;\n"
+                        + "        goto Loop;\n"
+                        + "        End:\n"
+                        + "        ret.i32 i.i32;\n",
+                0, 0, 1,
+                "i := 0\n"
+                        + "Loop: if (i >= a) goto End\n"
+                        + "i := i + 1\n"
+                        + "goto Loop\n"
+                        + "End: ret i");
+    }
+
+    private static void assertEliminated(String body, int constantBranches, int unreachable, int deadStores,
+                                         String expected) {
+        Method method = OllirListing.getMethod(OllirListing.parse(""
+                + "    .method public static f(a.i32, b.i32, c.array.i32).i32 {\n"
+                + body
+                + "    }\n"), "f");
+
+        var elimination = new DeadCodeElimination(method);
+        assertEquals("Whether anything was removed", constantBranches + unreachable + deadStores > 0,
+                elimination.run());
+        assertEquals("Constant branches", constantBranches, elimination.getConstantBranches());
+        assertEquals("Unreachable instructions", unreachable, elimination.getUnreachable());
+        assertEquals("Dead stores", deadStores, elimination.getDeadStores());
+        assertEquals(expected, OllirListing.of(method));
+    }
+}
@@ -0,0 +1,117 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.junit.Test;
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.jmm.report.Report;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static pt.up.fe.comp2023.optimization.ollir.OptimizedOutput.assertOutput;
+import static pt.up.fe.comp2023.optimization.ollir.OptimizedOutput.assertReported;
+
+/**
+ * Checks that multiplications reduced to additions are updated wherever the loop reaches them, and runs the pass on
+ * its own over single loops to check what it reduces.
+ */
+public class InductionVariableReductionTest {
+
+    @Test
+    public void reducedUpdatesRunWhenTheUpdateIsJumpedTo() {
+        // The first update is a jump target inside the loop, the second is the loop header and uses a variable factor
+        List<Report> reports = assertOutput("ReducedUpdates", "185", "-450");
+
+        assertReported(reports, "reduced 2 multiplications by induction variables");
+    }
+
+    @Test
+    public void multiplicationsByAConstantBecomeAdditions() {
+        // Both multiplications share the variable that replaces them
+        assertReduced(2, ""
+                        + "        t.i32 :=.i32 i.i32 *.i32 4.i32;\n"
+                        + "        u.i32 :=.i32 4.i32 *.i32 i.i32;\n"
+                        + "        s.i32 :=.i32 s.i32 +.i32 t.i32;\n"
+                        + "        s.i32 :=.i32 s.i32 +.i32 u.i32;\n"
+                        + "        i.i32 :=.i32 i.i32 -.i32 1.i32;\n",
+                "i_x4 := i * 4\n"
+                        + "Loop: if (i >= n) goto End\n"
+                        + "t := i_x4\n"
+                        + "u := i_x4\n"
+                        + "s := s + t\n"
+                        + "s := s + u\n"
+                        + "i := i - 1\n"
+                        + "i_x4 := i_x4 + -4\n");
+    }
+
+    @Test
+    public void variableFactorsHaveTheirStepComputedBeforeTheLoop() {
+        assertReduced(1, ""
+                        + "        t.i32 :=.i32 i.i32 *.i32 $2.k.i32;\n"
+                        + "        s.i32 :=.i32 s.i32 +.i32 t.i32;\n"
+                        + "        i.i32 :=.i32 i.i32 +.i32 2.i32;\n",
+                "i_xk := i * k\n"
+                        + "i_xk_step := k * 2\n"
+                        + "Loop: if (i >= n) goto End\n"
+                        + "t := i_xk\n"
+                        + "s := s + t\n"
+                        + "i := i + 2\n"
+                        + "i_xk := i_xk + i_xk_step\n");
+
+        // A step of 1 adds the factor itself, and the new variable does not take the name of one already there
+        assertReduced(1, ""
+                        + "        i_xk.i32 :=.i32 $2.k.i32;\n"
+                        + "        t.i32 :=.i32 $2.k.i32 *.i32 i.i32;\n"
+                        + "        s.i32 :=.i32 s.i32 +.i32 t.i32;\n"
+                        + "        i.i32 :=.i32 i.i32 +.i32 1.i32;\n",
+                "i_xk_1 := i * k\n"
+                        + "Loop: if (i >= n) goto End\n"
+                        + "i_xk := k\n"
+                        + "t := i_xk_1\n"
+                        + "s := s + t\n"
+                        + "i := i + 1\n"
+                        + "i_xk_1 := i_xk_1 + k\n");
+    }
+
+    @Test
+    public void multiplicationsThatChangeOtherwiseAreKept() {
+        // The factor is written in the loop, by 1 is left to the algebraic simplification, and s is written twice
+        String loop = ""
+                + "        t.i32 :=.i32 i.i32 *.i32 $2.k.i32;\n"
+                + "        $2.k.i32 :=.i32 $2.k.i32 +.i32 1.i32;\n"
+                + "        u.i32 :=.i32 i.i32 *.i32 1.i32;\n"
+                + "        v.i32 :=.i32 s.i32 *.i32 2.i32;\n"
+                + "        s.i32 :=.i32 s.i32 +.i32 1.i32;\n"
+                + "        s.i32 :=.i32 s.i32 +.i32 v.i32;\n"
+                + "        i.i32 :=.i32 i.i32 +.i32 1.i32;\n";
+        assertReduced(0, loop, "Loop: if (i >= n) goto End\n"
+                + "t := i * k\n"
+                + "k := k + 1\n"
+                + "u := i * 1\n"
+                + "v := s * 2\n"
+                + "s := s + 1\n"
+                + "s := s + v\n"
+                + "i := i + 1\n");
+    }
+
+    /**
+     * @param loop the body of a loop of a method that starts with "i := 0; s := 0", exits to End once i >= n and
+     *             returns s
+     * @param expected the instructions from the end of the preheader to the jump back to the header
+     */
+    private static void assertReduced(int reduced, String loop, String expected) {
+        Method method = OllirListing.getMethod(OllirListing.parse(""
+                + "    .method public static f(n.i32, k.i32).i32 {\n"
+                + "        i.i32 :=.i32 0.i32;\n"
+                + "        s.i32 :=.i32 0.i32;\n"
+                + "        Loop:\n"
+                + "        if (i.i32 >=.bool $1.n.i32) goto End;\n"
+                + loop
+                + "        goto Loop;\n"
+                + "        End:\n"
+                + "        ret.i32 s.i32;\n"
+                + "    }\n"), "f");
+
+        assertEquals("Multiplications reduced", reduced, new InductionVariableReduction(method).run());
+        assertEquals("i := 0\ns := 0\n" + expected + "goto Loop\nEnd: ret s", OllirListing.of(method));
+    }
+}
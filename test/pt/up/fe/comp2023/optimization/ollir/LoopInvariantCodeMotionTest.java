@@ -0,0 +1,132 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.junit.Test;
+import org.specs.comp.ollir.Method;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs loop-invariant code motion on its own over single loops, and checks which assignments it moves before them.
+ */
+public class LoopInvariantCodeMotionTest {
+
+    @Test
+    public void invariantsAndWhatDependsOnThemAreHoisted() {
+        assertHoisted(2, ""
+                        + "        Loop:\n"
+                        + "        if (i.i32 >=.bool $3.n.i32) goto End;\n"
+                        + "        t.i32 :=.i32 $1.a.i32 +.i32 $2.b.i32;\n"
+                        + "        u.i32 :=.i32 t.i32 *.i32 2.i32;\n"
+                        + "        s.i32 :=.i32 s.i32 +.i32 u.i32;\n"
+                        + "        i.i32 :=.i32 i.i32 +.i32 1.i32;\n"
+                        + "        goto Loop;\n",
+                "i := 0\n"
+                        + "s := 0\n"
+                        + "t := a + b\n"
+                        + "u := t * 2\n"
+                        + "Loop: if (i >= n) goto End\n"
+                        + "s := s + u\n"
+                        + "i := i + 1\n"
+                        + "goto Loop\n"
+                        + "End: ret s");
+    }
+
+    @Test
+    public void loopsEnteredByAJumpAreLeftAlone() {
+        // The header is also jumped to from before the loop, so there is no single place to move the code to
+        assertHoisted(0, ""
+                        + "        if ($1.a.i32 <.bool 0.i32) goto Loop;\n"
+                        + "        s.i32 :=.i32 1.i32;\n"
+                        + "        Loop:\n"
+                        + "        if (i.i32 >=.bool $3.n.i32) goto End;\n"
+                        + "        t.i32 :=.i32 $1.a.i32 +.i32 $2.b.i32;\n"
+                        + "        s.i32 :=.i32 s.i32 +.i32 t.i32;\n"
+                        + "        i.i32 :=.i32 i.i32 +.i32 1.i32;\n"
+                        + "        goto Loop;\n",
+                "i := 0\n"
+                        + "s := 0\n"
+                        + "if (a < 0) goto Loop\n"
+                        + "s := 1\n"
+                        + "Loop: if (i >= n) goto End\n"
+                        + "t := a + b\n"
+                        + "s := s + t\n"
+                        + "i := i + 1\n"
+                        + "goto Loop\n"
+                        + "End: ret s");
+    }
+
+    @Test
+    public void divisionsThatMayThrowOnlyLeaveTheStartOfTheLoop() {
+        // The division only runs once the loop is known to run, and b may be 0, so it stays
+        assertHoisted(1, ""
+                        + "        Loop:\n"
+                        + "        if (i.i32 >=.bool $3.n.i32) goto End;\n"
+                        + "        t.i32 :=.i32 $1.a.i32 /.i32 $2.b.i32;\n"
+                        + "        h.i32 :=.i32 $1.a.i32 /.i32 2.i32;\n"
+                        + "        s.i32 :=.i32 s.i32 +.i32 t.i32;\n"
+                        + "        s.i32 :=.i32 s.i32 +.i32 h.i32;\n"
+                        + "        i.i32 :=.i32 i.i32 +.i32 1.i32;\n"
+                        + "        goto Loop;\n",
+                "i := 0\n"
+                        + "s := 0\n"
+                        + "h := a / 2\n"
+                        + "Loop: if (i >= n) goto End\n"
+                        + "t := a / b\n"
+                        + "s := s + t\n"
+                        + "s := s + h\n"
+                        + "i := i + 1\n"
+                        + "goto Loop\n"
+                        + "End: ret s");
+
+        // At the start of the loop it runs whenever the loop is reached, so it may go before it
+        assertHoisted(1, ""
+                        + "        Loop:\n"
+                        + "        t.i32 :=.i32 $1.a.i32 /.i32 $2.b.i32;\n"
+                        + "        if (i.i32 >=.bool $3.n.i32) goto End;\n"
+                        + "        s.i32 :=.i32 s.i32 +.i32 t.i32;\n"
+                        + "        i.i32 :=.i32 i.i32 +.i32 1.i32;\n"
+                        + "        goto Loop;\n",
+                "i := 0\n"
+                        + "s := 0\n"
+                        + "t := a / b\n"
+                        + "Loop: if (i >= n) goto End\n"
+                        + "s := s + t\n"
+                        + "i := i + 1\n"
+                        + "goto Loop\n"
+                        + "End: ret s");
+    }
+
+    @Test
+    public void variablesReadAfterTheLoopStay() {
+        assertHoisted(0, ""
+                        + "        Loop:\n"
+                        + "        if (i.i32 >=.bool $3.n.i32) goto End;\n"
+                        + "        s.i32 :=.i32 $1.a.i32 +.i32 $2.b.i32;\n"
+                        + "        i.i32 :=.i32 i.i32 +.i32 1.i32;\n"
+                        + "        goto Loop;\n",
+                "i := 0\n"
+                        + "s := 0\n"
+                        + "Loop: if (i >= n) goto End\n"
+                        + "s := a + b\n"
+                        + "i := i + 1\n"
+                        + "goto Loop\n"
+                        + "End: ret s");
+    }
+
+    /**
+     * @param loop the loop of a method that starts with "i := 0; s := 0" and returns s once the loop jumps to End
+     */
+    private static void assertHoisted(int hoisted, String loop, String expected) {
+        Method method = OllirListing.getMethod(OllirListing.parse(""
+                + "    .method public static f(a.i32, b.i32, n.i32).i32 {\n"
+                + "        i.i32 :=.i32 0.i32;\n"
+                + "        s.i32 :=.i32 0.i32;\n"
+                + loop
+                + "        End:\n"
+                + "        ret.i32 s.i32;\n"
+                + "    }\n"), "f");
+
+        assertEquals("Assignments moved", hoisted, new LoopInvariantCodeMotion(method).run());
+        assertEquals(expected, OllirListing.of(method));
+    }
+}
@@ -0,0 +1,114 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.junit.Test;
+import org.specs.comp.ollir.ClassUnit;
+import pt.up.fe.comp.jmm.report.Report;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.up.fe.comp2023.optimization.ollir.OptimizedOutput.assertOutput;
+import static pt.up.fe.comp2023.optimization.ollir.OptimizedOutput.assertReported;
+
+/**
+ * Checks that inlined calls keep the labels of the caller and of the callee apart, and runs the inliner on its own over
+ * small classes to check the code it copies and the calls it keeps.
+ */
+public class MethodInlinerTest {
+
+    @Test
+    public void inlinedCallsKeepTheirLabels() {
+        // Both calls are jumped to by a loop, and the callees have labels of their own, one on a last "ret.V"
+        List<Report> reports = assertOutput("InlinedLabels", "30");
+
+        assertReported(reports, "Inlined call to clamp in run");
+        assertReported(reports, "Inlined call to bump in run");
+    }
+
+    @Test
+    public void callsBecomeRenamedCopiesOfTheBody() {
+        ClassUnit classUnit = OllirListing.parse(""
+                + "    .method public twice(v.i32).i32 {\n"
+                + "        t.i32 :=.i32 $1.v.i32 *.i32 2.i32;\n"
+                + "        ret.i32 t.i32;\n"
+                + "    }\n"
+                + "    .method public f(a.i32).i32 {\n"
+                + "        x.i32 :=.i32 invokevirtual(this, \"twice\", $1.a.i32).i32;\n"
+                + "        ret.i32 x.i32;\n"
+                + "    }\n");
+
+        var inliner = new MethodInliner(classUnit, MethodInliner.DEFAULT_BUDGET);
+        assertEquals(1, inliner.run());
+        assertEquals(List.of("Inlined call to twice in f: 2 instructions"), inliner.getDecisions());
+        assertEquals("inl0_v := a\n"
+                        + "inl0_t := inl0_v * 2\n"
+                        + "x := inl0_t\n"
+                        + "inl0_end: ret x",
+                OllirListing.of(OllirListing.getMethod(classUnit, "f")));
+    }
+
+    @Test
+    public void returnsBeforeTheLastOneJumpToTheEnd() {
+        ClassUnit classUnit = OllirListing.parse(""
+                + "    .method public clamp(v.i32).i32 {\n"
+                + "        if ($1.v.i32 <.bool 10.i32) goto Small;\n"
+                + "        ret.i32 10.i32;\n"
+                + "        Small:\n"
+                + "        ret.i32 $1.v.i32;\n"
+                + "    }\n"
+                + "    .method public f(a.i32).i32 {\n"
+                + "        x.i32 :=.i32 invokevirtual(this, \"clamp\", $1.a.i32).i32;\n"
+                + "        ret.i32 x.i32;\n"
+                + "    }\n");
+
+        assertEquals(1, new MethodInliner(classUnit, MethodInliner.DEFAULT_BUDGET).run());
+        assertEquals("inl0_v := a\n"
+                        + "if (inl0_v < 10) goto inl0_Small\n"
+                        + "x := 10\n"
+                        + "goto inl0_end\n"
+                        + "inl0_Small: x := inl0_v\n"
+                        + "inl0_end: ret x",
+                OllirListing.of(OllirListing.getMethod(classUnit, "f")));
+    }
+
+    @Test
+    public void callsThatCannotBeCopiedAreKept() {
+        ClassUnit classUnit = OllirListing.parse(""
+                + "    .method public rec(n.i32).i32 {\n"
+                + "        r.i32 :=.i32 invokevirtual(this, \"rec\", $1.n.i32).i32;\n"
+                + "        ret.i32 r.i32;\n"
+                + "    }\n"
+                + "    .method public static stat(n.i32).i32 {\n"
+                + "        ret.i32 $1.n.i32;\n"
+                + "    }\n"
+                + "    .method public big(n.i32).i32 {\n"
+                + "        r.i32 :=.i32 $1.n.i32 +.i32 1.i32;\n"
+                + "        r.i32 :=.i32 r.i32 +.i32 1.i32;\n"
+                + "        ret.i32 r.i32;\n"
+                + "    }\n"
+                + "    .method public g(a.i32).i32 {\n"
+                + "        x.i32 :=.i32 invokevirtual(this, \"rec\", $1.a.i32).i32;\n"
+                + "        y.i32 :=.i32 invokevirtual(this, \"stat\", $1.a.i32).i32;\n"
+                + "        z.i32 :=.i32 invokevirtual(this, \"big\", $1.a.i32).i32;\n"
+                + "        w.i32 :=.i32 invokevirtual(this, \"missing\", $1.a.i32).i32;\n"
+                + "        v.i32 :=.i32 invokevirtual(this, \"big\").i32;\n"
+                + "        ret.i32 x.i32;\n"
+                + "    }\n");
+
+        var inliner = new MethodInliner(classUnit, 2);
+        assertEquals(0, inliner.run());
+
+        List<String> decisions = inliner.getDecisions();
+        assertDecision(decisions, "Kept call to rec in rec: recursive");
+        assertDecision(decisions, "Kept call to rec in g: calls methods of the class itself");
+        assertDecision(decisions, "Kept call to stat in g: static");
+        assertDecision(decisions, "Kept call to big in g: 3 instructions, over the budget of 2");
+        assertDecision(decisions, "Kept call to missing in g: not defined in the class");
+        assertDecision(decisions, "Kept call to big in g: wrong number of arguments");
+    }
+
+    private static void assertDecision(List<String> decisions, String decision) {
+        assertTrue("Expected '" + decision + "' in " + decisions, decisions.contains(decision));
+    }
+}
@@ -0,0 +1,136 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Parses methods for the tests of a single OLLIR pass, and lists their instructions one per line in a short form, as
+ * in "Loop: t := a + b", "if (i >= n) goto End" or "ret s", for the tests to compare before and after the pass.
+ */
+class OllirListing {
+
+    private static final Map<OperationType, String> OPERATORS = Map.ofEntries(
+            Map.entry(OperationType.ADD, "+"), Map.entry(OperationType.SUB, "-"),
+            Map.entry(OperationType.MUL, "*"), Map.entry(OperationType.DIV, "/"),
+            Map.entry(OperationType.LTH, "<"), Map.entry(OperationType.GTE, ">="),
+            Map.entry(OperationType.ANDB, "&&"), Map.entry(OperationType.NOTB, "!"));
+
+    /**
+     * @param methods the OLLIR of the methods, which are put in a class "P" that imports "io"
+     * @return the parsed class
+     */
+    static ClassUnit parse(String methods) {
+        String code = "import io;\n"
+                + "P {\n"
+                + "    .construct P().V {\n"
+                + "        invokespecial(this, \"<init>\").V;\n"
+                + "    }\n"
+                + methods
+                + "}\n";
+
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+
+        OllirResult result = new OllirResult(code, config);
+        TestUtils.noErrors(result.getReports());
+        return result.getOllirClass();
+    }
+
+    static Method getMethod(ClassUnit classUnit, String name) {
+        return classUnit.getMethods().stream()
+                .filter(method -> name.equals(method.getMethodName()))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    static String of(Method method) {
+        Map<Instruction, List<String>> labels = new IdentityHashMap<>();
+        for (var label : method.getLabels().entrySet()) {
+            labels.computeIfAbsent(label.getValue(), instruction -> new ArrayList<>()).add(label.getKey());
+        }
+
+        StringJoiner listing = new StringJoiner("\n");
+        for (Instruction instruction : method.getInstructions()) {
+            StringBuilder line = new StringBuilder();
+            for (String label : labels.getOrDefault(instruction, List.of()).stream().sorted().toList()) {
+                line.append(label).append(": ");
+            }
+            listing.add(line.append(toString(instruction)));
+        }
+        return listing.toString();
+    }
+
+    private static String toString(Instruction instruction) {
+        switch (instruction.getInstType()) {
+            case ASSIGN:
+                AssignInstruction assign = (AssignInstruction) instruction;
+                return toString(assign.getDest()) + " := " + toString(assign.getRhs());
+            case NOPER:
+                return toString(((SingleOpInstruction) instruction).getSingleOperand());
+            case BINARYOPER:
+                BinaryOpInstruction binaryOp = (BinaryOpInstruction) instruction;
+                return toString(binaryOp.getLeftOperand()) + " " + toString(binaryOp.getOperation()) + " "
+                        + toString(binaryOp.getRightOperand());
+            case UNARYOPER:
+                UnaryOpInstruction unaryOp = (UnaryOpInstruction) instruction;
+                return toString(unaryOp.getOperation()) + toString(unaryOp.getOperand());
+            case BRANCH:
+                CondBranchInstruction branch = (CondBranchInstruction) instruction;
+                return "if (" + toString(branch.getCondition()) + ") goto " + branch.getLabel();
+            case GOTO:
+                return "goto " + ((GotoInstruction) instruction).getLabel();
+            case RETURN:
+                ReturnInstruction ret = (ReturnInstruction) instruction;
+                return ret.hasReturnValue() ? "ret " + toString(ret.getOperand()) : "ret";
+            case GETFIELD:
+                return "getfield(" + toString(((GetFieldInstruction) instruction).getSecondOperand()) + ")";
+            case PUTFIELD:
+                PutFieldInstruction putField = (PutFieldInstruction) instruction;
+                return "putfield(" + toString(putField.getSecondOperand()) + ", " + toString(putField.getThirdOperand())
+                        + ")";
+            case CALL:
+                CallInstruction call = (CallInstruction) instruction;
+                StringJoiner arguments = new StringJoiner(", ", call.getInvocationType() + "(", ")");
+                arguments.add(toString(call.getFirstArg()));
+                if (call.getSecondArg() != null) {
+                    arguments.add(toString(call.getSecondArg()));
+                }
+                if (call.getListOfOperands() != null) {
+                    for (Element operand : call.getListOfOperands()) {
+                        arguments.add(toString(operand));
+                    }
+                }
+                return arguments.toString();
+            default:
+                return instruction.getInstType().toString();
+        }
+    }
+
+    private static String toString(Operation operation) {
+        return OPERATORS.getOrDefault(operation.getOpType(), operation.getOpType().toString());
+    }
+
+    private static String toString(Element element) {
+        if (element.isLiteral()) {
+            return ((LiteralElement) element).getLiteral().replace("\"", "");
+        }
+        if (element instanceof ArrayOperand) {
+            StringJoiner indexes = new StringJoiner("][", ((ArrayOperand) element).getName() + "[", "]");
+            for (Element index : ((ArrayOperand) element).getIndexOperands()) {
+                indexes.add(toString(index));
+            }
+            return indexes.toString();
+        }
+        return ((Operand) element).getName();
+    }
+}
@@ -0,0 +1,72 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.jasmin.JasminBackend;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2023.jasmin.JasminGenerator;
+import pt.up.fe.comp2023.jasmin.classfile.ClassFileGenerator;
+import pt.up.fe.comp2023.ollir.JmmOptimizer;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs OLLIR programs written around the cases the OLLIR optimizations get wrong most easily, without optimizations,
+ * with -o and with -o -r=0, on the Jasmin and on the class file backend, and checks that every run prints what the
+ * program is expected to print.
+ */
+class OptimizedOutput {
+
+    private static final String FIXTURES = "pt/up/fe/comp2023/optimization/ollir/";
+
+    private static final Map<String, Supplier<JasminBackend>> BACKENDS = Map.of(
+            "jasmin", JasminGenerator::new,
+            "classfile", ClassFileGenerator::new);
+
+    /**
+     * @return the reports of the runs with -o, so a pass that stops firing on its fixture does not go unnoticed
+     */
+    static List<Report> assertOutput(String fixture, String... expectedLines) {
+        String code = SpecsIo.getResource(FIXTURES + fixture + ".ollir");
+        String expected = String.join("\n", expectedLines);
+
+        List<Report> reports = new ArrayList<>();
+        for (var backend : BACKENDS.entrySet()) {
+            String name = fixture + " on " + backend.getKey();
+
+            assertEquals("Output of " + name, expected, run(code, false, -1, backend.getValue(), new ArrayList<>()));
+            assertEquals("Output of " + name + " with -o", expected, run(code, true, -1, backend.getValue(), reports));
+            assertEquals("Output of " + name + " with -o -r=0", expected,
+                    run(code, true, 0, backend.getValue(), new ArrayList<>()));
+        }
+        return reports;
+    }
+
+    static void assertReported(List<Report> reports, String message) {
+        assertTrue("Expected a report with '" + message + "' in " + reports,
+                reports.stream().anyMatch(report -> report.getMessage().contains(message)));
+    }
+
+    private static String run(String code, boolean optimize, int registers, Supplier<JasminBackend> backend,
+                              List<Report> reports) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", String.valueOf(optimize));
+        config.put("registerAllocation", String.valueOf(registers));
+        config.put("debug", "false");
+
+        // The optimizations change the parsed class, so every run parses the fixture again
+        OllirResult result = new JmmOptimizer().optimize(new OllirResult(code, config));
+        TestUtils.noErrors(result.getReports());
+        reports.addAll(result.getReports());
+
+        return backend.get().toJasmin(result).run().replace("\r\n", "\n").trim();
+    }
+}
@@ -0,0 +1,67 @@
+package pt.up.fe.comp2023.optimization.ollir;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.jasmin.JasminGenerator;
+import pt.up.fe.comp2023.jasmin.classfile.ClassFileGenerator;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.up.fe.comp2023.optimization.ollir.OptimizedOutput.assertReported;
+
+/**
+ * Compiles programs with -r and checks what the allocated locals leave the program printing.
+ */
+public class RegisterAllocatorTest {
+
+    private static final String FIXTURES = "pt/up/fe/comp2023/optimization/ollir/";
+
+    @Test
+    public void thisStaysInLocalZeroWhenCopied() {
+        assertOutput("ThisCopy", "false", "6");
+        assertOutput("ThisCopy", "true", "6");
+    }
+
+    @Test
+    public void parametersKeepTheirLocalsWhenUnused() {
+        // this, a and b take locals 0 to 2 whether or not a is read
+        OllirResult result = compile("UnusedParameter", "false", 2);
+        assertEquals(1, TestUtils.getNumErrors(result.getReports()));
+        assertReported(result.getReports(), "Method 'f' needs at least 3 registers, but only 2 are allowed");
+
+        String jasminCode = new JasminGenerator().toJasmin(compile("UnusedParameter", "false", 0)).getJasminCode();
+        assertTrue("Expected f to use 3 locals in\n" + jasminCode,
+                jasminCode.contains(".method public f(II)I\n\t.limit stack 1\n\t.limit locals 3\n\tiload_2\n"));
+
+        assertOutput("UnusedParameter", "false", "2");
+        assertOutput("UnusedParameter", "true", "2");
+    }
+
+    private static void assertOutput(String fixture, String optimize, String expected) {
+        OllirResult result = compile(fixture, optimize, 0);
+        TestUtils.noErrors(result.getReports());
+
+        String name = fixture + " with optimize=" + optimize + " and -r=0";
+        assertEquals("Output of " + name, expected, run(new JasminGenerator().toJasmin(result).run()));
+        assertEquals("Output of the class file of " + name, expected,
+                run(new ClassFileGenerator().toJasmin(result).run()));
+    }
+
+    private static OllirResult compile(String fixture, String optimize, int registers) {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", optimize);
+        config.put("registerAllocation", String.valueOf(registers));
+        config.put("debug", "false");
+
+        return TestUtils.optimize(SpecsIo.getResource(FIXTURES + fixture + ".jmm"), config);
+    }
+
+    private static String run(String output) {
+        return output.replace("\r\n", "\n").trim();
+    }
+}